@@ -0,0 +1,194 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+
+/**
+ * RecvThroughHandler consuming the packets received out of the network threads, the reading of the
+ * network channel being suspended (auto-read) while too many packets wait to be consumed, such that a
+ * slow consumer pushes back on the sender without buffering the whole file.<br>
+ * <br>
+ * Note that all the requests sharing the same network channel are suspended together.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public abstract class AsyncRecvThroughHandler extends RecvThroughHandler {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(AsyncRecvThroughHandler.class);
+
+    /**
+     * Maximum number of packets waiting to be consumed before the reading is suspended
+     */
+    private final int maxPending;
+    private final ConcurrentLinkedQueue<ByteBuf> queue = new ConcurrentLinkedQueue<ByteBuf>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicBoolean suspended = new AtomicBoolean(false);
+    private volatile OpenR66ProtocolBusinessException error = null;
+    private final Runnable consumer = new Runnable() {
+        public void run() {
+            consumeAll();
+        }
+    };
+
+    /**
+     * @param maxPending
+     *            maximum number of packets waiting to be consumed before the reading is suspended, the
+     *            reading resuming once half of them are consumed
+     */
+    public AsyncRecvThroughHandler(int maxPending) {
+        this.maxPending = Math.max(maxPending, 2);
+    }
+
+    /**
+     * This method will be called, out of the network threads, for each valid packet received to be
+     * written, in order
+     * 
+     * @param buffer
+     *            released once this method returns
+     * @exception OpenR66ProtocolBusinessException
+     *                This exception has to be throw if any error occurs during write in business
+     *                process.
+     */
+    abstract public void consume(ByteBuf buffer)
+            throws OpenR66ProtocolBusinessException;
+
+    @Override
+    public final void writeByteBuf(ByteBuf buffer) throws OpenR66ProtocolBusinessException {
+        if (error != null) {
+            throw error;
+        }
+        // the packet is cleared once this method returns
+        queue.add(buffer.retain());
+        if (pending.incrementAndGet() >= maxPending && suspended.compareAndSet(false, true)) {
+            setAutoRead(false);
+        }
+        if (running.compareAndSet(false, true)) {
+            try {
+                Configuration.configuration.getRecvThroughExecutorService().execute(consumer);
+            } catch (RejectedExecutionException e) {
+                // stopping
+                error = new OpenR66ProtocolBusinessException("Consumer stopped", e);
+                running.set(false);
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Wait for all the packets received to be consumed, at most the connection timeout after the last
+     * packet consumed
+     */
+    @Override
+    public void endOfData() throws OpenR66ProtocolBusinessException {
+        long timeout = Configuration.configuration.getTIMEOUTCON();
+        synchronized (this) {
+            int last = pending.get();
+            long limit = System.currentTimeMillis() + timeout;
+            while (last > 0 && error == null) {
+                long delay = limit - System.currentTimeMillis();
+                if (delay <= 0) {
+                    error = new OpenR66ProtocolBusinessException("Timeout while consuming, " + last +
+                            " packets not consumed");
+                    break;
+                }
+                try {
+                    this.wait(delay);
+                } catch (InterruptedException e) {
+                    throw new OpenR66ProtocolBusinessException("Interrupted while consuming", e);
+                }
+                int current = pending.get();
+                if (current < last) {
+                    // the consumer goes on
+                    last = current;
+                    limit = System.currentTimeMillis() + timeout;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Consume the packets until none is waiting
+     */
+    private void consumeAll() {
+        for (;;) {
+            ByteBuf buffer;
+            while ((buffer = queue.poll()) != null) {
+                try {
+                    if (error == null) {
+                        consume(buffer);
+                    }
+                } catch (OpenR66ProtocolBusinessException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = new OpenR66ProtocolBusinessException(e);
+                } finally {
+                    buffer.release();
+                }
+                if ((pending.decrementAndGet() <= maxPending / 2 || error != null) &&
+                        suspended.compareAndSet(true, false)) {
+                    setAutoRead(true);
+                }
+            }
+            synchronized (this) {
+                this.notifyAll();
+            }
+            running.set(false);
+            // a packet may have been added after the last poll
+            if (queue.isEmpty() || !running.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Suspend or resume the reading of the network channel
+     * 
+     * @param autoRead
+     */
+    private void setAutoRead(boolean autoRead) {
+        LocalChannelReference localChannelReference = getLocalChannelReference();
+        if (localChannelReference == null) {
+            return;
+        }
+        Channel channel = localChannelReference.getNetworkChannel();
+        if (channel != null) {
+            logger.debug("Network reading " + (autoRead ? "resumed" : "suspended") + " for " + channel);
+            channel.config().setAutoRead(autoRead);
+        }
+    }
+}
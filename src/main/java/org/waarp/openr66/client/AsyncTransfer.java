@@ -0,0 +1,285 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.commander.ClientRunner;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Result;
+import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionException;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66FutureListener;
+import org.waarp.openr66.protocol.utils.R66ProgressListener;
+
+/**
+ * Asynchronous Transfer from a client with or without database connection: run returns as soon as the
+ * transfer is launched, the future being done once the transfer is over, such that no thread waits
+ * for a transfer in progress.<br>
+ * <br>
+ * The end of the transfer is given to the listeners of the future (R66Future.addListener), and its
+ * progress, as blocks are transferred, to its progress listeners (R66Future.addProgressListener).
+ * Threads of a shared pool are only used to open the connection and to end the transfer.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class AsyncTransfer extends AbstractTransfer {
+    /**
+     * Pool shared by all asynchronous transfers to open the connections and to end the transfers
+     */
+    private static final ExecutorService executorService = Executors.newCachedThreadPool(
+            new WaarpThreadFactory("AsyncTransfer"));
+
+    protected final NetworkTransaction networkTransaction;
+
+    /**
+     * 
+     * @param future
+     *            done once the transfer is over, with its listeners and progress listeners
+     * @param remoteHost
+     * @param filename
+     * @param rulename
+     * @param fileinfo
+     * @param isMD5
+     * @param blocksize
+     * @param id
+     * @param networkTransaction
+     */
+    public AsyncTransfer(R66Future future, String remoteHost,
+            String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
+            long id,
+            NetworkTransaction networkTransaction) {
+        // no starttime since it is direct (no delay)
+        super(AsyncTransfer.class,
+                future, filename, rulename, fileinfo, isMD5, remoteHost, blocksize, id, null);
+        this.networkTransaction = networkTransaction;
+    }
+
+    /**
+     * Launch the transfer and return without waiting for it. Prior to call this method, the pipeline
+     * and NetworkTransaction must have been initialized. It is the responsibility of the caller to
+     * finish all network resources once the future is done.
+     */
+    public void run() {
+        if (logger == null) {
+            logger = WaarpLoggerFactory.getLogger(AsyncTransfer.class);
+        }
+        DbTaskRunner taskRunner = this.initRequest();
+        if (taskRunner == null) {
+            // already an error from there
+            return;
+        }
+        // the transfer has its own future, such that the given one is done only once the transfer is ended
+        R66Future transfer = new R66Future(true);
+        transfer.addProgressListener(new R66ProgressListener() {
+            public void operationProgress(R66Future transfer, DbTaskRunner runner) {
+                future.fireProgress(runner);
+            }
+        });
+        ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, transfer);
+        executorService.execute(new StartTransfer(runner, taskRunner, 0));
+    }
+
+    /**
+     * Open the connection and send the request, with retries if not yet connected, then wait for the
+     * validation of the request through a listener
+     * 
+     * @param runner
+     * @param taskRunner
+     * @param retry
+     *            the number of attempts already done
+     */
+    private void startTransfer(final ClientRunner runner, final DbTaskRunner taskRunner, int retry) {
+        final LocalChannelReference localChannelReference;
+        try {
+            localChannelReference = runner.initRequest();
+        } catch (OpenR66ProtocolNotYetConnectionException e) {
+            logger.debug("Not Yet Connected", e);
+            if (retry + 1 < Configuration.RETRYNB) {
+                startTransfer(runner, taskRunner, retry + 1);
+            } else {
+                notConnected(taskRunner, e);
+            }
+            return;
+        } catch (OpenR66ProtocolNoConnectionException e) {
+            logger.debug("Cannot Connect", e);
+            future.setResult(new R66Result(e, null, true,
+                    ErrorCode.ConnectionImpossible, taskRunner));
+            finalizeInErrorTransferRequest(runner, taskRunner, ErrorCode.ConnectionImpossible);
+            // since no connection : just forget it
+            forget(taskRunner);
+            future.setFailure(e);
+            return;
+        } catch (OpenR66RunnerErrorException e) {
+            logger.debug("Cannot Transfer", e);
+            future.setResult(new R66Result(e, null, true,
+                    ErrorCode.Internal, taskRunner));
+            future.setFailure(e);
+            return;
+        } catch (OpenR66ProtocolPacketException e) {
+            logger.debug("Bad Protocol", e);
+            future.setResult(new R66Result(e, null, true,
+                    ErrorCode.TransferError, taskRunner));
+            future.setFailure(e);
+            return;
+        }
+        localChannelReference.getFutureValidRequest().addListener(new R66FutureListener() {
+            public void operationComplete(R66Future valid) {
+                if (!valid.isSuccess() && valid.getResult() != null &&
+                        valid.getResult().getCode() == ErrorCode.ServerOverloaded) {
+                    overloaded(runner, taskRunner);
+                    return;
+                }
+                localChannelReference.getFutureRequest().addListener(new R66FutureListener() {
+                    public void operationComplete(R66Future request) {
+                        // not from the network thread since the runner is reloaded
+                        executorService.execute(new Runnable() {
+                            public void run() {
+                                endTransfer(runner, taskRunner, localChannelReference);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Retry later on if possible when the remote server is overloaded
+     * 
+     * @param runner
+     * @param taskRunner
+     */
+    private void overloaded(ClientRunner runner, DbTaskRunner taskRunner) {
+        switch (taskRunner.getUpdatedInfo()) {
+            case DONE:
+            case INERROR:
+            case INTERRUPTED:
+                break;
+            default:
+                runner.changeUpdatedInfo(UpdatedInfo.INERROR,
+                        ErrorCode.ServerOverloaded, true);
+        }
+        if (runner.incrementTaskRunnerTry(taskRunner, Configuration.RETRYNB)) {
+            final StartTransfer start = new StartTransfer(runner, taskRunner, 0);
+            Configuration.configuration.launchInFixedDelay(new Thread() {
+                @Override
+                public void run() {
+                    executorService.execute(start);
+                }
+            }, Configuration.configuration.getConstraintLimitHandler().getSleepTime(), TimeUnit.MILLISECONDS);
+        } else {
+            notConnected(taskRunner, new OpenR66ProtocolNotYetConnectionException(
+                    "End of retry on ServerOverloaded"));
+        }
+    }
+
+    /**
+     * End the transfer once its own future is done, then the given future
+     * 
+     * @param runner
+     * @param taskRunner
+     * @param localChannelReference
+     */
+    private void endTransfer(ClientRunner runner, DbTaskRunner taskRunner,
+            LocalChannelReference localChannelReference) {
+        R66Future transfer;
+        try {
+            transfer = runner.endTransfer(localChannelReference);
+        } catch (OpenR66RunnerErrorException e) {
+            logger.debug("Cannot Transfer", e);
+            future.setResult(new R66Result(e, null, true,
+                    ErrorCode.Internal, taskRunner));
+            future.setFailure(e);
+            return;
+        }
+        future.setRunner(transfer.getRunner());
+        future.setFilesize(transfer.getFilesize());
+        future.setResult(transfer.getResult());
+        if (transfer.isSuccess()) {
+            future.setSuccess();
+        } else if (transfer.getCause() != null) {
+            future.setFailure(transfer.getCause());
+        } else {
+            future.cancel();
+        }
+    }
+
+    /**
+     * End in error since no connection could be done
+     * 
+     * @param taskRunner
+     * @param exc
+     */
+    private void notConnected(DbTaskRunner taskRunner, OpenR66ProtocolNotYetConnectionException exc) {
+        taskRunner.setLocalChannelReference(new LocalChannelReference());
+        logger.debug("Cannot Connect", exc);
+        future.setResult(new R66Result(exc, null, true,
+                ErrorCode.ConnectionImpossible, taskRunner));
+        // since no connection : just forget it
+        forget(taskRunner);
+        future.setFailure(exc);
+    }
+
+    /**
+     * Delete the runner if not to be logged
+     * 
+     * @param taskRunner
+     */
+    private void forget(DbTaskRunner taskRunner) {
+        if (nolog || taskRunner.shallIgnoreSave()) {
+            try {
+                taskRunner.delete();
+            } catch (WaarpDatabaseException e1) {
+            }
+        }
+    }
+
+    /**
+     * Start of a transfer from the shared pool
+     */
+    private class StartTransfer implements Runnable {
+        private final ClientRunner runner;
+        private final DbTaskRunner taskRunner;
+        private final int retry;
+
+        private StartTransfer(ClientRunner runner, DbTaskRunner taskRunner, int retry) {
+            this.runner = runner;
+            this.taskRunner = taskRunner;
+            this.retry = retry;
+        }
+
+        public void run() {
+            startTransfer(runner, taskRunner, retry);
+        }
+    }
+}
@@ -57,6 +57,47 @@ public class DirectTransfer extends AbstractTransfer {
         this.networkTransaction = networkTransaction;
     }
 
+    /**
+     * True to keep the connection of a successful transfer for a next transfer to the same host
+     */
+    protected boolean batchMode = false;
+
+    /**
+     * In batch mode, the LocalChannelReference available for the next transfer to the same host
+     */
+    protected LocalChannelReference batchLocalChannelReference = null;
+
+    /**
+     * In batch mode, True if a next transfer to the same host is expected to follow
+     */
+    protected boolean batchContinue = false;
+
+    /**
+     * Batch mode: reuse if possible the connection of the previous transfer to the same host, and
+     * keep the connection of this one if successful
+     * 
+     * @param previous
+     *            as returned by getBatchLocalChannelReference of the previous transfer to the same
+     *            host, null if none
+     * @param next
+     *            True if a next transfer to the same host is expected to follow, such that the
+     *            requested host keeps the connection open
+     */
+    public void setBatchMode(LocalChannelReference previous, boolean next) {
+        batchMode = true;
+        batchLocalChannelReference = previous;
+        batchContinue = next;
+    }
+
+    /**
+     * 
+     * @return in batch mode, the LocalChannelReference available for the next transfer to the same
+     *         host (the caller being responsible to close it at the end), else null
+     */
+    public LocalChannelReference getBatchLocalChannelReference() {
+        return batchLocalChannelReference;
+    }
+
     /**
      * Prior to call this method, the pipeline and NetworkTransaction must have been initialized. It
      * is the responsibility of the caller to finish all network resources.
@@ -71,6 +112,26 @@ public class DirectTransfer extends AbstractTransfer {
             return;
         }
         ClientRunner runner = new ClientRunner(networkTransaction, taskRunner, future);
+        if (batchMode) {
+            runner.setBatchMode(batchLocalChannelReference, batchContinue);
+            batchLocalChannelReference = null;
+        }
+        try {
+            runTransfer(runner, taskRunner);
+        } finally {
+            if (batchMode) {
+                batchLocalChannelReference = runner.getBatchLocalChannelReference();
+            }
+        }
+    }
+
+    /**
+     * Run the transfer with retries if not yet connected
+     * 
+     * @param runner
+     * @param taskRunner
+     */
+    private void runTransfer(ClientRunner runner, DbTaskRunner taskRunner) {
         OpenR66ProtocolNotYetConnectionException exc = null;
         for (int i = 0; i < Configuration.RETRYNB; i++) {
             try {
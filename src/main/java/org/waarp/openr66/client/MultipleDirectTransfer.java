@@ -20,6 +20,10 @@ package org.waarp.openr66.client;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.database.exception.WaarpDatabaseException;
@@ -35,6 +39,7 @@ import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.InformationPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
@@ -54,6 +59,10 @@ import org.waarp.openr66.protocol.utils.R66Future;
  * -to host2 -file file2<br>
  * -to host3 -file file1<br>
  * -to host3 -file file2<br>
+ * <br>
+ * Extra options are -limitParallel to run up to this number of transfers at once (1 by default, one after
+ * the other) and -limitHostParallel to run up to this number of transfers at once to the same host (1 by
+ * default).<br>
  * 
  * @author Frederic Bregier
  * 
@@ -62,13 +71,50 @@ public class MultipleDirectTransfer extends DirectTransfer {
     private int errorMultiple = 0;
     private int doneMultiple = 0;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
+    private R66Result resultError = null;
+    /**
+     * Maximum number of transfers in progress at once
+     */
+    private final int limitParallel;
+    /**
+     * Maximum number of transfers in progress at once to the same host
+     */
+    private final int limitHostParallel;
+
+    static protected int slimitParallel = 1;
+    static protected int slimitHostParallel = 1;
 
     public MultipleDirectTransfer(R66Future future, String remoteHost,
             String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
             long id,
             NetworkTransaction networkTransaction) {
+        this(future, remoteHost, filename, rulename, fileinfo, isMD5, blocksize, id, networkTransaction, 1, 1);
+    }
+
+    /**
+     * 
+     * @param future
+     * @param remoteHost
+     * @param filename
+     * @param rulename
+     * @param fileinfo
+     * @param isMD5
+     * @param blocksize
+     * @param id
+     * @param networkTransaction
+     * @param limitParallel
+     *            maximum number of transfers in progress at once, 1 meaning one after the other
+     * @param limitHostParallel
+     *            maximum number of transfers in progress at once to the same host
+     */
+    public MultipleDirectTransfer(R66Future future, String remoteHost,
+            String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
+            long id,
+            NetworkTransaction networkTransaction, int limitParallel, int limitHostParallel) {
         // no starttime since it is direct (blocking request, no delay)
         super(future, remoteHost, filename, rulename, fileinfo, isMD5, blocksize, id, networkTransaction);
+        this.limitParallel = limitParallel;
+        this.limitHostParallel = limitHostParallel;
     }
 
     public static List<String> getRemoteFiles(DbRule dbrule, String[] localfilenames, String requested,
@@ -140,8 +186,6 @@ public class MultipleDirectTransfer extends DirectTransfer {
     public void run() {
         String[] localfilenames = filename.split(",");
         String[] rhosts = remoteHost.split(",");
-        boolean inError = false;
-        R66Result resultError = null;
         // first check if filenames contains wildcards
         DbRule dbrule = null;
         try {
@@ -155,112 +199,46 @@ public class MultipleDirectTransfer extends DirectTransfer {
         if (dbrule.isSendMode()) {
             files = getLocalFiles(dbrule, localfilenames);
         }
+        ExecutorService executorService = null;
+        if (limitParallel > 1 || limitHostParallel > 1) {
+            executorService = Executors.newFixedThreadPool(Math.max(limitParallel, 1));
+        }
         for (String host : rhosts) {
             host = host.trim();
             if (host != null && !host.isEmpty()) {
                 if (dbrule.isRecvMode()) {
                     files = getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
                 }
+                ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
                 for (String filename : files) {
                     filename = filename.trim();
                     if (filename != null && !filename.isEmpty()) {
-                        logger.info("Launch transfer to " + host + " with file " + filename);
-                        long time1 = System.currentTimeMillis();
-                        R66Future future = new R66Future(true);
-                        DirectTransfer transaction = new DirectTransfer(future,
-                                host, filename, rule, fileInfo, ismd5, block, idt,
-                                networkTransaction);
-                        transaction.normalInfoAsWarn = normalInfoAsWarn;
-                        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
-                        transaction.run();
-                        future.awaitUninterruptibly();
-                        long time2 = System.currentTimeMillis();
-                        logger.debug("finish transfer: " + future.isSuccess());
-                        long delay = time2 - time1;
-                        R66Result result = future.getResult();
-                        OutputFormat outputFormat = new OutputFormat("Unique "
-                                + MultipleDirectTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 0);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
-                                    : "no file"));
-                            outputFormat.setValue("delay", delay);
-                            getResults().add(outputFormat);
-                            setDoneMultiple(getDoneMultiple() + 1);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
-                            }
-                            if (nolog || result.getRunner().shallIgnoreSave()) {
-                                // In case of success, delete the runner
-                                try {
-                                    result.getRunner().delete();
-                                } catch (WaarpDatabaseException e) {
-                                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
-                                            e);
-                                }
-                            }
-                        } else {
-                            if (result == null || result.getRunner() == null) {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat.setValue(FIELDS.statusTxt.name(),
-                                        Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                                outputFormat.sysout();
-                                networkTransaction.closeAll();
-                                System.exit(ErrorCode.Unknown.ordinal());
-                            }
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                logger.warn(outputFormat.loggerOut(), future.getCause());
-                            } else {
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                            }
-                            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            inError = true;
-                            if (result != null) {
-                                inError = true;
-                                resultError = result;
-                            }
-                        }
+                        queue.add(filename);
+                    }
+                }
+                if (executorService == null) {
+                    new HostTransfers(host, queue).run();
+                } else {
+                    // at most limitHostParallel transfers in progress to this host
+                    int nb = Math.min(Math.max(limitHostParallel, 1), queue.size());
+                    for (int i = 0; i < nb; i++) {
+                        executorService.execute(new HostTransfers(host, queue));
                     }
                 }
             }
         }
-        if (inError) {
+        if (executorService != null) {
+            executorService.shutdown();
+            try {
+                while (!executorService.awaitTermination(Configuration.configuration.getTIMEOUTCON(),
+                        TimeUnit.MILLISECONDS)) {
+                    logger.debug("Still running transfers: " + (getDoneMultiple() + getErrorMultiple()) + " done");
+                }
+            } catch (InterruptedException e) {
+                executorService.shutdownNow();
+            }
+        }
+        if (getErrorMultiple() > 0) {
             if (resultError != null) {
                 this.future.setResult(resultError);
             }
@@ -270,12 +248,176 @@ public class MultipleDirectTransfer extends DirectTransfer {
         }
     }
 
+    /**
+     * Transfers to one host of the files taken one by one from a queue shared by all the HostTransfers of
+     * this host, in batch mode the files following one another over one connection
+     */
+    private class HostTransfers implements Runnable {
+        private final String host;
+        private final ConcurrentLinkedQueue<String> queue;
+
+        private HostTransfers(String host, ConcurrentLinkedQueue<String> queue) {
+            this.host = host;
+            this.queue = queue;
+        }
+
+        public void run() {
+            LocalChannelReference batchLocalChannelReference = null;
+            String filename;
+            while ((filename = queue.poll()) != null) {
+                logger.info("Launch transfer to " + host + " with file " + filename);
+                long time1 = System.currentTimeMillis();
+                R66Future future = new R66Future(true);
+                DirectTransfer transaction = new DirectTransfer(future,
+                        host, filename, rule, fileInfo, ismd5, block, idt,
+                        networkTransaction);
+                transaction.normalInfoAsWarn = normalInfoAsWarn;
+                if (Configuration.configuration.isTransferBatch()) {
+                    // the queue being shared, a next file is only likely
+                    transaction.setBatchMode(batchLocalChannelReference, !queue.isEmpty());
+                }
+                logger.debug("rhost: " + host + ":" + transaction.remoteHost);
+                transaction.run();
+                batchLocalChannelReference = transaction.getBatchLocalChannelReference();
+                future.awaitUninterruptibly();
+                long time2 = System.currentTimeMillis();
+                logger.debug("finish transfer: " + future.isSuccess());
+                long delay = time2 - time1;
+                R66Result result = future.getResult();
+                OutputFormat outputFormat = new OutputFormat("Unique "
+                        + MultipleDirectTransfer.class.getSimpleName(), null);
+                if (future.isSuccess()) {
+                    if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                        outputFormat.setValue(FIELDS.status.name(), 1);
+                        outputFormat
+                                .setValue(
+                                        FIELDS.statusTxt.name(),
+                                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+                    } else {
+                        outputFormat.setValue(FIELDS.status.name(), 0);
+                        outputFormat
+                                .setValue(
+                                        FIELDS.statusTxt.name(),
+                                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+                    }
+                    outputFormat.setValue(FIELDS.remote.name(), host);
+                    outputFormat.setValueString(result.getRunner().getJson());
+                    outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
+                            : "no file"));
+                    outputFormat.setValue("delay", delay);
+                    addDone(outputFormat);
+                    if (transaction.normalInfoAsWarn) {
+                        logger.warn(outputFormat.loggerOut());
+                    } else {
+                        logger.info(outputFormat.loggerOut());
+                    }
+                    if (nolog || result.getRunner().shallIgnoreSave()) {
+                        // In case of success, delete the runner
+                        try {
+                            result.getRunner().delete();
+                        } catch (WaarpDatabaseException e) {
+                            logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
+                                    e);
+                        }
+                    }
+                } else {
+                    if (result == null || result.getRunner() == null) {
+                        outputFormat.setValue(FIELDS.status.name(), 2);
+                        outputFormat.setValue(FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+                        outputFormat.setValue(FIELDS.remote.name(), host);
+                        logger.error(outputFormat.loggerOut(), future.getCause());
+                        outputFormat.setValue(FIELDS.error.name(), future.getCause() != null ?
+                                future.getCause().getMessage() : ErrorCode.Unknown.mesg);
+                        // the other transfers going on, only this one is counted in error
+                        addError(outputFormat, null);
+                        continue;
+                    }
+                    if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                        outputFormat.setValue(FIELDS.status.name(), 1);
+                        outputFormat
+                                .setValue(
+                                        FIELDS.statusTxt.name(),
+                                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+                    } else {
+                        outputFormat.setValue(FIELDS.status.name(), 2);
+                        outputFormat
+                                .setValue(
+                                        FIELDS.statusTxt.name(),
+                                        Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+                    }
+                    outputFormat.setValue(FIELDS.remote.name(), host);
+                    outputFormat.setValueString(result.getRunner().getJson());
+                    if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                        logger.warn(outputFormat.loggerOut(), future.getCause());
+                    } else {
+                        logger.error(outputFormat.loggerOut(), future.getCause());
+                    }
+                    outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+                    addError(outputFormat, result);
+                }
+            }
+            if (batchLocalChannelReference != null) {
+                batchLocalChannelReference.getLocalChannel().close();
+            }
+        }
+    }
+
+    /**
+     * Add the result of one successful transfer
+     * 
+     * @param outputFormat
+     */
+    private synchronized void addDone(OutputFormat outputFormat) {
+        getResults().add(outputFormat);
+        setDoneMultiple(getDoneMultiple() + 1);
+    }
+
+    /**
+     * Add the result of one transfer in error
+     * 
+     * @param outputFormat
+     * @param result
+     */
+    private synchronized void addError(OutputFormat outputFormat, R66Result result) {
+        getResults().add(outputFormat);
+        setErrorMultiple(getErrorMultiple() + 1);
+        if (result != null) {
+            resultError = result;
+        }
+    }
+
+    /**
+     * Parse the options -limitParallel and -limitHostParallel
+     * 
+     * @param args
+     * @return True if correct
+     */
+    protected static boolean getParallelParams(String[] args) {
+        int i = 1;
+        try {
+            for (i = 1; i < args.length; i++) {
+                if (args[i].equalsIgnoreCase("-limitParallel")) {
+                    i++;
+                    slimitParallel = Integer.parseInt(args[i]);
+                } else if (args[i].equalsIgnoreCase("-limitHostParallel")) {
+                    i++;
+                    slimitHostParallel = Integer.parseInt(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            logger.error(Messages.getString("AbstractTransfer.20") + i); //$NON-NLS-1$
+            return false;
+        }
+        return true;
+    }
+
     public static void main(String[] args) {
         WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
         if (logger == null) {
             logger = WaarpLoggerFactory.getLogger(MultipleDirectTransfer.class);
         }
-        if (!getParams(args, false)) {
+        if (!getParams(args, false) || !getParallelParams(args)) {
             logger.error(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
             if (!OutputFormat.isQuiet()) {
                 System.out.println(Messages.getString("Configuration.WrongInit")); //$NON-NLS-1$
@@ -295,7 +437,7 @@ public class MultipleDirectTransfer extends DirectTransfer {
             MultipleDirectTransfer multipleDirectTransfer =
                     new MultipleDirectTransfer(future, rhost, localFilename,
                             rule, fileInfo, ismd5, block, idt,
-                            networkTransaction);
+                            networkTransaction, slimitParallel, slimitHostParallel);
             multipleDirectTransfer.normalInfoAsWarn = snormalInfoAsWarn;
             multipleDirectTransfer.run();
             future.awaitUninterruptibly();
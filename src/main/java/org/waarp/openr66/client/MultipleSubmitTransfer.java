@@ -100,6 +100,10 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                 files.add(string);
             }
         }
+        // new submissions are created at once, a resubmission (-id) being done as a single one
+        boolean batch = idt == DbConstant.ILLEGALVALUE;
+        List<Submission> submissions = new ArrayList<Submission>();
+        List<DbTaskRunner> runners = new ArrayList<DbTaskRunner>();
         for (String host : rhosts) {
             host = host.trim();
             if (host != null && !host.isEmpty()) {
@@ -114,53 +118,92 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                                 host, filename, rule, fileInfo, ismd5, block, idt,
                                 ttimestart);
                         transaction.normalInfoAsWarn = normalInfoAsWarn;
-                        transaction.run();
-                        future.awaitUninterruptibly();
-                        DbTaskRunner runner = future.getResult().getRunner();
-                        OutputFormat outputFormat = new OutputFormat(MultipleSubmitTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            outputFormat.setValue(FIELDS.status.name(), 0);
-                            outputFormat
-                                    .setValue(
-                                            FIELDS.statusTxt.name(),
-                                            Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(runner.getJson());
-                            getResults().add(outputFormat);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
+                        Submission submission = new Submission(host, transaction, future);
+                        if (batch) {
+                            submission.runner = transaction.prepareSubmit();
+                            if (submission.runner != null) {
+                                runners.add(submission.runner);
                             }
-                            setDoneMultiple(getDoneMultiple() + 1);
                         } else {
-                            outputFormat.setValue(FIELDS.status.name(), 2);
-                            if (runner == null) {
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("SubmitTransfer.3") + Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                            } else {
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                outputFormat.setValueString(runner.getJson());
-                            }
-                            logger.error(outputFormat.loggerOut(), future.getCause());
-                            if (future.getCause() != null) {
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                            }
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            resultError = future.getResult();
+                            transaction.run();
                         }
+                        submissions.add(submission);
+                    }
+                }
+            }
+        }
+        if (!runners.isEmpty()) {
+            boolean created = true;
+            try {
+                DbTaskRunner.createBatch(DbConstant.admin.getSession(), runners);
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Cannot submit all transfers at once, so one by one: " + e.getMessage());
+                created = false;
+            }
+            for (Submission submission : submissions) {
+                if (submission.runner == null) {
+                    continue;
+                }
+                if (created) {
+                    submission.transaction.setSubmitted(submission.runner, true);
+                } else {
+                    boolean status = false;
+                    try {
+                        submission.runner.create();
+                        status = submission.runner.forceSaveStatus();
+                    } catch (WaarpDatabaseException e) {
                     }
+                    submission.transaction.setSubmitted(submission.runner, status);
                 }
             }
         }
+        for (Submission submission : submissions) {
+            String host = submission.host;
+            SubmitTransfer transaction = submission.transaction;
+            R66Future future = submission.future;
+            future.awaitUninterruptibly();
+            DbTaskRunner runner = future.getResult() != null ? future.getResult().getRunner() : null;
+            OutputFormat outputFormat = new OutputFormat(MultipleSubmitTransfer.class.getSimpleName(), null);
+            if (future.isSuccess()) {
+                outputFormat.setValue(FIELDS.status.name(), 0);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+                outputFormat.setValue(FIELDS.remote.name(), host);
+                outputFormat.setValueString(runner.getJson());
+                getResults().add(outputFormat);
+                if (transaction.normalInfoAsWarn) {
+                    logger.warn(outputFormat.loggerOut());
+                } else {
+                    logger.info(outputFormat.loggerOut());
+                }
+                setDoneMultiple(getDoneMultiple() + 1);
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 2);
+                if (runner == null) {
+                    outputFormat
+                            .setValue(
+                                    FIELDS.statusTxt.name(),
+                                    Messages.getString("SubmitTransfer.3") + Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+                    outputFormat.setValue(FIELDS.remote.name(), host);
+                } else {
+                    outputFormat
+                            .setValue(
+                                    FIELDS.statusTxt.name(),
+                                    Messages.getString("SubmitTransfer.3") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+                    outputFormat.setValue(FIELDS.remote.name(), host);
+                    outputFormat.setValueString(runner.getJson());
+                }
+                logger.error(outputFormat.loggerOut(), future.getCause());
+                if (future.getCause() != null) {
+                    outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+                }
+                getResults().add(outputFormat);
+                setErrorMultiple(getErrorMultiple() + 1);
+                resultError = future.getResult();
+            }
+        }
         if (getErrorMultiple() > 0) {
             if (resultError != null) {
                 this.future.setResult(resultError);
@@ -171,6 +214,22 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
         }
     }
 
+    /**
+     * One submission to one host, its runner being created with the others when not null
+     */
+    private static class Submission {
+        private final String host;
+        private final SubmitTransfer transaction;
+        private final R66Future future;
+        private DbTaskRunner runner = null;
+
+        private Submission(String host, SubmitTransfer transaction, R66Future future) {
+            this.host = host;
+            this.transaction = transaction;
+            this.future = future;
+        }
+    }
+
     /**
      * 
      * @param args
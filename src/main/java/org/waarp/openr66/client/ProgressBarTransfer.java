@@ -32,6 +32,7 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66ProgressListener;
 
 /**
  * Through API Transfer from a client with or without database connection, and enabling access to
@@ -57,8 +58,8 @@ public abstract class ProgressBarTransfer extends AbstractTransfer {
     }
 
     /**
-     * This function will be called every 100ms (or other fixed value in INTERVALCALLBACK). Note
-     * that final rank is unknown.
+     * This function will be called as blocks are transferred, at most every 100ms (or other fixed value
+     * in INTERVALCALLBACK). Note that final rank is unknown.
      * 
      * @param currentBlock
      *            the current block rank (from 0 to n-1)
@@ -130,12 +131,21 @@ public abstract class ProgressBarTransfer extends AbstractTransfer {
                 }
                 logger.debug("connection done on progressBarTransfer");
                 this.filesize = future.getFilesize();
-                while (!future.awaitUninterruptibly(INTERVALCALLBACK)) {
-                    if (future.isDone()) {
-                        break;
+                // progress pushed by the transfer instead of polled
+                R66ProgressListener progress = new R66ProgressListener() {
+                    private long last = 0;
+
+                    public void operationProgress(R66Future future, DbTaskRunner runner) {
+                        long now = System.currentTimeMillis();
+                        if (now - last >= INTERVALCALLBACK) {
+                            last = now;
+                            callBack(runner.getRank(), runner.getBlocksize());
+                        }
                     }
-                    callBack(future.getRunner().getRank(), future.getRunner().getBlocksize());
-                }
+                };
+                future.addProgressListener(progress);
+                future.awaitUninterruptibly();
+                future.removeProgressListener(progress);
                 logger.debug("transfer done on progressBarTransfer");
                 runner.finishTransfer(localChannelReference);
                 lastCallBack(future.isSuccess(),
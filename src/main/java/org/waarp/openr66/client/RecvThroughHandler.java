@@ -18,7 +18,10 @@
 package org.waarp.openr66.client;
 
 import io.netty.buffer.ByteBuf;
+import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
 
 /**
  * Class to be implemented for {@link RecvThroughClient}
@@ -27,6 +30,11 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
  * 
  */
 public abstract class RecvThroughHandler {
+    /**
+     * The LocalChannelReference of the transfer, set when this handler is associated with it
+     */
+    private volatile LocalChannelReference localChannelReference = null;
+
     /**
      * This method will be called for each valid packet received to be written
      * 
@@ -38,6 +46,55 @@ public abstract class RecvThroughHandler {
     abstract public void writeByteBuf(ByteBuf buffer)
             throws OpenR66ProtocolBusinessException;
 
+    /**
+     * This method will be called for each valid packet received, its hash being already checked. By
+     * default it writes the data only (writeByteBuf).
+     * 
+     * @param packet
+     *            cleared once this method returns
+     * @exception OpenR66ProtocolBusinessException
+     *                This exception has to be throw if any error occurs during write in business
+     *                process.
+     */
+    public void writeDataPacket(DataPacket packet) throws OpenR66ProtocolBusinessException {
+        writeByteBuf(packet.getData());
+    }
+
+    /**
+     * 
+     * @return the ErrorCode to give to the sender when writeDataPacket fails, or null (by default) to
+     *         let the failure be handled as any business error
+     */
+    public ErrorCode getErrorCode() {
+        return null;
+    }
+
+    /**
+     * This method will be called once all packets were received, before the end of the transfer is validated.
+     * By default it does nothing.
+     * 
+     * @exception OpenR66ProtocolBusinessException
+     *                This exception has to be throw if any error occurs during write in business
+     *                process.
+     */
+    public void endOfData() throws OpenR66ProtocolBusinessException {
+    }
+
+    /**
+     * @param localChannelReference
+     *            the LocalChannelReference of the transfer
+     */
+    public void setLocalChannelReference(LocalChannelReference localChannelReference) {
+        this.localChannelReference = localChannelReference;
+    }
+
+    /**
+     * @return the LocalChannelReference of the transfer, null if not yet associated
+     */
+    public LocalChannelReference getLocalChannelReference() {
+        return localChannelReference;
+    }
+
     /**
      * Facility function to read from buffer and transfer to an array of bytes
      * 
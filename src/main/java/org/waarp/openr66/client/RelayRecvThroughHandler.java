@@ -0,0 +1,257 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import org.waarp.common.file.DataBlock;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Result;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerCapabilities;
+import org.waarp.openr66.protocol.exception.OpenR66Exception;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
+import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.R66FutureListener;
+
+/**
+ * RecvThroughHandler relaying the packets received from a partner to another one through a
+ * SendThroughClient, already initiated with the rank of the received transfer:<br>
+ * - the data and the block hash are forwarded by reference counting, without copy nor new hash when
+ * both partners use the same block algorithm;<br>
+ * - while the outbound network channel is not writable, the reading of the inbound network channel is
+ * suspended (auto-read), and resumed once the outbound one is writable again, such that the slowest
+ * partner gives the pace;<br>
+ * - an error on one side ends the other side with the same ErrorCode.<br>
+ * <br>
+ * Note that all the requests sharing the same inbound network channel are suspended together.
+ * 
+ * @see TestSendThroughForward Class as example of relay in test part
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class RelayRecvThroughHandler extends RecvThroughHandler {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(RelayRecvThroughHandler.class);
+
+    private final SendThroughClient outbound;
+    private final AtomicBoolean suspended = new AtomicBoolean(false);
+    private volatile ChannelFuture lastWrite = null;
+    private volatile ErrorCode errorCode = null;
+    private final Runnable resume = new Runnable() {
+        public void run() {
+            if (suspended.compareAndSet(true, false)) {
+                setAutoRead(true);
+            }
+        }
+    };
+    private final ChannelFutureListener failed = new ChannelFutureListener() {
+        public void operationComplete(ChannelFuture future) throws Exception {
+            if (!future.isSuccess()) {
+                errorCode = ErrorCode.Disconnection;
+                resume.run();
+            }
+        }
+    };
+
+    /**
+     * @param outbound
+     *            the transfer to the next partner, whose initiateRequest is already done
+     */
+    public RelayRecvThroughHandler(SendThroughClient outbound) {
+        this.outbound = outbound;
+        outbound.future.addListener(new R66FutureListener() {
+            public void operationComplete(R66Future future) {
+                if (!future.isSuccess() && errorCode == null) {
+                    errorCode = getCode(future);
+                }
+                // the inbound transfer is no more held by this one
+                resume.run();
+            }
+        });
+    }
+
+    @Override
+    public void setLocalChannelReference(LocalChannelReference localChannelReference) {
+        super.setLocalChannelReference(localChannelReference);
+        localChannelReference.getFutureRequest().addListener(new R66FutureListener() {
+            public void operationComplete(R66Future future) {
+                if (!future.isSuccess() && !outbound.future.isDone()) {
+                    R66Result result = future.getResult();
+                    OpenR66Exception exception = result != null ? result.getException() : null;
+                    outbound.transferInError(exception, getCode(future));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void writeByteBuf(ByteBuf buffer) throws OpenR66ProtocolBusinessException {
+        checkOutbound();
+        DataBlock block = new DataBlock();
+        block.setBlock(buffer.duplicate().retain());
+        try {
+            written(outbound.writeWhenPossible(block));
+        } catch (OpenR66Exception e) {
+            errorCode = ErrorCode.TransferError;
+            throw new OpenR66ProtocolBusinessException("Cannot relay block", e);
+        }
+    }
+
+    @Override
+    public void writeDataPacket(DataPacket packet) throws OpenR66ProtocolBusinessException {
+        checkOutbound();
+        LocalChannelReference localChannelReference = getLocalChannelReference();
+        PartnerCapabilities partner = localChannelReference != null ?
+                localChannelReference.getPartnerCapabilities() : null;
+        try {
+            written(outbound.relay(packet, partner != null ? partner.blockDigestAlgo : null));
+        } catch (OpenR66Exception e) {
+            errorCode = ErrorCode.TransferError;
+            throw new OpenR66ProtocolBusinessException("Cannot relay block", e);
+        }
+    }
+
+    @Override
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Wait for all the packets to be sent then end the outbound transfer, each step within the
+     * connection timeout, called out of the network threads
+     */
+    @Override
+    public void endOfData() throws OpenR66ProtocolBusinessException {
+        long timeout = Configuration.configuration.getTIMEOUTCON();
+        ChannelFuture last = lastWrite;
+        if (last != null) {
+            if (!last.awaitUninterruptibly(timeout)) {
+                timeout("Timeout while relaying the last block");
+            } else if (!last.isSuccess()) {
+                errorCode = ErrorCode.Disconnection;
+            }
+        }
+        checkOutbound();
+        outbound.finalizeRequest();
+        if (!outbound.future.awaitUninterruptibly(timeout)) {
+            timeout("Timeout while ending the relay");
+        }
+        if (!outbound.future.isSuccess()) {
+            errorCode = getCode(outbound.future);
+            throw new OpenR66ProtocolBusinessException("Relay in error: " + errorCode.mesg);
+        }
+    }
+
+    /**
+     * End the outbound transfer in error after a timeout
+     * 
+     * @param message
+     * @throws OpenR66ProtocolBusinessException
+     *             always
+     */
+    private void timeout(String message) throws OpenR66ProtocolBusinessException {
+        errorCode = ErrorCode.TransferError;
+        OpenR66ProtocolBusinessException exception = new OpenR66ProtocolBusinessException(message);
+        if (!outbound.future.isDone()) {
+            outbound.transferInError(exception, errorCode);
+        }
+        throw exception;
+    }
+
+    /**
+     * 
+     * @throws OpenR66ProtocolBusinessException
+     *             if the outbound transfer is in error
+     */
+    private void checkOutbound() throws OpenR66ProtocolBusinessException {
+        if (errorCode == null && outbound.future.isDone() && !outbound.future.isSuccess()) {
+            errorCode = getCode(outbound.future);
+        }
+        if (errorCode != null) {
+            throw new OpenR66ProtocolBusinessException("Relay in error: " + errorCode.mesg);
+        }
+    }
+
+    /**
+     * Suspend the inbound reading while the outbound channel cannot take more, until it is writable
+     * again, a failed write ending the relay
+     * 
+     * @param future
+     *            the write of the last packet relayed
+     */
+    private void written(ChannelFuture future) {
+        lastWrite = future;
+        future.addListener(failed);
+        Channel channel = future.channel();
+        if (channel != null && !channel.isWritable() && suspended.compareAndSet(false, true)) {
+            setAutoRead(false);
+            NetworkChannelReference networkChannelReference = outbound.localChannelReference != null ?
+                    outbound.localChannelReference.getNetworkChannelObject() : null;
+            if (networkChannelReference != null) {
+                networkChannelReference.addWritableListener(resume);
+            } else {
+                // no writability to wait for
+                resume.run();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param future
+     * @return the ErrorCode of this failed future
+     */
+    private static ErrorCode getCode(R66Future future) {
+        R66Result result = future.getResult();
+        if (result == null || result.getCode() == null) {
+            return ErrorCode.TransferError;
+        }
+        return result.getCode();
+    }
+
+    /**
+     * Suspend or resume the reading of the inbound network channel
+     * 
+     * @param autoRead
+     */
+    private void setAutoRead(boolean autoRead) {
+        LocalChannelReference localChannelReference = getLocalChannelReference();
+        if (localChannelReference == null) {
+            return;
+        }
+        Channel channel = localChannelReference.getNetworkChannel();
+        if (channel != null) {
+            logger.debug("Network reading " + (autoRead ? "resumed" : "suspended") + " for " + channel);
+            channel.config().setAutoRead(autoRead);
+        }
+    }
+}
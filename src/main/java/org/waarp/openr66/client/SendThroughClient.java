@@ -17,10 +17,15 @@
  */
 package org.waarp.openr66.client;
 
+import java.util.ArrayDeque;
+
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 
 import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 import org.waarp.common.file.DataBlock;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.commander.ClientRunner;
@@ -35,6 +40,7 @@ import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66DatabaseGlobalException;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionException;
@@ -42,11 +48,13 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.RetrieveRunner;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
 
 /**
@@ -71,6 +79,9 @@ import org.waarp.openr66.protocol.utils.R66Future;
  * <tt>     byte[] data = readOrGetInSomeWayData();</tt><br>
  * <tt>     DataBlock block = transaction.transformToDataBlock(data);</tt><br>
  * <tt>     futureWrite = transaction.writeWhenPossible(block);</tt><br>
+ * Or, to let the data be pulled only when the network can take it (then going directly to 6):<br>
+ * <tt>     futureWrite = transaction.writeFrom(source);</tt><br>
+ * <tt>     futureWrite.awaitUninterruptibly();</tt><br>
  * <br>
  * 5) Once you have finished, so this is the last block, you have to do the following:<br>
  * If the last block is not empty:<br>
@@ -313,13 +324,24 @@ public abstract class SendThroughClient extends AbstractTransfer {
      * @param e
      */
     public void transferInError(OpenR66Exception e) {
+        transferInError(e, ErrorCode.TransferError);
+    }
+
+    /**
+     * To be used in case of error after a correct initiate of the request
+     * 
+     * @param e
+     * @param code
+     *            the ErrorCode to give to the remote host
+     */
+    public void transferInError(OpenR66Exception e, ErrorCode code) {
         if (!localChannelReference.getFutureEndTransfer().getResult().isAnswered()) {
             R66Result result = new R66Result(e, localChannelReference.getSession(), true,
-                    ErrorCode.TransferError, taskRunner);
+                    code, taskRunner);
             logger.error("Transfer in error", e);
             localChannelReference.sessionNewState(R66FiniteDualStates.ERROR);
             ErrorPacket error = new ErrorPacket("Transfer in error",
-                    ErrorCode.TransferError.getCode(), ErrorPacket.FORWARDCLOSECODE);
+                    code.getCode(), ErrorPacket.FORWARDCLOSECODE);
             try {
                 ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
             } catch (OpenR66ProtocolPacketException e1) {
@@ -345,6 +367,77 @@ public abstract class SendThroughClient extends AbstractTransfer {
         return RetrieveRunner.writeWhenPossible(block, localChannelReference);
     }
 
+    /**
+     * Forward a data packet received in through mode from another partner, the buffers being shared
+     * by reference counting and not copied. The rank must be the next one of this transfer (see
+     * DbTaskRunner.setRankAtStartup), and the block hash is forwarded as is when both partners use the
+     * same block algorithm, else it is computed once for the remote host.
+     * 
+     * @param packet
+     *            the packet received, cleared by its receiver independently of this write
+     * @param algo
+     *            the block algorithm of the packet hash, null if unknown
+     * @return the ChannelFuture on the write operation
+     * @throws OpenR66ProtocolPacketException
+     */
+    public ChannelFuture relay(DataPacket packet, DigestAlgo algo)
+            throws OpenR66ProtocolPacketException {
+        DbTaskRunner runner = localChannelReference.getSession().getRunner();
+        if (packet.getPacketRank() != runner.getRank()) {
+            throw new OpenR66ProtocolPacketException("Relayed rank " + packet.getPacketRank() +
+                    " while expecting " + runner.getRank());
+        }
+        ByteBuf md5 = Unpooled.EMPTY_BUFFER;
+        if (RequestPacket.isMD5Mode(runner.getMode())) {
+            DigestAlgo sendAlgo = FileUtils.getBlockDigestAlgo(localChannelReference);
+            ByteBuf key = packet.getKey();
+            if (sendAlgo == algo && key != null && key.isReadable()) {
+                md5 = key.duplicate().retain();
+            } else {
+                md5 = FileUtils.getHash(packet.getData(), sendAlgo);
+            }
+        }
+        DataBlock block = new DataBlock();
+        // own indexes on the same memory, released with the packet sent
+        block.setBlock(packet.getData().duplicate().retain());
+        return RetrieveRunner.writeWhenPossible(block, localChannelReference, md5);
+    }
+
+    /**
+     * Send all the blocks pulled from the source, up to the last one (EOF). A new block is pulled only
+     * while the network channel is writable, else once the oldest pending write is done, such that the
+     * writes follow one another at the speed of the link, without waiting for each of them nor buffering
+     * more than the write buffer of the channel.
+     * 
+     * @param source
+     * @return the ChannelFuture on the write operation of the last block
+     * 
+     * @throws OpenR66RunnerErrorException
+     * @throws OpenR66ProtocolPacketException
+     * @throws OpenR66ProtocolSystemException
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public ChannelFuture writeFrom(SendThroughSource source)
+            throws OpenR66RunnerErrorException, OpenR66ProtocolPacketException,
+            OpenR66ProtocolSystemException, OpenR66ProtocolBusinessException {
+        ArrayDeque<ChannelFuture> pending = new ArrayDeque<ChannelFuture>();
+        ChannelFuture last;
+        DataBlock block;
+        do {
+            Channel channel = localChannelReference.getNetworkChannel();
+            while (!pending.isEmpty() && (pending.peek().isDone() || !channel.isWritable())) {
+                ChannelFuture oldest = pending.poll().awaitUninterruptibly();
+                if (!oldest.isSuccess()) {
+                    throw new OpenR66ProtocolSystemException("Cannot write block", oldest.cause());
+                }
+            }
+            block = source.nextBlock();
+            last = writeWhenPossible(block);
+            pending.add(last);
+        } while (!block.isEOF());
+        return last;
+    }
+
     /**
      * Utility method for send through mode
      * 
@@ -0,0 +1,40 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import org.waarp.common.file.DataBlock;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+
+/**
+ * Source of the data of a {@link SendThroughClient}, pulled block by block only when the network can
+ * take them
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public interface SendThroughSource {
+    /**
+     * Called only when the network accepts a new block, so at the speed of the link
+     * 
+     * @return the next block to send, the last one having EOF set (see SendThroughClient.transformToDataBlock)
+     * @exception OpenR66ProtocolBusinessException
+     *                This exception has to be throw if any error occurs during read in business
+     *                process.
+     */
+    public DataBlock nextBlock() throws OpenR66ProtocolBusinessException;
+}
@@ -21,8 +21,11 @@ import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.dom4j.Document;
@@ -56,6 +59,7 @@ import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.localhandler.packet.BusinessRequestPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
@@ -88,6 +92,10 @@ import org.waarp.openr66.protocol.utils.R66ShutdownHook;
  * -parallel to allow (default) parallelism between send actions and information<br>
  * -sequential to not allow parallelism between send actions and information<br>
  * -limitParallel limit to specify the number of concurrent actions in -direct mode only<br>
+ * -limitHostParallel limit to specify the number of concurrent transfers of one file to the hosts (default: 1, one host
+ * after the other)<br>
+ * -watch to check only the directories changed at each elapse, instead of all files<br>
+ * -rescan rescan (elapse time in ms between 2 checks of all files in -watch mode, default: 60 times elapse)<br>
  * -minimalSize limit to specify the minimal size of each file that will be transferred (default: no limit)<br>
  * -notlogWarn | -logWarn to deactivate or activate (default) the logging in Warn mode of Send/Remove information of the spool<br>
  * 
@@ -140,6 +148,12 @@ public class SpooledDirectoryTransfer implements Runnable {
 
     protected final int limitParallelTasks;
 
+    protected final int limitHostParallel;
+
+    protected final boolean watch;
+
+    protected final long rescanTime;
+
     protected final boolean submit;
 
     protected final boolean nolog;
@@ -154,6 +168,13 @@ public class SpooledDirectoryTransfer implements Runnable {
 
     protected FileMonitor monitor = null;
 
+    protected SpooledDirectoryWatcher watcher = null;
+
+    /**
+     * Executor of the transfers of one file to several hosts in parallel, null if sequential
+     */
+    protected ExecutorService hostExecutor = null;
+
     private long sent = 0;
     private long error = 0;
 
@@ -186,6 +207,47 @@ public class SpooledDirectoryTransfer implements Runnable {
             long elapse, boolean submit, boolean nolog, boolean recursive,
             long elapseWaarp, boolean parallel, int limitParallel,
             List<String> waarphost, long minimalSize, boolean logWarn, NetworkTransaction networkTransaction) {
+        this(future, name, directory, statusfile, stopfile, rulename, fileinfo, isMD5, remoteHosts, blocksize, regex,
+                elapse, submit, nolog, recursive, elapseWaarp, parallel, limitParallel, 1, false, 0, waarphost,
+                minimalSize, logWarn, networkTransaction);
+    }
+
+    /**
+     * @param future
+     * @param name
+     * @param directory
+     * @param statusfile
+     * @param stopfile
+     * @param rulename
+     * @param fileinfo
+     * @param isMD5
+     * @param remoteHosts
+     * @param blocksize
+     * @param regex
+     * @param elapse
+     * @param submit
+     * @param nolog
+     * @param recursive
+     * @param elapseWaarp
+     * @param parallel
+     * @param limitParallel
+     * @param limitHostParallel
+     *            number of concurrent transfers of one file to the remote hosts (1 or less for one after the other)
+     * @param watch
+     *            if True, only the changed directories are checked at each elapse
+     * @param rescan
+     *            in watch mode, elapse between 2 checks of all files (0 for 60 times elapse)
+     * @param waarphost
+     * @param minimalSize
+     * @param networkTransaction
+     */
+    public SpooledDirectoryTransfer(R66Future future, String name, List<String> directory,
+            String statusfile, String stopfile, String rulename,
+            String fileinfo, boolean isMD5,
+            List<String> remoteHosts, int blocksize, String regex,
+            long elapse, boolean submit, boolean nolog, boolean recursive,
+            long elapseWaarp, boolean parallel, int limitParallel, int limitHostParallel, boolean watch, long rescan,
+            List<String> waarphost, long minimalSize, boolean logWarn, NetworkTransaction networkTransaction) {
         if (logger == null) {
             logger = WaarpLoggerFactory.getLogger(SpooledDirectoryTransfer.class);
         }
@@ -212,6 +274,9 @@ public class SpooledDirectoryTransfer implements Runnable {
             this.parallel = parallel;
         }
         this.limitParallelTasks = limitParallel;
+        this.limitHostParallel = limitHostParallel;
+        this.watch = watch;
+        this.rescanTime = rescan > 0 ? rescan : elapse * 60;
         this.waarpHosts = waarphost;
         this.minimalSize = minimalSize;
         this.normalInfoAsWarn = logWarn;
@@ -299,45 +364,7 @@ public class SpooledDirectoryTransfer implements Runnable {
         } else if (minimalSize > 0) {
             filter = new RegexFileFilter(minimalSize);
         }
-        // Will be used if no parallelism
-        FileMonitorCommandRunnableFuture commandValidFile = new SpooledRunner(null);
-        FileMonitorCommandRunnableFuture waarpRemovedCommand = new FileMonitorCommandRunnableFuture() {
-            public void run(FileItem file) {
-                if (normalInfoAsWarn) {
-                    logger.warn("File removed: {}", file.file);
-                } else {
-                    logger.info("File removed: {}", file.file);
-                }
-            }
-        };
         FileMonitorCommandRunnableFuture waarpHostCommand = null;
-        File dir = new File(directory.get(0));
-        monitor = new FileMonitor(name, status, stop, dir, null, elapseTime, filter,
-                recurs, commandValidFile, waarpRemovedCommand, null);
-        if (!monitor.initialized()) {
-            // wrong
-            logger.error(Messages.getString("Configuration.WrongInit") + " : already running");
-            this.future.cancel();
-            if (Configuration.configuration.getShutdownConfiguration().serviceFuture != null) {
-                Configuration.configuration.getShutdownConfiguration().serviceFuture.setFailure(new Exception(Messages
-                        .getString("Configuration.WrongInit") + " : already running"));
-            }
-            return;
-        }
-        commandValidFile.setMonitor(monitor);
-        if (parallel) {
-            FileMonitorCommandFactory factory = new FileMonitorCommandFactory() {
-
-                @Override
-                public FileMonitorCommandRunnableFuture create(FileItem fileItem) {
-                    SpooledRunner runner = new SpooledRunner(fileItem);
-                    runner.setMonitor(monitor);
-                    return runner;
-                }
-            };
-            monitor.setCommandValidFileFactory(factory, limitParallelTasks);
-        }
-        final FileMonitor monitorArg = monitor;
         if (waarpHosts != null && !waarpHosts.isEmpty()) {
             waarpHostCommand = new FileMonitorCommandRunnableFuture() {
                 public void run(FileItem notused) {
@@ -346,13 +373,13 @@ public class SpooledDirectoryTransfer implements Runnable {
                         if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
                             DbConstant.admin.getSession().checkConnectionNoException();
                         }
-                        String status = monitorArg.getStatus();
+                        String status = getSpooledStatus();
                         if (normalInfoAsWarn) {
                             logger.warn("Will inform back Waarp hosts of current history: "
-                                    + monitorArg.getCurrentHistoryNb());
+                                    + getSpooledHistoryNb());
                         } else {
                             logger.info("Will inform back Waarp hosts of current history: "
-                                    + monitorArg.getCurrentHistoryNb());
+                                    + getSpooledHistoryNb());
                         }
                         for (String host : waarpHosts) {
                             host = host.trim();
@@ -375,11 +402,11 @@ public class SpooledDirectoryTransfer implements Runnable {
                                 } else {
                                     R66Result result = future.getResult();
                                     if (result == null) {
-                                        monitorArg.setNextAsFullStatus();
+                                        setSpooledNextAsFullStatus();
                                     } else {
                                         status = (String) result.getOther();
                                         if (status == null || status.equalsIgnoreCase(NEEDFULL)) {
-                                            monitorArg.setNextAsFullStatus();
+                                            setSpooledNextAsFullStatus();
                                         }
                                     }
                                     logger.debug("Inform back Waarp hosts over for: " + host);
@@ -392,22 +419,89 @@ public class SpooledDirectoryTransfer implements Runnable {
                     }
                 }
             };
-            monitor.setCommandCheckIteration(waarpHostCommand);
-            monitor.setElapseWaarpTime(elapseWaarpTime);
         }
-        for (int i = 1; i < directory.size(); i++) {
-            dir = new File(directory.get(i));
-            monitor.addDirectory(dir);
+        if (watch) {
+            List<File> dirs = new ArrayList<File>(directory.size());
+            for (String dirname : directory) {
+                dirs.add(new File(dirname));
+            }
+            watcher = new SpooledDirectoryWatcher(this, dirs, status, stop, filter, recurs, elapseTime,
+                    rescanTime, parallel, limitParallelTasks);
+            if (waarpHostCommand != null) {
+                final FileMonitorCommandRunnableFuture waarpHostCommandArg = waarpHostCommand;
+                watcher.setCommandCheckIteration(new Runnable() {
+                    public void run() {
+                        waarpHostCommandArg.run(null);
+                    }
+                }, elapseWaarpTime);
+            }
+        } else {
+            // Will be used if no parallelism
+            FileMonitorCommandRunnableFuture commandValidFile = new SpooledRunner(null);
+            FileMonitorCommandRunnableFuture waarpRemovedCommand = new FileMonitorCommandRunnableFuture() {
+                public void run(FileItem file) {
+                    if (normalInfoAsWarn) {
+                        logger.warn("File removed: {}", file.file);
+                    } else {
+                        logger.info("File removed: {}", file.file);
+                    }
+                }
+            };
+            File dir = new File(directory.get(0));
+            monitor = new FileMonitor(name, status, stop, dir, null, elapseTime, filter,
+                    recurs, commandValidFile, waarpRemovedCommand, null);
+            if (!monitor.initialized()) {
+                // wrong
+                logger.error(Messages.getString("Configuration.WrongInit") + " : already running");
+                this.future.cancel();
+                if (Configuration.configuration.getShutdownConfiguration().serviceFuture != null) {
+                    Configuration.configuration.getShutdownConfiguration().serviceFuture.setFailure(new Exception(Messages
+                            .getString("Configuration.WrongInit") + " : already running"));
+                }
+                return;
+            }
+            commandValidFile.setMonitor(monitor);
+            if (parallel) {
+                FileMonitorCommandFactory factory = new FileMonitorCommandFactory() {
+
+                    @Override
+                    public FileMonitorCommandRunnableFuture create(FileItem fileItem) {
+                        SpooledRunner runner = new SpooledRunner(fileItem);
+                        runner.setMonitor(monitor);
+                        return runner;
+                    }
+                };
+                monitor.setCommandValidFileFactory(factory, limitParallelTasks);
+            }
+            if (waarpHostCommand != null) {
+                monitor.setCommandCheckIteration(waarpHostCommand);
+                monitor.setElapseWaarpTime(elapseWaarpTime);
+            }
+            for (int i = 1; i < directory.size(); i++) {
+                dir = new File(directory.get(i));
+                monitor.addDirectory(dir);
+            }
+        }
+        if (limitHostParallel > 1 && remoteHosts.size() > 1) {
+            hostExecutor = Executors.newFixedThreadPool(limitHostParallel,
+                    new WaarpThreadFactory("SpooledHostTransfer_" + name));
         }
         logger.warn("SpooledDirectoryTransfer starts name:" + name + " directory:" + directory + " statusFile:"
                 + statusFile + " stopFile:" + stopFile +
                 " rulename:" + rulename + " fileinfo:" + fileinfo + " hosts:" + remoteHosts + " regex:" + regexFilter
                 + " minimalSize:" + minimalSize + " waarp:" + waarpHosts +
                 " elapse:" + elapseTime + " waarpElapse:" + elapseWaarpTime + " parallel:" + parallel
-                + " limitParallel:" + limitParallelTasks +
-                " submit:" + submit + " recursive:" + recurs);
-        monitor.start();
-        monitor.waitForStopFile();
+                + " limitParallel:" + limitParallelTasks + " limitHostParallel:" + limitHostParallel +
+                " submit:" + submit + " recursive:" + recurs + " watch:" + watch + " rescan:" + rescanTime);
+        if (watcher != null) {
+            watcher.run();
+        } else {
+            monitor.start();
+            monitor.waitForStopFile();
+        }
+        if (hostExecutor != null) {
+            hostExecutor.shutdown();
+        }
         this.future.setSuccess();
         if (Configuration.configuration.getShutdownConfiguration().serviceFuture != null) {
             Configuration.configuration.getShutdownConfiguration().serviceFuture.setSuccess();
@@ -415,7 +509,10 @@ public class SpooledDirectoryTransfer implements Runnable {
     }
 
     public void stop() {
-        if (monitor != null) {
+        if (watcher != null) {
+            logger.info("Stop Watcher");
+            watcher.stop();
+        } else if (monitor != null) {
             logger.info("Stop Monitor");
             monitor.stop();
             logger.info("Monitor Stopped");
@@ -431,209 +528,340 @@ public class SpooledDirectoryTransfer implements Runnable {
 
         public void run(FileItem fileItem) {
             this.setFileItem(fileItem);
-            if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
-                DbConstant.admin.getSession().checkConnectionNoException();
+            SpooledResult result = sendToRemoteHosts(fileItem.file, fileItem.specialId);
+            finalize(result.status, result.specialId);
+        }
+    }
+
+    /**
+     * 
+     * @return the status of the spooled directory to send to Waarp hosts
+     */
+    private String getSpooledStatus() {
+        return watcher != null ? watcher.getStatus() : monitor.getStatus();
+    }
+
+    /**
+     * 
+     * @return the number of files known by the spooled directory
+     */
+    private long getSpooledHistoryNb() {
+        return watcher != null ? watcher.getCurrentHistoryNb() : monitor.getCurrentHistoryNb();
+    }
+
+    /**
+     * Next status sent to Waarp hosts will contain all files
+     */
+    private void setSpooledNextAsFullStatus() {
+        if (watcher != null) {
+            watcher.setNextAsFullStatus();
+        } else {
+            monitor.setNextAsFullStatus();
+        }
+    }
+
+    /**
+     * Result of the transfers of one file to all remote hosts
+     * 
+     * @author "Frederic Bregier"
+     *
+     */
+    protected static class SpooledResult {
+        /**
+         * True if all remote hosts received the file
+         */
+        protected final boolean status;
+        /**
+         * Id to use for a next try, only if one remote host
+         */
+        protected final long specialId;
+
+        private SpooledResult(boolean status, long specialId) {
+            this.status = status;
+            this.specialId = specialId;
+        }
+    }
+
+    /**
+     * Send this file to all remote hosts
+     * 
+     * @param file
+     * @param fileSpecialId
+     *            the id of the previous try of this file if any
+     * @return the result of the transfers
+     */
+    protected SpooledResult sendToRemoteHosts(File file, long fileSpecialId) {
+        if (DbConstant.admin.getSession() != null && DbConstant.admin.getSession().isDisActive()) {
+            DbConstant.admin.getSession().checkConnectionNoException();
+        }
+        long specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : fileSpecialId;
+        String filename = file.getAbsolutePath();
+        List<HostTransfer> transfers = new ArrayList<HostTransfer>(remoteHosts.size());
+        for (String host : remoteHosts) {
+            host = host.trim();
+            if (host != null && !host.isEmpty()) {
+                transfers.add(new HostTransfer(host, filename, specialId));
             }
-            boolean finalStatus = false;
-            int ko = 0;
-            long specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : fileItem.specialId;
+        }
+        if (transfers.size() > 1) {
+            // the final tree hash is computed once for all hosts
+            FileUtils.startSharedTreeHash(file);
+        }
+        try {
+            if (hostExecutor != null && transfers.size() > 1) {
+                // all started together, such that the blocks of the file are mostly read from the system cache
+                List<Future<?>> futures = new ArrayList<Future<?>>(transfers.size());
+                try {
+                    for (HostTransfer transfer : transfers) {
+                        futures.add(hostExecutor.submit(transfer));
+                    }
+                } catch (RejectedExecutionException e) {
+                    // stopping: the remaining hosts are considered in error
+                    logger.warn("Transfers to hosts no more accepted: " + e.getMessage());
+                }
+                for (Future<?> transferFuture : futures) {
+                    try {
+                        transferFuture.get();
+                    } catch (InterruptedException e) {
+                        logger.warn("Interrupted while waiting for transfers of " + filename);
+                        Thread.currentThread().interrupt();
+                        break;
+                    } catch (ExecutionException e) {
+                        logger.error("Error in SpooledDirectory", e.getCause());
+                    }
+                }
+            } else {
+                for (HostTransfer transfer : transfers) {
+                    transfer.run();
+                }
+            }
+        } finally {
+            if (transfers.size() > 1) {
+                FileUtils.endSharedTreeHash(file);
+            }
+        }
+        int ok = 0;
+        int ko = 0;
+        for (HostTransfer transfer : transfers) {
+            if (transfer.success) {
+                ok++;
+            } else {
+                ko++;
+            }
+        }
+        addResults(ok, ko);
+        if (transfers.size() == 1) {
+            specialId = transfers.get(0).specialId;
+        }
+        specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : specialId;
+        // If at least one is in error, the transfer is in error so should be redone
+        return new SpooledResult(ok > 0 && ko == 0, specialId);
+    }
+
+    /**
+     * Transfer of one file to one host, possibly concurrent with the ones of the same file to the other hosts
+     * 
+     * @author "Frederic Bregier"
+     *
+     */
+    private class HostTransfer implements Runnable {
+        private final String host;
+        private final String filename;
+        private volatile long specialId;
+        private volatile boolean success = false;
+
+        private HostTransfer(String host, String filename, long specialId) {
+            this.host = host;
+            this.filename = filename;
+            this.specialId = specialId;
+        }
+
+        public void run() {
+            long specialId = this.specialId;
             try {
-                for (String host : remoteHosts) {
-                    host = host.trim();
-                    if (host != null && !host.isEmpty()) {
-                        String filename = fileItem.file.getAbsolutePath();
-                        logger.info("Launch transfer to " + host + " with file " + filename);
-                        R66Future future = new R66Future(true);
-                        String text = null;
-                        if (submit) {
-                            text = "Submit Transfer: ";
-                            SubmitTransfer transaction = new SubmitTransfer(future,
+                logger.info("Launch transfer to " + host + " with file " + filename);
+                R66Future future = new R66Future(true);
+                String text = null;
+                if (submit) {
+                    text = "Submit Transfer: ";
+                    SubmitTransfer transaction = new SubmitTransfer(future,
+                            host, filename, rulename, fileinfo, isMD5, blocksize,
+                            specialId, null);
+                    transaction.normalInfoAsWarn = normalInfoAsWarn;
+                    logger.info(text + host);
+                    transaction.run();
+                } else {
+                    if (specialId != DbConstant.ILLEGALVALUE) {
+                        boolean direct = false;
+                        // Transfer try at least once
+                        text = "Request Transfer try Restart: " + specialId + " " + filename + " ";
+                        try {
+                            String srequester = Configuration.configuration.getHostId(DbConstant.admin.getSession(),
+                                    host);
+                            // Try restart
+                            RequestTransfer transaction = new RequestTransfer(future, specialId, host,
+                                    srequester,
+                                    false, false, true, networkTransaction);
+                            transaction.normalInfoAsWarn = normalInfoAsWarn;
+                            logger.info(text + host);
+                            // special task
+                            transaction.run();
+                            future.awaitUninterruptibly();
+                            if (!future.isSuccess()) {
+                                direct = true;
+                                text = "Request Transfer Cancelled and Restart: " + specialId + " " + filename
+                                        + " ";
+                                future = new R66Future(true);
+                                // Cancel
+                                RequestTransfer transaction2 = new RequestTransfer(future, specialId, host,
+                                        srequester,
+                                        true, false, false, networkTransaction);
+                                transaction.normalInfoAsWarn = normalInfoAsWarn;
+                                logger.warn(text + host);
+                                transaction2.run();
+                                // special task
+                                future.awaitUninterruptibly();
+                                if (!DbConstant.admin.isActive()) {
+                                    DbTaskRunner.removeNoDbSpecialId(specialId);
+                                }
+                            }
+                        } catch (WaarpDatabaseException e) {
+                            direct = true;
+                            if (DbConstant.admin.getSession() != null) {
+                                DbConstant.admin.getSession().checkConnectionNoException();
+                            }
+                            logger.warn(Messages.getString("RequestTransfer.5") + host, e); //$NON-NLS-1$
+                        }
+                        if (direct) {
+                            text = "Direct Transfer: ";
+                            future = new R66Future(true);
+                            DirectTransfer transaction = new DirectTransfer(future,
                                     host, filename, rulename, fileinfo, isMD5, blocksize,
-                                    specialId, null);
+                                    DbConstant.ILLEGALVALUE, networkTransaction);
                             transaction.normalInfoAsWarn = normalInfoAsWarn;
                             logger.info(text + host);
                             transaction.run();
-                        } else {
-                            if (specialId != DbConstant.ILLEGALVALUE) {
-                                boolean direct = false;
-                                // Transfer try at least once
-                                text = "Request Transfer try Restart: " + specialId + " " + filename + " ";
+                        }
+                    } else {
+                        text = "Direct Transfer: ";
+                        DirectTransfer transaction = new DirectTransfer(future,
+                                host, filename, rulename, fileinfo, isMD5, blocksize,
+                                DbConstant.ILLEGALVALUE, networkTransaction);
+                        transaction.normalInfoAsWarn = normalInfoAsWarn;
+                        logger.info(text + host);
+                        transaction.run();
+                    }
+                }
+                future.awaitUninterruptibly();
+                R66Result r66result = future.getResult();
+                if (future.isSuccess()) {
+                    success = true;
+                    DbTaskRunner runner = null;
+                    if (r66result != null) {
+                        runner = r66result.getRunner();
+                        if (runner != null) {
+                            specialId = runner.getSpecialId();
+                            String status = Messages.getString("RequestInformation.Success"); //$NON-NLS-1$
+                            if (runner.getErrorInfo() == ErrorCode.Warning) {
+                                status = Messages.getString("RequestInformation.Warned"); //$NON-NLS-1$
+                            }
+                            if (normalInfoAsWarn) {
+                                logger.warn(text + " status: " + status + "     "
+                                        + runner.toShortString()
+                                        + "     <REMOTE>" + host + "</REMOTE>"
+                                        + "     <FILEFINAL>" +
+                                        (r66result.getFile() != null ?
+                                                r66result.getFile().toString() + "</FILEFINAL>"
+                                                : "no file"));
+                            } else {
+                                logger.info(text + " status: " + status + "     "
+                                        + runner.toShortString()
+                                        + "     <REMOTE>" + host + "</REMOTE>"
+                                        + "     <FILEFINAL>" +
+                                        (r66result.getFile() != null ?
+                                                r66result.getFile().toString() + "</FILEFINAL>"
+                                                : "no file"));
+                            }
+                            if (nolog && !submit) {
+                                // In case of success, delete the runner
                                 try {
-                                    String srequester = Configuration.configuration.getHostId(DbConstant.admin.getSession(),
-                                            host);
-                                    // Try restart
-                                    RequestTransfer transaction = new RequestTransfer(future, specialId, host,
-                                            srequester,
-                                            false, false, true, networkTransaction);
-                                    transaction.normalInfoAsWarn = normalInfoAsWarn;
-                                    logger.info(text + host);
-                                    // special task
-                                    transaction.run();
-                                    future.awaitUninterruptibly();
-                                    if (!future.isSuccess()) {
-                                        direct = true;
-                                        text = "Request Transfer Cancelled and Restart: " + specialId + " " + filename
-                                                + " ";
-                                        future = new R66Future(true);
-                                        // Cancel
-                                        RequestTransfer transaction2 = new RequestTransfer(future, specialId, host,
-                                                srequester,
-                                                true, false, false, networkTransaction);
-                                        transaction.normalInfoAsWarn = normalInfoAsWarn;
-                                        logger.warn(text + host);
-                                        transaction2.run();
-                                        // special task
-                                        future.awaitUninterruptibly();
-                                        if (!DbConstant.admin.isActive()) {
-                                            DbTaskRunner.removeNoDbSpecialId(specialId);
-                                        }
-                                    }
+                                    runner.delete();
                                 } catch (WaarpDatabaseException e) {
-                                    direct = true;
-                                    if (DbConstant.admin.getSession() != null) {
-                                        DbConstant.admin.getSession().checkConnectionNoException();
-                                    }
-                                    logger.warn(Messages.getString("RequestTransfer.5") + host, e); //$NON-NLS-1$
-                                }
-                                if (direct) {
-                                    text = "Direct Transfer: ";
-                                    future = new R66Future(true);
-                                    DirectTransfer transaction = new DirectTransfer(future,
-                                            host, filename, rulename, fileinfo, isMD5, blocksize,
-                                            DbConstant.ILLEGALVALUE, networkTransaction);
-                                    transaction.normalInfoAsWarn = normalInfoAsWarn;
-                                    logger.info(text + host);
-                                    transaction.run();
+                                    logger.warn("Cannot apply nolog to     " +
+                                            runner.toShortString(),
+                                            e);
                                 }
+                            }
+                            DbTaskRunner.removeNoDbSpecialId(specialId);
+                        } else {
+                            if (normalInfoAsWarn) {
+                                logger.warn(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
+                                        + "<REMOTE>" + host + "</REMOTE>");
                             } else {
-                                text = "Direct Transfer: ";
-                                DirectTransfer transaction = new DirectTransfer(future,
-                                        host, filename, rulename, fileinfo, isMD5, blocksize,
-                                        DbConstant.ILLEGALVALUE, networkTransaction);
-                                transaction.normalInfoAsWarn = normalInfoAsWarn;
-                                logger.info(text + host);
-                                transaction.run();
+                                logger.info(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
+                                        + "<REMOTE>" + host + "</REMOTE>");
                             }
                         }
-                        future.awaitUninterruptibly();
-                        R66Result r66result = future.getResult();
-                        if (future.isSuccess()) {
-                            finalStatus = true;
-                            setSent(getSent() + 1);
-                            DbTaskRunner runner = null;
-                            if (r66result != null) {
-                                runner = r66result.getRunner();
-                                if (runner != null) {
-                                    specialId = runner.getSpecialId();
-                                    String status = Messages.getString("RequestInformation.Success"); //$NON-NLS-1$
-                                    if (runner.getErrorInfo() == ErrorCode.Warning) {
-                                        status = Messages.getString("RequestInformation.Warned"); //$NON-NLS-1$
-                                    }
-                                    if (normalInfoAsWarn) {
-                                        logger.warn(text + " status: " + status + "     "
-                                                + runner.toShortString()
-                                                + "     <REMOTE>" + host + "</REMOTE>"
-                                                + "     <FILEFINAL>" +
-                                                (r66result.getFile() != null ?
-                                                        r66result.getFile().toString() + "</FILEFINAL>"
-                                                        : "no file"));
-                                    } else {
-                                        logger.info(text + " status: " + status + "     "
-                                                + runner.toShortString()
-                                                + "     <REMOTE>" + host + "</REMOTE>"
-                                                + "     <FILEFINAL>" +
-                                                (r66result.getFile() != null ?
-                                                        r66result.getFile().toString() + "</FILEFINAL>"
-                                                        : "no file"));
-                                    }
-                                    if (nolog && !submit) {
-                                        // In case of success, delete the runner
-                                        try {
-                                            runner.delete();
-                                        } catch (WaarpDatabaseException e) {
-                                            logger.warn("Cannot apply nolog to     " +
-                                                    runner.toShortString(),
-                                                    e);
-                                        }
-                                    }
-                                    DbTaskRunner.removeNoDbSpecialId(specialId);
-                                } else {
-                                    if (normalInfoAsWarn) {
-                                        logger.warn(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
-                                                + "<REMOTE>" + host + "</REMOTE>");
-                                    } else {
-                                        logger.info(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
-                                                + "<REMOTE>" + host + "</REMOTE>");
-                                    }
-                                }
+                    } else {
+                        if (normalInfoAsWarn) {
+                            logger.warn(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
+                                    + "<REMOTE>" + host + "</REMOTE>");
+                        } else {
+                            logger.info(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
+                                    + "<REMOTE>" + host + "</REMOTE>");
+                        }
+                    }
+                } else {
+                    DbTaskRunner runner = null;
+                    if (r66result != null) {
+                        String errMsg = "Unknown Error Message";
+                        if (future.getCause() != null) {
+                            errMsg = future.getCause().getMessage();
+                        }
+                        boolean isConnectionImpossible = (r66result.getCode() == ErrorCode.ConnectionImpossible)
+                                && !normalInfoAsWarn;
+                        runner = r66result.getRunner();
+                        if (runner != null) {
+                            specialId = runner.getSpecialId();
+                            if (!DbConstant.admin.isActive() && remoteHosts.size() > 1) {
+                                DbTaskRunner.removeNoDbSpecialId(specialId);
+                                specialId = DbConstant.ILLEGALVALUE;
+                            } else if (DbConstant.admin.isActive()) {
+                                DbTaskRunner.removeNoDbSpecialId(specialId);
+                            }
+                            if (isConnectionImpossible) {
+                                logger.info(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
+                                        runner.toShortString() +
+                                        "<REMOTE>" + host + "</REMOTE><REASON>" + errMsg + "</REASON>");
                             } else {
-                                if (normalInfoAsWarn) {
-                                    logger.warn(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
-                                            + "<REMOTE>" + host + "</REMOTE>");
-                                } else {
-                                    logger.info(text + Messages.getString("RequestInformation.Success") //$NON-NLS-1$
-                                            + "<REMOTE>" + host + "</REMOTE>");
-                                }
+                                logger.error(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
+                                        runner.toShortString() +
+                                        "<REMOTE>" + host + "</REMOTE><REASON>" + errMsg + "</REASON>");
                             }
                         } else {
-                            setError(getError() + 1);
-                            ko++;
-                            DbTaskRunner runner = null;
-                            if (r66result != null) {
-                                String errMsg = "Unknown Error Message";
-                                if (future.getCause() != null) {
-                                    errMsg = future.getCause().getMessage();
-                                }
-                                boolean isConnectionImpossible = (r66result.getCode() == ErrorCode.ConnectionImpossible)
-                                        && !normalInfoAsWarn;
-                                runner = r66result.getRunner();
-                                if (runner != null) {
-                                    specialId = runner.getSpecialId();
-                                    if (!DbConstant.admin.isActive() && remoteHosts.size() > 1) {
-                                        DbTaskRunner.removeNoDbSpecialId(specialId);
-                                        specialId = DbConstant.ILLEGALVALUE;
-                                    } else if (DbConstant.admin.isActive()) {
-                                        DbTaskRunner.removeNoDbSpecialId(specialId);
-                                    }
-                                    if (isConnectionImpossible) {
-                                        logger.info(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
-                                                runner.toShortString() +
-                                                "<REMOTE>" + host + "</REMOTE><REASON>" + errMsg + "</REASON>");
-                                    } else {
-                                        logger.error(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
-                                                runner.toShortString() +
-                                                "<REMOTE>" + host + "</REMOTE><REASON>" + errMsg + "</REASON>");
-                                    }
-                                } else {
-                                    if (isConnectionImpossible) {
-                                        logger.info(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
-                                                "<REMOTE>" + host + "</REMOTE>",
-                                                future.getCause());
-                                    } else {
-                                        logger.error(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
-                                                "<REMOTE>" + host + "</REMOTE>",
-                                                future.getCause());
-                                    }
-                                }
+                            if (isConnectionImpossible) {
+                                logger.info(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
+                                        "<REMOTE>" + host + "</REMOTE>",
+                                        future.getCause());
                             } else {
-                                logger.error(text + Messages.getString("RequestInformation.Failure") //$NON-NLS-1$
-                                        + "<REMOTE>" + host + "</REMOTE>",
+                                logger.error(text + Messages.getString("RequestInformation.Failure") + //$NON-NLS-1$
+                                        "<REMOTE>" + host + "</REMOTE>",
                                         future.getCause());
                             }
                         }
+                    } else {
+                        logger.error(text + Messages.getString("RequestInformation.Failure") //$NON-NLS-1$
+                                + "<REMOTE>" + host + "</REMOTE>",
+                                future.getCause());
                     }
                 }
             } catch (Throwable e) {
                 // catch any exception
                 logger.error("Error in SpooledDirectory", e);
-                finalStatus = false;
-            }
-            specialId = remoteHosts.size() > 1 ? DbConstant.ILLEGALVALUE : specialId;
-            if (ko > 0) {
-                // If at least one is in error, the transfer is in error so should be redone
-                finalStatus = false;
+                success = false;
+            } finally {
+                this.specialId = specialId;
             }
-            finalize(finalStatus, specialId);
         }
     }
 
@@ -662,6 +890,9 @@ public class SpooledDirectoryTransfer implements Runnable {
         protected List<String> waarphosts = new ArrayList<String>();
         protected boolean isparallel = true;
         protected int limitParallel = 0;
+        protected int limitHostParallel = 1;
+        protected boolean watch = false;
+        protected long rescan = 0;
         protected long minimalSize = 0;
         protected boolean logWarn = true;
     }
@@ -682,6 +913,9 @@ public class SpooledDirectoryTransfer implements Runnable {
     private static final String XML_submit = "submit";
     private static final String XML_parallel = "parallel";
     private static final String XML_limitParallel = "limitParallel";
+    private static final String XML_limitHostParallel = "limitHostParallel";
+    private static final String XML_watch = "watch";
+    private static final String XML_rescan = "rescan";
     private static final String XML_info = "info";
     private static final String XML_md5 = "md5";
     private static final String XML_block = "block";
@@ -703,6 +937,9 @@ public class SpooledDirectoryTransfer implements Runnable {
             new XmlDecl(XmlType.BOOLEAN, XML_submit),
             new XmlDecl(XmlType.BOOLEAN, XML_parallel),
             new XmlDecl(XmlType.INTEGER, XML_limitParallel),
+            new XmlDecl(XmlType.INTEGER, XML_limitHostParallel),
+            new XmlDecl(XmlType.BOOLEAN, XML_watch),
+            new XmlDecl(XmlType.LONG, XML_rescan),
             new XmlDecl(XmlType.STRING, XML_info),
             new XmlDecl(XmlType.BOOLEAN, XML_md5),
             new XmlDecl(XmlType.INTEGER, XML_block),
@@ -829,6 +1066,18 @@ public class SpooledDirectoryTransfer implements Runnable {
                 if (value != null && (!value.isEmpty())) {
                     arg.limitParallel = value.getInteger();
                 }
+                value = subHash.get(XML_limitHostParallel);
+                if (value != null && (!value.isEmpty())) {
+                    arg.limitHostParallel = value.getInteger();
+                }
+                value = subHash.get(XML_watch);
+                if (value != null && (!value.isEmpty())) {
+                    arg.watch = value.getBoolean();
+                }
+                value = subHash.get(XML_rescan);
+                if (value != null && (!value.isEmpty())) {
+                    arg.rescan = value.getLong();
+                }
                 value = subHash.get(XML_info);
                 if (value != null && (!value.isEmpty())) {
                     arg.fileInfo = value.getString();
@@ -985,6 +1234,14 @@ public class SpooledDirectoryTransfer implements Runnable {
                     } else if (args[i].equalsIgnoreCase("-limitParallel")) {
                         i++;
                         arg.limitParallel = Integer.parseInt(args[i]);
+                    } else if (args[i].equalsIgnoreCase("-limitHostParallel")) {
+                        i++;
+                        arg.limitHostParallel = Integer.parseInt(args[i]);
+                    } else if (args[i].equalsIgnoreCase("-watch")) {
+                        arg.watch = true;
+                    } else if (args[i].equalsIgnoreCase("-rescan")) {
+                        i++;
+                        arg.rescan = Long.parseLong(args[i]);
                     } else if (args[i].equalsIgnoreCase("-parallel")) {
                         arg.isparallel = true;
                     } else if (args[i].equalsIgnoreCase("-sequential")) {
@@ -1063,7 +1320,8 @@ public class SpooledDirectoryTransfer implements Runnable {
                                 arg.stopfile,
                                 arg.rule, arg.fileInfo, arg.ismd5, arg.rhosts, arg.block, arg.regex, arg.elapsed,
                                 arg.tosubmit, arg.noLog, arg.recursive,
-                                arg.elapsedWaarp, arg.isparallel, arg.limitParallel, arg.waarphosts, arg.minimalSize,
+                                arg.elapsedWaarp, arg.isparallel, arg.limitParallel, arg.limitHostParallel,
+                                arg.watch, arg.rescan, arg.waarphosts, arg.minimalSize,
                                 arg.logWarn,
                                 networkTransactionStatic);
                 executorService.submit(spooled);
@@ -1126,4 +1384,17 @@ public class SpooledDirectoryTransfer implements Runnable {
         this.error = error;
     }
 
+    /**
+     * Count the results of the transfers of one file, possibly from several files at once
+     * 
+     * @param ok
+     *            number of hosts in success
+     * @param ko
+     *            number of hosts in error
+     */
+    private synchronized void addResults(int ok, int ko) {
+        setSent(getSent() + ok);
+        setError(getError() + ko);
+    }
+
 }
@@ -0,0 +1,799 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.client.SpooledDirectoryTransfer.SpooledResult;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.protocol.utils.JsonStateStore;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Detection of the files to send from spooled directories driven by the changes of the directories,
+ * instead of checking each file at each period.
+ *
+ * At each period, only the modification time of each directory is checked: a directory is listed
+ * again only if it changed, and only the new entries are checked. A new or changed file is sent
+ * once its size and modification time did not change during one period. Since a file modified in
+ * place does not change its directory, the size and modification time of the known files are
+ * checked at each period, and all entries of all directories are listed again at each rescan
+ * period.
+ *
+ * The status of the files already sent or to retry is saved as changes appended to the status
+ * file, compacted from time to time.
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public class SpooledDirectoryWatcher {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(SpooledDirectoryWatcher.class);
+
+    /**
+     * Granularity of the modification time of directories on some file systems: a directory
+     * modified so close to its listing is listed again
+     */
+    private static final long MTIMEGRANULARITY = 2000;
+
+    /**
+     * States of a watched file
+     */
+    static enum STATE {
+        /**
+         * Seen as new or changed, not yet stable
+         */
+        CANDIDATE,
+        /**
+         * Being sent
+         */
+        RUNNING,
+        /**
+         * Sent
+         */
+        DONE,
+        /**
+         * Not sent due to an error, to retry
+         */
+        ERROR,
+        /**
+         * Not accepted by the filter
+         */
+        IGNORED
+    }
+
+    /**
+     * A watched file
+     */
+    static class WatchedFile {
+        final File file;
+        volatile long length;
+        volatile long lastModified;
+        /**
+         * Last time the length or the modification time changed
+         */
+        volatile long lastTime;
+        volatile long timeUsed = 0;
+        volatile long specialId = DbConstant.ILLEGALVALUE;
+        volatile STATE state = STATE.CANDIDATE;
+        /**
+         * True if saved within the status
+         */
+        volatile boolean saved = false;
+
+        WatchedFile(File file, long length, long lastModified, long lastTime) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.lastTime = lastTime;
+        }
+    }
+
+    /**
+     * A watched directory
+     */
+    private static class WatchedDirectory {
+        final File directory;
+        long lastModified = -1;
+        long lastListed = 0;
+        /**
+         * Paths of the entries of the last listing
+         */
+        Set<String> entries = Collections.emptySet();
+
+        private WatchedDirectory(File directory) {
+            this.directory = directory;
+        }
+    }
+
+    private final SpooledDirectoryTransfer spooled;
+    private final List<File> roots;
+    private final File statusFile;
+    private final File stopFile;
+    private final FileFilter filter;
+    private final boolean recursive;
+    private final long elapseTime;
+    private final long rescanTime;
+    /**
+     * Executor of the transfers, null if sent one after the other by the watcher itself
+     */
+    private final ExecutorService executor;
+    /**
+     * Status of the files already sent or to retry
+     */
+    private final JsonStateStore store;
+
+    /**
+     * Watched files by path
+     */
+    final ConcurrentHashMap<String, WatchedFile> files = new ConcurrentHashMap<String, WatchedFile>();
+    /**
+     * Watched directories by path, used by the watcher thread only
+     */
+    private final LinkedHashMap<String, WatchedDirectory> directories = new LinkedHashMap<String, WatchedDirectory>();
+    /**
+     * Paths of the files not yet stable, used by the watcher thread only
+     */
+    private final LinkedHashSet<String> candidates = new LinkedHashSet<String>();
+    /**
+     * Paths of the files reloaded from the status and not yet seen, used by the watcher thread only
+     */
+    private final Set<String> unseen = new HashSet<String>();
+    /**
+     * Files whose transfer failed, to check again
+     */
+    private final ConcurrentLinkedQueue<String> retries = new ConcurrentLinkedQueue<String>();
+    /**
+     * Paths of the files changed since the last information to Waarp hosts
+     */
+    private final Set<String> changedItems = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Paths of the files removed since the last information to Waarp hosts
+     */
+    private final Set<String> removedItems = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean nextAsFullStatus = true;
+    private final AtomicLong globalok = new AtomicLong(0);
+    private final AtomicLong globalerror = new AtomicLong(0);
+    private final AtomicLong todayok = new AtomicLong(0);
+    private final AtomicLong todayerror = new AtomicLong(0);
+    private int today = Calendar.getInstance().get(Calendar.DAY_OF_YEAR);
+
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private volatile boolean dirty = false;
+    private Runnable commandCheckIteration = null;
+    private long elapseWaarpTime = -1;
+    private ExecutorService informExecutor = null;
+    private final AtomicBoolean informing = new AtomicBoolean(false);
+
+    /**
+     * @param spooled
+     *            the spooled directory to send the files of
+     * @param roots
+     *            the directories to watch
+     * @param statusFile
+     * @param stopFile
+     * @param filter
+     *            the filter of the files to send, might be null
+     * @param recursive
+     * @param elapseTime
+     *            period of the check of the directories, also the time a file must not change
+     *            before being sent
+     * @param rescanTime
+     *            period of the check of all files
+     * @param parallel
+     *            if False, the files are sent one after the other
+     * @param limitParallel
+     *            limit of the number of files sent at once, 0 for no limit
+     */
+    public SpooledDirectoryWatcher(SpooledDirectoryTransfer spooled, List<File> roots, File statusFile,
+            File stopFile, FileFilter filter, boolean recursive, long elapseTime, long rescanTime,
+            boolean parallel, int limitParallel) {
+        this.spooled = spooled;
+        this.roots = roots;
+        this.statusFile = statusFile;
+        this.stopFile = stopFile;
+        this.filter = filter;
+        this.recursive = recursive;
+        this.elapseTime = elapseTime;
+        this.rescanTime = rescanTime < elapseTime ? elapseTime : rescanTime;
+        this.store = new JsonStateStore(statusFile);
+        if (!parallel) {
+            executor = null;
+        } else if (limitParallel > 0) {
+            executor = Executors.newFixedThreadPool(limitParallel,
+                    new WaarpThreadFactory("SpooledWatcher_" + spooled.name));
+        } else {
+            executor = Executors.newCachedThreadPool(new WaarpThreadFactory("SpooledWatcher_" + spooled.name));
+        }
+        for (File root : roots) {
+            directories.put(root.getAbsolutePath(), new WatchedDirectory(root));
+        }
+    }
+
+    /**
+     *
+     * @param command
+     *            command run at each elapseWaarpTime, out of the watcher thread
+     * @param elapseWaarpTime
+     */
+    public void setCommandCheckIteration(Runnable command, long elapseWaarpTime) {
+        this.commandCheckIteration = command;
+        this.elapseWaarpTime = elapseWaarpTime;
+        informExecutor = Executors.newSingleThreadExecutor(
+                new WaarpThreadFactory("SpooledWatcherInformation_" + spooled.name));
+    }
+
+    /**
+     * Watch the directories until the stop file is created or stop is called
+     */
+    public void run() {
+        loadStatus();
+        long nextRescan = 0;
+        long nextInform = 0;
+        while (!stopped.get()) {
+            if (stopFile.exists()) {
+                logger.warn("Stop file found: " + stopFile);
+                break;
+            }
+            long now = System.currentTimeMillis();
+            boolean rescan = now >= nextRescan;
+            if (rescan) {
+                nextRescan = now + rescanTime;
+            }
+            try {
+                checkDirectories(rescan, now);
+                if (!rescan) {
+                    checkFiles(now);
+                }
+                if (!unseen.isEmpty()) {
+                    // removed while not running
+                    removeEntries(new ArrayList<String>(unseen));
+                    unseen.clear();
+                }
+                checkCandidates(now);
+            } catch (Throwable e) {
+                logger.error("Error while checking spooled directories of " + spooled.name, e);
+            }
+            if (dirty) {
+                saveStatus();
+            }
+            if (commandCheckIteration != null && now >= nextInform) {
+                nextInform = now + elapseWaarpTime;
+                inform();
+            }
+            try {
+                Thread.sleep(elapseTime);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        stopped.set(true);
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(elapseTime, TimeUnit.MILLISECONDS)) {
+                    logger.info("Wait for the end of current transfers of " + spooled.name);
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while waiting for the end of transfers of " + spooled.name);
+            }
+        }
+        if (informExecutor != null) {
+            informExecutor.shutdown();
+        }
+        saveStatus();
+        store.close();
+    }
+
+    /**
+     * Stop the watcher, current transfers going on up to their end
+     */
+    public void stop() {
+        stopped.set(true);
+    }
+
+    /**
+     * List again the directories changed since their last listing, or all of them if rescan
+     *
+     * @param rescan
+     *            if True, all entries of all directories are checked
+     * @param now
+     */
+    private void checkDirectories(boolean rescan, long now) {
+        // subdirectories found are appended to the queue
+        LinkedList<WatchedDirectory> queue = new LinkedList<WatchedDirectory>(directories.values());
+        WatchedDirectory watched;
+        while ((watched = queue.poll()) != null) {
+            if (!directories.containsKey(watched.directory.getAbsolutePath())) {
+                // removed meanwhile
+                continue;
+            }
+            long modified = watched.directory.lastModified();
+            if (modified == 0 && !watched.directory.isDirectory()) {
+                if (!watched.entries.isEmpty()) {
+                    logger.warn("Directory no more available: " + watched.directory);
+                    removeEntries(watched.entries);
+                    watched.entries = Collections.emptySet();
+                }
+                watched.lastModified = -1;
+                continue;
+            }
+            if (!rescan && modified == watched.lastModified &&
+                    modified + MTIMEGRANULARITY < watched.lastListed) {
+                continue;
+            }
+            listDirectory(watched, rescan, now, queue);
+            watched.lastModified = modified;
+            watched.lastListed = now;
+        }
+    }
+
+    /**
+     *
+     * @param watched
+     * @param rescan
+     *            if True, all entries are checked, else only the new ones
+     * @param now
+     * @param queue
+     *            the queue of directories to list, new subdirectories being added
+     */
+    private void listDirectory(WatchedDirectory watched, boolean rescan, long now,
+            LinkedList<WatchedDirectory> queue) {
+        File[] list = watched.directory.listFiles();
+        if (list == null) {
+            return;
+        }
+        Set<String> entries = new HashSet<String>(list.length * 4 / 3 + 1);
+        for (File entry : list) {
+            String path = entry.getAbsolutePath();
+            entries.add(path);
+            if (!rescan && watched.entries.contains(path)) {
+                continue;
+            }
+            if (directories.containsKey(path)) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                if (recursive) {
+                    WatchedDirectory subdirectory = new WatchedDirectory(entry);
+                    directories.put(path, subdirectory);
+                    queue.add(subdirectory);
+                }
+                continue;
+            }
+            observe(entry, path, now);
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String path : watched.entries) {
+            if (!entries.contains(path)) {
+                removed.add(path);
+            }
+        }
+        removeEntries(removed);
+        watched.entries = entries;
+    }
+
+    /**
+     * Check the size and modification time of the known files, since a file modified in place
+     * does not change its directory
+     *
+     * @param now
+     */
+    private void checkFiles(long now) {
+        for (Entry<String, WatchedFile> entry : files.entrySet()) {
+            String path = entry.getKey();
+            WatchedFile watched = entry.getValue();
+            if (watched.state == STATE.RUNNING || candidates.contains(path)) {
+                continue;
+            }
+            long length = watched.file.length();
+            long modified = watched.file.lastModified();
+            if (modified == 0 && !watched.file.exists()) {
+                // removed, will be forgotten at the next listing of its directory
+                continue;
+            }
+            if (watched.length != length || watched.lastModified != modified) {
+                watched.length = length;
+                watched.lastModified = modified;
+                watched.lastTime = now;
+                watched.state = STATE.CANDIDATE;
+                candidates.add(path);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @param path
+     * @param now
+     */
+    private void observe(File file, String path, long now) {
+        unseen.remove(path);
+        long length = file.length();
+        long modified = file.lastModified();
+        WatchedFile watched = files.get(path);
+        if (watched == null) {
+            files.put(path, new WatchedFile(file, length, modified, now));
+            candidates.add(path);
+        } else if (watched.state != STATE.RUNNING &&
+                (watched.length != length || watched.lastModified != modified)) {
+            // changed since sent, or still changing
+            watched.length = length;
+            watched.lastModified = modified;
+            watched.lastTime = now;
+            watched.state = STATE.CANDIDATE;
+            candidates.add(path);
+        }
+    }
+
+    /**
+     * Forget these entries, files or directories
+     *
+     * @param paths
+     */
+    private void removeEntries(Iterable<String> paths) {
+        for (String path : paths) {
+            WatchedDirectory directory = directories.remove(path);
+            if (directory != null) {
+                removeEntries(directory.entries);
+                continue;
+            }
+            candidates.remove(path);
+            WatchedFile watched = files.remove(path);
+            if (watched != null) {
+                if (watched.saved) {
+                    watched.saved = false;
+                    store.remove(path);
+                }
+                changedItems.remove(path);
+                removedItems.add(path);
+                dirty = true;
+                if (spooled.normalInfoAsWarn) {
+                    logger.warn("File removed: {}", watched.file);
+                } else {
+                    logger.info("File removed: {}", watched.file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the candidates unchanged since one period
+     *
+     * @param now
+     */
+    private void checkCandidates(long now) {
+        String retry;
+        while ((retry = retries.poll()) != null) {
+            WatchedFile watched = files.get(retry);
+            if (watched != null && watched.state == STATE.ERROR) {
+                candidates.add(retry);
+            }
+        }
+        Iterator<String> iterator = candidates.iterator();
+        while (iterator.hasNext() && !stopped.get()) {
+            String path = iterator.next();
+            WatchedFile watched = files.get(path);
+            if (watched == null) {
+                iterator.remove();
+                continue;
+            }
+            long length = watched.file.length();
+            long modified = watched.file.lastModified();
+            if (modified == 0 && !watched.file.exists()) {
+                // removed, will be forgotten at the next listing of its directory
+                iterator.remove();
+                continue;
+            }
+            if (length != watched.length || modified != watched.lastModified) {
+                watched.length = length;
+                watched.lastModified = modified;
+                watched.lastTime = now;
+                continue;
+            }
+            if (now - watched.lastTime < elapseTime) {
+                continue;
+            }
+            iterator.remove();
+            if (filter != null && !filter.accept(watched.file)) {
+                watched.state = STATE.IGNORED;
+                continue;
+            }
+            send(path, watched);
+        }
+    }
+
+    /**
+     *
+     * @param path
+     * @param watched
+     *            a stable file
+     */
+    private void send(final String path, final WatchedFile watched) {
+        watched.state = STATE.RUNNING;
+        Runnable command = new Runnable() {
+            public void run() {
+                SpooledResult result = null;
+                try {
+                    result = spooled.sendToRemoteHosts(watched.file, watched.specialId);
+                } finally {
+                    finished(path, watched, result);
+                }
+            }
+        };
+        if (executor == null) {
+            command.run();
+            return;
+        }
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            // stopping
+            watched.state = STATE.ERROR;
+        }
+    }
+
+    /**
+     *
+     * @param path
+     * @param watched
+     * @param result
+     *            null if the transfers did not end normally
+     */
+    private void finished(String path, WatchedFile watched, SpooledResult result) {
+        checkToday();
+        watched.timeUsed = System.currentTimeMillis();
+        if (result != null) {
+            watched.specialId = result.specialId;
+        }
+        if (result != null && result.status) {
+            watched.state = STATE.DONE;
+            globalok.incrementAndGet();
+            todayok.incrementAndGet();
+        } else {
+            watched.state = STATE.ERROR;
+            globalerror.incrementAndGet();
+            todayerror.incrementAndGet();
+            if (!stopped.get()) {
+                retries.add(path);
+            }
+        }
+        if (files.get(path) == watched) {
+            watched.saved = true;
+            store.put(path, getStatusItem(watched));
+            changedItems.add(path);
+        }
+        dirty = true;
+    }
+
+    /**
+     * Reset the counters of the day when the day changed
+     */
+    private synchronized void checkToday() {
+        int day = Calendar.getInstance().get(Calendar.DAY_OF_YEAR);
+        if (day != today) {
+            today = day;
+            todayok.set(0);
+            todayerror.set(0);
+        }
+    }
+
+    /**
+     * Run the command to inform Waarp hosts, unless the previous one is still running
+     */
+    private void inform() {
+        if (!informing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            informExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        commandCheckIteration.run();
+                    } finally {
+                        informing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            informing.set(false);
+        }
+    }
+
+    /**
+     *
+     * @return the number of files currently watched
+     */
+    public long getCurrentHistoryNb() {
+        return files.size();
+    }
+
+    /**
+     * Next status will contain all files
+     */
+    public void setNextAsFullStatus() {
+        nextAsFullStatus = true;
+    }
+
+    /**
+     *
+     * @return the status of this spooled directory in the Json format of the information of a
+     *         FileMonitor, with all files or only the changes since the previous status
+     */
+    public String getStatus() {
+        checkToday();
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("name", spooled.name);
+        ArrayNode array = node.putArray("directories");
+        for (File root : roots) {
+            array.add(root.getAbsolutePath());
+        }
+        node.put("stopFile", stopFile.getAbsolutePath());
+        node.put("statusFile", statusFile.getAbsolutePath());
+        node.put("elapseTime", elapseTime);
+        node.put("scanSubDir", recursive);
+        node.put("globalok", globalok.get());
+        node.put("globalerror", globalerror.get());
+        node.put("todayok", todayok.get());
+        node.put("todayerror", todayerror.get());
+        ObjectNode items = node.putObject("fileItems");
+        boolean full = nextAsFullStatus;
+        nextAsFullStatus = false;
+        if (full) {
+            changedItems.clear();
+            removedItems.clear();
+            for (Entry<String, WatchedFile> entry : files.entrySet()) {
+                addItem(items, entry.getKey(), entry.getValue());
+            }
+        } else {
+            ArrayNode removed = node.putArray("removedFileItems");
+            for (String path : removedItems) {
+                removedItems.remove(path);
+                removed.add(path);
+            }
+            for (String path : changedItems) {
+                changedItems.remove(path);
+                WatchedFile watched = files.get(path);
+                if (watched != null) {
+                    addItem(items, path, watched);
+                }
+            }
+        }
+        return JsonHandler.writeAsString(node);
+    }
+
+    /**
+     *
+     * @param items
+     * @param path
+     * @param watched
+     */
+    private static void addItem(ObjectNode items, String path, WatchedFile watched) {
+        if (watched.state == STATE.IGNORED) {
+            return;
+        }
+        ObjectNode item = items.putObject(path);
+        item.put("file", path);
+        item.put("lastTime", watched.lastTime);
+        item.put("timeUsed", watched.timeUsed);
+        item.put("used", watched.state == STATE.DONE);
+        item.put("specialId", watched.specialId);
+    }
+
+    /**
+     *
+     * @param watched
+     * @return the status of this file already sent or to retry
+     */
+    private static ObjectNode getStatusItem(WatchedFile watched) {
+        ObjectNode item = JsonHandler.createObjectNode();
+        item.put("length", watched.length);
+        item.put("lastModified", watched.lastModified);
+        item.put("specialId", watched.specialId);
+        item.put("state", watched.state.name());
+        return item;
+    }
+
+    /**
+     * Append the changes of the files already sent or to retry, the status being rewritten only
+     * once the changes outnumber the files
+     */
+    private void saveStatus() {
+        dirty = false;
+        try {
+            store.flush();
+            if (store.needCompaction(files.size())) {
+                LinkedHashMap<String, ObjectNode> items = new LinkedHashMap<String, ObjectNode>();
+                for (Entry<String, WatchedFile> entry : files.entrySet()) {
+                    WatchedFile watched = entry.getValue();
+                    if (watched.saved) {
+                        items.put(entry.getKey(), getStatusItem(watched));
+                    }
+                }
+                store.compact(items);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot save the status of " + spooled.name + ": " + e.getMessage());
+            dirty = true;
+        }
+    }
+
+    /**
+     * Reload the files already sent or to retry
+     */
+    private void loadStatus() {
+        Map<String, ObjectNode> items;
+        try {
+            items = store.load();
+        } catch (IOException e) {
+            logger.warn("Cannot read the status of " + spooled.name + ": " + e.getMessage());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Entry<String, ObjectNode> entry : items.entrySet()) {
+            JsonNode item = entry.getValue();
+            WatchedFile watched = new WatchedFile(new File(entry.getKey()), item.path("length").asLong(),
+                    item.path("lastModified").asLong(), now);
+            watched.specialId = item.path("specialId").asLong(DbConstant.ILLEGALVALUE);
+            try {
+                watched.state = STATE.valueOf(item.path("state").asText());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            watched.saved = true;
+            files.put(entry.getKey(), watched);
+            unseen.add(entry.getKey());
+            if (watched.state == STATE.ERROR) {
+                retries.add(entry.getKey());
+            }
+        }
+        logger.info("Status of " + spooled.name + " reloaded: " + files.size() + " files");
+    }
+}
@@ -116,6 +116,59 @@ public class SubmitTransfer extends AbstractTransfer {
         future.setSuccess();
     }
 
+    /**
+     * Prepare the runner of this submission without creating it, to be created with others by
+     * DbTaskRunner.createBatch, then given to setSubmitted
+     * 
+     * @return the runner to create, or null if an error occurs (the future being failed)
+     */
+    protected DbTaskRunner prepareSubmit() {
+        if (logger == null) {
+            logger = WaarpLoggerFactory.getLogger(SubmitTransfer.class);
+        }
+        R66Result result = null;
+        if (!DbConstant.admin.isActive()) {
+            logger.debug("Client not connected");
+            result = new R66Result(new OpenR66DatabaseGlobalException("No database connexion"), null, true,
+                    ErrorCode.Internal, null);
+        } else {
+            DbTaskRunner taskRunner = this.initRequest(false);
+            if (taskRunner != null) {
+                taskRunner.changeUpdatedInfo(AbstractDbData.UpdatedInfo.TOSUBMIT);
+                return taskRunner;
+            }
+            logger.debug("Cannot prepare task");
+            if (future.isFailed() && future.getResult() != null) {
+                return null;
+            }
+            result = new R66Result(new OpenR66DatabaseGlobalException(), null, true,
+                    ErrorCode.Internal, null);
+        }
+        future.setResult(result);
+        future.setFailure(result.getException());
+        return null;
+    }
+
+    /**
+     * Set the result of this submission once its runner, from prepareSubmit, is created or not
+     * 
+     * @param taskRunner
+     * @param created
+     */
+    protected void setSubmitted(DbTaskRunner taskRunner, boolean created) {
+        if (created) {
+            R66Result result = new R66Result(null, false, ErrorCode.InitOk, taskRunner);
+            future.setResult(result);
+            future.setSuccess();
+        } else {
+            logger.debug("Cannot prepare task");
+            R66Result result = new R66Result(new OpenR66DatabaseGlobalException("Cannot prepare Task"), null, true,
+                    ErrorCode.Internal, taskRunner);
+            future.setResult(result);
+            future.setFailure(result.getException());
+        }
+    }
+
     /**
      * 
      * @param args
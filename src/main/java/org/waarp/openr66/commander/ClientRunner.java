@@ -41,6 +41,7 @@ import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelPool;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
@@ -77,6 +78,18 @@ public class ClientRunner extends Thread {
 
     private LocalChannelReference localChannelReference = null;
 
+    private boolean batchMode = false;
+
+    /**
+     * In batch mode, the LocalChannelReference available for the next request to the same host
+     */
+    private LocalChannelReference batchLocalChannelReference = null;
+
+    /**
+     * In batch mode, True if a next request to the same host is expected to follow
+     */
+    private boolean batchContinue = false;
+
     public ClientRunner(NetworkTransaction networkTransaction,
             DbTaskRunner taskRunner, R66Future futureRequest) {
         this.networkTransaction = networkTransaction;
@@ -325,10 +338,34 @@ public class ClientRunner extends Thread {
             transfer.await();
         } catch (InterruptedException e1) {
         }
+        return endTransfer(localChannelReference);
+    }
+
+    /**
+     * End the transfer once its R66Future is done, without waiting for it (as from a listener of this future, but
+     * not from a network thread since the runner is reloaded)
+     * 
+     * @param localChannelReference
+     * @return The R66Future of the transfer operation
+     * @throws OpenR66RunnerErrorException
+     */
+    public R66Future endTransfer(LocalChannelReference localChannelReference)
+            throws OpenR66RunnerErrorException {
+        if (this.localChannelReference == null) {
+            this.localChannelReference = localChannelReference;
+        }
+        R66Future transfer = localChannelReference.getFutureRequest();
         taskRunnerRetryHashMap.remove(taskRunner.getKey());
         logger.info("Request done with {}", (transfer.isSuccess() ? "success"
                 : "error"));
-        localChannelReference.getLocalChannel().close();
+        if (batchMode && transfer.isSuccess() && localChannelReference.getPartnerCapabilities() != null
+                && localChannelReference.getPartnerCapabilities().batch) {
+            // kept open for the next request of the batch
+            batchLocalChannelReference = localChannelReference;
+        } else if (!transfer.isSuccess() ||
+                !LocalChannelPool.offer(taskRunner.getRequested(), localChannelReference)) {
+            localChannelReference.getLocalChannel().close();
+        }
         // now reload TaskRunner if it still exists (light client can forget it)
         boolean isSender = taskRunner.isSender();
         if (transfer.isSuccess()) {
@@ -460,8 +497,30 @@ public class ClientRunner extends Thread {
         SocketAddress socketAddress = host.getSocketAddress();
         boolean isSSL = host.isSsl();
 
-        LocalChannelReference localChannelReference = networkTransaction
-                .createConnectionWithRetry(socketAddress, isSSL, futureRequest);
+        LocalChannelReference localChannelReference = null;
+        LocalChannelReference previous = batchLocalChannelReference;
+        batchLocalChannelReference = null;
+        if (previous == null && LocalChannelPool.isActive()) {
+            previous = LocalChannelPool.take(taskRunner.getRequested());
+        }
+        if (previous != null) {
+            // the last request is validated by its EndRequest, which may still be under process
+            previous.getFutureRequest().awaitUninterruptibly(Configuration.configuration.getTIMEOUTCON());
+            if (previous.resetForNextRequest(futureRequest)) {
+                logger.debug("Reuse the connection of a previous request to {}", host);
+                localChannelReference = previous;
+            } else {
+                previous.getLocalChannel().close();
+            }
+        }
+        if (localChannelReference == null) {
+            localChannelReference = networkTransaction
+                    .createConnectionWithRetry(socketAddress, isSSL, futureRequest);
+        }
+        if (localChannelReference != null) {
+            // tells the requested host to keep the channel for a next request
+            localChannelReference.setBatchContinue(batchMode ? batchContinue : LocalChannelPool.isActive());
+        }
         taskRunner.setLocalChannelReference(localChannelReference);
         if (localChannelReference == null) {
             // propose to redo
@@ -604,4 +663,30 @@ public class ClientRunner extends Thread {
     public boolean getSendThroughMode() {
         return isSendThroughMode;
     }
+
+    /**
+     * Batch mode: the LocalChannelReference of a successful transfer is kept open for a next
+     * request to the same host, if the partner supports it
+     * 
+     * @param previous
+     *            the LocalChannelReference kept from the previous request to the same host, to be
+     *            reused if still possible (null if none)
+     * @param next
+     *            True if a next request to the same host is expected to follow, such that the
+     *            requested host keeps the connection open
+     */
+    public void setBatchMode(LocalChannelReference previous, boolean next) {
+        batchMode = true;
+        batchLocalChannelReference = previous;
+        batchContinue = next;
+    }
+
+    /**
+     * 
+     * @return in batch mode, the LocalChannelReference available for the next request to the
+     *         same host (the caller being responsible to close it at the end), else null
+     */
+    public LocalChannelReference getBatchLocalChannelReference() {
+        return batchLocalChannelReference;
+    }
 }
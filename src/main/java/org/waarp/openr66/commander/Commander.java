@@ -17,6 +17,8 @@
  */
 package org.waarp.openr66.commander;
 
+import java.sql.Timestamp;
+
 import org.waarp.common.database.DbPreparedStatement;
 import org.waarp.common.database.data.AbstractDbData;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
@@ -340,6 +342,8 @@ public class Commander implements CommanderInterface {
                 while (preparedStatementHost.getNext()) {
                     // Maybe multiple
                     DbHostAuth hostAuth = DbHostAuth.getFromStatement(preparedStatementHost);
+                    // the key may have changed
+                    DbHostAuth.invalidateDecryptedKey(hostAuth.getHostid());
                     if (multipleMonitor != null) {
                         if (!mm) {
                             // not already set from a previous hostAuth
@@ -520,6 +524,23 @@ public class Commander implements CommanderInterface {
             } finally {
                 preparedStatementRunner.close();
             }
+            // Archive finished runners into history if activated
+            if (Configuration.configuration.isRunnerHistoryActive()) {
+                try {
+                    DbTaskRunner.archiveDoneRunners(DbConstant.admin.getSession(),
+                            new Timestamp(System.currentTimeMillis()
+                                    - Configuration.configuration.getRunnerHistoryDelay()),
+                            Configuration.configuration.getRunnerHistoryBatch());
+                } catch (WaarpDatabaseNoConnectionException e) {
+                    try {
+                        DbConstant.admin.getDbModel().validConnection(DbConstant.admin.getSession());
+                    } catch (WaarpDatabaseNoConnectionException e1) {
+                    }
+                    logger.error("Database No Connection Error: Cannot archive runners", e);
+                } catch (WaarpDatabaseSqlException e) {
+                    logger.error("Database SQL Error: Cannot archive runners", e);
+                }
+            }
             logger.debug("end commander");
         } finally {
             if (multipleMonitor != null) {
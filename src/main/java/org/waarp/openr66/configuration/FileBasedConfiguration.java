@@ -1733,6 +1733,15 @@ public class FileBasedConfiguration {
             } catch (WaarpDatabaseException e) {
                 logger.info(Messages.getString("FileBasedConfiguration.NoBandwidth") + e.getMessage()); //$NON-NLS-1$
             }
+            // load from database the bandwidth classes to apply
+            try {
+                DbHostConfiguration hostConfiguration = new DbHostConfiguration(
+                        DbConstant.admin.getSession(),
+                        config.getHOST_ID());
+                config.getBandwidthClasses().configure(hostConfiguration.getBandwidthClasses());
+            } catch (WaarpDatabaseException e) {
+                logger.info("No bandwidth classes: " + e.getMessage());
+            }
         } else {
             if (config.getBaseDirectory() != null &&
                     config.getConfigPath() != null) {
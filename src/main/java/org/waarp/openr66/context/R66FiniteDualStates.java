@@ -56,8 +56,9 @@ public enum R66FiniteDualStates {
         tDATAR(DATAR, EnumSet.of(DATAR, ENDTRANSFERS, CLOSEDCHANNEL, ERROR)),
         tENDTRANSFERS(ENDTRANSFERS, EnumSet.of(ENDTRANSFERR, CLOSEDCHANNEL, ERROR)),
         tENDTRANSFERR(ENDTRANSFERR, EnumSet.of(ENDREQUESTS, CLOSEDCHANNEL, ERROR)),
-        tENDREQUESTS(ENDREQUESTS, EnumSet.of(ENDREQUESTR, CLOSEDCHANNEL, ERROR)),
-        tENDREQUESTR(ENDREQUESTR, EnumSet.of(CLOSEDCHANNEL, ERROR)),
+        // REQUESTR for the next request of a batch over the same channel
+        tENDREQUESTS(ENDREQUESTS, EnumSet.of(ENDREQUESTR, REQUESTR, CLOSEDCHANNEL, ERROR)),
+        tENDREQUESTR(ENDREQUESTR, EnumSet.of(REQUESTR, CLOSEDCHANNEL, ERROR)),
         tINFORMATION(INFORMATION, EnumSet.of(VALIDOTHER, CLOSEDCHANNEL, ERROR)),
         tTEST(TEST, EnumSet.of(TEST, VALIDOTHER)),
         tVALIDOTHER(VALIDOTHER, EnumSet.of(VALIDOTHER, CLOSEDCHANNEL, ERROR)),
@@ -265,6 +265,23 @@ public class R66Session implements SessionInterface {
         }
     }
 
+    /**
+     * Prepare this session, whose last request is over, for the next request of a batch over the
+     * same authenticated channel
+     */
+    public void clearForNextRequest() {
+        runner = null;
+        file = null;
+        isReady = false;
+        restart.setSet(false);
+        blockSize = Configuration.configuration.getBLOCKSIZE();
+        if (businessObject != null) {
+            businessObject.releaseResources(this);
+        }
+        businessObject = Configuration.configuration.getR66BusinessFactory().getBusinessInterface(this);
+        setStatus(61);
+    }
+
     public R66Auth getAuth() {
         return auth;
     }
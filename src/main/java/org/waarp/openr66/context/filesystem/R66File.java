@@ -25,12 +25,18 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 
 import org.waarp.common.command.exception.CommandAbstractException;
+import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 import org.waarp.common.exception.FileEndOfTransferException;
 import org.waarp.common.exception.FileTransferException;
 import org.waarp.common.file.DataBlock;
@@ -48,8 +54,12 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.RetrieveRunner;
+import org.waarp.openr66.protocol.localhandler.packet.BlockSignaturePacket;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelScheduler;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
 import org.waarp.openr66.protocol.utils.FileUtils;
+import org.waarp.openr66.protocol.utils.TreeHash;
 
 /**
  * File representation
@@ -107,11 +117,35 @@ public class R66File extends FilesystemBasedFileImpl {
         LocalChannelReference localChannelReference = getSession()
                 .getLocalChannelReference();
         FilesystemBasedDigest digest = null;
+        TreeHash treeHash = null;
+        BlockSignaturePacket signatures = null;
+        // in tree hash mode, the leaves are hashed from the blocks while sent
+        int treeLeaf = FileUtils.getTreeHashLeaf(localChannelReference, getSession().getRunner());
+        // the final hash already computed to announce the content, if any, is not computed again
+        String announcedHash = null;
+        if (treeLeaf > 0 || Configuration.configuration.isGlobalDigest()) {
+            announcedHash = localChannelReference.getAnnouncedHash();
+        }
         logger.debug("File to retrieve: " + this.toString());
         try {
             if (!isReady) {
                 return;
             }
+            if (localChannelReference.getContentHash() != null) {
+                // the receiver already has the content, so only the end of transfer is sent
+                retrieveDone = true;
+                return;
+            }
+            if (treeLeaf > 0 && announcedHash == null) {
+                try {
+                    // the blocks before the restart rank are hashed from the file
+                    treeHash = TreeHash.resume(getSession().getRunner().getTreeHashCheckpoint(),
+                            Configuration.configuration.getDigest(), treeLeaf, getTrueFile(),
+                            (long) getSession().getRunner().getRank() * getSession().getRunner().getBlocksize());
+                } catch (IOException e) {
+                    logger.warn("Cannot resume the tree hash of " + getTrueFile() + ": " + e.getMessage());
+                }
+            }
             DataBlock block = null;
             try {
                 block = readDataBlock();
@@ -125,65 +159,56 @@ public class R66File extends FilesystemBasedFileImpl {
                 retrieveDone = true;
                 return;
             }
-            if (Configuration.configuration.isGlobalDigest()) {
+            if (Configuration.configuration.isGlobalDigest() && treeLeaf == 0 && announcedHash == null) {
                 try {
                     digest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
                 } catch (NoSuchAlgorithmException e2) {
                     // ignore
                 }
             }
-            ChannelFuture future1 = null, future2 = null;
+            DigestAlgo blockAlgo = null;
+            if (RequestPacket.isMD5Mode(getSession().getRunner().getMode())) {
+                blockAlgo = FileUtils.getBlockDigestAlgo(localChannelReference);
+            }
+            signatures = localChannelReference.getBlockSignatures();
+            int lastRank = 0;
+            if (signatures != null) {
+                // the last block is always sent
+                lastRank = (int) ((getTrueFile().length() - 1) / getSession().getRunner().getBlocksize());
+            }
+            // more than one write outstanding such that the network scheduler keeps the share of this transfer
+            int window = NetworkChannelScheduler.getWindow(localChannelReference);
+            ArrayDeque<ChannelFuture> writes = new ArrayDeque<ChannelFuture>();
             if ((block != null && (running.get()))) {
-                block.getBlock().retain();
-                future1 = RetrieveRunner.writeWhenPossible(
-                        block, localChannelReference);
-                if (Configuration.configuration.isGlobalDigest()) {
-                    FileUtils.computeGlobalHash(digest, block.getBlock());
-                }
+                retainBlock(block, window);
+                addWrite(writes, skipOrHashAndWrite(block, blockAlgo, treeHash, digest, signatures, lastRank,
+                        localChannelReference));
             }
             // While not last block
             while (block != null && (!block.isEOF()) && (running.get())) {
-                try {
-                    future1.await();
-                } catch (InterruptedException e) {
-                }
-                if (!future1.isSuccess()) {
+                if (!awaitWrites(writes, window - 1)) {
                     return;
                 }
                 try {
                     block = readDataBlock();
                 } catch (FileEndOfTransferException e) {
-                    // Wait for last write
-                    try {
-                        future1.await();
-                    } catch (InterruptedException e1) {
-                    }
-                    if (future1.isSuccess()) {
+                    // Wait for last writes
+                    if (awaitWrites(writes, 0)) {
                         retrieveDone = true;
                     }
                     return;
                 }
-                block.getBlock().retain();
-                future2 = RetrieveRunner.writeWhenPossible(
-                        block, localChannelReference);
-                if (Configuration.configuration.isGlobalDigest()) {
-                    FileUtils.computeGlobalHash(digest, block.getBlock());
-                }
-                future1 = future2;
+                retainBlock(block, window);
+                addWrite(writes, skipOrHashAndWrite(block, blockAlgo, treeHash, digest, signatures, lastRank,
+                        localChannelReference));
             }
             if (!running.get()) {
                 // stopped
                 return;
             }
-            // Wait for last write
-            if (future1 != null) {
-                try {
-                    future1.await();
-                } catch (InterruptedException e) {
-                }
-                if (!future1.isSuccess()) {
-                    return;
-                }
+            // Wait for last writes
+            if (!awaitWrites(writes, 0)) {
+                return;
             }
             if (block != null) {
                 block.getBlock().release();
@@ -207,10 +232,29 @@ public class R66File extends FilesystemBasedFileImpl {
                             new R66Result(e, getSession(), false,
                                     ErrorCode.Internal, getSession().getRunner()));
         } finally {
+            if (signatures != null) {
+                localChannelReference.setBlockSignatures(null);
+                signatures.clear();
+            }
             if (retrieveDone) {
+                getSession().getRunner().setTreeHashCheckpoint(null);
                 String hash = null;
-                if (digest != null) {
+                if (localChannelReference.getContentHash() != null) {
+                    hash = localChannelReference.getContentHash();
+                } else if (announcedHash != null) {
+                    hash = announcedHash;
+                } else if (digest != null) {
                     hash = FilesystemBasedDigest.getHex(digest.Final());
+                } else if (treeHash != null) {
+                    hash = treeHash.getRoot();
+                } else if (treeLeaf > 0) {
+                    try {
+                        // shared by the transfers of this file to other partners at once, if any
+                        hash = FileUtils.getSharedTreeHash(getTrueFile(), Configuration.configuration.getDigest(),
+                                treeLeaf);
+                    } catch (IOException e) {
+                        logger.warn("Cannot compute the tree hash of " + getTrueFile() + ": " + e.getMessage());
+                    }
                 }
                 try {
                     if (hash == null) {
@@ -226,6 +270,16 @@ public class R66File extends FilesystemBasedFileImpl {
                                     ErrorCode.Internal, getSession().getRunner()));
                 }
             } else {
+                if (treeHash != null) {
+                    // keep the leaves already hashed for a restart of this transfer
+                    DbTaskRunner runner = getSession().getRunner();
+                    runner.setTreeHashCheckpoint(treeHash.getCheckpoint());
+                    try {
+                        runner.update();
+                    } catch (WaarpDatabaseException e) {
+                        logger.warn("Cannot save the tree hash checkpoint: " + e.getMessage());
+                    }
+                }
                 // An error occurs!
                 getSession().setFinalizeTransfer(
                         false,
@@ -236,6 +290,145 @@ public class R66File extends FilesystemBasedFileImpl {
         }
     }
 
+    /**
+     * Keep the buffer of this block up to its write
+     * 
+     * @param block
+     * @param window
+     *            the number of writes outstanding at once
+     */
+    private static void retainBlock(DataBlock block, int window) {
+        if (window > 1) {
+            // the buffer read may be reused by the next read while this block waits to be sent
+            ByteBuf read = block.getBlock();
+            block.setBlock(read.copy());
+            read.release();
+        }
+        block.getBlock().retain();
+    }
+
+    /**
+     * 
+     * @param writes
+     * @param future
+     *            the write of the last block, null if none
+     */
+    private static void addWrite(ArrayDeque<ChannelFuture> writes, ChannelFuture future) {
+        if (future != null) {
+            writes.add(future);
+        }
+    }
+
+    /**
+     * Wait for the oldest writes until at most max are outstanding
+     * 
+     * @param writes
+     * @param max
+     * @return False if one of them failed
+     */
+    private static boolean awaitWrites(ArrayDeque<ChannelFuture> writes, int max) {
+        while (writes.size() > max) {
+            ChannelFuture future = writes.poll();
+            try {
+                future.await();
+            } catch (InterruptedException e) {
+            }
+            if (!future.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * In delta mode, skip the block if the receiver already has it, else send it
+     * 
+     * @param block
+     * @param blockAlgo
+     *            the algorithm of the block hash, null if not in MD5 mode
+     * @param treeHash
+     *            the tree hash, null if none
+     * @param digest
+     *            the global digest, null if none
+     * @param signatures
+     *            the signatures of the blocks already present on receiver side, null if none
+     * @param lastRank
+     *            rank of the last block, which is always sent
+     * @param localChannelReference
+     * @return the ChannelFuture of the write, or null if the block is skipped
+     * @throws OpenR66ProtocolPacketException
+     * @throws OpenR66ProtocolSystemException
+     */
+    private ChannelFuture skipOrHashAndWrite(DataBlock block, DigestAlgo blockAlgo, TreeHash treeHash,
+            FilesystemBasedDigest digest, BlockSignaturePacket signatures, int lastRank,
+            LocalChannelReference localChannelReference)
+            throws OpenR66ProtocolPacketException, OpenR66ProtocolSystemException {
+        DbTaskRunner runner = getSession().getRunner();
+        if (signatures != null && runner.getRank() < lastRank &&
+                signatures.isSameBlock(runner.getRank(), block.getBlock())) {
+            // the receiver copies this block from its previous version
+            FileUtils.computeHashes(block.getBlock(), null, treeHash, digest);
+            block.getBlock().release();
+            runner.incrementRank();
+            return null;
+        }
+        return hashAndWrite(block, blockAlgo, treeHash, digest, localChannelReference);
+    }
+
+    /**
+     * Compute the block hash and the global digest in one pass, then write the block. Without block
+     * hash, the global digest is computed within the hashing executor while the block is written.
+     * 
+     * @param block
+     * @param blockAlgo
+     *            the algorithm of the block hash, null if not in MD5 mode
+     * @param treeHash
+     *            the tree hash, null if none
+     * @param digest
+     *            the global digest, null if none
+     * @param localChannelReference
+     * @return the ChannelFuture of the write, the global digest being up to date
+     * @throws OpenR66ProtocolPacketException
+     * @throws OpenR66ProtocolSystemException
+     */
+    private ChannelFuture hashAndWrite(DataBlock block, DigestAlgo blockAlgo, TreeHash treeHash,
+            FilesystemBasedDigest digest, LocalChannelReference localChannelReference)
+            throws OpenR66ProtocolPacketException, OpenR66ProtocolSystemException {
+        if (blockAlgo != null) {
+            // the block hash is part of the packet so needed before the write: nothing to overlap
+            ByteBuf md5 = FileUtils.computeHashes(block.getBlock(), blockAlgo, treeHash, digest);
+            return RetrieveRunner.writeWhenPossible(block, localChannelReference, md5);
+        }
+        Future<ByteBuf> hashes = FileUtils.submitHashes(block.getBlock(), null, treeHash, digest);
+        ChannelFuture future = RetrieveRunner.writeWhenPossible(block, localChannelReference,
+                Unpooled.EMPTY_BUFFER);
+        // global digest computed while writing
+        FileUtils.getHashes(hashes);
+        return future;
+    }
+
+    /**
+     * 
+     * @return the file already at the final receive position of this file, as previous version for
+     *         a delta transfer, or null if none
+     */
+    public File getPreviousVersion() {
+        try {
+            File previous = getFileFromPath(getSession().getRunner().getRule()
+                    .setRecvPath(R66Dir.getFinalUniqueFilename(this)));
+            File current = getTrueFile();
+            if (previous.isFile() && previous.canRead() &&
+                    (current == null || !previous.getAbsolutePath().equals(current.getAbsolutePath()))) {
+                return previous;
+            }
+        } catch (CommandAbstractException e) {
+            logger.debug("No previous version: " + this, e);
+        } catch (OpenR66ProtocolSystemException e) {
+            logger.debug("No previous version: " + this, e);
+        }
+        return null;
+    }
+
     /**
      * This method is a good to have in a true FileInterface implementation.
      * 
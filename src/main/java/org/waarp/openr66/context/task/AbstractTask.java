@@ -18,18 +18,17 @@
 package org.waarp.openr66.context.task;
 
 import java.io.File;
-import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.utility.WaarpStringUtils;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
+import org.waarp.openr66.context.task.TaskArgumentTemplate.PLACEHOLDER;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
@@ -280,186 +279,199 @@ public abstract class AbstractTask implements Runnable {
      * @return The string with replaced values from context and second argument
      */
     protected String getReplacedValue(String arg, Object[] argFormat) {
-        StringBuilder builder = new StringBuilder(arg);
+        TaskArgumentTemplate template = TaskArgumentTemplate.getTemplate(arg);
         // check NOWAIT and LOCALEXEC
-        if (arg.contains(NOWAIT)) {
+        if (template.contains(PLACEHOLDER.NOWAIT)) {
             waitForValidation = false;
-            WaarpStringUtils.replaceAll(builder, NOWAIT, "");
         }
-        if (arg.contains(LOCALEXEC)) {
+        if (template.contains(PLACEHOLDER.LOCALEXEC)) {
             useLocalExec = true;
-            WaarpStringUtils.replaceAll(builder, LOCALEXEC, "");
         }
-        File trueFile = null;
-        if (session.getFile() != null) {
-            trueFile = session.getFile().getTrueFile();
+        Date date = null;
+        if (template.contains(PLACEHOLDER.DATE) || template.contains(PLACEHOLDER.HOUR)) {
+            date = new Date();
         }
-        if (trueFile != null) {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, trueFile.getAbsolutePath());
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, R66Dir
-                    .getFinalUniqueFilename(session.getFile()));
-            WaarpStringUtils.replaceAll(builder, FILESIZE, Long.toString(trueFile.length()));
-        } else {
-            WaarpStringUtils.replaceAll(builder, TRUEFULLPATH, "nofile");
-            WaarpStringUtils.replaceAll(builder, TRUEFILENAME, "nofile");
-            WaarpStringUtils.replaceAll(builder, FILESIZE, "0");
+        StringBuilder builder = new StringBuilder(arg.length() + 64);
+        builder.append(template.literals[0]);
+        for (int i = 0; i < template.placeholders.length; i++) {
+            PLACEHOLDER placeholder = template.placeholders[i];
+            String value = getPlaceholderValue(placeholder, date);
+            // unknown value keeps the placeholder as is
+            builder.append(value == null ? placeholder.token : value);
+            builder.append(template.literals[i + 1]);
         }
-        DbTaskRunner runner = session.getRunner();
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, ORIGINALFULLPATH, runner
-                    .getOriginalFilename());
-            WaarpStringUtils.replaceAll(builder, ORIGINALFILENAME,
-                    R66File.getBasename(runner
-                            .getOriginalFilename()));
-            WaarpStringUtils.replaceAll(builder, RULE, runner
-                    .getRuleId());
-        }
-        DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-        Date date = new Date();
-        WaarpStringUtils.replaceAll(builder, DATE, dateFormat.format(date));
-        dateFormat = new SimpleDateFormat("HHmmss");
-        WaarpStringUtils.replaceAll(builder, HOUR, dateFormat.format(date));
-        if (session.getAuth() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOST, session.getAuth().getUser());
+        // finalname
+        if (argFormat != null && argFormat.length > 0)
             try {
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHostId(session.getAuth().isSsl()));
-            } catch (OpenR66ProtocolNoSslException e) {
-                // replace by standard name
-                WaarpStringUtils.replaceAll(builder, LOCALHOST,
-                        Configuration.configuration.getHOST_ID());
+                return String.format(builder.toString(), argFormat);
+            } catch (Exception e) {
+                // ignored error since bad argument in static rule info
+                logger.error("Bad format in Rule: {"+builder.toString()+"} " + e.getMessage());
             }
-        }
-        if (session.getRemoteAddress() != null) {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, session.getRemoteAddress()
-                    .toString());
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, session.getLocalAddress()
-                    .toString());
-        } else {
-            WaarpStringUtils.replaceAll(builder, REMOTEHOSTADDR, "unknown");
-            WaarpStringUtils.replaceAll(builder, LOCALHOSTADDR, "unknown");
-        }
-        if (runner != null) {
-            WaarpStringUtils.replaceAll(builder, TRANSFERID, Long.toString(runner.getSpecialId()));
-            String requester = runner.getRequester();
-            WaarpStringUtils.replaceAll(builder, REQUESTERHOST, requester);
-            String requested = runner.getRequested();
-            WaarpStringUtils.replaceAll(builder, REQUESTEDHOST, requested);
-            WaarpStringUtils.replaceAll(builder, FULLTRANSFERID,
-                    runner.getSpecialId() + "_" + requester + "_" + requested);
-            WaarpStringUtils.replaceAll(builder, RANKTRANSFER, Integer.toString(runner.getRank()));
-        }
-        WaarpStringUtils.replaceAll(builder, BLOCKSIZE, Integer.toString(session
-                .getBlockSize()));
-        R66Dir dir = new R66Dir(session);
-        if (runner != null) {
-            if (runner.isRecvThrough() || runner.isSendThrough()) {
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+        return builder.toString();
+    }
+
+    /**
+     * 
+     * @param placeholder
+     * @param date
+     *            the current date if DATE or HOUR is used
+     * @return the value from context for this placeholder, or null if not available
+     */
+    private String getPlaceholderValue(PLACEHOLDER placeholder, Date date) {
+        DbTaskRunner runner = session.getRunner();
+        switch (placeholder) {
+            case NOWAIT:
+            case LOCALEXEC:
+                return "";
+            case TRUEFULLPATH:
+            case TRUEFILENAME:
+            case FILESIZE: {
+                File trueFile = null;
+                if (session.getFile() != null) {
+                    trueFile = session.getFile().getTrueFile();
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                if (trueFile == null) {
+                    return placeholder == PLACEHOLDER.FILESIZE ? "0" : "nofile";
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                if (placeholder == PLACEHOLDER.TRUEFULLPATH) {
+                    return trueFile.getAbsolutePath();
+                } else if (placeholder == PLACEHOLDER.TRUEFILENAME) {
+                    return R66Dir.getFinalUniqueFilename(session.getFile());
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectoryNotChecked(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                return Long.toString(trueFile.length());
+            }
+            case ORIGINALFULLPATH:
+                return runner == null ? null : runner.getOriginalFilename();
+            case ORIGINALFILENAME:
+                return runner == null ? null : R66File.getBasename(runner.getOriginalFilename());
+            case RULE:
+                return runner == null ? null : runner.getRuleId();
+            case DATE:
+                return new SimpleDateFormat("yyyyMMdd").format(date);
+            case HOUR:
+                return new SimpleDateFormat("HHmmss").format(date);
+            case REMOTEHOST:
+                return session.getAuth() == null ? null : session.getAuth().getUser();
+            case LOCALHOST:
+                if (session.getAuth() == null) {
+                    return null;
                 }
-            } else {
                 try {
-                    dir.changeDirectory(runner.getRule().getRecvPath());
-                    WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                    return Configuration.configuration.getHostId(session.getAuth().isSsl());
+                } catch (OpenR66ProtocolNoSslException e) {
+                    // replace by standard name
+                    return Configuration.configuration.getHOST_ID();
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getSendPath());
-                    WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+            case REMOTEHOSTADDR:
+                return session.getRemoteAddress() == null ? "unknown" : session.getRemoteAddress().toString();
+            case LOCALHOSTADDR:
+                return session.getRemoteAddress() == null ? "unknown" : session.getLocalAddress().toString();
+            case TRANSFERID:
+                return runner == null ? null : Long.toString(runner.getSpecialId());
+            case REQUESTERHOST:
+                return runner == null ? null : runner.getRequester();
+            case REQUESTEDHOST:
+                return runner == null ? null : runner.getRequested();
+            case FULLTRANSFERID:
+                return runner == null ? null :
+                        runner.getSpecialId() + "_" + runner.getRequester() + "_" + runner.getRequested();
+            case RANKTRANSFER:
+                return runner == null ? null : Integer.toString(runner.getRank());
+            case BLOCKSIZE:
+                return Integer.toString(session.getBlockSize());
+            case INPATH:
+            case OUTPATH:
+            case WORKPATH:
+            case ARCHPATH:
+                return getDirectoryPath(placeholder, runner);
+            case HOMEPATH:
+                return Configuration.configuration.getBaseDirectory();
+            case ERRORMSG:
+                if (session.getLocalChannelReference() != null) {
+                    try {
+                        String message = session.getLocalChannelReference().getErrorMessage();
+                        if (message != null) {
+                            return message;
+                        }
+                    } catch (NullPointerException e) {
+                    }
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getWorkPath());
-                    WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                return "NoError";
+            case ERRORCODE:
+                if (session.getLocalChannelReference() != null) {
+                    try {
+                        return session.getLocalChannelReference().getCurrentCode().getCode();
+                    } catch (NullPointerException e) {
+                    }
                 }
-                dir = new R66Dir(session);
-                try {
-                    dir.changeDirectory(runner.getRule().getArchivePath());
-                    WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-                } catch (CommandAbstractException e) {
+                return "-";
+            case ERRORSTRCODE:
+                if (session.getLocalChannelReference() != null) {
+                    try {
+                        return session.getLocalChannelReference().getCurrentCode().name();
+                    } catch (NullPointerException e) {
+                    }
                 }
-            }
-        } else {
-            try {
-                dir.changeDirectory(Configuration.configuration.getInPath());
-                WaarpStringUtils.replaceAll(builder, INPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getOutPath());
-                WaarpStringUtils.replaceAll(builder, OUTPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getWorkingPath());
-                WaarpStringUtils.replaceAll(builder, WORKPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
-            dir = new R66Dir(session);
-            try {
-                dir.changeDirectory(Configuration.configuration.getArchivePath());
-                WaarpStringUtils.replaceAll(builder, ARCHPATH, dir.getFullPath());
-            } catch (CommandAbstractException e) {
-            }
+                return ErrorCode.Unknown.name();
+            default:
+                return null;
         }
-        WaarpStringUtils.replaceAll(builder, HOMEPATH, Configuration.configuration.getBaseDirectory());
-        if (session.getLocalChannelReference() == null) {
-            WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
-        } else {
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, session.getLocalChannelReference()
-                        .getErrorMessage());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORMSG, "NoError");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, session.getLocalChannelReference()
-                        .getCurrentCode().getCode());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORCODE, "-");
-            }
-            try {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, session
-                        .getLocalChannelReference().getCurrentCode().name());
-            } catch (NullPointerException e) {
-                WaarpStringUtils.replaceAll(builder, ERRORSTRCODE, ErrorCode.Unknown.name());
+    }
+
+    /**
+     * 
+     * @param placeholder
+     *            one of INPATH, OUTPATH, WORKPATH or ARCHPATH
+     * @param runner
+     * @return the full path of the corresponding directory, from the rule if any, or null if
+     *         not available
+     */
+    private String getDirectoryPath(PLACEHOLDER placeholder, DbTaskRunner runner) {
+        R66Dir dir = new R66Dir(session);
+        try {
+            if (runner == null) {
+                String path;
+                switch (placeholder) {
+                    case INPATH:
+                        path = Configuration.configuration.getInPath();
+                        break;
+                    case OUTPATH:
+                        path = Configuration.configuration.getOutPath();
+                        break;
+                    case WORKPATH:
+                        path = Configuration.configuration.getWorkingPath();
+                        break;
+                    default:
+                        path = Configuration.configuration.getArchivePath();
+                        break;
+                }
+                dir.changeDirectory(path);
+            } else {
+                String path;
+                switch (placeholder) {
+                    case INPATH:
+                        path = runner.getRule().getRecvPath();
+                        break;
+                    case OUTPATH:
+                        path = runner.getRule().getSendPath();
+                        break;
+                    case WORKPATH:
+                        path = runner.getRule().getWorkPath();
+                        break;
+                    default:
+                        path = runner.getRule().getArchivePath();
+                        break;
+                }
+                if (runner.isRecvThrough() || runner.isSendThrough()) {
+                    dir.changeDirectoryNotChecked(path);
+                } else {
+                    dir.changeDirectory(path);
+                }
             }
+            return dir.getFullPath();
+        } catch (CommandAbstractException e) {
+            return null;
         }
-        // finalname
-        if (argFormat != null && argFormat.length > 0)
-            try {
-                return String.format(builder.toString(), argFormat);
-            } catch (Exception e) {
-                // ignored error since bad argument in static rule info
-                logger.error("Bad format in Rule: {"+builder.toString()+"} " + e.getMessage());
-            }
-        return builder.toString();
     }
 }
@@ -21,6 +21,9 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -30,7 +33,6 @@ import org.waarp.common.filemonitor.FileMonitor.FileMonitorInformation;
 import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.utility.WaarpStringUtils;
 import org.waarp.openr66.client.SpooledDirectoryTransfer;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.protocol.configuration.Configuration;
@@ -38,9 +40,12 @@ import org.waarp.openr66.protocol.configuration.Messages;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.packet.BusinessRequestPacket;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.JsonHtmlUtils;
+import org.waarp.openr66.protocol.utils.JsonStateStore;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -60,6 +65,19 @@ public class SpooledInformTask extends AbstractExecJavaTask {
 
     static final TreeMap<String, SpooledInformation> spooledInformationMap = new TreeMap<String, SpooledInformTask.SpooledInformation>();
 
+    /**
+     * Separator between the name of a spooled directory and the path of one of its files in the keys of the store
+     */
+    private static final char ITEMSEPARATOR = '\n';
+
+    /**
+     * Persistent store of spooledInformationMap, by name for each spooled directory and by name and path for each
+     * of its files, null if none
+     */
+    private static JsonStateStore store = null;
+
+    private static boolean storeLoaded = false;
+
     public static class SpooledInformation {
         public String host;
         public FileMonitorInformation fileMonitorInformation;
@@ -94,10 +112,12 @@ public class SpooledInformTask extends AbstractExecJavaTask {
                                     .size() : -1) + ")");
                     String host = this.session.getAuth().getUser();
                     synchronized (spooledInformationMap) {
+                        checkStore();
                         if (fileMonitorInformation.removedFileItems == null
                                 || fileMonitorInformation.removedFileItems.isEmpty()) {
                             SpooledInformation old = spooledInformationMap.put(fileMonitorInformation.name,
                                     new SpooledInformation(host, fileMonitorInformation));
+                            saveFull(fileMonitorInformation.name, old);
                             if (old != null && old.fileMonitorInformation != null) {
                                 if (old.fileMonitorInformation.directories != null) {
                                     old.fileMonitorInformation.directories.clear();
@@ -115,6 +135,7 @@ public class SpooledInformTask extends AbstractExecJavaTask {
                                 // Issue since update is not existing so full update is needed next time
                                 spooledInformationMap.put(fileMonitorInformation.name, new SpooledInformation(host,
                                         fileMonitorInformation));
+                                saveFull(fileMonitorInformation.name, null);
                                 validated = SpooledDirectoryTransfer.NEEDFULL;
                             } else {
                                 for (String item : fileMonitorInformation.removedFileItems) {
@@ -122,8 +143,10 @@ public class SpooledInformTask extends AbstractExecJavaTask {
                                 }
                                 update.fileMonitorInformation.fileItems.putAll(fileMonitorInformation.fileItems);
                                 update.lastUpdate = new Date();
+                                savePartial(fileMonitorInformation, update);
                             }
                         }
+                        flushStore();
                     }
                 } catch (JsonParseException e1) {
                     logger.warn("Cannot parse SpooledInformation: " + fullarg + " " + e1.getMessage());
@@ -150,6 +173,179 @@ public class SpooledInformTask extends AbstractExecJavaTask {
         }
     }
 
+    /**
+     * Load once the information saved if a store is configured, within synchronized spooledInformationMap
+     */
+    private static void checkStore() {
+        if (storeLoaded) {
+            return;
+        }
+        storeLoaded = true;
+        String filename = Configuration.configuration.getSpooledStoreFile();
+        if (filename == null || filename.trim().isEmpty()) {
+            return;
+        }
+        store = new JsonStateStore(new File(filename.trim()));
+        Map<String, ObjectNode> entries;
+        try {
+            entries = store.load();
+        } catch (IOException e) {
+            logger.warn("Cannot read the saved spooled information: " + e.getMessage());
+            return;
+        }
+        // spooled directories first, since their files might come before
+        for (Entry<String, ObjectNode> entry : entries.entrySet()) {
+            if (entry.getKey().indexOf(ITEMSEPARATOR) >= 0) {
+                continue;
+            }
+            ObjectNode node = entry.getValue();
+            try {
+                ObjectNode information = (ObjectNode) node.path("information");
+                information.putObject("fileItems");
+                SpooledInformation inform = new SpooledInformation(node.path("host").asText(),
+                        JsonHandler.mapper.treeToValue(information, FileMonitorInformation.class));
+                inform.lastUpdate = new Date(node.path("lastUpdate").asLong());
+                spooledInformationMap.put(entry.getKey(), inform);
+            } catch (ClassCastException e) {
+                logger.warn("Cannot read the saved spooled information of " + entry.getKey());
+            } catch (IOException e) {
+                logger.warn("Cannot read the saved spooled information of " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        for (Entry<String, ObjectNode> entry : entries.entrySet()) {
+            int pos = entry.getKey().indexOf(ITEMSEPARATOR);
+            if (pos < 0) {
+                continue;
+            }
+            SpooledInformation inform = spooledInformationMap.get(entry.getKey().substring(0, pos));
+            if (inform == null) {
+                continue;
+            }
+            try {
+                inform.fileMonitorInformation.fileItems.put(entry.getKey().substring(pos + 1),
+                        JsonHandler.mapper.treeToValue(entry.getValue(), FileItem.class));
+            } catch (IOException e) {
+                logger.debug("Cannot read the saved spooled file " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        logger.info("Spooled information reloaded: " + spooledInformationMap.size());
+    }
+
+    /**
+     * Save the information of this spooled directory, without its files
+     * 
+     * @param name
+     * @param inform
+     */
+    private static void saveInformation(String name, SpooledInformation inform) {
+        store.put(name, getInformationNode(inform));
+    }
+
+    /**
+     * 
+     * @param inform
+     * @return the Json of this information without its files
+     */
+    private static ObjectNode getInformationNode(SpooledInformation inform) {
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("host", inform.host);
+        node.put("lastUpdate", inform.lastUpdate.getTime());
+        ObjectNode information = JsonHandler.mapper.valueToTree(inform.fileMonitorInformation);
+        information.remove("fileItems");
+        information.remove("removedFileItems");
+        node.set("information", information);
+        return node;
+    }
+
+    /**
+     * Save the full information of this spooled directory, only the files changed being written
+     * 
+     * @param name
+     * @param old
+     *            the previous information, null if none
+     */
+    private static void saveFull(String name, SpooledInformation old) {
+        if (store == null) {
+            return;
+        }
+        SpooledInformation inform = spooledInformationMap.get(name);
+        saveInformation(name, inform);
+        Map<String, FileItem> oldItems = null;
+        if (old != null && old.fileMonitorInformation != null) {
+            oldItems = old.fileMonitorInformation.fileItems;
+        }
+        if (oldItems != null) {
+            for (String path : oldItems.keySet()) {
+                if (!inform.fileMonitorInformation.fileItems.containsKey(path)) {
+                    store.remove(name + ITEMSEPARATOR + path);
+                }
+            }
+        }
+        for (Entry<String, FileItem> item : inform.fileMonitorInformation.fileItems.entrySet()) {
+            JsonNode node = JsonHandler.mapper.valueToTree(item.getValue());
+            if (oldItems != null) {
+                FileItem oldItem = oldItems.get(item.getKey());
+                if (oldItem != null && node.equals(JsonHandler.mapper.valueToTree(oldItem))) {
+                    continue;
+                }
+            }
+            store.put(name + ITEMSEPARATOR + item.getKey(), (ObjectNode) node);
+        }
+    }
+
+    /**
+     * Save the changes of a partial information
+     * 
+     * @param partial
+     *            the partial information received
+     * @param inform
+     *            the updated information
+     */
+    private static void savePartial(FileMonitorInformation partial, SpooledInformation inform) {
+        if (store == null) {
+            return;
+        }
+        saveInformation(partial.name, inform);
+        for (String path : partial.removedFileItems) {
+            store.remove(partial.name + ITEMSEPARATOR + path);
+        }
+        for (Entry<String, FileItem> item : partial.fileItems.entrySet()) {
+            ObjectNode node = JsonHandler.mapper.valueToTree(item.getValue());
+            store.put(partial.name + ITEMSEPARATOR + item.getKey(), node);
+        }
+    }
+
+    /**
+     * Write the changes, compacting the store when the changes outnumber the saved entries
+     */
+    private static void flushStore() {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.flush();
+            int size = spooledInformationMap.size();
+            for (SpooledInformation inform : spooledInformationMap.values()) {
+                size += inform.fileMonitorInformation.fileItems.size();
+            }
+            if (store.needCompaction(size)) {
+                Map<String, ObjectNode> entries = new LinkedHashMap<String, ObjectNode>();
+                for (Entry<String, SpooledInformation> entry : spooledInformationMap.entrySet()) {
+                    String name = entry.getKey();
+                    entries.put(name, getInformationNode(entry.getValue()));
+                    for (Entry<String, FileItem> item : entry.getValue().fileMonitorInformation.fileItems
+                            .entrySet()) {
+                        ObjectNode node = JsonHandler.mapper.valueToTree(item.getValue());
+                        entries.put(name + ITEMSEPARATOR + item.getKey(), node);
+                    }
+                }
+                store.compact(entries);
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot save the spooled information: " + e.getMessage());
+        }
+    }
+
     /**
      * @param detailed
      * @param status
@@ -161,6 +357,7 @@ public class SpooledInformTask extends AbstractExecJavaTask {
         StringBuilder builder = beginSpooledTable(detailed, uri);
         // get current information
         synchronized (spooledInformationMap) {
+            checkStore();
             Set<String> names = spooledInformationMap.keySet();
             for (String name : names) {
                 // per Name
@@ -180,6 +377,7 @@ public class SpooledInformTask extends AbstractExecJavaTask {
         StringBuilder builder = beginSpooledTable(false, uri);
         // get current information
         synchronized (spooledInformationMap) {
+            checkStore();
             // per Name
             SpooledInformation inform = buildSpooledTableElement(false, 0, builder, name);
             endSpooledTable(builder);
@@ -346,13 +544,14 @@ public class SpooledInformTask extends AbstractExecJavaTask {
         ArrayNode array = JsonHandler.createArrayNode();
         // get current information
         synchronized (spooledInformationMap) {
+            checkStore();
             Set<String> names = spooledInformationMap.keySet();
             for (String name : names) {
                 // per Name
                 buildSpooledJsonElement(detailed, status, array, name);
             }
         }
-        return WaarpStringUtils.cleanJsonForHtml(array.toString());
+        return JsonHtmlUtils.writeAsString(array);
     }
 
     /**
@@ -364,11 +563,12 @@ public class SpooledInformTask extends AbstractExecJavaTask {
         ArrayNode array = JsonHandler.createArrayNode();
         // get current information
         synchronized (spooledInformationMap) {
+            checkStore();
             // per Name
             buildSpooledJsonElement(true, 0, array, name);
         }
         logger.warn(array.toString());
-        return WaarpStringUtils.cleanJsonForHtml(array.toString());
+        return JsonHtmlUtils.writeAsString(array);
     }
 
     /**
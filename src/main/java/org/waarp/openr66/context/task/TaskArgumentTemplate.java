@@ -0,0 +1,182 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Argument of a Rule task parsed once into literal and placeholder segments, such that only the
+ * placeholders really present are computed at each execution
+ *
+ * @author Frederic Bregier
+ *
+ */
+class TaskArgumentTemplate {
+    /**
+     * Placeholders supported within Rule task arguments
+     */
+    static enum PLACEHOLDER {
+        TRUEFULLPATH(AbstractTask.TRUEFULLPATH),
+        TRUEFILENAME(AbstractTask.TRUEFILENAME),
+        ORIGINALFULLPATH(AbstractTask.ORIGINALFULLPATH),
+        ORIGINALFILENAME(AbstractTask.ORIGINALFILENAME),
+        FILESIZE(AbstractTask.FILESIZE),
+        RULE(AbstractTask.RULE),
+        DATE(AbstractTask.DATE),
+        HOUR(AbstractTask.HOUR),
+        REMOTEHOST(AbstractTask.REMOTEHOST),
+        REMOTEHOSTADDR(AbstractTask.REMOTEHOSTADDR),
+        LOCALHOST(AbstractTask.LOCALHOST),
+        LOCALHOSTADDR(AbstractTask.LOCALHOSTADDR),
+        TRANSFERID(AbstractTask.TRANSFERID),
+        REQUESTERHOST(AbstractTask.REQUESTERHOST),
+        REQUESTEDHOST(AbstractTask.REQUESTEDHOST),
+        FULLTRANSFERID(AbstractTask.FULLTRANSFERID),
+        RANKTRANSFER(AbstractTask.RANKTRANSFER),
+        BLOCKSIZE(AbstractTask.BLOCKSIZE),
+        INPATH(AbstractTask.INPATH),
+        OUTPATH(AbstractTask.OUTPATH),
+        WORKPATH(AbstractTask.WORKPATH),
+        ARCHPATH(AbstractTask.ARCHPATH),
+        HOMEPATH(AbstractTask.HOMEPATH),
+        ERRORMSG(AbstractTask.ERRORMSG),
+        ERRORCODE(AbstractTask.ERRORCODE),
+        ERRORSTRCODE(AbstractTask.ERRORSTRCODE),
+        NOWAIT(AbstractTask.NOWAIT),
+        LOCALEXEC(AbstractTask.LOCALEXEC);
+
+        final String token;
+
+        private PLACEHOLDER(String token) {
+            this.token = token;
+        }
+    }
+
+    /**
+     * Placeholders by their token
+     */
+    private static final Map<String, PLACEHOLDER> tokens = new HashMap<String, PLACEHOLDER>();
+    static {
+        for (PLACEHOLDER placeholder : PLACEHOLDER.values()) {
+            tokens.put(placeholder.token, placeholder);
+        }
+    }
+
+    /**
+     * Maximum number of cached templates (arguments come from Rules so are limited in number)
+     */
+    private static final int MAXCACHED = 2000;
+
+    /**
+     * Compiled templates by argument
+     */
+    private static final ConcurrentHashMap<String, TaskArgumentTemplate> templates =
+            new ConcurrentHashMap<String, TaskArgumentTemplate>();
+
+    /**
+     * Literal segments: always one more than placeholders
+     */
+    final String[] literals;
+    /**
+     * Placeholder segments, the i-th being between the i-th and the (i+1)-th literals
+     */
+    final PLACEHOLDER[] placeholders;
+    /**
+     * Placeholders present in this template
+     */
+    private final EnumSet<PLACEHOLDER> present;
+
+    private TaskArgumentTemplate(String[] literals, PLACEHOLDER[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        present = EnumSet.noneOf(PLACEHOLDER.class);
+        for (PLACEHOLDER placeholder : placeholders) {
+            present.add(placeholder);
+        }
+    }
+
+    /**
+     *
+     * @param placeholder
+     * @return True if this placeholder is present at least once
+     */
+    boolean contains(PLACEHOLDER placeholder) {
+        return present.contains(placeholder);
+    }
+
+    /**
+     *
+     * @param arg
+     * @return the compiled template for this argument, from cache if already compiled
+     */
+    static TaskArgumentTemplate getTemplate(String arg) {
+        TaskArgumentTemplate template = templates.get(arg);
+        if (template == null) {
+            template = compile(arg);
+            if (templates.size() >= MAXCACHED) {
+                templates.clear();
+            }
+            templates.put(arg, template);
+        }
+        return template;
+    }
+
+    /**
+     *
+     * @param arg
+     * @return the template for this argument, unknown #XXX# being kept as literals
+     */
+    static TaskArgumentTemplate compile(String arg) {
+        List<String> literals = new ArrayList<String>();
+        List<PLACEHOLDER> placeholders = new ArrayList<PLACEHOLDER>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        int len = arg.length();
+        while (pos < len) {
+            int first = arg.indexOf('#', pos);
+            if (first < 0) {
+                break;
+            }
+            int second = arg.indexOf('#', first + 1);
+            if (second < 0) {
+                break;
+            }
+            PLACEHOLDER placeholder = tokens.get(arg.substring(first, second + 1));
+            if (placeholder == null) {
+                // the second # may start a placeholder
+                literal.append(arg, pos, second);
+                pos = second;
+            } else {
+                literal.append(arg, pos, first);
+                literals.add(literal.toString());
+                literal.setLength(0);
+                placeholders.add(placeholder);
+                pos = second + 1;
+            }
+        }
+        literal.append(arg, pos, len);
+        literals.add(literal.toString());
+        return new TaskArgumentTemplate(literals.toArray(new String[literals.size()]),
+                placeholders.toArray(new PLACEHOLDER[placeholders.size()]));
+    }
+}
@@ -22,6 +22,7 @@ import java.net.SocketAddress;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.waarp.common.database.DbPreparedStatement;
@@ -32,7 +33,6 @@ import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
-import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
@@ -42,6 +42,7 @@ import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.JsonHtmlUtils;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -77,6 +78,26 @@ public class DbHostAuth extends AbstractDbData {
     private static final ConcurrentHashMap<String, DbHostAuth> dbR66HostAuthHashMap =
             new ConcurrentHashMap<String, DbHostAuth>();
 
+    /**
+     * Decrypted host keys by host id, each kept with the crypted key it comes from, such that the
+     * authentication does not decrypt the key each time
+     */
+    private static final ConcurrentHashMap<String, DecryptedKey> decryptedKeys =
+            new ConcurrentHashMap<String, DecryptedKey>();
+
+    /**
+     * Decrypted key with its crypted origin
+     */
+    private static final class DecryptedKey {
+        private final byte[] crypted;
+        private final byte[] key;
+
+        private DecryptedKey(byte[] crypted, byte[] key) {
+            this.crypted = crypted;
+            this.key = key;
+        }
+    }
+
     private String hostid;
 
     private String address;
@@ -346,6 +367,7 @@ public class DbHostAuth extends AbstractDbData {
      */
     public static DbHostAuth[] deleteAll(DbSession dbSession) throws WaarpDatabaseException {
         DbHostAuth[] result = getAllHosts(dbSession);
+        clearDecryptedKeys();
         if (dbSession == null) {
             dbR66HostAuthHashMap.clear();
             return result;
@@ -363,6 +385,7 @@ public class DbHostAuth extends AbstractDbData {
 
     @Override
     public void delete() throws WaarpDatabaseException {
+        invalidateDecryptedKey(this.hostid);
         if (dbSession == null) {
             dbR66HostAuthHashMap.remove(this.hostid);
             isSaved = false;
@@ -390,6 +413,7 @@ public class DbHostAuth extends AbstractDbData {
         if (isSaved) {
             return;
         }
+        invalidateDecryptedKey(this.hostid);
         if (dbSession == null) {
             dbR66HostAuthHashMap.put(this.hostid, this);
             isSaved = true;
@@ -473,6 +497,7 @@ public class DbHostAuth extends AbstractDbData {
         if (isSaved) {
             return;
         }
+        invalidateDecryptedKey(this.hostid);
         if (dbSession == null) {
             dbR66HostAuthHashMap.put(this.hostid, this);
             isSaved = true;
@@ -712,15 +737,64 @@ public class DbHostAuth extends AbstractDbData {
             return false;
         }
         try {
-            return FilesystemBasedDigest.equalPasswd(
-                    Configuration.configuration.getCryptoKey().decryptHexInBytes(this.hostkey),
-                    newkey);
+            return isEqualKey(getDecryptedKey(), newkey);
         } catch (Exception e) {
             logger.debug("Error while checking key", e);
             return false;
         }
     }
 
+    /**
+     * Comparison in a time independent of the content of the keys
+     * 
+     * @param key
+     * @param newkey
+     * @return True if both keys are equal
+     */
+    private static boolean isEqualKey(byte[] key, byte[] newkey) {
+        if (key.length != newkey.length) {
+            return false;
+        }
+        int result = 0;
+        for (int i = 0; i < key.length; i++) {
+            result |= key[i] ^ newkey[i];
+        }
+        return result == 0;
+    }
+
+    /**
+     * 
+     * @return the decrypted hostkey, from cache if the crypted key did not change
+     * @throws Exception
+     */
+    private byte[] getDecryptedKey() throws Exception {
+        byte[] crypted = hostkey;
+        DecryptedKey decrypted = decryptedKeys.get(hostid);
+        if (decrypted != null && Arrays.equals(decrypted.crypted, crypted)) {
+            return decrypted.key;
+        }
+        byte[] key = Configuration.configuration.getCryptoKey().decryptHexInBytes(crypted);
+        decryptedKeys.put(hostid, new DecryptedKey(crypted.clone(), key));
+        return key;
+    }
+
+    /**
+     * Forget the decrypted key of this host, for instance once its configuration changed
+     * 
+     * @param hostid
+     */
+    public static void invalidateDecryptedKey(String hostid) {
+        // not cleared since a concurrent authentication may still compare with it
+        decryptedKeys.remove(hostid);
+    }
+
+    /**
+     * Forget all decrypted keys
+     */
+    public static void clearDecryptedKeys() {
+        decryptedKeys.clear();
+    }
+
     /**
      * @return the hostkey
      */
@@ -729,7 +803,7 @@ public class DbHostAuth extends AbstractDbData {
             return null;
         }
         try {
-            return Configuration.configuration.getCryptoKey().decryptHexInBytes(hostkey);
+            return getDecryptedKey().clone();
         } catch (Exception e) {
             return new byte[0];
         }
@@ -875,7 +949,7 @@ public class DbHostAuth extends AbstractDbData {
         } finally {
             preparedStatement.realClose();
         }
-        return JsonHandler.writeAsString(arrayNode);
+        return JsonHtmlUtils.writeAsString(arrayNode);
     }
     private ObjectNode getInternalJson() {
         ObjectNode node = getJson();
@@ -901,7 +975,7 @@ public class DbHostAuth extends AbstractDbData {
      */
     public String getJsonAsString() {
         ObjectNode node = getInternalJson();
-        return JsonHandler.writeAsString(node);
+        return JsonHtmlUtils.writeAsString(node);
     }
     /**
      * @param session
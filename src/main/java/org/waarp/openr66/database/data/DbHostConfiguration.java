@@ -167,7 +167,7 @@ public class DbHostConfiguration extends AbstractDbData {
             + XML_ALIAS, configAliasDecls, true) };
 
     public static enum OtherFields {
-        root, version, seeallid
+        root, version, seeallid, bandwidth
     };
 
     // ALL TABLE SHOULD IMPLEMENT THIS
@@ -610,6 +610,40 @@ public class DbHostConfiguration extends AbstractDbData {
         setOthers(element.asXML());
     }
 
+    /**
+     * 
+     * @return the definition of the bandwidth classes (see BandwidthClasses), empty if none
+     */
+    public String getBandwidthClasses() {
+        Element others = getOtherElement();
+        Element bandwidth = (Element) others.selectSingleNode(OtherFields.bandwidth.name());
+        if (bandwidth != null) {
+            return bandwidth.getText().trim();
+        }
+        return "";
+    }
+
+    /**
+     * 
+     * @param classes
+     *            the definition of the bandwidth classes (see BandwidthClasses), null or empty for
+     *            none
+     */
+    public void setBandwidthClasses(String classes) {
+        Element others = getOtherElement();
+        Element bandwidth = (Element) others.selectSingleNode(OtherFields.bandwidth.name());
+        if (classes == null || classes.trim().isEmpty()) {
+            if (bandwidth != null) {
+                others.remove(bandwidth);
+            }
+        } else if (bandwidth != null) {
+            bandwidth.setText(classes.trim());
+        } else {
+            others.addElement(OtherFields.bandwidth.name()).setText(classes.trim());
+        }
+        setOtherElement(others);
+    }
+
     @Override
     public void delete() throws WaarpDatabaseException {
         if (dbSession == null) {
@@ -1143,6 +1177,7 @@ public class DbHostConfiguration extends AbstractDbData {
         hostConfiguration.updateBusiness(config, null, false);
         hostConfiguration.updateAlias(config, null, false);
         hostConfiguration.updateRoles(config, null, false);
+        config.getBandwidthClasses().configure(hostConfiguration.getBandwidthClasses());
     }
 
     /**
@@ -1232,6 +1267,41 @@ public class DbHostConfiguration extends AbstractDbData {
         }
     }
 
+    /**
+     * Update the bandwidth classes for this HostId
+     * 
+     * @param dbSession
+     * @param hostid
+     * @param classes
+     *            the definition of the bandwidth classes, null or empty for none
+     * @return True if updated
+     */
+    public static boolean updateBandwidthClassesDb(DbSession dbSession, String hostid, String classes) {
+        DbHostConfiguration hostConfiguration;
+        try {
+            hostConfiguration = new DbHostConfiguration(dbSession, hostid);
+        } catch (WaarpDatabaseNoDataException e) {
+            hostConfiguration = new DbHostConfiguration(dbSession, hostid, "", "", "", "");
+            try {
+                hostConfiguration.insert();
+            } catch (WaarpDatabaseException e1) {
+                logger.debug("Not inserted?", e1);
+                return false;
+            }
+        } catch (WaarpDatabaseException e) {
+            logger.debug("Not found?", e);
+            return false;
+        }
+        hostConfiguration.setBandwidthClasses(classes);
+        try {
+            hostConfiguration.update();
+        } catch (WaarpDatabaseException e) {
+            logger.debug("Not update?", e);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 
      * @return the DbValue associated with this table
@@ -49,6 +49,7 @@ import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.utils.JsonHtmlUtils;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -1231,8 +1232,7 @@ public class DbRule extends AbstractDbData {
         } finally {
             preparedStatement.realClose();
         }
-        // \n is not correctly parsed within HTML so put double \\n in fine
-        return WaarpStringUtils.cleanJsonForHtml(arrayNode.toString());
+        return JsonHtmlUtils.writeAsString(arrayNode);
     }
     private ObjectNode getInternalJson() {
         ObjectNode node = getJson();
@@ -1277,7 +1277,7 @@ public class DbRule extends AbstractDbData {
      */
     public String getJsonAsString() {
         ObjectNode node = getInternalJson();
-        return JsonHandler.writeAsString(node).replaceAll("([^\\\\])\\\\n", "$1").replaceAll("([^\\\\])\\\\r", "$1").replace("\\\\", "\\\\\\\\");
+        return JsonHtmlUtils.writeAsString(node);
     }
     /**
      * @param session
@@ -22,12 +22,16 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -77,12 +81,15 @@ import org.waarp.openr66.protocol.localhandler.packet.ErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket.TRANSFERMODE;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.ContentIndex;
+import org.waarp.openr66.protocol.utils.FileUtils;
+import org.waarp.openr66.protocol.utils.JsonHtmlUtils;
 import org.waarp.openr66.protocol.utils.NbAndSpecialId;
 import org.waarp.openr66.protocol.utils.R66Future;
 import org.xml.sax.SAXException;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
@@ -98,6 +105,8 @@ public class DbTaskRunner extends AbstractDbData {
 
     public static final String JSON_RESCHEDULE = "RESCHEDULE";
 
+    public static final String JSON_TREEHASH = "TREEHASH";
+
     /**
      * Internal Logger
      */
@@ -179,6 +188,11 @@ public class DbTaskRunner extends AbstractDbData {
 
     public static final String table = " RUNNER ";
 
+    /**
+     * History table where finished runners are archived (same columns as table)
+     */
+    public static final String tableHistory = " RUNNERHISTORY ";
+
     public static final String fieldseq = "RUNSEQ";
 
     public static final Columns[] indexes = {
@@ -187,6 +201,44 @@ public class DbTaskRunner extends AbstractDbData {
             Columns.GLOBALSTEP, Columns.INFOSTATUS, Columns.SPECIALID
     };
 
+    /**
+     * How rule and partner filters are compared to the stored values
+     */
+    public static enum FILTERMODE {
+        /**
+         * Value contained in the field (converted as far as possible to a list of known ids)
+         */
+        CONTAINS,
+        /**
+         * Field starting with the value
+         */
+        PREFIX,
+        /**
+         * Field equals to the value
+         */
+        EXACT,
+        /**
+         * Value contained in the field, always as a LIKE condition
+         */
+        LIKE;
+    }
+
+    /**
+     * Above this number of known ids matching a CONTAINS filter, the LIKE condition is kept
+     */
+    private static final int MAXINFILTER = 100;
+
+    /**
+     * Ids of rules and of hosts used by runners, loaded once from the runner tables then completed
+     * at each insert and never reduced, such that a CONTAINS filter resolved as a list of ids
+     * misses no runner, even of a rule or host deleted since
+     */
+    private static final ConcurrentHashMap<String, Boolean> runnerRuleIds =
+            new ConcurrentHashMap<String, Boolean>();
+    private static final ConcurrentHashMap<String, Boolean> runnerHostIds =
+            new ConcurrentHashMap<String, Boolean>();
+    private static volatile boolean runnerIdsLoaded = false;
+
     public static final String XMLRUNNERS = "taskrunners";
     public static final String XMLRUNNER = "runner";
     public static final String XMLEXTENSION = "_singlerunner.xml";
@@ -569,6 +621,25 @@ public class DbTaskRunner extends AbstractDbData {
     public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender,
             RequestPacket requestPacket, String requested, Timestamp startTime)
             throws WaarpDatabaseException {
+        this(dbSession, rule, isSender, requestPacket, requested, startTime, true);
+    }
+
+    /**
+     * Constructor for submission (no transfer session), from database. It is created only if create is True,
+     * else it will have to be created later on, as by createBatch
+     * 
+     * @param dbSession
+     * @param rule
+     * @param isSender
+     * @param requestPacket
+     * @param requested
+     * @param startTime
+     * @param create
+     * @throws WaarpDatabaseException
+     */
+    public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender,
+            RequestPacket requestPacket, String requested, Timestamp startTime, boolean create)
+            throws WaarpDatabaseException {
         super(dbSession);
         this.session = null;
         this.rule = rule;
@@ -613,8 +684,10 @@ public class DbTaskRunner extends AbstractDbData {
             }
         }
         checkThroughMode();
-        create();
-        requestPacket.setSpecialId(specialId);
+        if (create) {
+            create();
+            requestPacket.setSpecialId(specialId);
+        }
     }
 
     /**
@@ -952,6 +1025,21 @@ public class DbTaskRunner extends AbstractDbData {
         return " " + Columns.OWNERREQ + " = '" + Configuration.configuration.getHOST_ID() + "' ";
     }
 
+    /**
+     * 
+     * @param withHistory
+     *            True to include the history table
+     * @return the FROM part of the request, either the RUNNER table alone or the union of RUNNER
+     *         and its history table
+     */
+    private static String getFromTables(boolean withHistory) {
+        if (withHistory) {
+            return " (SELECT " + selectAllFields + " FROM " + table + " UNION ALL SELECT " +
+                    selectAllFields + " FROM " + tableHistory + ") RUNNERS ";
+        }
+        return table;
+    }
+
     /**
      * Create a Special Id for NoDb client
      */
@@ -1062,6 +1150,7 @@ public class DbTaskRunner extends AbstractDbData {
             setPrimaryKey();
         }
         super.insert();
+        addRunnerIds();
     }
 
     /**
@@ -1160,6 +1249,87 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * Create at once all these runners, not yet created, as saved by forceSaveStatus: the ones saved into the
+     * database are inserted through one batch within one transaction, the others are created one by one.
+     * 
+     * @param dbSession
+     * @param runners
+     * @throws WaarpDatabaseException
+     *             if the batch failed, none of the runners of the batch being created
+     */
+    public static void createBatch(DbSession dbSession, List<DbTaskRunner> runners)
+            throws WaarpDatabaseException {
+        List<DbTaskRunner> batch = new ArrayList<DbTaskRunner>(runners.size());
+        for (DbTaskRunner runner : runners) {
+            if (runner.isSaved) {
+                continue;
+            }
+            if (dbSession == null || runner.dbSession == null || runner.shallIgnoreSave()) {
+                runner.create();
+            } else {
+                // ids taken first since the sequence may use its own transaction
+                if (runner.specialId == DbConstant.ILLEGALVALUE) {
+                    runner.specialId = dbSession.getAdmin().getDbModel().nextSequence(dbSession);
+                    runner.setPrimaryKey();
+                }
+                batch.add(runner);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        // The batch is inserted in one transaction, on its own connection such that the shared
+        // session is not switched out of auto commit
+        DbSession insert = new DbSession(dbSession.getAdmin(), false);
+        DbPreparedStatement preparedStatement = null;
+        try {
+            insert.getConn().setAutoCommit(false);
+            preparedStatement = new DbPreparedStatement(insert);
+            preparedStatement.createPrepareStatement("INSERT INTO " + table +
+                    " (" + selectAllFields + ") VALUES " + insertAllValues);
+            for (DbTaskRunner runner : batch) {
+                boolean isSender = runner.isSender();
+                runner.setSenderForUpdate();
+                runner.setToArray();
+                runner.setValues(preparedStatement, runner.allFields);
+                runner.setSender(isSender);
+                preparedStatement.getPreparedStatement().addBatch();
+            }
+            preparedStatement.getPreparedStatement().executeBatch();
+            insert.getConn().commit();
+        } catch (SQLException e) {
+            rollback(insert);
+            throw new WaarpDatabaseSqlException(e);
+        } catch (WaarpDatabaseException e) {
+            rollback(insert);
+            throw e;
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.realClose();
+            }
+            insert.forceDisconnect();
+        }
+        for (DbTaskRunner runner : batch) {
+            runner.isSaved = true;
+            runner.addRunnerIds();
+        }
+        logger.debug("Batch of runners created: " + batch.size());
+    }
+
+    /**
+     * Rollback the current transaction of this session
+     * 
+     * @param dbSession
+     */
+    private static void rollback(DbSession dbSession) {
+        try {
+            dbSession.getConn().rollback();
+        } catch (SQLException e) {
+            logger.warn("Cannot rollback the batch of runners", e);
+        }
+    }
+
     @Override
     public boolean exist() throws WaarpDatabaseException {
         boolean shallIgnore = shallIgnoreSave();
@@ -1172,7 +1342,8 @@ public class DbTaskRunner extends AbstractDbData {
             }
             return false;
         }
-        return super.exist();
+        // an archived runner is restored to be seen again
+        return super.exist() || restoreFromHistory();
     }
 
     /**
@@ -1283,7 +1454,15 @@ public class DbTaskRunner extends AbstractDbData {
             checkThroughMode();
             return;
         }
-        super.select();
+        try {
+            super.select();
+        } catch (WaarpDatabaseNoDataException e) {
+            // an archived runner is restored to be seen again
+            if (!restoreFromHistory()) {
+                throw e;
+            }
+            super.select();
+        }
         if (rule == null) {
             try {
                 rule = new DbRule(this.dbSession, ruleId);
@@ -1605,11 +1784,13 @@ public class DbTaskRunner extends AbstractDbData {
             String orderby, String startid, String stopid, Timestamp start, Timestamp stop,
             String rule,
             String req, boolean pending, boolean transfer, boolean error,
-            boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
-            WaarpDatabaseSqlException {
+            boolean done, boolean all, FILTERMODE mode, ContinuationKey keyset, boolean orderBySpecialId)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        List<String> ruleValues = null;
+        List<String> reqValues = null;
         String request = srcrequest;
         if (startid == null && stopid == null &&
-                start == null && stop == null && rule == null && req == null && all) {
+                start == null && stop == null && rule == null && req == null && all && keyset == null) {
             // finish
             if (limit > 0) {
                 request = preparedStatement.getDbSession().getAdmin().getDbModel().limitRequest(selectAllFields,
@@ -1653,16 +1834,22 @@ public class DbTaskRunner extends AbstractDbData {
                 scondition.append(" AND ");
             }
             hasCondition = true;
-            scondition.append(Columns.IDRULE.name()).append(" LIKE '%").append(rule).append("%' ");
+            if (mode == FILTERMODE.CONTAINS) {
+                ruleValues = getKnownIds(preparedStatement.getDbSession(), runnerRuleIds, rule);
+            }
+            scondition.append(getFilterField(Columns.IDRULE, rule, mode, ruleValues));
         }
         if (req != null) {
             if (hasCondition) {
                 scondition.append(" AND ");
             }
             hasCondition = true;
-            scondition.append("( ").append(Columns.REQUESTED.name()).append(" LIKE '%")
-                    .append(req).append("%' OR ").append(Columns.REQUESTER.name())
-                    .append(" LIKE '%").append(req).append("%' )");
+            if (mode == FILTERMODE.CONTAINS) {
+                reqValues = getKnownIds(preparedStatement.getDbSession(), runnerHostIds, req);
+            }
+            scondition.append("( ").append(getFilterField(Columns.REQUESTED, req, mode, reqValues))
+                    .append(" OR ").append(getFilterField(Columns.REQUESTER, req, mode, reqValues))
+                    .append(" )");
         }
         if (!all) {
             if (hasCondition) {
@@ -1708,6 +1895,22 @@ public class DbTaskRunner extends AbstractDbData {
             }
             scondition.append(" )");
         }
+        if (keyset != null) {
+            if (hasCondition) {
+                scondition.append(" AND ");
+            }
+            hasCondition = true;
+            // row strictly after the last one returned according to the descending order
+            Columns[] keys = getKeysetColumns(orderBySpecialId);
+            for (int i = 0; i < keys.length - 1; i++) {
+                scondition.append("( ").append(keys[i].name()).append(" < ? OR ( ")
+                        .append(keys[i].name()).append(" = ? AND ");
+            }
+            scondition.append(keys[keys.length - 1].name()).append(" < ? ");
+            for (int i = 0; i < keys.length - 1; i++) {
+                scondition.append(") )");
+            }
+        }
         if (limit > 0) {
             scondition.insert(0, request).append(orderby);
             request = scondition.toString();
@@ -1758,6 +1961,24 @@ public class DbTaskRunner extends AbstractDbData {
                         value);
                 rank++;
             }
+            if (rule != null) {
+                rank = setFilterField(preparedStatement, rank, rule, mode, ruleValues);
+            }
+            if (req != null) {
+                rank = setFilterField(preparedStatement, rank, req, mode, reqValues);
+                rank = setFilterField(preparedStatement, rank, req, mode, reqValues);
+            }
+            if (keyset != null) {
+                Columns[] keys = getKeysetColumns(orderBySpecialId);
+                for (int i = 0; i < keys.length; i++) {
+                    keyset.setValue(preparedStatement, rank, keys[i]);
+                    rank++;
+                    if (i < keys.length - 1) {
+                        keyset.setValue(preparedStatement, rank, keys[i]);
+                        rank++;
+                    }
+                }
+            }
         } catch (SQLException e) {
             preparedStatement.realClose();
             throw new WaarpDatabaseSqlException(e);
@@ -1765,6 +1986,215 @@ public class DbTaskRunner extends AbstractDbData {
         return preparedStatement;
     }
 
+    /**
+     * 
+     * @param session
+     * @param ids
+     *            the ids used by runners for the filtered columns
+     * @param value
+     * @return the ids containing the value whatever the case, such that the IN list can be added to
+     *         the LIKE '%value%' condition, or null if the ids may be incomplete or too many
+     */
+    private static List<String> getKnownIds(DbSession session, ConcurrentHashMap<String, Boolean> ids,
+            String value) {
+        if (!loadRunnerIds(session)) {
+            return null;
+        }
+        String lowerValue = value.toLowerCase();
+        List<String> result = new ArrayList<String>();
+        for (String id : ids.keySet()) {
+            if (id.toLowerCase().contains(lowerValue)) {
+                result.add(id);
+                if (result.size() > MAXINFILTER) {
+                    return null;
+                }
+            }
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * Load once the ids of rules and hosts used by runners
+     * 
+     * @param session
+     * @return True if the ids are complete
+     */
+    private static synchronized boolean loadRunnerIds(DbSession session) {
+        if (runnerIdsLoaded) {
+            return true;
+        }
+        if (session == null || Configuration.configuration.getMultipleMonitors() > 1) {
+            // runners are inserted by other servers too
+            return false;
+        }
+        List<String> tables = new ArrayList<String>();
+        tables.add(table);
+        if (Configuration.configuration.isRunnerHistoryActive()) {
+            tables.add(tableHistory);
+        }
+        for (String from : tables) {
+            for (Columns column : new Columns[] { Columns.IDRULE, Columns.REQUESTER, Columns.REQUESTED }) {
+                ConcurrentHashMap<String, Boolean> ids = column == Columns.IDRULE ? runnerRuleIds : runnerHostIds;
+                DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+                try {
+                    preparedStatement.createPrepareStatement("SELECT DISTINCT " + column.name() + " FROM " + from);
+                    preparedStatement.executeQuery();
+                    while (preparedStatement.getNext()) {
+                        ids.put(preparedStatement.getResultSet().getString(1), Boolean.TRUE);
+                    }
+                } catch (WaarpDatabaseException e) {
+                    logger.debug("Cannot load ids of runners", e);
+                    return false;
+                } catch (SQLException e) {
+                    logger.debug("Cannot load ids of runners", e);
+                    return false;
+                } finally {
+                    preparedStatement.realClose();
+                }
+            }
+        }
+        runnerIdsLoaded = true;
+        return true;
+    }
+
+    /**
+     * Add the ids of rule and hosts of this runner to the ids used by runners
+     */
+    private void addRunnerIds() {
+        runnerRuleIds.put(ruleId, Boolean.TRUE);
+        runnerHostIds.put(requesterHostId, Boolean.TRUE);
+        runnerHostIds.put(requestedHostId, Boolean.TRUE);
+    }
+
+    /**
+     * 
+     * @param column
+     * @param value
+     * @param mode
+     * @param values
+     *            if not null, the known ids to use in place of the CONTAINS condition
+     * @return the condition on this column with its parameters to set
+     */
+    private static String getFilterField(Columns column, String value, FILTERMODE mode, List<String> values) {
+        switch (mode) {
+            case EXACT:
+                return column.name() + " = ? ";
+            case PREFIX:
+                return column.name() + " LIKE ? ";
+            case LIKE:
+                return column.name() + " LIKE ? ";
+            case CONTAINS:
+            default:
+                if (values == null) {
+                    return column.name() + " LIKE ? ";
+                }
+                // the LIKE keeps the exact result (case sensitivity) of the database
+                StringBuilder builder = new StringBuilder("(").append(column.name()).append(" IN (?");
+                for (int i = 1; i < values.size(); i++) {
+                    builder.append(",?");
+                }
+                return builder.append(") AND ").append(column.name()).append(" LIKE ?) ").toString();
+        }
+    }
+
+    /**
+     * 
+     * @param preparedStatement
+     * @param rank
+     * @param value
+     * @param mode
+     * @param values
+     *            if not null, the known ids to use in place of the CONTAINS condition
+     * @return the next rank to set
+     * @throws SQLException
+     */
+    private static int setFilterField(DbPreparedStatement preparedStatement, int rank, String value,
+            FILTERMODE mode, List<String> values) throws SQLException {
+        switch (mode) {
+            case EXACT:
+                preparedStatement.getPreparedStatement().setString(rank, value);
+                return rank + 1;
+            case PREFIX:
+                preparedStatement.getPreparedStatement().setString(rank, value + "%");
+                return rank + 1;
+            case LIKE:
+                preparedStatement.getPreparedStatement().setString(rank, "%" + value + "%");
+                return rank + 1;
+            case CONTAINS:
+            default:
+                if (values != null) {
+                    for (String id : values) {
+                        preparedStatement.getPreparedStatement().setString(rank, id);
+                        rank++;
+                    }
+                }
+                preparedStatement.getPreparedStatement().setString(rank, "%" + value + "%");
+                return rank + 1;
+        }
+    }
+
+    /**
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all,
+                null);
+    }
+
+    /**
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner) throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all, owner, false);
+    }
+
     /**
      * 
      * @param session
@@ -1781,73 +2211,313 @@ public class DbTaskRunner extends AbstractDbData {
      * @param error
      * @param done
      * @param all
+     * @param owner
+     * @param withHistory
+     *            True to also search within the history table
      * @return the DbPreparedStatement according to the filter
      * @throws WaarpDatabaseNoConnectionException
      * @throws WaarpDatabaseSqlException
      */
-    public static DbPreparedStatement getFilterPrepareStatement(
-            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
-            Timestamp start, Timestamp stop, String rule,
-            String req, boolean pending, boolean transfer, boolean error,
-            boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
-            WaarpDatabaseSqlException {
-        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
-                pending, transfer, error, done, all,
-                null);
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner, boolean withHistory)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all, owner, withHistory, FILTERMODE.CONTAINS);
+    }
+
+    /**
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @param withHistory
+     *            True to also search within the history table
+     * @param mode
+     *            how rule and req are compared (EXACT and PREFIX can use indexes)
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner, boolean withHistory, FILTERMODE mode)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all, owner, withHistory, mode, null);
+    }
+
+    /**
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @param withHistory
+     *            True to also search within the history table
+     * @param mode
+     *            how rule and req are compared (EXACT and PREFIX can use indexes)
+     * @param continuation
+     *            if not null, the token returned with the previous page (see
+     *            {@link #getContinuationToken()}) to get the following rows only
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     *             if the continuation token is invalid
+     */
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner, boolean withHistory, FILTERMODE mode, String continuation)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        ContinuationKey keyset = null;
+        if (continuation != null && !continuation.trim().isEmpty()) {
+            keyset = parseContinuationToken(continuation.trim());
+        }
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        String request = "SELECT " + selectAllFields + " FROM " + getFromTables(withHistory);
+        String orderby = "";
+        if (startid == null && stopid == null &&
+                start == null && stop == null && rule == null && req == null && all && keyset == null) {
+            if (owner == null || owner.isEmpty()) {
+                orderby = " WHERE " + getLimitWhereCondition();
+            } else if (!owner.equals("*")) {
+                orderby = " WHERE " + Columns.OWNERREQ + " = '" + owner + "' ";
+            }
+        } else {
+            if (owner == null || owner.isEmpty()) {
+                orderby = " AND " + getLimitWhereCondition();
+            } else if (!owner.equals("*")) {
+                orderby = " AND " + Columns.OWNERREQ + " = '" + owner + "' ";
+            }
+        }
+        // the full primary key breaks ties so that pages never overlap nor miss a row
+        Columns[] keys = getKeysetColumns(orderBySpecialId);
+        orderby += " ORDER BY ";
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                orderby += ", ";
+            }
+            orderby += keys[i].name() + " DESC";
+        }
+        orderby += " ";
+        return getFilterCondition(preparedStatement, request, limit, orderby,
+                startid, stopid, start, stop, rule,
+                req, pending, transfer, error, done, all, mode, keyset, orderBySpecialId);
+    }
+
+    /**
+     * 
+     * @param orderBySpecialId
+     * @return the columns of the descending order used for keyset pagination, ending with the
+     *         primary key such that the order is total, even with all owners or with the history
+     */
+    private static Columns[] getKeysetColumns(boolean orderBySpecialId) {
+        if (orderBySpecialId) {
+            return new Columns[] { Columns.SPECIALID, Columns.OWNERREQ, Columns.REQUESTER, Columns.REQUESTED };
+        }
+        return new Columns[] { Columns.STARTTRANS, Columns.SPECIALID, Columns.OWNERREQ, Columns.REQUESTER,
+                Columns.REQUESTED };
+    }
+
+    /**
+     * Position of the last returned runner, as decoded from a continuation token
+     */
+    static final class ContinuationKey {
+        final long startMillis;
+        final long specialId;
+        final String owner;
+        final String requester;
+        final String requested;
+
+        private ContinuationKey(long startMillis, long specialId, String owner, String requester,
+                String requested) {
+            this.startMillis = startMillis;
+            this.specialId = specialId;
+            this.owner = owner;
+            this.requester = requester;
+            this.requested = requested;
+        }
+
+        private void setValue(DbPreparedStatement preparedStatement, int rank, Columns column)
+                throws SQLException {
+            switch (column) {
+                case STARTTRANS:
+                    preparedStatement.getPreparedStatement().setTimestamp(rank, new Timestamp(startMillis));
+                    break;
+                case SPECIALID:
+                    preparedStatement.getPreparedStatement().setLong(rank, specialId);
+                    break;
+                case OWNERREQ:
+                    preparedStatement.getPreparedStatement().setString(rank, owner);
+                    break;
+                case REQUESTER:
+                    preparedStatement.getPreparedStatement().setString(rank, requester);
+                    break;
+                default:
+                    preparedStatement.getPreparedStatement().setString(rank, requested);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param startMillis
+     *            the start time of the last returned runner
+     * @param specialId
+     *            the specialId of the last returned runner
+     * @param owner
+     * @param requester
+     * @param requested
+     * @return the opaque token to use to get the page following this runner
+     */
+    public static String getContinuationToken(long startMillis, long specialId, String owner,
+            String requester, String requested) {
+        return Long.toString(startMillis, Character.MAX_RADIX) + "." +
+                Long.toString(specialId, Character.MAX_RADIX) + "." +
+                encodeTokenPart(owner) + "." + encodeTokenPart(requester) + "." + encodeTokenPart(requested);
+    }
+
+    /**
+     * 
+     * @param node
+     *            the Json representation of the last returned runner
+     * @return the opaque token to use to get the page following this runner, or null if the node
+     *         does not contain the needed fields or its start time is not in epoch millis
+     */
+    public static String getContinuationToken(JsonNode node) {
+        JsonNode startNode = node.get(Columns.STARTTRANS.name());
+        JsonNode idNode = node.get(Columns.SPECIALID.name());
+        JsonNode ownerNode = node.get(Columns.OWNERREQ.name());
+        JsonNode requesterNode = node.get(Columns.REQUESTER.name());
+        JsonNode requestedNode = node.get(Columns.REQUESTED.name());
+        if (startNode == null || idNode == null || ownerNode == null || requesterNode == null
+                || requestedNode == null) {
+            return null;
+        }
+        // epoch millis as for getContinuationToken(), a local date time depending on the time zone
+        long startMillis;
+        if (startNode.isNumber()) {
+            startMillis = startNode.asLong();
+        } else {
+            try {
+                startMillis = Long.parseLong(startNode.asText().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return getContinuationToken(startMillis, idNode.asLong(), ownerNode.asText(), requesterNode.asText(),
+                requestedNode.asText());
+    }
+
+    /**
+     * 
+     * @return the opaque token to use to get the page following this runner
+     */
+    public String getContinuationToken() {
+        return getContinuationToken(start.getTime(), specialId, ownerRequest, requesterHostId,
+                requestedHostId);
+    }
+
+    /**
+     * 
+     * @param continuation
+     * @return True if the continuation token can be used with
+     *         {@link #getFilterPrepareStatement(DbSession, int, boolean, String, String, Timestamp, Timestamp, String, String, boolean, boolean, boolean, boolean, boolean, String, boolean, FILTERMODE, String)}
+     */
+    public static boolean isValidContinuationToken(String continuation) {
+        if (continuation == null || continuation.trim().isEmpty()) {
+            return true;
+        }
+        try {
+            parseContinuationToken(continuation.trim());
+            return true;
+        } catch (WaarpDatabaseSqlException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Host and owner ids are hex encoded so that they never contain the separator
+     * 
+     * @param value
+     * @return the hex encoded value
+     */
+    private static String encodeTokenPart(String value) {
+        byte[] bytes = value.getBytes(WaarpStringUtils.UTF8);
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 
+     * @param part
+     * @return the decoded value
+     * @throws NumberFormatException
+     *             if the part is not hex encoded
+     */
+    private static String decodeTokenPart(String part) {
+        if ((part.length() & 1) != 0) {
+            throw new NumberFormatException("Odd length: " + part);
+        }
+        byte[] bytes = new byte[part.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(part.substring(i * 2, i * 2 + 2), 16);
+        }
+        return new String(bytes, WaarpStringUtils.UTF8);
     }
 
     /**
      * 
-     * @param session
-     * @param limit
-     * @param orderBySpecialId
-     * @param startid
-     * @param stopid
-     * @param start
-     * @param stop
-     * @param rule
-     * @param req
-     * @param pending
-     * @param transfer
-     * @param error
-     * @param done
-     * @param all
-     * @param owner
-     * @return the DbPreparedStatement according to the filter
-     * @throws WaarpDatabaseNoConnectionException
+     * @param continuation
+     * @return the position of the last returned runner from the continuation token
      * @throws WaarpDatabaseSqlException
+     *             if the token is invalid
      */
-    public static DbPreparedStatement getFilterPrepareStatement(
-            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
-            Timestamp start, Timestamp stop, String rule,
-            String req, boolean pending, boolean transfer, boolean error,
-            boolean done, boolean all, String owner) throws WaarpDatabaseNoConnectionException,
-            WaarpDatabaseSqlException {
-        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
-        String request = "SELECT " + selectAllFields + " FROM " + table;
-        String orderby = "";
-        if (startid == null && stopid == null &&
-                start == null && stop == null && rule == null && req == null && all) {
-            if (owner == null || owner.isEmpty()) {
-                orderby = " WHERE " + getLimitWhereCondition();
-            } else if (!owner.equals("*")) {
-                orderby = " WHERE " + Columns.OWNERREQ + " = '" + owner + "' ";
-            }
-        } else {
-            if (owner == null || owner.isEmpty()) {
-                orderby = " AND " + getLimitWhereCondition();
-            } else if (!owner.equals("*")) {
-                orderby = " AND " + Columns.OWNERREQ + " = '" + owner + "' ";
-            }
+    static ContinuationKey parseContinuationToken(String continuation) throws WaarpDatabaseSqlException {
+        String[] parts = continuation.split("\\.", -1);
+        if (parts.length != 5 || parts[0].isEmpty() || parts[1].isEmpty()) {
+            throw new WaarpDatabaseSqlException("Invalid continuation token: " + continuation);
         }
-        if (orderBySpecialId) {
-            orderby += " ORDER BY " + Columns.SPECIALID.name() + " DESC ";
-        } else {
-            orderby += " ORDER BY " + Columns.STARTTRANS.name() + " DESC ";
+        try {
+            return new ContinuationKey(Long.parseLong(parts[0], Character.MAX_RADIX),
+                    Long.parseLong(parts[1], Character.MAX_RADIX), decodeTokenPart(parts[2]),
+                    decodeTokenPart(parts[3]), decodeTokenPart(parts[4]));
+        } catch (NumberFormatException e) {
+            throw new WaarpDatabaseSqlException("Invalid continuation token: " + continuation, e);
         }
-        return getFilterCondition(preparedStatement, request, limit, orderby,
-                startid, stopid, start, stop, rule,
-                req, pending, transfer, error, done, all);
     }
 
     /**
@@ -2157,8 +2827,25 @@ public class DbTaskRunner extends AbstractDbData {
     public static DbPreparedStatement getLogPrepareStatement(DbSession session,
             Timestamp start, Timestamp stop)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        return getLogPrepareStatement(session, start, stop, false);
+    }
+
+    /**
+     * 
+     * @param session
+     * @param start
+     * @param stop
+     * @param withHistory
+     *            True to also select from the history table
+     * @return the DbPreparedStatement for getting Selected Object, whatever their status
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getLogPrepareStatement(DbSession session,
+            Timestamp start, Timestamp stop, boolean withHistory)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
-        String request = "SELECT " + selectAllFields + " FROM " + table;
+        String request = "SELECT " + selectAllFields + " FROM " + getFromTables(withHistory);
         if (start != null & stop != null) {
             request += " WHERE " + Columns.STARTTRANS.name() + " >= ? AND " +
                     Columns.STARTTRANS.name() + " <= ? AND " + getLimitWhereCondition() +
@@ -2214,8 +2901,30 @@ public class DbTaskRunner extends AbstractDbData {
     public static int purgeLogPrepareStatement(DbSession session,
             Timestamp start, Timestamp stop)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        int nb = purgeLogPrepareStatement(session, table, start, stop);
+        if (Configuration.configuration.isRunnerHistoryActive()) {
+            nb += purgeLogPrepareStatement(session, tableHistory, start, stop);
+        }
+        return nb;
+    }
+
+    /**
+     * purge in same interval all runners from the given table
+     * 
+     * @param session
+     * @param fromTable
+     *            either the RUNNER table or its history table
+     * @param start
+     * @param stop
+     * @return the number of log purged
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private static int purgeLogPrepareStatement(DbSession session, String fromTable,
+            Timestamp start, Timestamp stop)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
-        String request = "DELETE FROM " + table + " WHERE (" +
+        String request = "DELETE FROM " + fromTable + " WHERE (" +
                 Columns.GLOBALLASTSTEP + " = " + TASKSTEP.ALLDONETASK.ordinal() + " OR " +
                 Columns.UPDATEDINFO + " = " + UpdatedInfo.DONE.ordinal() +
                 ") AND " + getLimitWhereCondition();
@@ -2284,8 +2993,23 @@ public class DbTaskRunner extends AbstractDbData {
             String req, boolean pending, boolean transfer, boolean error,
             boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException {
+        int nb = purgeLogPrepareStatement(session, table, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all);
+        if (Configuration.configuration.isRunnerHistoryActive()) {
+            nb += purgeLogPrepareStatement(session, tableHistory, startid, stopid, start, stop, rule, req,
+                    pending, transfer, error, done, all);
+        }
+        return nb;
+    }
+
+    private static int purgeLogPrepareStatement(
+            DbSession session, String fromTable, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all) throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException {
         DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
-        String request = "DELETE FROM " + table;
+        String request = "DELETE FROM " + fromTable;
         String orderby;
         if (startid == null && stopid == null && start == null && stop == null &&
                 rule == null && req == null && all) {
@@ -2310,7 +3034,7 @@ public class DbTaskRunner extends AbstractDbData {
         try {
             preparedStatement = getFilterCondition(preparedStatement, request, 0,
                     orderby, startid, stopid, start, stop, rule,
-                    req, pending, transfer, error, done, all);
+                    req, pending, transfer, error, done, all, FILTERMODE.LIKE, null, false);
             nb = preparedStatement.executeUpdate();
             logger.info("Purge " + nb + " from " + request);
         } finally {
@@ -2321,6 +3045,201 @@ public class DbTaskRunner extends AbstractDbData {
         return nb;
     }
 
+    /**
+     * Move to the history table, in one batch and one transaction, runners with globallaststep as
+     * ALLDONETASK or UpdatedInfo as Done, stopped before the given time. Active queries then only
+     * see the RUNNER table, while a runner selected again by its key (restart, information,
+     * duplicate detection) is restored from the history.
+     * 
+     * @param session
+     * @param stop
+     *            only runners stopped before this time are archived
+     * @param limit
+     *            approximate maximum number of runners to move in this batch
+     * @return the number of runners moved to the history table
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static int archiveDoneRunners(DbSession session, Timestamp stop, int limit)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String condition = " WHERE (" +
+                Columns.GLOBALLASTSTEP + " = " + TASKSTEP.ALLDONETASK.ordinal() + " OR " +
+                Columns.UPDATEDINFO + " = " + UpdatedInfo.DONE.ordinal() +
+                ") AND " + getLimitWhereCondition() + " AND " + Columns.STOPTRANS.name() + " <= ? ";
+        // First get the upper SPECIALID of this batch
+        String request = "SELECT " + Columns.SPECIALID.name() + " FROM " + table + condition +
+                " ORDER BY " + Columns.SPECIALID.name() + " ASC ";
+        request = session.getAdmin().getDbModel().limitRequest(Columns.SPECIALID.name(), request, limit);
+        long higherSpecialId = DbConstant.ILLEGALVALUE;
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement(request);
+            preparedStatement.getPreparedStatement().setTimestamp(1, stop);
+            preparedStatement.executeQuery();
+            while (preparedStatement.getNext()) {
+                higherSpecialId = preparedStatement.getResultSet().getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new WaarpDatabaseSqlException(e);
+        } finally {
+            preparedStatement.realClose();
+        }
+        if (higherSpecialId == DbConstant.ILLEGALVALUE) {
+            return 0;
+        }
+        condition += " AND " + Columns.SPECIALID.name() + " <= ? ";
+        String history = tableHistory.trim();
+        String runner = table.trim();
+        // same runner (primary key) in both tables
+        String samePk = "";
+        for (Columns column : new Columns[] { Columns.OWNERREQ, Columns.REQUESTER, Columns.REQUESTED,
+                Columns.SPECIALID }) {
+            samePk += " AND " + history + "." + column.name() + " = " + runner + "." + column.name();
+        }
+        // same version: any update changes STOPTRANS, long texts are not comparable on every database
+        String sameVersion = samePk;
+        for (Columns column : Columns.values()) {
+            if (column != Columns.FILEINFO && column != Columns.TRANSFERINFO) {
+                sameVersion += " AND " + history + "." + column.name() + " = " + runner + "." + column.name();
+            }
+        }
+        // The whole batch is moved in one transaction, on its own connection
+        DbSession archive = new DbSession(session.getAdmin(), false);
+        try {
+            archive.getConn().setAutoCommit(false);
+            // Previously archived versions of re-sent runners are replaced by the current ones
+            executeArchiveStep(archive, "DELETE FROM " + history + " WHERE EXISTS (SELECT " +
+                    Columns.SPECIALID.name() + " FROM " + runner + condition + samePk + ")",
+                    stop, higherSpecialId);
+            executeArchiveStep(archive, "INSERT INTO " + history + " (" + selectAllFields + ") SELECT " +
+                    selectAllFields + " FROM " + runner + condition, stop, higherSpecialId);
+            // Only the runners copied as they are now are deleted, not the ones updated meanwhile
+            int nb = executeArchiveStep(archive, "DELETE FROM " + runner + condition + " AND EXISTS (SELECT " +
+                    Columns.SPECIALID.name() + " FROM " + history + " WHERE 1 = 1" + sameVersion + ")",
+                    stop, higherSpecialId);
+            archive.getConn().commit();
+            logger.info("Archive " + nb + " runners into history");
+            return nb;
+        } catch (SQLException e) {
+            rollback(archive);
+            throw new WaarpDatabaseSqlException(e);
+        } catch (WaarpDatabaseSqlException e) {
+            rollback(archive);
+            throw e;
+        } finally {
+            archive.forceDisconnect();
+        }
+    }
+
+    /**
+     * Execute one step of the archive of runners
+     * 
+     * @param session
+     * @param request
+     *            the request with the stop time and the upper SPECIALID as parameters
+     * @param stop
+     * @param higherSpecialId
+     * @return the number of rows changed
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    private static int executeArchiveStep(DbSession session, String request, Timestamp stop,
+            long higherSpecialId) throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
+        try {
+            preparedStatement.createPrepareStatement(request);
+            preparedStatement.getPreparedStatement().setTimestamp(1, stop);
+            preparedStatement.getPreparedStatement().setLong(2, higherSpecialId);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            throw new WaarpDatabaseSqlException(e);
+        } finally {
+            preparedStatement.realClose();
+        }
+    }
+
+    /**
+     * 
+     * @param where
+     *            the condition on the primary key of this runner
+     * @return True if this runner is within the history table
+     */
+    private boolean existInHistory(String where) {
+        DbPreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = new DbPreparedStatement(dbSession);
+            preparedStatement.createPrepareStatement("SELECT " + Columns.SPECIALID.name() + " FROM " +
+                    tableHistory + where);
+            setValues(preparedStatement, primaryKey);
+            preparedStatement.executeQuery();
+            return preparedStatement.getNext();
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot look for runner in history: " + specialId, e);
+            return false;
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.realClose();
+            }
+        }
+    }
+
+    /**
+     * Restore this runner from the history table if it was archived, such that it is seen again
+     * by select, exist, restart or duplicate detection
+     * 
+     * @return True if this runner was found in the history and restored
+     */
+    private boolean restoreFromHistory() {
+        if (dbSession == null || !Configuration.configuration.isRunnerHistoryActive()) {
+            return false;
+        }
+        setPrimaryKey();
+        String where = " WHERE " + getWherePrimaryKey();
+        // most runners are not archived, so the history is first probed on the current session
+        if (!existInHistory(where)) {
+            return false;
+        }
+        DbSession restore = null;
+        DbPreparedStatement preparedStatement = null;
+        try {
+            restore = new DbSession(dbSession.getAdmin(), false);
+            restore.getConn().setAutoCommit(false);
+            preparedStatement = new DbPreparedStatement(restore);
+            preparedStatement.createPrepareStatement("INSERT INTO " + table + " (" + selectAllFields +
+                    ") SELECT " + selectAllFields + " FROM " + tableHistory + where);
+            setValues(preparedStatement, primaryKey);
+            int nb = preparedStatement.executeUpdate();
+            preparedStatement.realClose();
+            if (nb == 0) {
+                restore.getConn().rollback();
+                return false;
+            }
+            preparedStatement = new DbPreparedStatement(restore);
+            preparedStatement.createPrepareStatement("DELETE FROM " + tableHistory + where);
+            setValues(preparedStatement, primaryKey);
+            preparedStatement.executeUpdate();
+            restore.getConn().commit();
+            logger.debug("Runner restored from history: " + specialId);
+            return true;
+        } catch (SQLException e) {
+            logger.warn("Cannot restore runner from history: " + specialId, e);
+            rollback(restore);
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot restore runner from history: " + specialId, e);
+            if (restore != null) {
+                rollback(restore);
+            }
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.realClose();
+            }
+            if (restore != null) {
+                restore.forceDisconnect();
+            }
+        }
+        return false;
+    }
+
     /**
      * Change RUNNING, INTERRUPTED to TOSUBMIT TaskRunner from database. This method is to be used
      * when the commander is starting the very first time, in order to be ready to rerun tasks that
@@ -2746,6 +3665,33 @@ public class DbTaskRunner extends AbstractDbData {
             return (Integer) size;
         }
     }
+    /**
+     * 
+     * @param checkpoint
+     *            the first leaves of the tree hash computed so far (see TreeHash.getCheckpoint()), null
+     *            to remove them
+     */
+    public void setTreeHashCheckpoint(String checkpoint) {
+        Map<String, Object> map = getTransferMap();
+        if (checkpoint == null) {
+            if (map.remove(JSON_TREEHASH) == null) {
+                return;
+            }
+        } else {
+            map.put(JSON_TREEHASH, checkpoint);
+        }
+        setTransferMap(map);
+    }
+
+    /**
+     * 
+     * @return the leaves of the tree hash saved by a previous attempt of this transfer, or null
+     */
+    public String getTreeHashCheckpoint() {
+        Object checkpoint = getTransferMap().get(JSON_TREEHASH);
+        return checkpoint == null ? null : checkpoint.toString();
+    }
+
     /**
      * Set a new File information for this transfer
      * 
@@ -3323,9 +4269,17 @@ public class DbTaskRunner extends AbstractDbData {
                         if (hash != null) {
                             // we can compute it once more
                             try {
-                                if (!FilesystemBasedDigest.getHex(
-                                        FilesystemBasedDigest.getHash(file.getTrueFile(), true,
-                                                Configuration.configuration.getDigest())).equals(hash)) {
+                                int treeLeaf = FileUtils.getTreeHashLeaf(localChannelReference, this);
+                                String finalHash;
+                                if (treeLeaf > 0) {
+                                    // the tree hash was computed from the blocks as written
+                                    finalHash = hash;
+                                } else {
+                                    finalHash = FilesystemBasedDigest.getHex(
+                                            FilesystemBasedDigest.getHash(file.getTrueFile(), true,
+                                                    Configuration.configuration.getDigest()));
+                                }
+                                if (!finalHash.equals(hash)) {
                                     // KO
                                     R66Result result = new R66Result(
                                             new OpenR66RunnerErrorException("Bad final digest on receive operation"),
@@ -3339,6 +4293,9 @@ public class DbTaskRunner extends AbstractDbData {
                                     errorTransfer(error, file, localChannelReference);
                                     throw (OpenR66RunnerErrorException) result.getException();
                                 }
+                                // the same content may be announced again later
+                                ContentIndex.add(getRuleId(), Configuration.configuration.getDigest(), treeLeaf, finalHash,
+                                        file.getTrueFile());
                             } catch (IOException e) {
                                 R66Result result = new R66Result(
                                         new OpenR66RunnerErrorException("Bad final digest on receive operation", e),
@@ -3525,6 +4482,20 @@ public class DbTaskRunner extends AbstractDbData {
                 logger.warn("Cannot update Runner: {}", e.getMessage());
             }
         }
+        fireProgress();
+    }
+
+    /**
+     * Push the progress to the listeners of the future of the request, if any
+     */
+    private void fireProgress() {
+        LocalChannelReference lcr = localChannelReference;
+        if (lcr == null && session != null) {
+            lcr = session.getLocalChannelReference();
+        }
+        if (lcr != null && lcr.getFutureRequest() != null) {
+            lcr.getFutureRequest().fireProgress(this);
+        }
     }
 
     /**
@@ -4078,11 +5049,54 @@ public class DbTaskRunner extends AbstractDbData {
     public static String getJson(DbPreparedStatement preparedStatement, int limit)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException,
             OpenR66ProtocolBusinessException {
-        ArrayNode arrayNode = JsonHandler.createArrayNode();
+        return getJson(preparedStatement, limit, null);
+    }
+
+    /**
+     * Write selected TaskRunners to a Json String
+     * 
+     * @param preparedStatement
+     * @param limit
+     * @param continuation
+     *            if not null, receives the token to get the next page when this one is full
+     * @return the associated Json String
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public static String getJson(DbPreparedStatement preparedStatement, int limit, StringBuilder continuation)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException,
+            OpenR66ProtocolBusinessException {
+        StringWriter writer = new StringWriter();
+        writeJson(preparedStatement, limit, writer, continuation);
+        return writer.toString();
+    }
+
+    /**
+     * Write selected TaskRunners as a Json array directly into the writer, one runner at a time,
+     * escaped so that it can be embedded within an Html page
+     * 
+     * @param preparedStatement
+     * @param limit
+     * @param writer
+     *            the writer is flushed but not closed
+     * @param continuation
+     *            if not null, receives the token to get the next page when this one is full
+     * @return the number of written TaskRunners
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public static int writeJson(DbPreparedStatement preparedStatement, int limit, Writer writer,
+            StringBuilder continuation)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException,
+            OpenR66ProtocolBusinessException {
+        int nb = 0;
         try {
+            JsonGenerator generator = JsonHtmlUtils.createGenerator(writer);
+            generator.writeStartArray();
             preparedStatement.executeQuery();
             LocalTransaction localTransaction = Configuration.configuration.getLocalTransaction();
-            int nb = 0;
             while (preparedStatement.getNext()) {
                 DbTaskRunner runner = DbTaskRunner
                         .getFromStatement(preparedStatement);
@@ -4093,17 +5107,46 @@ public class DbTaskRunner extends AbstractDbData {
                 } else {
                     node.put("Running", localTransaction.contained(runner.getKey()));
                 }
-                arrayNode.add(node);
+                setEmbeddedJson(node, Columns.FILEINFO);
+                setEmbeddedJson(node, Columns.TRANSFERINFO);
+                generator.writeTree(node);
                 nb++;
-                if (nb >= limit) {
+                if (limit > 0 && nb >= limit) {
+                    if (continuation != null) {
+                        continuation.append(runner.getContinuationToken());
+                    }
                     break;
                 }
             }
+            generator.writeEndArray();
+            generator.close();
+        } catch (IOException e) {
+            throw new OpenR66ProtocolBusinessException("Cannot write Json", e);
         } finally {
             preparedStatement.realClose();
         }
-        return WaarpStringUtils.cleanJsonForHtml(arrayNode.toString().replaceAll("(\\\"\\{)([^}]+)(\\}\\\")", "{$2}")
-                .replaceAll("([^\\\\])(\\\\\")([a-zA-Z_0-9]+)(\\\\\")", "$1\"$3\""));
+        return nb;
+    }
+
+    /**
+     * Replace the given field by its Json object value if it contains a Json object
+     * 
+     * @param node
+     * @param column
+     */
+    private static void setEmbeddedJson(ObjectNode node, Columns column) {
+        JsonNode value = node.get(column.name());
+        if (value == null || !value.isTextual()) {
+            return;
+        }
+        String text = value.asText().trim();
+        if (text.startsWith("{") && text.endsWith("}")) {
+            try {
+                node.set(column.name(), JsonHandler.mapper.readTree(text));
+            } catch (IOException e) {
+                // not a Json object, keep it as a String
+            }
+        }
     }
 
     /**
@@ -4263,7 +5306,7 @@ public class DbTaskRunner extends AbstractDbData {
         } else {
             node.put("Running", localTransaction.contained(getKey()));
         }
-        return WaarpStringUtils.cleanJsonForHtml(JsonHandler.writeAsString(node));
+        return JsonHtmlUtils.writeAsString(node);
     }
 
     /**
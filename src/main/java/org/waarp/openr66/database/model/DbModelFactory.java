@@ -18,9 +18,13 @@
 package org.waarp.openr66.database.model;
 
 import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.DbRequest;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.common.database.model.DbModel;
 import org.waarp.common.database.model.DbType;
+import org.waarp.openr66.database.data.DbTaskRunner;
 
 /**
  * Factory to store the Database Model object
@@ -70,4 +74,65 @@ public class DbModelFactory extends org.waarp.common.database.model.DbModelFacto
                 write);
     }
 
+    /**
+     * Create the history table of runners and its index, common to all Database Models: the table
+     * is created from the runner table, such that both keep the same structure whatever the
+     * database types
+     * 
+     * @param session
+     * @param createIndex
+     *            the CREATE INDEX command to use
+     * @param createTable
+     *            the CREATE TABLE command to use
+     * @return True if the history table is created
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    static boolean createHistoryTable(DbSession session, String createIndex, String createTable)
+            throws WaarpDatabaseNoConnectionException {
+        String action = createTable + DbTaskRunner.tableHistory + " AS SELECT * FROM " +
+                DbTaskRunner.table + " WHERE 1 = 0";
+        System.out.println(action);
+        DbRequest request = new DbRequest(session);
+        try {
+            request.query(action);
+        } catch (WaarpDatabaseSqlException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            request.close();
+        }
+        // Several columns for primary key
+        DbTaskRunner.Columns[] acolumns = DbTaskRunner.Columns.values();
+        action = "ALTER TABLE " + DbTaskRunner.tableHistory + " ADD CONSTRAINT runnerhist_pk PRIMARY KEY (";
+        for (int i = DbTaskRunner.NBPRKEY; i > 1; i--) {
+            action += acolumns[acolumns.length - i].name() + ",";
+        }
+        action += acolumns[acolumns.length - 1].name() + ")";
+        System.out.println(action);
+        request = new DbRequest(session);
+        try {
+            request.query(action);
+        } catch (WaarpDatabaseSqlException e) {
+            // already there if the table already exists
+        } finally {
+            request.close();
+        }
+        // Index Runner History
+        action = createIndex + "IDX_RUNNERHIST ON " + DbTaskRunner.tableHistory + "(";
+        DbTaskRunner.Columns[] icolumns = DbTaskRunner.indexes;
+        for (int i = 0; i < icolumns.length - 1; i++) {
+            action += icolumns[i].name() + ", ";
+        }
+        action += icolumns[icolumns.length - 1].name() + ")";
+        System.out.println(action);
+        request = new DbRequest(session);
+        try {
+            request.query(action);
+        } catch (WaarpDatabaseSqlException e) {
+            // XXX FIX no return;
+        } finally {
+            request.close();
+        }
+        return true;
+    }
 }
@@ -239,6 +239,9 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             request.close();
         }
 
+        // runner history
+        DbModelFactory.createHistoryTable(session, "CREATE INDEX IF NOT EXISTS ", createTableH2);
+
         // cptrunner
         action = "CREATE SEQUENCE IF NOT EXISTS " + DbTaskRunner.fieldseq +
                 " START WITH " + (DbConstant.ILLEGALVALUE + 1) +
@@ -271,7 +274,7 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_8.getVersion());
     }
 
     @Override
@@ -434,8 +437,14 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_8.getVersion() + "? " + true);
+            if (!DbModelFactory.createHistoryTable(session, "CREATE INDEX IF NOT EXISTS ", "CREATE TABLE IF NOT EXISTS ")) {
+                return false;
+            }
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_8.getVersion());
         return true;
     }
 
@@ -507,6 +516,23 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             } finally {
             }
         }
+        request = null;
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            try {
+                request = new DbRequest(session);
+                request.select("select " + DbTaskRunner.Columns.SPECIALID.name() + " from " + DbTaskRunner.tableHistory +
+                        " where " + DbTaskRunner.Columns.SPECIALID + " = " + DbConstant.ILLEGALVALUE);
+                request.close();
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_8.getVersion());
+            } catch (WaarpDatabaseSqlException e) {
+                return !upgradeDb(session, version);
+            } finally {
+                if (request != null) {
+                    request.close();
+                }
+            }
+        }
         return false;
     }
 
@@ -242,6 +242,9 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
             request.close();
         }
 
+        // runner history
+        DbModelFactory.createHistoryTable(session, "CREATE INDEX ", createTableH2);
+
         // cptrunner
         /*
          * # Table to handle any number of sequences: CREATE TABLE Sequences ( name VARCHAR(22) NOT
@@ -280,7 +283,7 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_8.getVersion());
     }
 
     @Override
@@ -482,8 +485,14 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_8.getVersion() + "? " + true);
+            if (!DbModelFactory.createHistoryTable(session, "CREATE INDEX ", "CREATE TABLE IF NOT EXISTS ")) {
+                return false;
+            }
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_8.getVersion());
         return true;
     }
 
@@ -555,6 +564,23 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
             } finally {
             }
         }
+        request = null;
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            try {
+                request = new DbRequest(session);
+                request.select("select " + DbTaskRunner.Columns.SPECIALID.name() + " from " + DbTaskRunner.tableHistory +
+                        " where " + DbTaskRunner.Columns.SPECIALID + " = " + DbConstant.ILLEGALVALUE);
+                request.close();
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_8.getVersion());
+            } catch (WaarpDatabaseSqlException e) {
+                return !upgradeDb(session, version);
+            } finally {
+                if (request != null) {
+                    request.close();
+                }
+            }
+        }
         return false;
     }
 
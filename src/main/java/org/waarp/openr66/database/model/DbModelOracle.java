@@ -247,6 +247,9 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
             request.close();
         }
 
+        // runner history
+        DbModelFactory.createHistoryTable(session, "CREATE INDEX ", createTableH2);
+
         // cptrunner
         action = "CREATE SEQUENCE " + DbTaskRunner.fieldseq +
                 " MINVALUE " + (DbConstant.ILLEGALVALUE + 1) +
@@ -264,7 +267,7 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_8.getVersion());
     }
 
     @Override
@@ -417,8 +420,14 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_8.getVersion() + "? " + true);
+            if (!DbModelFactory.createHistoryTable(session, "CREATE INDEX ", "CREATE TABLE ")) {
+                return false;
+            }
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_8.getVersion());
         return true;
     }
 
@@ -490,6 +499,23 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
             } finally {
             }
         }
+        request = null;
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            try {
+                request = new DbRequest(session);
+                request.select("select " + DbTaskRunner.Columns.SPECIALID.name() + " from " + DbTaskRunner.tableHistory +
+                        " where " + DbTaskRunner.Columns.SPECIALID + " = " + DbConstant.ILLEGALVALUE);
+                request.close();
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_8.getVersion());
+            } catch (WaarpDatabaseSqlException e) {
+                return !upgradeDb(session, version);
+            } finally {
+                if (request != null) {
+                    request.close();
+                }
+            }
+        }
         return false;
     }
 
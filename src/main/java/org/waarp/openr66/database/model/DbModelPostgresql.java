@@ -260,6 +260,9 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
             request.close();
         }
 
+        // runner history
+        DbModelFactory.createHistoryTable(session, "CREATE INDEX ", createTableH2);
+
         // cptrunner
         action = "CREATE SEQUENCE " + DbTaskRunner.fieldseq +
                 " MINVALUE " + (DbConstant.ILLEGALVALUE + 1) +
@@ -278,7 +281,7 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_8.getVersion());
     }
 
     @Override
@@ -436,8 +439,19 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_8.getVersion() + "? " + true);
+            String createTableH2 = "CREATE TABLE ";
+            int serverVersion = getServerVersion(session);
+            if (serverVersion >= 90100) {
+                createTableH2 = "CREATE TABLE IF NOT EXISTS ";
+            }
+            if (!DbModelFactory.createHistoryTable(session, "CREATE INDEX ", createTableH2)) {
+                return false;
+            }
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_8.getVersion());
         return true;
     }
 
@@ -509,6 +523,23 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
             } finally {
             }
         }
+        request = null;
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_8.getVersion())) {
+            try {
+                request = new DbRequest(session);
+                request.select("select " + DbTaskRunner.Columns.SPECIALID.name() + " from " + DbTaskRunner.tableHistory +
+                        " where " + DbTaskRunner.Columns.SPECIALID + " = " + DbConstant.ILLEGALVALUE);
+                request.close();
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_8.getVersion());
+            } catch (WaarpDatabaseSqlException e) {
+                return !upgradeDb(session, version);
+            } finally {
+                if (request != null) {
+                    request.close();
+                }
+            }
+        }
         return false;
     }
 
@@ -84,6 +84,7 @@ import org.waarp.openr66.protocol.http.adminssl.HttpSslInitializer;
 import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler;
 import org.waarp.openr66.protocol.localhandler.LocalTransaction;
 import org.waarp.openr66.protocol.localhandler.Monitoring;
+import org.waarp.openr66.protocol.networkhandler.BandwidthClasses;
 import org.waarp.openr66.protocol.networkhandler.ChannelTrafficHandler;
 import org.waarp.openr66.protocol.networkhandler.GlobalTrafficHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
@@ -421,6 +422,20 @@ public class Configuration {
     protected final ExecutorService execOtherWorker = Executors.newCachedThreadPool(new WaarpThreadFactory(
             "OtherWorker"));
 
+    /**
+     * ExecutorService for block hashes and global digests, out of the network and sender threads,
+     * created on first use
+     */
+    protected ExecutorService execHashWorker = null;
+    private boolean hashWorkerStopped = false;
+
+    /**
+     * ExecutorService consuming the data received by the RecvThroughHandlers out of the network
+     * threads, created on first use
+     */
+    protected ExecutorService execRecvThroughWorker = null;
+    private boolean recvThroughWorkerStopped = false;
+
     protected EventLoopGroup bossGroup;
     protected EventLoopGroup workerGroup;
     protected EventLoopGroup handlerGroup;
@@ -577,6 +592,34 @@ public class Configuration {
 
     private long timeLimitCache = 180000;
 
+    private long runnerHistoryDelay = 0;
+
+    private int runnerHistoryBatch = 1000;
+
+    private DigestAlgo blockDigest = null;
+
+    private boolean deltaTransfer = false;
+
+    private int restartCheck = 0;
+
+    private int treeHashLeaf = 0;
+
+    private boolean transferBatch = false;
+
+    private long channelIdleTimeout = 0;
+
+    private String spooledStoreFile = null;
+
+    private int contentIndex = 0;
+
+    private final HashSet<String> contentIndexRules = new HashSet<String>();
+
+    private boolean networkScheduler = false;
+
+    private final HashMap<String, Integer> ruleWeights = new HashMap<String, Integer>();
+
+    private final BandwidthClasses bandwidthClasses = new BandwidthClasses();
+
     public Configuration() {
         // Init signal handler
         getShutdownConfiguration().timeout = getTIMEOUTCON();
@@ -613,6 +656,38 @@ public class Configuration {
         if (getTimeLimitCache() < 1000) {
             setTimeLimitCache(1000);
         }
+        setRunnerHistoryDelay(SystemPropertyUtil.getLong(R66SystemProperties.OPENR66_HISTORY_DELAY, 0));
+        setRunnerHistoryBatch(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_HISTORY_BATCH, 1000));
+        if (getRunnerHistoryBatch() <= 0) {
+            setRunnerHistoryBatch(1000);
+        }
+        String blockAlgo = SystemPropertyUtil.get(R66SystemProperties.OPENR66_DIGEST_BLOCK);
+        if (blockAlgo != null && !blockAlgo.trim().isEmpty()) {
+            try {
+                setBlockDigest(DigestAlgo.valueOf(blockAlgo.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown block digest algorithm: " + blockAlgo + ", global digest will be used");
+            }
+        }
+        setDeltaTransfer(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_DELTA_TRANSFER, false));
+        setRestartCheck(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_RESTART_CHECK, 0));
+        if (getRestartCheck() < 0) {
+            setRestartCheck(0);
+        }
+        setTreeHashLeaf(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_DIGEST_TREE_LEAF, 0));
+        if (getTreeHashLeaf() < 0) {
+            setTreeHashLeaf(0);
+        }
+        setTransferBatch(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_TRANSFER_BATCH, false));
+        setChannelIdleTimeout(SystemPropertyUtil.getLong(R66SystemProperties.OPENR66_CHANNEL_IDLE, 0));
+        setSpooledStoreFile(SystemPropertyUtil.get(R66SystemProperties.OPENR66_SPOOLED_STORE));
+        setContentIndex(SystemPropertyUtil.getInt(R66SystemProperties.OPENR66_CONTENT_INDEX, 0));
+        if (getContentIndex() < 0) {
+            setContentIndex(0);
+        }
+        setContentIndexRules(SystemPropertyUtil.get(R66SystemProperties.OPENR66_CONTENT_INDEX_RULES));
+        setNetworkScheduler(SystemPropertyUtil.getBoolean(R66SystemProperties.OPENR66_NETWORK_SCHEDULER, false));
+        setRuleWeights(SystemPropertyUtil.get(R66SystemProperties.OPENR66_RULE_WEIGHTS));
         DbTaskRunner.createLruCache(getLimitCache(), getTimeLimitCache());
         if (getLimitCache() > 0 && getTimeLimitCache() > 1000) {
             launchInFixedDelay(new CleanLruCache(), getTimeLimitCache(), TimeUnit.MILLISECONDS);
@@ -965,6 +1040,8 @@ public class Configuration {
         if (execOtherWorker != null) {
             execOtherWorker.shutdownNow();
         }
+        stopHashExecutorService();
+        stopRecvThroughExecutorService();
         if (timerCloseOperations != null) {
             timerCloseOperations.stop();
         }
@@ -1000,6 +1077,8 @@ public class Configuration {
         if (isUseLocalExec()) {
             LocalExecClient.releaseResources();
         }
+        stopHashExecutorService();
+        stopRecvThroughExecutorService();
         if (timerCloseOperations != null) {
             timerCloseOperations.stop();
         }
@@ -1121,6 +1200,51 @@ public class Configuration {
         return execOtherWorker;
     }
 
+    /**
+     * 
+     * @return the executorService to be used for block hashes and global digests, already shut
+     *         down once the configuration is stopped
+     */
+    public synchronized ExecutorService getHashExecutorService() {
+        if (execHashWorker == null) {
+            execHashWorker = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), new WaarpThreadFactory("HashWorker"));
+            if (hashWorkerStopped) {
+                execHashWorker.shutdown();
+            }
+        }
+        return execHashWorker;
+    }
+
+    private synchronized void stopHashExecutorService() {
+        hashWorkerStopped = true;
+        if (execHashWorker != null) {
+            execHashWorker.shutdownNow();
+        }
+    }
+
+    /**
+     * 
+     * @return the executorService to be used to consume the data received by the
+     *         RecvThroughHandlers, already shut down once the configuration is stopped
+     */
+    public synchronized ExecutorService getRecvThroughExecutorService() {
+        if (execRecvThroughWorker == null) {
+            execRecvThroughWorker = Executors.newCachedThreadPool(new WaarpThreadFactory("RecvThrough"));
+            if (recvThroughWorkerStopped) {
+                execRecvThroughWorker.shutdown();
+            }
+        }
+        return execRecvThroughWorker;
+    }
+
+    private synchronized void stopRecvThroughExecutorService() {
+        recvThroughWorkerStopped = true;
+        if (execRecvThroughWorker != null) {
+            execRecvThroughWorker.shutdownNow();
+        }
+    }
+
     public Timer getTimerClose() {
         return timerCloseOperations;
     }
@@ -2361,6 +2485,233 @@ public class Configuration {
         this.timeLimitCache = timeLimitCache;
     }
 
+    /**
+     * @return the runnerHistoryDelay
+     */
+    public long getRunnerHistoryDelay() {
+        return runnerHistoryDelay;
+    }
+
+    /**
+     * @param runnerHistoryDelay the runnerHistoryDelay to set
+     */
+    public void setRunnerHistoryDelay(long runnerHistoryDelay) {
+        this.runnerHistoryDelay = runnerHistoryDelay;
+    }
+
+    /**
+     * @return True if finished runners are archived into the history table
+     */
+    public boolean isRunnerHistoryActive() {
+        return runnerHistoryDelay > 0;
+    }
+
+    /**
+     * @return the runnerHistoryBatch
+     */
+    public int getRunnerHistoryBatch() {
+        return runnerHistoryBatch;
+    }
+
+    /**
+     * @param runnerHistoryBatch the runnerHistoryBatch to set
+     */
+    public void setRunnerHistoryBatch(int runnerHistoryBatch) {
+        this.runnerHistoryBatch = runnerHistoryBatch;
+    }
+
+    /**
+     * @return the algorithm used for the integrity of each block, the global digest if not specified
+     */
+    public DigestAlgo getBlockDigest() {
+        return blockDigest == null ? digest : blockDigest;
+    }
+
+    /**
+     * @param blockDigest the blockDigest to set (null to use the global digest)
+     */
+    public void setBlockDigest(DigestAlgo blockDigest) {
+        this.blockDigest = blockDigest;
+    }
+
+    /**
+     * @return True if only the blocks different from the previous version of a file are sent
+     */
+    public boolean isDeltaTransfer() {
+        return deltaTransfer;
+    }
+
+    /**
+     * @param deltaTransfer the deltaTransfer to set
+     */
+    public void setDeltaTransfer(boolean deltaTransfer) {
+        this.deltaTransfer = deltaTransfer;
+    }
+
+    /**
+     * @return the number of blocks verified before a restart, 0 if no check
+     */
+    public int getRestartCheck() {
+        return restartCheck;
+    }
+
+    /**
+     * @param restartCheck the restartCheck to set
+     */
+    public void setRestartCheck(int restartCheck) {
+        this.restartCheck = restartCheck;
+    }
+
+    /**
+     * @return the size of the leaves of the tree hash, 0 if no tree hash
+     */
+    public int getTreeHashLeaf() {
+        return treeHashLeaf;
+    }
+
+    /**
+     * @param treeHashLeaf the treeHashLeaf to set
+     */
+    public void setTreeHashLeaf(int treeHashLeaf) {
+        this.treeHashLeaf = treeHashLeaf;
+    }
+
+    /**
+     * @return True if several requests may follow one another over one local channel
+     */
+    public boolean isTransferBatch() {
+        return transferBatch;
+    }
+
+    /**
+     * @param transferBatch the transferBatch to set
+     */
+    public void setTransferBatch(boolean transferBatch) {
+        this.transferBatch = transferBatch;
+    }
+
+    /**
+     * @return the delay in ms an idle authenticated local channel is kept, 0 if none is kept
+     */
+    public long getChannelIdleTimeout() {
+        return channelIdleTimeout;
+    }
+
+    /**
+     * @param channelIdleTimeout the channelIdleTimeout to set
+     */
+    public void setChannelIdleTimeout(long channelIdleTimeout) {
+        this.channelIdleTimeout = channelIdleTimeout;
+    }
+
+    /**
+     * @return the file where the information of spooled directories is kept, null if none
+     */
+    public String getSpooledStoreFile() {
+        return spooledStoreFile;
+    }
+
+    /**
+     * @param spooledStoreFile the spooledStoreFile to set
+     */
+    public void setSpooledStoreFile(String spooledStoreFile) {
+        this.spooledStoreFile = spooledStoreFile;
+    }
+
+    /**
+     * @return the number of received files kept in the content index, 0 if none
+     */
+    public int getContentIndex() {
+        return contentIndex;
+    }
+
+    /**
+     * @param contentIndex the contentIndex to set
+     */
+    public void setContentIndex(int contentIndex) {
+        this.contentIndex = contentIndex;
+    }
+
+    /**
+     * @param rulename
+     * @return True if the transfers of this rule use the content index
+     */
+    public boolean isContentIndexRule(String rulename) {
+        return rulename != null && contentIndexRules.contains(rulename);
+    }
+
+    /**
+     * @param rules
+     *            the rules using the content index separated by ',', null for none
+     */
+    public void setContentIndexRules(String rules) {
+        contentIndexRules.clear();
+        if (rules == null) {
+            return;
+        }
+        for (String rule : rules.split(",")) {
+            if (!rule.trim().isEmpty()) {
+                contentIndexRules.add(rule.trim());
+            }
+        }
+    }
+
+    /**
+     * @return True if the data packets sharing one network connection are interleaved by weight
+     */
+    public boolean isNetworkScheduler() {
+        return networkScheduler;
+    }
+
+    /**
+     * @param networkScheduler the networkScheduler to set
+     */
+    public void setNetworkScheduler(boolean networkScheduler) {
+        this.networkScheduler = networkScheduler;
+    }
+
+    /**
+     * @param rulename
+     * @return the weight of this rule for the network scheduler, 1 by default
+     */
+    public int getRuleWeight(String rulename) {
+        Integer weight = rulename == null ? null : ruleWeights.get(rulename);
+        return weight == null ? 1 : weight;
+    }
+
+    /**
+     * @param weights
+     *            the weights of the rules as "rule=weight" separated by ',', null for none
+     */
+    public void setRuleWeights(String weights) {
+        ruleWeights.clear();
+        if (weights == null) {
+            return;
+        }
+        for (String item : weights.split(",")) {
+            int pos = item.lastIndexOf('=');
+            if (pos <= 0) {
+                continue;
+            }
+            try {
+                int weight = Integer.parseInt(item.substring(pos + 1).trim());
+                if (weight > 0) {
+                    ruleWeights.put(item.substring(0, pos).trim(), weight);
+                }
+            } catch (NumberFormatException e) {
+                logger.warn("Incorrect rule weight: " + item);
+            }
+        }
+    }
+
+    /**
+     * @return the hierarchical bandwidth classes by partner and rule, configured from the
+     *         DbHostConfiguration of this host
+     */
+    public BandwidthClasses getBandwidthClasses() {
+        return bandwidthClasses;
+    }
+
     /**
      * @param r66BusinessFactory the r66BusinessFactory to set
      */
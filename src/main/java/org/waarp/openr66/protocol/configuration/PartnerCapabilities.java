@@ -0,0 +1,128 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.configuration;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+
+/**
+ * Immutable snapshot of the capabilities of a partner, computed once from its
+ * PartnerConfiguration at authentication time, such that the transfer path
+ * does not have to read the Json configuration for each packet.
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public final class PartnerCapabilities {
+    /**
+     * Associated HostId
+     */
+    public final String id;
+    /**
+     * Digest algorithm used by this partner
+     */
+    public final DigestAlgo digestAlgo;
+    /**
+     * Digest algorithm used by this partner for each block
+     */
+    public final DigestAlgo blockDigestAlgo;
+    /**
+     * Digest algorithm to use for each block sent to this partner
+     */
+    public final DigestAlgo sendBlockDigestAlgo;
+    /**
+     * True if this partner sends a final hash
+     */
+    public final boolean useFinalHash;
+    /**
+     * True if this partner sends the file size
+     */
+    public final boolean useFileSize;
+    /**
+     * True if this partner is proxified
+     */
+    public final boolean proxified;
+    /**
+     * Separator to use with this partner
+     */
+    public final String separator;
+    /**
+     * True if this partner uses Json for requests
+     */
+    public final boolean useJson;
+    /**
+     * True if this partner accepts changes of file information
+     */
+    public final boolean changeFileInfoEnabled;
+    /**
+     * True if delta transfers are used with this partner (both sides accept them)
+     */
+    public final boolean deltaTransfer;
+    /**
+     * True if the blocks received before a restart are verified with this partner (both sides accept it)
+     */
+    public final boolean restartCheck;
+    /**
+     * Size of the leaves of the tree hash used as final hash with this partner (both sides use the same), 0 if none
+     */
+    public final int treeHashLeaf;
+    /**
+     * True if several requests may follow one another over one local channel with this partner (both sides accept it)
+     */
+    public final boolean batch;
+    /**
+     * True if the content of a file is announced before being sent to this partner, or by this partner before
+     * being received (both sides accept it and use final hashes)
+     */
+    public final boolean contentIndex;
+
+    /**
+     * @param partner
+     *            the configuration to take the snapshot from
+     */
+    public PartnerCapabilities(PartnerConfiguration partner) {
+        this.id = partner.getId();
+        this.digestAlgo = partner.getDigestAlgo();
+        this.blockDigestAlgo = partner.getBlockDigestAlgo();
+        // only a partner announcing its own block algorithm knows how to check ours
+        this.sendBlockDigestAlgo = partner.hasBlockDigestAlgo() ?
+                Configuration.configuration.getBlockDigest() : Configuration.configuration.getDigest();
+        this.useFinalHash = partner.useFinalHash();
+        this.useFileSize = partner.useFileSize();
+        this.proxified = partner.isProxified();
+        this.separator = partner.getSeperator();
+        this.useJson = partner.useJson();
+        this.changeFileInfoEnabled = partner.changeFileInfoEnabled();
+        this.deltaTransfer = partner.useDelta() && Configuration.configuration.isDeltaTransfer();
+        this.restartCheck = partner.getRestartCheck() > 0 && Configuration.configuration.getRestartCheck() > 0;
+        int leaf = Configuration.configuration.getTreeHashLeaf();
+        this.treeHashLeaf = leaf > 0 && partner.getTreeHashLeaf() == leaf && partner.useFinalHash() &&
+                Configuration.configuration.isGlobalDigest() ? leaf : 0;
+        this.batch = partner.useBatch() && Configuration.configuration.isTransferBatch();
+        this.contentIndex = partner.useContentIndex() && Configuration.configuration.getContentIndex() > 0 &&
+                partner.useFinalHash() && Configuration.configuration.isGlobalDigest();
+    }
+
+    @Override
+    public String toString() {
+        return "PartnerCapabilities: " + id + " algo: " + digestAlgo.name + " finalHash: " + useFinalHash +
+                " proxified: " + proxified;
+    }
+}
@@ -68,7 +68,8 @@ public class PartnerConfiguration {
     public static enum FIELDS {
         HOSTID("nohostid"), VERSION(R66Versions.V2_4_12.getVersion()),
         DIGESTALGO(DigestAlgo.MD5.name), FILESIZE(false), FINALHASH(false),
-        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD);
+        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD), BLOCKDIGESTALGO(DigestAlgo.MD5.name),
+        DELTA(false), RESTARTCHECK(0), TREEHASHLEAF(0), BATCH(false), CONTENTINDEX(false);
 
         String name;
         Object defaultValue;
@@ -151,7 +152,13 @@ public class PartnerConfiguration {
         JsonHandler.setValue(root, FIELDS.FILESIZE, true);
         JsonHandler.setValue(root, FIELDS.FINALHASH, Configuration.configuration.isGlobalDigest());
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.getDigest().name);
+        JsonHandler.setValue(root, FIELDS.BLOCKDIGESTALGO, Configuration.configuration.getBlockDigest().name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, Configuration.configuration.isHostProxyfied());
+        JsonHandler.setValue(root, FIELDS.DELTA, Configuration.configuration.isDeltaTransfer());
+        JsonHandler.setValue(root, FIELDS.RESTARTCHECK, Configuration.configuration.getRestartCheck());
+        JsonHandler.setValue(root, FIELDS.TREEHASHLEAF, Configuration.configuration.getTreeHashLeaf());
+        JsonHandler.setValue(root, FIELDS.BATCH, Configuration.configuration.isTransferBatch());
+        JsonHandler.setValue(root, FIELDS.CONTENTINDEX, Configuration.configuration.getContentIndex() > 0);
         JsonHandler.setValue(root, FIELDS.SEPARATOR, getSEPARATOR_FIELD());
         useJson = true;
         logger.debug("Info HostId: " + root.toString());
@@ -198,6 +205,67 @@ public class PartnerConfiguration {
         return getDigestAlgo(algo);
     }
 
+    /**
+     * 
+     * @return True if this Host announces its block digest algorithm, so accepts blocks hashed with
+     *         the one announced by this server
+     */
+    public boolean hasBlockDigestAlgo() {
+        return root.has(FIELDS.BLOCKDIGESTALGO.name);
+    }
+
+    /**
+     * 
+     * @return the Digest Algo used by this Host for each block, its global one if not announced
+     */
+    public DigestAlgo getBlockDigestAlgo() {
+        if (hasBlockDigestAlgo()) {
+            return getDigestAlgo(root.path(FIELDS.BLOCKDIGESTALGO.name).asText());
+        }
+        return getDigestAlgo();
+    }
+
+    /**
+     * 
+     * @return True if this Host accepts delta transfers
+     */
+    public boolean useDelta() {
+        return root.path(FIELDS.DELTA.name).asBoolean((Boolean) FIELDS.DELTA.defaultValue);
+    }
+
+    /**
+     * 
+     * @return the number of blocks this Host verifies before a restart, 0 if none
+     */
+    public int getRestartCheck() {
+        return root.path(FIELDS.RESTARTCHECK.name).asInt((Integer) FIELDS.RESTARTCHECK.defaultValue);
+    }
+
+    /**
+     * 
+     * @return the size of the leaves of the tree hash this Host uses as final hash, 0 if none
+     */
+    public int getTreeHashLeaf() {
+        return root.path(FIELDS.TREEHASHLEAF.name).asInt((Integer) FIELDS.TREEHASHLEAF.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host accepts several requests one after the other over one local channel
+     */
+    public boolean useBatch() {
+        return root.path(FIELDS.BATCH.name).asBoolean((Boolean) FIELDS.BATCH.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host announces the content of a file before sending it, and checks its own content index
+     *         before receiving one
+     */
+    public boolean useContentIndex() {
+        return root.path(FIELDS.CONTENTINDEX.name).asBoolean((Boolean) FIELDS.CONTENTINDEX.defaultValue);
+    }
+
     /**
      * 
      * @return True if this Host is proxified
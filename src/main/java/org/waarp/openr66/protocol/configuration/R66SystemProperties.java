@@ -90,5 +90,72 @@ public class R66SystemProperties {
      * Minimal value is 1000 ms (1s). If set to 1000, the value will not be regularly deleted.
      */
     public static final String OPENR66_CACHE_TIMELIMIT = "openr66.cache.timelimit";
+    /**
+     * Delay in ms after its end before a finished transfer is moved from the RUNNER table to the RUNNERHISTORY table
+     * (default = 0, meaning no archival into history).
+     */
+    public static final String OPENR66_HISTORY_DELAY = "openr66.history.delay";
+    /**
+     * Maximum number of finished transfers moved into the history table at each step of the Commander (default = 1000).
+     */
+    public static final String OPENR66_HISTORY_BATCH = "openr66.history.batch";
+    /**
+     * Algorithm for the integrity of each block in MD5 mode, as CRC32 or ADLER32 for a fast checksum, when the partner
+     * supports it (default = same as the global digest). The global digest remains used for the final hash.
+     */
+    public static final String OPENR66_DIGEST_BLOCK = "openr66.digest.block";
+    /**
+     * True to send only the blocks that differ from the previous version of a file already present on the receiver
+     * side, when the partner supports it too (default = false).
+     */
+    public static final String OPENR66_DELTA_TRANSFER = "openr66.delta.transfer";
+    /**
+     * Number of blocks received just before a restart point to be verified against the sender's file before restarting,
+     * the restart point becoming the first different block, when the partner supports it too (default = 0, no check).
+     */
+    public static final String OPENR66_RESTART_CHECK = "openr66.restart.check";
+    /**
+     * Size in bytes of the leaves of the tree hash of a file: when set and the partner uses the same, the final hash
+     * of a transfer is the root of the tree hash of the whole file, each leaf being hashed in parallel (default = 0,
+     * usual digest of the blocks sent).
+     */
+    public static final String OPENR66_DIGEST_TREE_LEAF = "openr66.digest.tree.leaf";
+    /**
+     * True to accept several requests one after the other over one authenticated local channel, such that a batch of
+     * files to the same partner skips the startup and authentication of each file, when the partner supports it too
+     * (default = false).
+     */
+    public static final String OPENR66_TRANSFER_BATCH = "openr66.transfer.batch";
+    /**
+     * Delay in ms during which the authenticated local channel of a successful request is kept idle for a next request
+     * to the same partner, when batch transfers are enabled on both sides (default = 0, no idle channel kept).
+     */
+    public static final String OPENR66_CHANNEL_IDLE = "openr66.channel.idle";
+    /**
+     * File where the information received from spooled directories is kept across restarts (default = none, kept in
+     * memory only).
+     */
+    public static final String OPENR66_SPOOLED_STORE = "openr66.spooled.store";
+    /**
+     * Number of received files kept in the content index by final hash and size: when set on both sides, the sender
+     * announces the size and final hash of a file before sending it, and the receiver copies the content from a file
+     * already received instead of receiving it again (default = 0, no content index).
+     */
+    public static final String OPENR66_CONTENT_INDEX = "openr66.content.index";
+    /**
+     * Rules using the content index, separated by ',', to be the same on both sides (default = none, so no transfer
+     * using the content index even if openr66.content.index is set).
+     */
+    public static final String OPENR66_CONTENT_INDEX_RULES = "openr66.content.index.rules";
+    /**
+     * True to interleave the data packets of all the transfers sharing one network connection by the weight of their
+     * rule, the other packets being sent first (default = false, sent in the order they are written).
+     */
+    public static final String OPENR66_NETWORK_SCHEDULER = "openr66.network.scheduler";
+    /**
+     * Weights of the rules for the network scheduler, as "rule=weight" separated by ',', a transfer of weight n
+     * sending n blocks while a transfer of weight 1 sends one (default = none, all rules having a weight of 1).
+     */
+    public static final String OPENR66_RULE_WEIGHTS = "openr66.rule.weights";
 
 }
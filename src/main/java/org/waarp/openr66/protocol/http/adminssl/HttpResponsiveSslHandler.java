@@ -18,6 +18,7 @@
 package org.waarp.openr66.protocol.http.adminssl;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -124,6 +125,10 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
     private boolean newSession = false;
     private volatile Cookie admin = null;
     private final StringBuilder responseContent = new StringBuilder();
+    /**
+     * Runners of the current page, written in place of XXXDATAJSONXXX by appendPage
+     */
+    private StringWriter dataJson = null;
     private String uriRequest;
     private Map<String, List<String>> params;
     private String lang = Messages.getSlocale();
@@ -333,6 +338,8 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
         WaarpStringUtils.replace(builder, "XXXERRXXX", error ? "checked" : "");
         WaarpStringUtils.replace(builder, "XXXDONEXXX", done ? "checked" : "");
         WaarpStringUtils.replace(builder, "XXXALLXXX", all ? "checked" : "");
+        // not already set by setDbTaskRunnerJsonData
+        WaarpStringUtils.replace(builder, "XXXCONTINUATIONXXX", "");
         return builder.toString();
     }
 
@@ -356,25 +363,43 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
     private String setDbTaskRunnerJsonData(String head, String errorText,
             String startid, String stopid, Timestamp tstart, Timestamp tstop, String rule, String req,
             boolean pending, boolean transfer, boolean error, boolean done, boolean all) {
+        return setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req,
+                pending, transfer, error, done, all, null);
+    }
+
+    private String setDbTaskRunnerJsonData(String head, String errorText,
+            String startid, String stopid, Timestamp tstart, Timestamp tstop, String rule, String req,
+            boolean pending, boolean transfer, boolean error, boolean done, boolean all, String continuation) {
         String seeAll = checkAuthorizedToSeeAll();
         DbPreparedStatement preparedStatement = null;
         try {
             preparedStatement =
                     DbTaskRunner.getFilterPrepareStatement(dbSession, getLIMITROW(), false,
                             startid, stopid, tstart, tstop, rule, req,
-                            pending, transfer, error, done, all, seeAll);
-            String json = DbTaskRunner.getJson(preparedStatement, getLIMITROW());
-            return head.replace(XXXDATAJSONXXX, json);
+                            pending, transfer, error, done, all, seeAll, false,
+                            DbTaskRunner.FILTERMODE.CONTAINS, continuation);
+            StringBuilder nextContinuation = new StringBuilder();
+            if (head.indexOf(XXXDATAJSONXXX) < 0) {
+                preparedStatement.realClose();
+                return head.replace("XXXCONTINUATIONXXX", "");
+            }
+            // runners are kept apart and only copied once into the response by appendPage, such that
+            // the template replacements never scan them
+            dataJson = new StringWriter(getLIMITROW() * 1024);
+            DbTaskRunner.writeJson(preparedStatement, getLIMITROW(), dataJson, nextContinuation);
+            return head.replace("XXXCONTINUATIONXXX", nextContinuation.toString());
         } catch (WaarpDatabaseException e) {
             if (preparedStatement != null) {
                 preparedStatement.realClose();
             }
+            dataJson = null;
             logger.warn("OpenR66 Web Error {}", e.getMessage());
             errorText += Messages.getString("ErrorCode.17")+": "+e.getMessage()+"<BR/>";
         } catch (OpenR66ProtocolBusinessException e) {
             if (preparedStatement != null) {
                 preparedStatement.realClose();
             }
+            dataJson = null;
             logger.warn("OpenR66 Web Error {}", e.getMessage());
             errorText += Messages.getString("ErrorCode.17")+": "+e.getMessage()+"<BR/>";
         }
@@ -387,14 +412,16 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
             head = resetOptionTransfer(head, "", "", "", "", "", "",
                     false, false, false, false, true);
             head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true);
-            return head.replace(XXXRESULTXXX, "").replace(XXXDATAJSONXXX, "[]");
+            return head.replace(XXXRESULTXXX, "");
         }
         List<String> parms = params.get("ACTION");
         String head = REQUEST.Listing.read(this);
         if (parms != null) {
             String parm = parms.get(0);
             boolean isNotReload = ! "Reload".equalsIgnoreCase(parm);
-            if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
+            boolean isNext = "Next".equalsIgnoreCase(parm);
+            if ("Filter".equalsIgnoreCase(parm) || isNext || ! isNotReload) {
+                String continuation = isNext ? getTrimValue("continuation") : null;
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
                 if (isNotReload && startid != null && stopid == null) {
@@ -427,7 +454,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                     stop = tstop.toString();
                 }
                 Long idstart = null;
-                head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req, pending, transfer, error, done, all);
+                head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req, pending, transfer, error, done, all, continuation);
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
@@ -443,8 +470,30 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                     false, false, false, false, true);
             head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true);
         }
-        return head.replace(XXXRESULTXXX, errorText).replace(XXXDATAJSONXXX, "[]");
+        return head.replace(XXXRESULTXXX, errorText);
     }
+    /**
+     * Append the page to the response, the runners of the page, if any, being written in place of
+     * XXXDATAJSONXXX
+     * 
+     * @param page
+     */
+    private void appendPage(String page) {
+        int pos = page.indexOf(XXXDATAJSONXXX);
+        if (pos < 0) {
+            responseContent.append(page);
+        } else {
+            responseContent.append(page, 0, pos);
+            if (dataJson != null) {
+                responseContent.append(dataJson.getBuffer());
+            } else {
+                responseContent.append("[]");
+            }
+            responseContent.append(page, pos + XXXDATAJSONXXX.length(), page.length());
+        }
+        dataJson = null;
+    }
+
     private String Listing() {
         getParams();
         return ListingReload();
@@ -457,7 +506,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
             head = resetOptionTransfer(head, "", "", "", "", "", "",
                     false, false, false, false, true);
             head = setDbTaskRunnerJsonData(head, "", "", "", null, null, "", "", false, false, false, false, true);
-            return head.replace(XXXRESULTXXX, "").replace(XXXDATAJSONXXX, "[]");
+            return head.replace(XXXRESULTXXX, "");
         }
         String head = REQUEST.CancelRestart.read(this);
         String errorText = "";
@@ -472,7 +521,8 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                 head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, null, null, null, null, false, false, false, false, true);
                 head = resetOptionTransfer(head, startid == null ? "" : startid,
                         stopid, "", "", "", "", false, false, false, false, true);
-            } else if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
+            } else if ("Filter".equalsIgnoreCase(parm) || "Next".equalsIgnoreCase(parm) || ! isNotReload) {
+                String continuation = "Next".equalsIgnoreCase(parm) ? getTrimValue("continuation") : null;
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
                 if (isNotReload && startid != null && stopid == null) {
@@ -505,7 +555,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                     stop = tstop.toString();
                 }
                 Long idstart = null;
-                head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req, pending, transfer, error, done, all);
+                head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req, pending, transfer, error, done, all, continuation);
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
@@ -728,7 +778,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                     false, false, false, false, true);
             head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true);
         }
-        return head.replace(XXXRESULTXXX, errorText).replace(XXXDATAJSONXXX, "[]");
+        return head.replace(XXXRESULTXXX, errorText);
     }
 
     private String Export() {
@@ -2108,7 +2158,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
         switch (req) {
             case CancelRestart:
                 if (authentHttp.getAuth().isValidRole(ROLE.TRANSFER)) {
-                    responseContent.append(CancelRestart());
+                    appendPage(CancelRestart());
                 } else {
                     responseContent.append(unallowed(Messages.getString("HttpSslHandler.CancelRestartUnallowed")));
                 }
@@ -2131,10 +2181,10 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                 responseContent.append(index());
                 break;
             case ListingReload:
-                responseContent.append(ListingReload());
+                appendPage(ListingReload());
                 break;
             case Listing:
-                responseContent.append(Listing());
+                appendPage(Listing());
                 break;
             case Logon:
                 responseContent.append(index());
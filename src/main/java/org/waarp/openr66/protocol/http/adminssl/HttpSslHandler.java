@@ -344,7 +344,15 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
     private String resetOptionTransfer(String header, String startid, String stopid,
             String start, String stop, String rule, String req,
             boolean pending, boolean transfer, boolean error, boolean done, boolean all) {
+        return resetOptionTransfer(header, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all, "");
+    }
+
+    private String resetOptionTransfer(String header, String startid, String stopid,
+            String start, String stop, String rule, String req,
+            boolean pending, boolean transfer, boolean error, boolean done, boolean all, String continuation) {
         StringBuilder builder = new StringBuilder(header);
+        WaarpStringUtils.replace(builder, "XXXCONTINUATIONXXX", continuation);
         WaarpStringUtils.replace(builder, "XXXSTARTIDXXX", startid);
         WaarpStringUtils.replace(builder, "XXXSTOPIDXXX", stopid);
         WaarpStringUtils.replace(builder, "XXXSTARTXXX", start);
@@ -394,7 +402,9 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
             body0 = REQUEST.Listing.readBodyHeader();
             String parm = parms.get(0);
             boolean isNotReload = ! "Reload".equalsIgnoreCase(parm);
-            if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
+            boolean isNext = "Next".equalsIgnoreCase(parm);
+            if ("Filter".equalsIgnoreCase(parm) || isNext || ! isNotReload) {
+                String continuation = isNext ? getTrimValue("continuation") : null;
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
                 if (isNotReload && startid != null && stopid == null) {
@@ -429,12 +439,14 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                 Long idstart = null;
                 body = REQUEST.Listing.readBody();
                 String seeAll = checkAuthorizedToSeeAll();
+                String nextContinuation = "";
                 DbPreparedStatement preparedStatement = null;
                 try {
                     preparedStatement =
                             DbTaskRunner.getFilterPrepareStatement(dbSession, getLIMITROW(), false,
                                     startid, stopid, tstart, tstop, rule, req,
-                                    pending, transfer, error, done, all, seeAll);
+                                    pending, transfer, error, done, all, seeAll, false,
+                                    DbTaskRunner.FILTERMODE.CONTAINS, continuation);
                     preparedStatement.executeQuery();
                     StringBuilder builder = new StringBuilder();
                     int i = 0;
@@ -443,6 +455,9 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                             i++;
                             DbTaskRunner taskRunner = DbTaskRunner
                                     .getFromStatement(preparedStatement);
+                            if (i >= getLIMITROW()) {
+                                nextContinuation = taskRunner.getContinuationToken();
+                            }
                             if (isNotReload) {
                                 long specid = taskRunner.getSpecialId();
                                 if (idstart == null || idstart > specid) {
@@ -476,11 +491,15 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                     }
                     logger.warn("OpenR66 Web Error {}", e.getMessage());
                 }
+                // the lowest Id of a partial page would hide the next pages
+                if (!nextContinuation.isEmpty()) {
+                    idstart = null;
+                }
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
                         rule == null ? "" : rule, req == null ? "" : req,
-                        pending, transfer, error, done, all);
+                        pending, transfer, error, done, all, nextContinuation);
             } else {
                 head = resetOptionTransfer(head, "", "", "", "", "", "",
                         false, false, false, false, true);
@@ -513,7 +532,9 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
             body0 = REQUEST.CancelRestart.readBodyHeader();
             String parm = parms.get(0);
             boolean isNotReload = ! "Reload".equalsIgnoreCase(parm);
-            if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
+            boolean isNext = "Next".equalsIgnoreCase(parm);
+            if ("Filter".equalsIgnoreCase(parm) || isNext || ! isNotReload) {
+                String continuation = isNext ? getTrimValue("continuation") : null;
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
                 if (isNotReload && startid != null && stopid == null) {
@@ -547,12 +568,14 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                 }
                 body = REQUEST.CancelRestart.readBody();
                 Long idstart = null;
+                String nextContinuation = "";
                 DbPreparedStatement preparedStatement = null;
                 try {
                     preparedStatement =
                             DbTaskRunner.getFilterPrepareStatement(dbSession, getLIMITROW(), false,
                                     startid, stopid, tstart, tstop, rule, req,
-                                    pending, transfer, error, done, all, seeAll);
+                                    pending, transfer, error, done, all, seeAll, false,
+                                    DbTaskRunner.FILTERMODE.CONTAINS, continuation);
                     preparedStatement.executeQuery();
                     StringBuilder builder = new StringBuilder();
                     int i = 0;
@@ -561,6 +584,9 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                             i++;
                             DbTaskRunner taskRunner = DbTaskRunner
                                     .getFromStatement(preparedStatement);
+                            if (i >= getLIMITROW()) {
+                                nextContinuation = taskRunner.getContinuationToken();
+                            }
                             if (isNotReload) {
                                 long specid = taskRunner.getSpecialId();
                                 if (idstart == null || idstart > specid) {
@@ -593,11 +619,15 @@ public class HttpSslHandler extends SimpleChannelInboundHandler<FullHttpRequest>
                     }
                     logger.warn("OpenR66 Web Error {}", e.getMessage());
                 }
+                // the lowest Id of a partial page would hide the next pages
+                if (!nextContinuation.isEmpty()) {
+                    idstart = null;
+                }
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
                         rule == null ? "" : rule, req == null ? "" : req,
-                        pending, transfer, error, done, all);
+                        pending, transfer, error, done, all, nextContinuation);
                 body1 = REQUEST.CancelRestart.readBodyEnd();
             } else if ("RestartAll".equalsIgnoreCase(parm) ||
                     "StopAll".equalsIgnoreCase(parm) ||
@@ -70,7 +70,10 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         DONE("boolean"),
         ALLSTATUS("boolean"),
         STARTTRANS("Date in ISO 8601 format or ms"),
-        STOPTRANS("Date in ISO 8601 format or ms");
+        STOPTRANS("Date in ISO 8601 format or ms"),
+        HISTORY("boolean (include archived transfers)"),
+        FILTERMODE("CONTAINS (default), PREFIX, EXACT or LIKE for IDRULE and PARTNER"),
+        CONTINUATION("token returned with the previous page to get the next one");
 
         public String type;
 
@@ -164,6 +167,16 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         boolean error = arg.path(FILTER_ARGS.INERROR.name()).asBoolean(false);
         boolean done = arg.path(FILTER_ARGS.DONE.name()).asBoolean(false);
         boolean all = arg.path(FILTER_ARGS.ALLSTATUS.name()).asBoolean(false);
+        boolean history = arg.path(FILTER_ARGS.HISTORY.name()).asBoolean(false);
+        DbTaskRunner.FILTERMODE mode = DbTaskRunner.FILTERMODE.CONTAINS;
+        String smode = arg.path(FILTER_ARGS.FILTERMODE.name()).asText();
+        if (smode != null && !smode.isEmpty()) {
+            try {
+                mode = DbTaskRunner.FILTERMODE.valueOf(smode.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new HttpIncorrectRequestException("Unknown filter mode: " + smode, e);
+            }
+        }
         Timestamp start = null;
         node = arg.path(FILTER_ARGS.STARTTRANS.name());
         if (!node.isMissingNode()) {
@@ -184,10 +197,17 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
             }
             stop = new Timestamp(val);
         }
+        String continuation = arg.path(FILTER_ARGS.CONTINUATION.name()).asText();
+        if (continuation == null || continuation.isEmpty()) {
+            continuation = null;
+        }
+        if (!DbTaskRunner.isValidContinuationToken(continuation)) {
+            throw new HttpIncorrectRequestException("Invalid continuation token: " + continuation);
+        }
         try {
             return DbTaskRunner.getFilterPrepareStatement(handler.getDbSession(),
                     limit, orderBySpecialId, startid, stopid, start, stop, rule, req, pending, transfer, error, done,
-                    all, owner);
+                    all, owner, history, mode, continuation);
         } catch (WaarpDatabaseNoConnectionException e) {
             throw new HttpIncorrectRequestException("Issue while reading from database", e);
         } catch (WaarpDatabaseSqlException e) {
@@ -195,6 +215,26 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         }
     }
 
+    /**
+     * Add to the answer the continuation token to use to get the next page when the page is full
+     */
+    @Override
+    protected void getAll(HttpRestHandler handler, RestArgument arguments,
+            RestArgument result, Object body) throws HttpIncorrectRequestException,
+            HttpInvalidAuthenticationException {
+        super.getAll(handler, arguments, result, body);
+        ObjectNode arg = arguments.getUriArgs().deepCopy();
+        arg.setAll(arguments.getBody());
+        int limit = arg.path(FILTER_ARGS.LIMIT.name()).asInt(0);
+        ArrayNode results = result.getResults();
+        if (limit > 0 && results.size() >= limit) {
+            String continuation = DbTaskRunner.getContinuationToken(results.get(results.size() - 1));
+            if (continuation != null) {
+                result.getAnswer().put(FILTER_ARGS.CONTINUATION.name(), continuation);
+            }
+        }
+    }
+
     @Override
     protected DbTaskRunner getItemPreparedStatement(DbPreparedStatement statement)
             throws HttpIncorrectRequestException, HttpNotFoundRequestException {
@@ -82,7 +82,7 @@ public class HttpRestBandwidthR66Handler extends HttpRestAbstractR66Handler {
         result.getAnswer().put(AbstractDbData.JSON_MODEL, RESTHANDLERS.Bandwidth.name());
         try {
             if (json instanceof BandwidthJsonPacket) {//
-                // setter, writeglobal, readglobal, writesession, readsession
+                // setter, writeglobal, readglobal, writesession, readsession, classes
                 BandwidthJsonPacket node = (BandwidthJsonPacket) json;
                 boolean setter = node.isSetter();
                 if (setter && arguments.getMethod() != METHOD.PUT) {
@@ -110,6 +110,8 @@ public class HttpRestBandwidthR66Handler extends HttpRestAbstractR66Handler {
                 node.setReadglobal(lresult[1]);
                 node.setWritesession(lresult[2]);
                 node.setReadsession(lresult[3]);
+                node.setClasses(serverHandler.bandwidthClasses(setter && node.getClasses() != null,
+                        node.getClasses()));
                 setOk(handler, result, json, HttpResponseStatus.OK);
             } else {
                 logger.info("Validation is ignored: " + json);
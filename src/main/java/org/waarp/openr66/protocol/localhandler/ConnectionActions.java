@@ -25,8 +25,10 @@ import static org.waarp.openr66.context.R66FiniteDualStates.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
@@ -34,6 +36,7 @@ import io.netty.channel.ChannelHandlerContext;
 
 import org.waarp.common.command.exception.Reply421Exception;
 import org.waarp.common.command.exception.Reply530Exception;
+import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
@@ -65,7 +68,9 @@ import org.waarp.openr66.protocol.localhandler.packet.StartupPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.TreeHash;
 
 /**
  * Class to implement actions related to general connection handler: channelClosed, startup, authentication, and error.
@@ -96,14 +101,64 @@ public abstract class ConnectionActions {
      * Global Digest in receive using local hash if necessary
      */
     protected FilesystemBasedDigest localDigest;
+    /**
+     * Pending update of the global digests by the hashing executor
+     */
+    protected Future<ByteBuf> pendingGlobalHash;
+    /**
+     * Tree hash in receive computed from the blocks received, when the final hash is a tree hash
+     */
+    protected TreeHash treeHash;
 
     protected void setFrom(ConnectionActions handler) {
         this.globalDigest = handler.globalDigest;
         this.localChannelReference = handler.localChannelReference;
         this.localDigest = handler.localDigest;
+        this.pendingGlobalHash = handler.pendingGlobalHash;
+        this.treeHash = handler.treeHash;
         this.session = handler.session;
     }
 
+    /**
+     * Wait for the previous block to be added to the global digests
+     */
+    protected void waitForGlobalHash() {
+        if (pendingGlobalHash != null) {
+            try {
+                FileUtils.getHashes(pendingGlobalHash);
+            } catch (OpenR66ProtocolSystemException e) {
+                logger.warn("Global digest computation in error: " + e.getMessage());
+                // the tree hash misses this block, so not usable anymore
+                treeHash = null;
+            }
+            pendingGlobalHash = null;
+        }
+    }
+
+    /**
+     * Keep within the runner the leaves of the tree hash of an interrupted receive transfer, such
+     * that a restart, even after a restart of the server, does not hash them again
+     * 
+     * @param runner
+     */
+    private void checkpointTreeHash(DbTaskRunner runner) {
+        globalDigest = null;
+        localDigest = null;
+        if (treeHash == null || runner.isSender()) {
+            return;
+        }
+        waitForGlobalHash();
+        if (treeHash != null) {
+            runner.setTreeHashCheckpoint(treeHash.getCheckpoint());
+            try {
+                runner.update();
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Cannot save the tree hash checkpoint: " + e.getMessage());
+            }
+            treeHash = null;
+        }
+    }
+
     void businessError() {
         if (session.getBusinessObject() != null) {
             session.getBusinessObject().checkAtError(session);
@@ -187,6 +242,9 @@ public abstract class ConnectionActions {
                     }
                 }
             }
+            if (runner != null) {
+                checkpointTreeHash(runner);
+            }
             if (mustFinalize && runner != null) {
                 if (runner.isSelfRequested() && localChannelReference != null) {
                     R66Future transfer = localChannelReference.getFutureRequest();
@@ -412,7 +470,7 @@ public abstract class ConnectionActions {
         }
         localChannelReference.setPartner(packet.getHostId());
         // Now if configuration say to do so: check remote ip address
-        if (Configuration.configuration.isCheckRemoteAddress() && !localChannelReference.getPartner().isProxified()) {
+        if (Configuration.configuration.isCheckRemoteAddress() && !localChannelReference.getPartnerCapabilities().proxified) {
             DbHostAuth host = R66Auth.getServerAuth(localChannelReference.getDbSession(),
                     packet.getHostId());
             boolean toTest = false;
@@ -0,0 +1,206 @@
+/**
+   This file is part of Waarp Project.
+
+   Copyright 2009, Frederic Bregier, and individual contributors by the @author
+   tags. See the COPYRIGHT.txt in the distribution for a full listing of
+   individual contributors.
+
+   All Waarp Project is free software: you can redistribute it and/or
+   modify it under the terms of the GNU General Public License as published
+   by the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   Waarp is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with Waarp .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Pool of idle LocalChannelReferences by partner, kept authenticated once their request is over,
+ * such that the next request to the same partner skips the connection and the authentication.
+ *
+ * Only partners accepting several requests over one local channel are pooled, and idle channels
+ * are closed after the idle timeout.
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public final class LocalChannelPool {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(LocalChannelPool.class);
+
+    /**
+     * Maximum number of idle channels kept by partner
+     */
+    private static final int MAXIDLEBYHOST = 10;
+
+    /**
+     * Idle channels by partner HostId
+     */
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<LocalChannelPool>> pools =
+            new ConcurrentHashMap<String, ConcurrentLinkedQueue<LocalChannelPool>>();
+
+    /**
+     * True if a purge of idle channels is scheduled
+     */
+    private static final AtomicBoolean purgeScheduled = new AtomicBoolean(false);
+
+    private final LocalChannelReference localChannelReference;
+    private final long time;
+
+    private LocalChannelPool(LocalChannelReference localChannelReference) {
+        this.localChannelReference = localChannelReference;
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     *
+     * @return True if idle channels are kept for next requests
+     */
+    public static boolean isActive() {
+        return Configuration.configuration.getChannelIdleTimeout() > 0 &&
+                Configuration.configuration.isTransferBatch();
+    }
+
+    /**
+     * Keep this channel, whose request ended successfully, for a next request to the same partner
+     *
+     * @param hostId
+     *            the requested HostId
+     * @param localChannelReference
+     * @return True if kept, False if the caller must close it
+     */
+    public static boolean offer(String hostId, LocalChannelReference localChannelReference) {
+        if (!isActive() || localChannelReference.getPartnerCapabilities() == null ||
+                !localChannelReference.getPartnerCapabilities().batch ||
+                !isHealthy(localChannelReference)) {
+            return false;
+        }
+        ConcurrentLinkedQueue<LocalChannelPool> pool = pools.get(hostId);
+        if (pool == null) {
+            pool = new ConcurrentLinkedQueue<LocalChannelPool>();
+            ConcurrentLinkedQueue<LocalChannelPool> previous = pools.putIfAbsent(hostId, pool);
+            if (previous != null) {
+                pool = previous;
+            }
+        }
+        // size() is not constant time but the pool is small
+        if (pool.size() >= MAXIDLEBYHOST) {
+            return false;
+        }
+        pool.add(new LocalChannelPool(localChannelReference));
+        logger.debug("Idle channel kept for " + hostId);
+        if (purgeScheduled.compareAndSet(false, true)) {
+            Configuration.configuration.launchInFixedDelay(new PurgeIdleChannels(),
+                    Configuration.configuration.getChannelIdleTimeout(), TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param hostId
+     *            the requested HostId
+     * @return an idle channel to this partner whose last request is over, or null if none (the
+     *         caller must still call resetForNextRequest before any use)
+     */
+    public static LocalChannelReference take(String hostId) {
+        ConcurrentLinkedQueue<LocalChannelPool> pool = pools.get(hostId);
+        if (pool == null) {
+            return null;
+        }
+        LocalChannelPool idle;
+        long limit = System.currentTimeMillis() - Configuration.configuration.getChannelIdleTimeout();
+        while ((idle = pool.poll()) != null) {
+            if (idle.time >= limit && isHealthy(idle.localChannelReference) &&
+                    idle.localChannelReference.getNetworkChannelObject().checkAlive(
+                            Configuration.configuration.getTIMEOUTCON())) {
+                return idle.localChannelReference;
+            }
+            idle.close();
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param localChannelReference
+     * @return True if both the local and the network channels are still active
+     */
+    private static boolean isHealthy(LocalChannelReference localChannelReference) {
+        return localChannelReference.getLocalChannel() != null &&
+                localChannelReference.getLocalChannel().isActive() &&
+                localChannelReference.getNetworkChannelObject() != null &&
+                localChannelReference.getNetworkChannel() != null &&
+                localChannelReference.getNetworkChannel().isActive();
+    }
+
+    /**
+     * Close this idle channel
+     */
+    private void close() {
+        logger.debug("Idle channel closed: {}", localChannelReference);
+        localChannelReference.getLocalChannel().close();
+    }
+
+    /**
+     * Close all idle channels
+     */
+    public static void closeAll() {
+        for (ConcurrentLinkedQueue<LocalChannelPool> pool : pools.values()) {
+            LocalChannelPool idle;
+            while ((idle = pool.poll()) != null) {
+                idle.close();
+            }
+        }
+    }
+
+    /**
+     * Close idle channels out of time or no more active, rescheduled while some remain
+     */
+    private static class PurgeIdleChannels extends Thread {
+
+        @Override
+        public void run() {
+            // cleared first, such that a channel offered during the scan schedules a next purge
+            purgeScheduled.set(false);
+            long limit = System.currentTimeMillis() - Configuration.configuration.getChannelIdleTimeout();
+            boolean remaining = false;
+            for (ConcurrentLinkedQueue<LocalChannelPool> pool : pools.values()) {
+                Iterator<LocalChannelPool> iterator = pool.iterator();
+                while (iterator.hasNext()) {
+                    LocalChannelPool idle = iterator.next();
+                    if (idle.time < limit || !isHealthy(idle.localChannelReference)) {
+                        if (pool.remove(idle)) {
+                            idle.close();
+                        }
+                    } else {
+                        remaining = true;
+                    }
+                }
+            }
+            if (remaining && !Configuration.configuration.isShutdown() &&
+                    purgeScheduled.compareAndSet(false, true)) {
+                Configuration.configuration.launchInFixedDelay(this,
+                        Configuration.configuration.getChannelIdleTimeout(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
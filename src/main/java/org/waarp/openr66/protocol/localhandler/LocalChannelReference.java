@@ -17,7 +17,10 @@
  */
 package org.waarp.openr66.protocol.localhandler;
 
+import java.io.File;
+
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.local.LocalChannel;
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
 
@@ -35,10 +38,12 @@ import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerCapabilities;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
+import org.waarp.openr66.protocol.localhandler.packet.BlockSignaturePacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
@@ -94,7 +99,7 @@ public class LocalChannelReference {
     /**
      * Future on Request
      */
-    private final R66Future futureRequest;
+    private volatile R66Future futureRequest;
 
     /**
      * Future on Valid Starting Request
@@ -150,11 +155,48 @@ public class LocalChannelReference {
      * If partial hash, no global hash validation can be done
      */
     private boolean partialHash = false;
+    /**
+     * In delta mode on receiver side, previous version of the file from which missing blocks are
+     * copied
+     */
+    private File deltaSource = null;
+    /**
+     * On receiver side, first rank of the blocks verified by the sender before a restart, such that
+     * the first block received may move the rank back down to it, -1 if none
+     */
+    private int restartCheckRank = -1;
+    /**
+     * On requester side, True if the next request of a batch is to follow over this channel
+     */
+    private boolean batchContinue = false;
+    /**
+     * In delta mode on sender side, signatures of the blocks already present on receiver side
+     */
+    private BlockSignaturePacket blockSignatures = null;
+    /**
+     * On sender side, final hash of the file whose content the receiver already has, such that no
+     * data is sent
+     */
+    private String contentHash = null;
+    /**
+     * On sender side, final hash of the file announced to the receiver, reused at the end of the
+     * transfer instead of being computed again while sending
+     */
+    private volatile String announcedHash = null;
+    /**
+     * Last data block write delayed by the bandwidth classes, such that the next blocks are
+     * written after it
+     */
+    private ChannelFuture shapedWrite = null;
 
     /**
      * PartnerConfiguration
      */
     private volatile PartnerConfiguration partner;
+    /**
+     * Snapshot of the partner capabilities, taken when the partner is set
+     */
+    private volatile PartnerCapabilities partnerCapabilities;
     /**
      * DbSession for Database that do not support concurrency in access
      */
@@ -216,6 +258,10 @@ public class LocalChannelReference {
      */
     public void close() {
         Configuration.configuration.getLocalTransaction().remove(this);
+        if (blockSignatures != null) {
+            blockSignatures.clear();
+            blockSignatures = null;
+        }
         // Now force the close of the database after a wait
         if (noconcurrencyDbSession != null && DbConstant.admin != null && DbConstant.admin.getSession() != null
                 && !noconcurrencyDbSession.equals(DbConstant.admin.getSession())) {
@@ -503,6 +549,96 @@ public class LocalChannelReference {
         return futureRequest;
     }
 
+    /**
+     * 
+     * @return True if the session went through the end of its last request
+     */
+    public boolean isRequestOver() {
+        R66FiniteDualStates state = session == null ? null : session.getState();
+        return state == R66FiniteDualStates.ENDREQUESTR || state == R66FiniteDualStates.ENDREQUESTS;
+    }
+
+    /**
+     * 
+     * @return True if the last request over this channel succeeded, such that this channel may
+     *         carry the next request of a batch
+     */
+    public boolean isReusable() {
+        return localChannel != null && localChannel.isActive() && session != null &&
+                session.isAuthenticated() && partnerCapabilities != null && partnerCapabilities.batch &&
+                futureRequest.isDone() && futureRequest.isSuccess();
+    }
+
+    /**
+     * 
+     * @return True if, on requester side, the next request of a batch follows over this channel,
+     *         the partner accepting it
+     */
+    public boolean isBatchContinue() {
+        return batchContinue && partnerCapabilities != null && partnerCapabilities.batch;
+    }
+
+    /**
+     * @param batchContinue
+     *            True if, on requester side, the next request of a batch follows over this channel
+     */
+    public void setBatchContinue(boolean batchContinue) {
+        this.batchContinue = batchContinue;
+    }
+
+    /**
+     * Prepare this channel, whose last request is over, for the next request of a batch. The
+     * authentication and the partner are kept.<br>
+     * <br>
+     * This never waits, since it may be called by the thread handling the packets of this channel:
+     * a channel whose last request is not yet validated is not reused.
+     * 
+     * @param futureRequest
+     *            the future of the next request, null to create one
+     * @return True if ready for the next request, False if this channel cannot be reused
+     */
+    public boolean resetForNextRequest(R66Future futureRequest) {
+        if (!isReusable()) {
+            logger.debug("Not reusable: {}", this);
+            return false;
+        }
+        Configuration.configuration.getLocalTransaction().removeRequest(this);
+        if (networkChannelRef != null && networkChannelRef.getScheduler() != null) {
+            // the next transfer may have another weight
+            networkChannelRef.getScheduler().remove(this);
+        }
+        requestId = null;
+        if (futureRequest == null) {
+            this.futureRequest = new R66Future(true);
+        } else {
+            if (futureRequest.isDone()) {
+                futureRequest.reset();
+            }
+            this.futureRequest = futureRequest;
+        }
+        futureValidRequest.reset();
+        futureEndTransfer = new R66Future(true);
+        errorMessage = "NoError";
+        code = ErrorCode.Unknown;
+        recvThroughHandler = null;
+        isSendThroughMode = false;
+        clientRunner = null;
+        hashComputeDuringTransfer = null;
+        partialHash = false;
+        deltaSource = null;
+        restartCheckRank = -1;
+        batchContinue = false;
+        contentHash = null;
+        announcedHash = null;
+        shapedWrite = null;
+        if (blockSignatures != null) {
+            blockSignatures.clear();
+            blockSignatures = null;
+        }
+        session.clearForNextRequest();
+        return true;
+    }
+
     /**
      * Invalidate the current request
      * 
@@ -630,6 +766,9 @@ public class LocalChannelReference {
      */
     public void setRecvThroughHandler(RecvThroughHandler recvThroughHandler) {
         this.recvThroughHandler = recvThroughHandler;
+        if (recvThroughHandler != null) {
+            recvThroughHandler.setLocalChannelReference(this);
+        }
     }
 
     /**
@@ -707,6 +846,97 @@ public class LocalChannelReference {
         return this.partialHash;
     }
 
+    /**
+     * @return the previous version of the file in delta mode on receiver side, null if none
+     */
+    public File getDeltaSource() {
+        return deltaSource;
+    }
+
+    /**
+     * @param deltaSource
+     *            the previous version of the file in delta mode on receiver side
+     */
+    public void setDeltaSource(File deltaSource) {
+        this.deltaSource = deltaSource;
+    }
+
+    /**
+     * @return the first rank of the blocks verified before a restart on receiver side, -1 if none
+     */
+    public int getRestartCheckRank() {
+        return restartCheckRank;
+    }
+
+    /**
+     * @param restartCheckRank
+     *            the first rank of the blocks verified before a restart on receiver side, -1 if none
+     */
+    public void setRestartCheckRank(int restartCheckRank) {
+        this.restartCheckRank = restartCheckRank;
+    }
+
+    /**
+     * @return the signatures of the blocks already present on receiver side, null if none
+     */
+    public BlockSignaturePacket getBlockSignatures() {
+        return blockSignatures;
+    }
+
+    /**
+     * @param blockSignatures
+     *            the signatures of the blocks already present on receiver side
+     */
+    public void setBlockSignatures(BlockSignaturePacket blockSignatures) {
+        this.blockSignatures = blockSignatures;
+    }
+
+    /**
+     * @return the final hash of the file whose content the receiver already has, null if the data
+     *         are to be sent
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash
+     *            the final hash of the file whose content the receiver already has
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the final hash of the file announced to the receiver, null if none
+     */
+    public String getAnnouncedHash() {
+        return announcedHash;
+    }
+
+    /**
+     * @param announcedHash
+     *            the final hash of the file announced to the receiver
+     */
+    public void setAnnouncedHash(String announcedHash) {
+        this.announcedHash = announcedHash;
+    }
+
+    /**
+     * @return the last data block write delayed by the bandwidth classes, null if none
+     */
+    public ChannelFuture getShapedWrite() {
+        return shapedWrite;
+    }
+
+    /**
+     * @param shapedWrite
+     *            the last data block write delayed by the bandwidth classes
+     */
+    public void setShapedWrite(ChannelFuture shapedWrite) {
+        this.shapedWrite = shapedWrite;
+    }
+
     /**
      * @return the partner
      */
@@ -724,6 +954,14 @@ public class LocalChannelReference {
         if (partner == null) {
             partner = new PartnerConfiguration(hostId, R66Versions.V2_4_12.getVersion());
         }
+        partnerCapabilities = new PartnerCapabilities(partner);
+    }
+
+    /**
+     * @return the immutable capabilities of the partner, null if the partner is not yet set
+     */
+    public PartnerCapabilities getPartnerCapabilities() {
+        return partnerCapabilities;
     }
 
     /**
@@ -58,6 +58,8 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
 import org.waarp.openr66.protocol.localhandler.packet.AuthentPacket;
 import org.waarp.openr66.protocol.localhandler.packet.BlockRequestPacket;
+import org.waarp.openr66.protocol.localhandler.packet.BlockSignaturePacket;
+import org.waarp.openr66.protocol.localhandler.packet.ContentHashPacket;
 import org.waarp.openr66.protocol.localhandler.packet.BusinessRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ConnectionErrorPacket;
 import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
@@ -255,6 +257,14 @@ class LocalServerHandler extends SimpleChannelInboundHandler<AbstractLocalPacket
                     serverHandler.blockRequest(ctx.channel(), (BlockRequestPacket) packet);
                     break;
                 }
+                case LocalPacketFactory.BLOCKSIGNATUREPACKET: {
+                    serverHandler.blockSignature((LocalChannel) ctx.channel(), (BlockSignaturePacket) packet);
+                    break;
+                }
+                case LocalPacketFactory.CONTENTHASHPACKET: {
+                    serverHandler.contentHash((LocalChannel) ctx.channel(), (ContentHashPacket) packet);
+                    break;
+                }
                 case LocalPacketFactory.JSONREQUESTPACKET: {
                     if (!serverHandler.getSession().isAuthenticated()) {
                         logger.warn("JsonCommand packet received while not authenticated: {} {}", packet,
@@ -344,6 +344,17 @@ public class LocalTransaction {
         }
     }
 
+    /**
+     * Remove the request association of one local channel kept open for a next request
+     * 
+     * @param localChannelReference
+     */
+    protected void removeRequest(LocalChannelReference localChannelReference) {
+        if (localChannelReference.getRequestId() != null) {
+            localChannelHashMapIdBased.remove(localChannelReference.getRequestId());
+        }
+    }
+
     /**
      * 
      * @param runner
@@ -473,6 +484,7 @@ public class LocalTransaction {
      */
     public void closeAll() {
         logger.debug("close All Local Channels");
+        LocalChannelPool.closeAll();
         localChannelGroup.close().awaitUninterruptibly();
     }
 
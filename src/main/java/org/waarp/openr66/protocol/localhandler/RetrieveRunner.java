@@ -19,6 +19,7 @@ package org.waarp.openr66.protocol.localhandler;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.local.LocalChannel;
@@ -137,12 +138,16 @@ public class RetrieveRunner extends Thread {
                         session.getBusinessObject().getInfo(session) != null) {
                     validPacket.setOptional(session.getBusinessObject().getInfo(session));
                 }
+                if (localChannelReference.isBatchContinue()) {
+                    validPacket.setBatchContinue();
+                }
                 try {
                     ChannelUtils.writeAbstractLocalPacket(localChannelReference, validPacket, true);
                 } catch (OpenR66ProtocolPacketException e) {
                 }
-                if (!localChannelReference.getFutureRequest().awaitUninterruptibly(
-                        Configuration.configuration.getTIMEOUTCON())) {
+                boolean answered = localChannelReference.getFutureRequest().awaitUninterruptibly(
+                        Configuration.configuration.getTIMEOUTCON());
+                if (!answered) {
                     // valid it however
                     session.getRunner().setAllDone();
                     try {
@@ -153,7 +158,10 @@ public class RetrieveRunner extends Thread {
                     localChannelReference.validateRequest(localChannelReference
                             .getFutureEndTransfer().getResult());
                 }
-                if (session.getRunner() != null && session.getRunner().isSelfRequested()) {
+                // once answered in batch, closed or kept by endRequest as told by the requester
+                if (session.getRunner() != null && session.getRunner().isSelfRequested() &&
+                        (!answered || localChannelReference.getPartnerCapabilities() == null ||
+                        !localChannelReference.getPartnerCapabilities().batch)) {
                     ChannelUtils.close(localChannelReference.getLocalChannel());
                 }
                 done = true;
@@ -199,6 +207,9 @@ public class RetrieveRunner extends Thread {
                                 session.getBusinessObject().getInfo(session) != null) {
                             validPacket.setOptional(session.getBusinessObject().getInfo(session));
                         }
+                        if (localChannelReference.isBatchContinue()) {
+                            validPacket.setBatchContinue();
+                        }
                         try {
                             ChannelUtils.writeAbstractLocalPacket(localChannelReference,
                                     validPacket, true);
@@ -293,6 +304,22 @@ public class RetrieveRunner extends Thread {
          */
     }
 
+    /**
+     * Write the next block when the channel is ready to prevent OOM
+     * 
+     * @param block
+     * @param localChannelReference
+     * @param md5
+     *            the block hash already computed (EMPTY_BUFFER if not in MD5 mode)
+     * @return the ChannelFuture on the write operation
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static ChannelFuture writeWhenPossible(
+            DataBlock block, LocalChannelReference localChannelReference, ByteBuf md5)
+            throws OpenR66ProtocolPacketException {
+        return ChannelUtils.writeBackDataBlock(localChannelReference, block, md5);
+    }
+
     /**
      * Utility method for send through mode
      * 
@@ -395,7 +395,7 @@ public class ServerActions extends ConnectionActions {
                     getValid =
                             DbTaskRunner.getLogPrepareStatement(
                                     localChannelReference.getDbSession(),
-                                    start, stop);
+                                    start, stop, Configuration.configuration.isRunnerHistoryActive());
                     DbTaskRunner.writeXMLWriter(getValid, filename);
                 } catch (WaarpDatabaseNoConnectionException e1) {
                     throw new OpenR66ProtocolBusinessException(e1);
@@ -998,7 +998,7 @@ public class ServerActions extends ConnectionActions {
                 break;
             }
             case LocalPacketFactory.BANDWIDTHPACKET: {
-                // setter, writeglobal, readglobal, writesession, readsession
+                // setter, writeglobal, readglobal, writesession, readsession, classes
                 BandwidthJsonPacket node = (BandwidthJsonPacket) json;
                 boolean setter = node.isSetter();
                 // request of current values or set new values
@@ -1011,6 +1011,7 @@ public class ServerActions extends ConnectionActions {
                 node.setReadglobal(lresult[1]);
                 node.setWritesession(lresult[2]);
                 node.setReadsession(lresult[3]);
+                node.setClasses(bandwidthClasses(setter && node.getClasses() != null, node.getClasses()));
                 R66Result result = new R66Result(session, true, ErrorCode.CompleteOk, null);
                 JsonCommandPacket valid = new JsonCommandPacket(node, result.getCode().getCode(),
                         LocalPacketFactory.REQUESTUSERPACKET);
@@ -1165,6 +1166,46 @@ public class ServerActions extends ConnectionActions {
         }
     }
 
+    /**
+     * Get or Set the hierarchical bandwidth classes by partner and rule, saved in the
+     * DbHostConfiguration of this host
+     * 
+     * @param setter
+     * @param classes
+     *            the definition of the classes (see BandwidthClasses), empty for none
+     * @return the current definition of the classes
+     * @throws OpenR66ProtocolNotAuthenticatedException
+     */
+    public final String bandwidthClasses(boolean setter, String classes)
+            throws OpenR66ProtocolNotAuthenticatedException {
+        // Authentication must be the local server or LIMIT authorization
+        try {
+            if (!session.getAuth().getUser().equals(
+                    Configuration.configuration.getHostId(session.getAuth().isSsl()))
+                    && !session.getAuth().isValidRole(ROLE.LIMIT)) {
+                throw new OpenR66ProtocolNotAuthenticatedException(
+                        "Not correctly authenticated");
+            }
+        } catch (OpenR66ProtocolNoSslException e1) {
+            throw new OpenR66ProtocolNotAuthenticatedException(
+                    "Not correctly authenticated since SSL is not supported", e1);
+        }
+        if (setter) {
+            if (Configuration.configuration.getR66Mib() != null) {
+                Configuration.configuration.getR66Mib().notifyWarning(
+                        "Change Bandwidth Classes Order received: " + classes,
+                        session.getAuth().getUser());
+            }
+            Configuration.configuration.getBandwidthClasses().configure(classes);
+            if (!DbHostConfiguration.updateBandwidthClassesDb(DbConstant.admin.getSession(),
+                    Configuration.configuration.getHOST_ID(),
+                    Configuration.configuration.getBandwidthClasses().getDefinition())) {
+                logger.warn("Bandwidth classes not saved in the host configuration");
+            }
+        }
+        return Configuration.configuration.getBandwidthClasses().getDefinition();
+    }
+
     /**
      * Import configuration from files as parameter
      * 
@@ -1799,7 +1840,8 @@ public class ServerActions extends ConnectionActions {
             getValid =
                     DbTaskRunner.getFilterPrepareStatement(dbSession, 0,// 0 means no limit
                             true, startid, stopid, start, stop, rule, request,
-                            pending, transfer, error, done, false);
+                            pending, transfer, error, done, false, null,
+                            Configuration.configuration.isRunnerHistoryActive());
             nb = DbTaskRunner.writeXMLWriter(getValid, filename);
         } catch (WaarpDatabaseNoConnectionException e1) {
             throw new OpenR66ProtocolBusinessException(e1);
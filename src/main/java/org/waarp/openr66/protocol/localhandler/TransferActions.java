@@ -22,8 +22,15 @@ package org.waarp.openr66.protocol.localhandler;
 
 import static org.waarp.openr66.context.R66FiniteDualStates.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.local.LocalChannel;
 
@@ -36,6 +43,7 @@ import org.waarp.common.exception.FileTransferException;
 import org.waarp.common.file.DataBlock;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.client.RecvThroughHandler;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.task.AbstractTask;
@@ -46,6 +54,7 @@ import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.Messages;
+import org.waarp.openr66.protocol.configuration.PartnerCapabilities;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66DatabaseGlobalException;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
@@ -57,6 +66,8 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotAuthenticatedExcep
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNotYetConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import org.waarp.openr66.protocol.localhandler.packet.BlockSignaturePacket;
+import org.waarp.openr66.protocol.localhandler.packet.ContentHashPacket;
 import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndRequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndTransferPacket;
@@ -69,8 +80,10 @@ import org.waarp.openr66.protocol.localhandler.packet.json.RequestJsonPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.ContentIndex;
 import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.protocol.utils.TreeHash;
 
 /**
  * Class to implement actions related to real transfer: request initialization, data transfer, end of transfer and of request,
@@ -160,6 +173,17 @@ public class TransferActions extends ServerActions {
             throw new OpenR66ProtocolNotAuthenticatedException(
                     Messages.getString("LocalServerHandler.3")); //$NON-NLS-1$
         }
+        if (packet.isToValidate() && localChannelReference.isRequestOver()) {
+            // next request of a batch over this authenticated channel
+            if (!localChannelReference.resetForNextRequest(null)) {
+                session.setStatus(102);
+                throw new OpenR66ProtocolBusinessException("Channel cannot be reused for a new request");
+            }
+            globalDigest = null;
+            localDigest = null;
+            treeHash = null;
+            pendingGlobalHash = null;
+        }
         if (packet.isToValidate()) {
             session.newState(REQUESTR);
         }
@@ -229,7 +253,7 @@ public class TransferActions extends ServerActions {
             // Check if the blocksize is greater than local value
             if (Configuration.configuration.getBLOCKSIZE() < blocksize) {
                 blocksize = Configuration.configuration.getBLOCKSIZE();
-                String sep = localChannelReference.getPartner().getSeperator();
+                String sep = localChannelReference.getPartnerCapabilities().separator;
                 packet = new RequestPacket(packet.getRulename(), packet.getMode(),
                         packet.getFilename(), blocksize, packet.getRank(),
                         packet.getSpecialId(), packet.getFileInformation(), packet.getOriginalSize(), sep);
@@ -520,15 +544,402 @@ public class TransferActions extends ServerActions {
                 logger.debug("Now ready to continue with send through");
                 localChannelReference.validateEndTransfer(
                         new R66Result(session, false, ErrorCode.PreProcessingOk, runner));
+            } else if (isContentIndex(runner)) {
+                // data will be sent once the receiver tells if it already has the content
+                submitContentHash(channel, runner);
+            } else if (isDeltaTransfer(runner) || isRestartCheck(runner)) {
+                // data will be sent once the block signatures are received
+                logger.debug("Now waiting for block signatures before runRetrieve");
             } else {
                 // Automatically send data now
                 logger.debug("Now ready to continue with runRetrieve");
                 NetworkTransaction.runRetrieve(session, channel);
             }
+        } else if (isContentIndex(runner)) {
+            logger.debug("Now waiting for the content hash");
+        } else if (isDeltaTransfer(runner) || isRestartCheck(runner)) {
+            submitSignatures(channel, runner);
         }
         session.setStatus(39);
     }
 
+    /**
+     * 
+     * @param runner
+     * @return True if the sender announces the content of the file before sending it, both sides
+     *         having the same answer as long as they use the content index for the same rules
+     */
+    private final boolean isContentIndex(DbTaskRunner runner) {
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        return partner != null && partner.contentIndex && runner.getRank() == 0
+                && !RequestPacket.isThroughMode(runner.getMode())
+                && Configuration.configuration.isContentIndexRule(runner.getRuleId());
+    }
+
+    /**
+     * Announce the content of the file to send from another thread, since the whole file is hashed
+     * unless its hash is shared with other transfers
+     * 
+     * @param channel
+     * @param runner
+     */
+    private final void submitContentHash(final Channel channel, final DbTaskRunner runner) {
+        submitContent(new Runnable() {
+            public void run() {
+                try {
+                    sendContentHash(runner);
+                } catch (OpenR66ProtocolPacketException e) {
+                    contentInError(channel, runner, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run this task out of the handler thread, not in the hashing executor since the hash of a
+     * whole file waits for the hashes of its leaves computed there
+     * 
+     * @param task
+     */
+    private final void submitContent(Runnable task) {
+        try {
+            Configuration.configuration.getExecutorService().execute(task);
+        } catch (RejectedExecutionException e) {
+            // executor stopped so run it now
+            task.run();
+        }
+    }
+
+    /**
+     * 
+     * @param channel
+     * @param runner
+     * @param e
+     */
+    private final void contentInError(Channel channel, DbTaskRunner runner, OpenR66ProtocolPacketException e) {
+        logger.error("Cannot send the content hash: {}", runner, e);
+        localChannelReference.invalidateRequest(new R66Result(
+                new OpenR66ProtocolSystemException(e), session, true,
+                ErrorCode.Internal, runner));
+        ChannelCloseTimer.closeFutureChannel(channel);
+    }
+
+    /**
+     * Announce the size and final hash of the file to send, such that the receiver tells if it
+     * already has this content, the hash being kept for the end of the transfer
+     * 
+     * @param runner
+     * @throws OpenR66ProtocolPacketException
+     */
+    private final void sendContentHash(DbTaskRunner runner) throws OpenR66ProtocolPacketException {
+        DigestAlgo algo = Configuration.configuration.getDigest();
+        int treeLeaf = FileUtils.getTreeHashLeaf(localChannelReference, runner);
+        File file = session.getFile().getTrueFile();
+        long size = 0;
+        String hash = "";
+        if (file != null) {
+            try {
+                size = file.length();
+                hash = FileUtils.getFinalHash(file, algo, treeLeaf);
+                localChannelReference.setAnnouncedHash(hash);
+            } catch (IOException e) {
+                // an empty hash is never found by the receiver
+                logger.warn("Cannot compute the hash of " + file + ": " + e.getMessage());
+            }
+        }
+        ContentHashPacket packet = new ContentHashPacket(size, algo, treeLeaf, hash, false);
+        ChannelUtils.writeAbstractLocalPacket(localChannelReference, packet, false);
+    }
+
+    /**
+     * Receive the content announced by the sender, then answer if it is already present, or receive
+     * the answer of the receiver, then start to send the data (none if present)
+     * 
+     * @param channel
+     * @param packet
+     * @throws OpenR66ProtocolNotAuthenticatedException
+     * @throws OpenR66ProtocolBusinessException
+     * @throws OpenR66ProtocolPacketException
+     */
+    public void contentHash(LocalChannel channel, ContentHashPacket packet)
+            throws OpenR66ProtocolNotAuthenticatedException, OpenR66ProtocolBusinessException,
+            OpenR66ProtocolPacketException {
+        if (!session.isAuthenticated()) {
+            throw new OpenR66ProtocolNotAuthenticatedException(
+                    "Not authenticated while ContentHash received");
+        }
+        if (!session.isReady()) {
+            throw new OpenR66ProtocolBusinessException(
+                    "Request not ready but receive content hash");
+        }
+        DbTaskRunner runner = session.getRunner();
+        if (runner.isSender()) {
+            if (packet.isPresent()) {
+                logger.info("Content already present on receiver side, no data to send: {}", runner);
+                localChannelReference.setContentHash(packet.getHash());
+            } else if (isDeltaTransfer(runner)) {
+                logger.debug("Now waiting for block signatures before runRetrieve");
+                return;
+            }
+            logger.debug("Now ready to continue with runRetrieve after content hash: {}", packet);
+            NetworkTransaction.runRetrieve(session, channel);
+            return;
+        }
+        submitContentAnswer(channel, runner, packet);
+    }
+
+    /**
+     * Answer if the content is already present from another thread, since the file copied is
+     * hashed again
+     * 
+     * @param channel
+     * @param runner
+     * @param packet
+     */
+    private final void submitContentAnswer(final Channel channel, final DbTaskRunner runner,
+            final ContentHashPacket packet) {
+        submitContent(new Runnable() {
+            public void run() {
+                boolean present = copyContent(packet);
+                ContentHashPacket answer = new ContentHashPacket(packet.getSize(), packet.getAlgo(),
+                        packet.getTreeLeaf(), packet.getHash(), present);
+                try {
+                    ChannelUtils.writeAbstractLocalPacket(localChannelReference, answer, false);
+                } catch (OpenR66ProtocolPacketException e) {
+                    contentInError(channel, runner, e);
+                    return;
+                }
+                if (!present && isDeltaTransfer(runner)) {
+                    submitSignatures(channel, runner);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy the content announced by the sender from a file already received, if any
+     * 
+     * @param packet
+     * @return True if the file to receive is now complete
+     */
+    private final boolean copyContent(ContentHashPacket packet) {
+        if (packet.getHash().isEmpty()) {
+            return false;
+        }
+        String rule = session.getRunner().getRuleId();
+        File source = ContentIndex.get(rule, packet.getAlgo(), packet.getTreeLeaf(), packet.getSize(),
+                packet.getHash());
+        File target = session.getFile().getTrueFile();
+        if (source == null || target == null || source.getAbsolutePath().equals(target.getAbsolutePath())) {
+            return false;
+        }
+        try {
+            session.getFile().closeFile();
+            FileUtils.copy(source, target, false, false);
+            // the file received may have been modified since
+            String hash = FileUtils.getFinalHash(target, packet.getAlgo(), packet.getTreeLeaf());
+            if (hash.equalsIgnoreCase(packet.getHash())) {
+                logger.info("Content copied from " + source + " instead of being received: {}",
+                        session.getRunner());
+                return true;
+            }
+            logger.warn("Content of " + source + " changed since received, so not used");
+            ContentIndex.remove(rule, packet.getAlgo(), packet.getTreeLeaf(), packet.getSize(), packet.getHash());
+        } catch (CommandAbstractException e) {
+            logger.warn("Cannot copy the content of " + source + ": " + e.getMessage());
+        } catch (OpenR66ProtocolSystemException e) {
+            logger.warn("Cannot copy the content of " + source + ": " + e.getMessage());
+        } catch (IOException e) {
+            logger.warn("Cannot copy the content of " + source + ": " + e.getMessage());
+        }
+        target.delete();
+        return false;
+    }
+
+    /**
+     * Send the block signatures from the hashing executor, since the whole previous version may
+     * have to be read, the sender waiting for them before sending the data
+     * 
+     * @param channel
+     * @param runner
+     */
+    private final void submitSignatures(final Channel channel, final DbTaskRunner runner) {
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    if (runner.getRank() > 0) {
+                        sendRestartSignatures(runner);
+                    } else {
+                        sendBlockSignatures(runner);
+                    }
+                } catch (OpenR66ProtocolPacketException e) {
+                    logger.error("Cannot send the block signatures: {}", runner, e);
+                    localChannelReference.invalidateRequest(new R66Result(
+                            new OpenR66ProtocolSystemException(e), session, true,
+                            ErrorCode.Internal, runner));
+                    ChannelCloseTimer.closeFutureChannel(channel);
+                }
+            }
+        };
+        try {
+            Configuration.configuration.getHashExecutorService().execute(task);
+        } catch (RejectedExecutionException e) {
+            // executor stopped so send them now
+            task.run();
+        }
+    }
+
+    /**
+     * 
+     * @param runner
+     * @return True if this transfer restarts after a verification of the last blocks received,
+     *         both sides having the same answer
+     */
+    private final boolean isRestartCheck(DbTaskRunner runner) {
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        return partner != null && partner.restartCheck && runner.getRank() > 0
+                && !RequestPacket.isThroughMode(runner.getMode());
+    }
+
+    /**
+     * Send the signatures of the last blocks received before the restart point, such that the
+     * sender restarts from the first one that differs
+     * 
+     * @param runner
+     * @throws OpenR66ProtocolPacketException
+     */
+    private final void sendRestartSignatures(DbTaskRunner runner) throws OpenR66ProtocolPacketException {
+        DigestAlgo algo = Configuration.configuration.getDigest();
+        int rank = runner.getRank();
+        int firstRank = Math.max(0, rank - Configuration.configuration.getRestartCheck());
+        ByteBuf signatures = FileUtils.getBlockSignatures(session.getFile().getTrueFile(),
+                runner.getBlocksize(), algo, firstRank, rank - firstRank);
+        int hashLength = 0;
+        if (signatures != null) {
+            hashLength = signatures.readableBytes() / (rank - firstRank);
+            // the sender may restart from any of these blocks
+            localChannelReference.setRestartCheckRank(firstRank);
+        }
+        logger.debug("Restart check from rank " + firstRank + " to " + rank);
+        BlockSignaturePacket packet = new BlockSignaturePacket(runner.getBlocksize(), firstRank, algo, hashLength,
+                signatures);
+        ChannelUtils.writeAbstractLocalPacket(localChannelReference, packet, false);
+    }
+
+    /**
+     * 
+     * @param runner
+     * @return True if this transfer shall use the delta mode, both sides having the same answer
+     */
+    private final boolean isDeltaTransfer(DbTaskRunner runner) {
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        return partner != null && partner.deltaTransfer && runner.getRank() == 0
+                && !RequestPacket.isThroughMode(runner.getMode());
+    }
+
+    /**
+     * Send the signatures of the blocks of the previous version of the file, if any, such that the
+     * sender sends only the blocks that differ
+     * 
+     * @param runner
+     * @throws OpenR66ProtocolPacketException
+     */
+    private final void sendBlockSignatures(DbTaskRunner runner) throws OpenR66ProtocolPacketException {
+        DigestAlgo algo = Configuration.configuration.getDigest();
+        ByteBuf signatures = null;
+        File previous = session.getFile().getPreviousVersion();
+        if (previous != null) {
+            signatures = FileUtils.getBlockSignatures(previous, runner.getBlocksize(), algo);
+        }
+        int hashLength = 0;
+        if (signatures != null) {
+            localChannelReference.setDeltaSource(previous);
+            hashLength = (int) (signatures.readableBytes() / (previous.length() / runner.getBlocksize()));
+            logger.debug("Delta from previous version: " + previous);
+        }
+        BlockSignaturePacket packet = new BlockSignaturePacket(runner.getBlocksize(), 0, algo, hashLength,
+                signatures);
+        ChannelUtils.writeAbstractLocalPacket(localChannelReference, packet, false);
+    }
+
+    /**
+     * Receive the signatures of the blocks already present on receiver side, in delta mode, then
+     * start to send the data
+     * 
+     * @param channel
+     * @param packet
+     * @throws OpenR66ProtocolNotAuthenticatedException
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public void blockSignature(LocalChannel channel, BlockSignaturePacket packet)
+            throws OpenR66ProtocolNotAuthenticatedException, OpenR66ProtocolBusinessException {
+        if (!session.isAuthenticated()) {
+            packet.clear();
+            throw new OpenR66ProtocolNotAuthenticatedException(
+                    "Not authenticated while BlockSignature received");
+        }
+        if (!session.isReady() || !session.getRunner().isSender()) {
+            packet.clear();
+            throw new OpenR66ProtocolBusinessException(
+                    "Not in send MODE but receive block signatures");
+        }
+        DbTaskRunner runner = session.getRunner();
+        if (packet.getCount() > 0 && packet.getBlocksize() == runner.getBlocksize()) {
+            if (runner.getRank() > 0) {
+                try {
+                    verifyRestart(packet);
+                } finally {
+                    packet.clear();
+                }
+            } else {
+                localChannelReference.setBlockSignatures(packet);
+            }
+        } else {
+            packet.clear();
+        }
+        logger.debug("Now ready to continue with runRetrieve after block signatures: {}", packet);
+        NetworkTransaction.runRetrieve(session, channel);
+    }
+
+    /**
+     * Compare the signatures of the last blocks received by the receiver with the ones of the
+     * local file, and restart from the first block that differs
+     * 
+     * @param packet
+     * @throws OpenR66ProtocolBusinessException
+     */
+    private final void verifyRestart(BlockSignaturePacket packet) throws OpenR66ProtocolBusinessException {
+        DbTaskRunner runner = session.getRunner();
+        int rank = runner.getRank();
+        int firstRank = packet.getFirstRank();
+        if (firstRank >= rank) {
+            return;
+        }
+        ByteBuf signatures = FileUtils.getBlockSignatures(session.getFile().getTrueFile(),
+                runner.getBlocksize(), packet.getAlgo(), firstRank, Math.min(packet.getCount(), rank - firstRank));
+        int newRank;
+        try {
+            newRank = packet.getFirstDifferentRank(signatures);
+        } finally {
+            if (signatures != null) {
+                signatures.release();
+            }
+        }
+        if (newRank >= rank) {
+            logger.debug("Restart verified from rank " + firstRank + " to " + rank);
+            return;
+        }
+        logger.warn("Restart rank decreased from " + rank + " to " + newRank +
+                " since the receiver has different blocks: {}", runner);
+        runner.setRankAtStartup(newRank);
+        session.getRestart().restartMarker((long) runner.getBlocksize() * runner.getRank());
+        try {
+            session.getFile().restartMarker(session.getRestart());
+        } catch (CommandAbstractException e) {
+            throw new OpenR66ProtocolBusinessException("Cannot restart at rank " + newRank, e);
+        }
+    }
+
     /**
      * Send a Filename/Filesize change to the partner
      * 
@@ -540,7 +951,7 @@ public class TransferActions extends ServerActions {
             throws OpenR66ProtocolPacketException {
         logger.debug(debug + runner.getFilename());
         session.newState(VALID);
-        if (localChannelReference.getPartner().useJson()) {
+        if (localChannelReference.getPartnerCapabilities().useJson) {
             RequestJsonPacket request = new RequestJsonPacket();
             request.setComment(info);
             request.setFilename(runner.getFilename());
@@ -557,7 +968,7 @@ public class TransferActions extends ServerActions {
             String infoTransfer = runner.getFileInformation();
             ValidPacket validPacket;
             if (infoTransfer != null && ! infoTransfer.equals(packet.getFileInformation())
-                    && localChannelReference.getPartner().changeFileInfoEnabled()) {
+                    && localChannelReference.getPartnerCapabilities().changeFileInfoEnabled) {
                 validPacket = new ValidPacket(info,
                     runner.getFilename() + PartnerConfiguration.BAR_SEPARATOR_FIELD + packet.getOriginalSize()
                     + PartnerConfiguration.BAR_SEPARATOR_FIELD + packet.getFileInformation(),
@@ -602,6 +1013,141 @@ public class TransferActions extends ServerActions {
         ChannelCloseTimer.closeFutureChannel(channel);
     }
 
+    /**
+     * 
+     * @param packetRank
+     *            the rank of the received block, greater than the current one
+     * @return True if the blocks up to this rank are skipped by the sender in delta mode, so to be
+     *         copied from the previous version: only the blocks signed by the receiver may be
+     *         skipped
+     */
+    private boolean isDeltaGap(int packetRank) {
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        File previous = localChannelReference.getDeltaSource();
+        DbTaskRunner runner = session.getRunner();
+        if (partner == null || !partner.deltaTransfer || previous == null ||
+                RequestPacket.isThroughMode(runner.getMode()) || packetRank <= runner.getRank()) {
+            return false;
+        }
+        return packetRank <= previous.length() / runner.getBlocksize();
+    }
+
+    /**
+     * Copy the blocks from the previous version of the file up to the given rank (excluded), in
+     * delta mode
+     * 
+     * @param toRank
+     * @return True if all blocks are copied
+     */
+    private boolean copyPreviousBlocks(int toRank) {
+        DbTaskRunner runner = session.getRunner();
+        File previous = localChannelReference.getDeltaSource();
+        int blocksize = runner.getBlocksize();
+        if ((long) toRank * blocksize > previous.length()) {
+            logger.error("Previous version too short for rank " + toRank + ": " + previous.length());
+            return false;
+        }
+        initGlobalDigest(localChannelReference.getPartnerCapabilities());
+        initTreeHash();
+        RandomAccessFile source = null;
+        try {
+            source = new RandomAccessFile(previous, "r");
+            source.seek((long) runner.getRank() * blocksize);
+            byte[] bytes = new byte[blocksize];
+            while (runner.getRank() < toRank) {
+                source.readFully(bytes);
+                ByteBuf buffer = Unpooled.wrappedBuffer(bytes);
+                FileUtils.computeHashes(buffer, null, treeHash, globalDigest, localDigest);
+                DataBlock dataBlock = new DataBlock();
+                dataBlock.setBlock(buffer);
+                try {
+                    session.getFile().writeDataBlock(dataBlock);
+                } finally {
+                    dataBlock.clear();
+                }
+                runner.incrementRank();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Cannot copy from previous version: " + previous, e);
+            return false;
+        } catch (FileTransferException e) {
+            logger.error("Cannot copy from previous version: " + previous, e);
+            return false;
+        } finally {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Initialize the tree hash if the final hash is a tree hash, from the blocks already received
+     * if the transfer does not start at rank 0 or if the rank was moved back, waiting for the
+     * previous block to be added. The leaves saved by a previous attempt are not computed again.
+     */
+    private void initTreeHash() {
+        int treeLeaf = FileUtils.getTreeHashLeaf(localChannelReference, session.getRunner());
+        if (treeLeaf == 0) {
+            return;
+        }
+        waitForGlobalHash();
+        long position = (long) session.getRunner().getRank() * session.getRunner().getBlocksize();
+        if (treeHash != null && treeHash.getLength() == position) {
+            return;
+        }
+        try {
+            treeHash = TreeHash.resume(session.getRunner().getTreeHashCheckpoint(),
+                    localChannelReference.getPartnerCapabilities().digestAlgo, treeLeaf,
+                    session.getFile().getTrueFile(), position);
+        } catch (IOException e) {
+            // computed from the file at the end of the transfer
+            logger.warn("Cannot resume the tree hash of " + session.getFile() + ": " + e.getMessage());
+            treeHash = null;
+        }
+    }
+
+    /**
+     * Initialize the global digests if needed, waiting for the previous block to be added
+     * 
+     * @param partner
+     */
+    private void initGlobalDigest(PartnerCapabilities partner) {
+        // in tree hash mode, the tree hash is used instead
+        if (Configuration.configuration.isGlobalDigest() &&
+                FileUtils.getTreeHashLeaf(localChannelReference, session.getRunner()) == 0) {
+            // keep the order of blocks within the global digests
+            waitForGlobalHash();
+            if (globalDigest == null) {
+                try {
+                    // check if first block, since if not, digest will be only partial
+                    if (session.getRunner().getRank() > 0) {
+                        localChannelReference.setPartialHash();
+                    }
+                    if (partner != null) {
+                        if (partner.useFinalHash) {
+                            DigestAlgo algo = partner.digestAlgo;
+                            if (algo != Configuration.configuration.getDigest()) {
+                                globalDigest = new FilesystemBasedDigest(algo);
+                                localDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
+                            }
+                        }
+                    }
+                    if (globalDigest == null) {
+                        globalDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
+                        localDigest = null;
+                    }
+                } catch (NoSuchAlgorithmException e) {
+                }
+                logger.debug("GlobalDigest: " + (partner != null ? partner.digestAlgo : "usual algo")
+                        + " different? " + (localDigest != null));
+            }
+        }
+    }
+
     /**
      * Receive a data block
      * 
@@ -643,9 +1189,26 @@ public class TransferActions extends ServerActions {
             packet.clear();
             return;
         }
+        if (packet.getPacketRank() != session.getRunner().getRank() && isDeltaGap(packet.getPacketRank())) {
+            // delta mode: the blocks not sent are the ones of the previous version
+            if (!copyPreviousBlocks(packet.getPacketRank())) {
+                errorToSend("Transfer in error while copying blocks from previous version",
+                        ErrorCode.TransferError, channel, 22);
+                packet.clear();
+                return;
+            }
+        }
+        // only the first block after a restart check may move the rank back to a verified block
+        int restartCheckRank = localChannelReference.getRestartCheckRank();
+        localChannelReference.setRestartCheckRank(-1);
         if (packet.getPacketRank() != session.getRunner().getRank()) {
             logger.debug("Issue on rank: " + packet.getPacketRank() + ":" + session.getRunner().getRank());
-            if (!session.addError()) {
+            boolean verifiedRestart = restartCheckRank >= 0 && packet.getPacketRank() >= restartCheckRank
+                    && packet.getPacketRank() < session.getRunner().getRank();
+            if (verifiedRestart) {
+                logger.info("Restart moved back to rank " + packet.getPacketRank() + " after check: {}",
+                        session.getRunner());
+            } else if (!session.addError()) {
                 // cannot continue
                 logger.error(Messages.getString("LocalServerHandler.15") + packet.getPacketRank() + " : " + //$NON-NLS-1$
                         session.getRunner().getRank() + " from {}", session.getRunner());
@@ -696,67 +1259,56 @@ public class TransferActions extends ServerActions {
                 return;
             }
         }
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        initGlobalDigest(partner);
+        initTreeHash();
         // if MD5 check MD5
+        Future<ByteBuf> keyHash = null;
         if (RequestPacket.isMD5Mode(session.getRunner().getMode())) {
-            logger.debug("AlgoDigest: "
-                    + (localChannelReference.getPartner() != null ? localChannelReference.getPartner().getDigestAlgo()
-                            : "usual algo"));
-            if (!packet.isKeyValid(localChannelReference.getPartner().getDigestAlgo())) {
-                // Wrong packet
-                logger.error(
-                        Messages.getString("LocalServerHandler.17"), packet, localChannelReference.getPartner().getDigestAlgo().name); //$NON-NLS-1$
-                errorToSend("Transfer in error due to bad Hash on data packet ("
-                        + localChannelReference.getPartner().getDigestAlgo().name + ")",
-                        ErrorCode.MD5Error, channel, 21);
-                packet.clear();
-                return;
+            if (logger.isDebugEnabled()) {
+                logger.debug("AlgoDigest: " + (partner != null ? partner.blockDigestAlgo : "usual algo"));
             }
+            // block hash computed by the hashing executor, the global digests being fed once the
+            // block is validated and while it is written
+            keyHash = packet.submitKeyHash(partner.blockDigestAlgo);
         }
-        if (Configuration.configuration.isGlobalDigest()) {
-            if (globalDigest == null) {
-                try {
-                    // check if first block, since if not, digest will be only partial
-                    if (session.getRunner().getRank() > 0) {
-                        localChannelReference.setPartialHash();
-                    }
-                    if (localChannelReference.getPartner() != null) {
-                        if (localChannelReference.getPartner().useFinalHash()) {
-                            DigestAlgo algo = localChannelReference.getPartner().getDigestAlgo();
-                            if (algo != Configuration.configuration.getDigest()) {
-                                globalDigest = new FilesystemBasedDigest(algo);
-                                localDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
-                            }
-                        }
-                    }
-                    if (globalDigest == null) {
-                        globalDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
-                        localDigest = null;
-                    }
-                } catch (NoSuchAlgorithmException e) {
-                }
-                logger.debug("GlobalDigest: " + localChannelReference.getPartner().getDigestAlgo() + " different? "
-                        + (localDigest != null));
-            }
-            FileUtils.computeGlobalHash(globalDigest, packet.getData());
-            if (localDigest != null) {
-                FileUtils.computeGlobalHash(localDigest, packet.getData());
-            }
+        if (keyHash == null) {
+            // no block hash to wait for (no MD5 mode or empty key)
+            addToGlobalDigest(packet.getData());
         }
+        // the write may move the indexes of the data
+        ByteBuf validData = keyHash != null ? packet.getData().duplicate() : null;
         DataBlock dataBlock = new DataBlock();
         if (session.getRunner().isRecvThrough() && localChannelReference.isRecvThroughMode()) {
+            RecvThroughHandler handler = localChannelReference.getRecvThroughHandler();
             try {
-                localChannelReference.getRecvThroughHandler().writeByteBuf(packet.getData());
+                // nothing goes to the handler before being validated
+                if (keyHash != null && !checkKeyHash(channel, packet, validData, keyHash, partner)) {
+                    return;
+                }
+                handler.writeDataPacket(packet);
                 session.getRunner().incrementRank();
                 if (packet.getPacketRank() % 100 == 1) {
                     logger.debug("Good RANK: " + packet.getPacketRank() + " : " +
                             session.getRunner().getRank());
                 }
+            } catch (OpenR66ProtocolBusinessException e) {
+                ErrorCode code = handler.getErrorCode();
+                if (code == null) {
+                    throw e;
+                }
+                errorToSend(e.getMessage(), code, channel, 24);
+                return;
             } finally {
                 packet.clear();
             }
         } else {
             dataBlock.setBlock(packet.getData());
             try {
+                // nothing goes to the file before being validated
+                if (keyHash != null && !checkKeyHash(channel, packet, validData, keyHash, partner)) {
+                    return;
+                }
                 session.getFile().writeDataBlock(dataBlock);
                 session.getRunner().incrementRank();
                 if (packet.getPacketRank() % 100 == 1) {
@@ -774,6 +1326,53 @@ public class TransferActions extends ServerActions {
         }
     }
 
+    /**
+     * Feed the global digests with the data of a block, within the hashing executor while the
+     * block is written
+     * 
+     * @param data
+     */
+    private void addToGlobalDigest(ByteBuf data) {
+        if (globalDigest != null || treeHash != null) {
+            pendingGlobalHash = FileUtils.submitHashes(data, null, treeHash, globalDigest, localDigest);
+        }
+    }
+
+    /**
+     * Check the block hash of the packet, then feed the global digests with the valid block. On
+     * error, the error is sent.
+     * 
+     * @param channel
+     * @param packet
+     * @param data
+     *            the data of the packet as received
+     * @param keyHash
+     *            as returned by packet.submitKeyHash
+     * @param partner
+     * @return True if the block is valid
+     */
+    private boolean checkKeyHash(Channel channel, DataPacket packet, ByteBuf data, Future<ByteBuf> keyHash,
+            PartnerCapabilities partner) {
+        boolean valid;
+        try {
+            valid = packet.isKeyValid(keyHash);
+        } catch (OpenR66ProtocolSystemException e) {
+            logger.error("Cannot compute the hash of the data packet", e);
+            valid = false;
+        }
+        if (!valid) {
+            // Wrong packet
+            logger.error(
+                    Messages.getString("LocalServerHandler.17"), packet, partner.blockDigestAlgo.name); //$NON-NLS-1$
+            errorToSend("Transfer in error due to bad Hash on data packet ("
+                    + partner.blockDigestAlgo.name + ")",
+                    ErrorCode.MD5Error, channel, 21);
+            return false;
+        }
+        addToGlobalDigest(data);
+        return true;
+    }
+
     /**
      * Receive an End of Transfer
      * 
@@ -790,6 +1389,74 @@ public class TransferActions extends ServerActions {
             throw new OpenR66ProtocolNotAuthenticatedException(
                     "Not authenticated while EndTransfer received");
         }
+        if (packet.isToValidate() && session.getRunner().isRecvThrough() &&
+                localChannelReference.isRecvThroughMode()) {
+            // the data received must be consumed before the end of the transfer
+            submitEndOfData(channel, packet);
+            return;
+        }
+        checkEndTransfer(channel, packet);
+    }
+
+    /**
+     * Wait for the data received to be consumed by the RecvThroughHandler out of the handler thread,
+     * since the handler may relay them to another partner, then check the end of transfer
+     * 
+     * @param channel
+     * @param packet
+     */
+    private final void submitEndOfData(final Channel channel, final EndTransferPacket packet) {
+        Runnable task = new Runnable() {
+            public void run() {
+                RecvThroughHandler handler = localChannelReference.getRecvThroughHandler();
+                OpenR66Exception exception;
+                try {
+                    handler.endOfData();
+                    checkEndTransfer(channel, packet);
+                    return;
+                } catch (OpenR66ProtocolBusinessException e) {
+                    exception = new OpenR66RunnerErrorException("Data not consumed", e);
+                } catch (OpenR66RunnerErrorException e) {
+                    exception = e;
+                } catch (OpenR66ProtocolSystemException e) {
+                    exception = e;
+                }
+                ErrorCode code = handler.getErrorCode() != null ? handler.getErrorCode() : ErrorCode.TransferError;
+                logger.error("Transfer in error at its end: {}", session.getRunner(), exception);
+                R66Result result = new R66Result(exception, session, true, code, session.getRunner());
+                try {
+                    session.setFinalizeTransfer(false, result);
+                } catch (OpenR66RunnerErrorException e) {
+                } catch (OpenR66ProtocolSystemException e) {
+                }
+                ErrorPacket error = new ErrorPacket("Transfer in error at its end: " + exception.getMessage(),
+                        code.getCode(), ErrorPacket.FORWARDCLOSECODE);
+                try {
+                    ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
+                } catch (OpenR66ProtocolPacketException e) {
+                }
+                session.setStatus(23);
+                ChannelCloseTimer.closeFutureChannel(channel);
+            }
+        };
+        try {
+            Configuration.configuration.getRecvThroughExecutorService().execute(task);
+        } catch (RejectedExecutionException e) {
+            // executor stopped so wait now
+            task.run();
+        }
+    }
+
+    /**
+     * Check the end of transfer once all the data are received
+     * 
+     * @param channel
+     * @param packet
+     * @throws OpenR66RunnerErrorException
+     * @throws OpenR66ProtocolSystemException
+     */
+    private final void checkEndTransfer(Channel channel, EndTransferPacket packet)
+            throws OpenR66RunnerErrorException, OpenR66ProtocolSystemException {
         // Check end of transfer
         long originalSize = session.getRunner().getOriginalSize();
         logger.debug("OSize: " + originalSize + " isSender: " + session.getRunner().isSender());
@@ -823,18 +1490,43 @@ public class TransferActions extends ServerActions {
                 }
             }
             // check if possible Global Digest
+            waitForGlobalHash();
             String hash = packet.getOptional();
-            logger.debug("GlobalDigest: " + localChannelReference.getPartner().getDigestAlgo() + " different? "
+            logger.debug("GlobalDigest: " + localChannelReference.getPartnerCapabilities().digestAlgo + " different? "
                     + (localDigest != null) + " remoteHash? " + (hash != null));
-            if (hash != null && globalDigest != null) {
-                String localhash = FilesystemBasedDigest.getHex(globalDigest.Final());
+            String treeRoot = null;
+            int treeLeaf = FileUtils.getTreeHashLeaf(localChannelReference, session.getRunner());
+            if (hash != null && treeLeaf > 0) {
+                try {
+                    long length = session.getFile().length();
+                    if (treeHash != null && treeHash.getLength() == length) {
+                        // computed from the blocks while received
+                        treeRoot = treeHash.getRoot();
+                    } else {
+                        treeRoot = FileUtils.getTreeHash(session.getFile().getTrueFile(),
+                                localChannelReference.getPartnerCapabilities().digestAlgo, treeLeaf);
+                    }
+                } catch (CommandAbstractException e) {
+                    logger.error("Cannot compute the tree hash of " + session.getFile(), e);
+                    // considered as a bad hash
+                    treeRoot = "";
+                } catch (IOException e) {
+                    logger.error("Cannot compute the tree hash of " + session.getFile(), e);
+                    // considered as a bad hash
+                    treeRoot = "";
+                }
+            }
+            // the checkpoint of a previous attempt is no more needed, whatever the result of the check
+            session.getRunner().setTreeHashCheckpoint(null);
+            if (hash != null && (globalDigest != null || treeRoot != null)) {
+                String localhash = treeRoot != null ? treeRoot : FilesystemBasedDigest.getHex(globalDigest.Final());
                 globalDigest = null;
                 if (!localhash.equalsIgnoreCase(hash)) {
                     // bad global Hash
                     //session.getRunner().setRankAtStartup(0);
                     R66Result result = new R66Result(new OpenR66RunnerErrorException(
                             Messages.getString("LocalServerHandler.19") + //$NON-NLS-1$
-                                    localChannelReference.getPartner().getDigestAlgo().name + ")"),
+                                    localChannelReference.getPartnerCapabilities().digestAlgo.name + ")"),
                             session, true, ErrorCode.MD5Error, session.getRunner());
                     try {
                         session.setFinalizeTransfer(false, result);
@@ -843,7 +1535,7 @@ public class TransferActions extends ServerActions {
                     }
                     ErrorPacket error = new ErrorPacket(
                             "Global Hash in error, transfer in error and rank should be reset to 0 (using " +
-                                    localChannelReference.getPartner().getDigestAlgo().name + ")",
+                                    localChannelReference.getPartnerCapabilities().digestAlgo.name + ")",
                             ErrorCode.MD5Error.getCode(), ErrorPacket.FORWARDCLOSECODE);
                     try {
                         ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
@@ -853,7 +1545,13 @@ public class TransferActions extends ServerActions {
                     ChannelCloseTimer.closeFutureChannel(channel);
                     return;
                 } else {
-                    if (localDigest != null) {
+                    if (treeRoot != null) {
+                        // the final check needs a tree hash with the usual algorithm
+                        if (localChannelReference.getPartnerCapabilities().digestAlgo !=
+                                Configuration.configuration.getDigest()) {
+                            localhash = null;
+                        }
+                    } else if (localDigest != null) {
                         localhash = FilesystemBasedDigest.getHex(localDigest.Final());
                     }
                     localChannelReference.setHashComputeDuringTransfer(localhash);
@@ -871,6 +1569,7 @@ public class TransferActions extends ServerActions {
             }
             localDigest = null;
             globalDigest = null;
+            treeHash = null;
             session.newState(ENDTRANSFERS);
             if (!localChannelReference.getFutureRequest().isDone()) {
                 // Finish with post Operation
@@ -1022,6 +1721,9 @@ public class TransferActions extends ServerActions {
         if (session.getExtendedProtocol()) {
             optional = packet.getOptional();
         }
+        // in batch, the channel is kept open only while the requester tells its next request follows
+        boolean batchContinue = localChannelReference.getPartnerCapabilities() != null &&
+                localChannelReference.getPartnerCapabilities().batch && packet.isBatchContinue();
         if (!localChannelReference.getFutureRequest().isDone()) {
             // end of request
             R66Future transfer = localChannelReference.getFutureEndTransfer();
@@ -1052,6 +1754,9 @@ public class TransferActions extends ServerActions {
             if (session.getExtendedProtocol()) {
                 packet.setOptional(optional);
             }
+            if (localChannelReference.isBatchContinue()) {
+                packet.setBatchContinue();
+            }
             session.newState(ENDREQUESTR);
             try {
                 ChannelUtils.writeAbstractLocalPacket(localChannelReference,
@@ -1061,7 +1766,10 @@ public class TransferActions extends ServerActions {
         } else {
             session.newState(ENDREQUESTR);
         }
-        if (runner != null && (runner.isSelfRequested() || runner.isSelfRequest())) {
+        if (runner != null && runner.isSelfRequested() && batchContinue) {
+            // closed if the next request of the batch does not come
+            ChannelCloseTimer.closeIdleChannel(localChannelReference);
+        } else if (runner != null && (runner.isSelfRequested() || runner.isSelfRequest())) {
             ChannelCloseTimer.closeFutureChannel(channel);
         }
     }
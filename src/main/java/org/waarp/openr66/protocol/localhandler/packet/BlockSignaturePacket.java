@@ -0,0 +1,221 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.utils.FileUtils;
+
+/**
+ * Block Signature packet, sent by the receiver before any data, in delta mode or to verify the
+ * blocks already received before a restart
+ *
+ * header = blocksize + first rank + hash length + algorithm name, middle = hash of each block from
+ * first rank (empty if none), end = empty
+ *
+ * @author frederic bregier
+ */
+public class BlockSignaturePacket extends AbstractLocalPacket {
+    /**
+     * Maximum size of the signatures of one packet, the number of blocks signed depending on the
+     * length of the block hash
+     */
+    public static final int MAXSIGNATURESIZE = 4 * 1024 * 1024;
+
+    private final int blocksize;
+
+    private final int firstRank;
+
+    private final int hashLength;
+
+    private final DigestAlgo algo;
+
+    private ByteBuf signatures;
+
+    /**
+     * @param headerLength
+     * @param middleLength
+     * @param endLength
+     * @param buf
+     * @return the new BlockSignaturePacket from buffer
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static BlockSignaturePacket createFromBuffer(int headerLength,
+            int middleLength, int endLength, ByteBuf buf)
+            throws OpenR66ProtocolPacketException {
+        if (headerLength - 13 <= 0) {
+            throw new OpenR66ProtocolPacketException("Not enough data");
+        }
+        int blocksize = buf.readInt();
+        int firstRank = buf.readInt();
+        int hashLength = buf.readInt();
+        final byte[] balgo = new byte[headerLength - 13];
+        buf.readBytes(balgo);
+        DigestAlgo algo = PartnerConfiguration.getDigestAlgo(new String(balgo));
+        ByteBuf signatures = Unpooled.EMPTY_BUFFER;
+        if (middleLength > 0) {
+            if (hashLength <= 0 || middleLength % hashLength != 0 || middleLength > MAXSIGNATURESIZE) {
+                throw new OpenR66ProtocolPacketException("Incorrect signatures");
+            }
+            signatures = buf.readSlice(middleLength);
+            signatures.retain();
+        }
+        if (endLength > 0) {
+            buf.skipBytes(endLength);
+        }
+        return new BlockSignaturePacket(blocksize, firstRank, algo, hashLength, signatures);
+    }
+
+    /**
+     * @param blocksize
+     * @param firstRank
+     *            the rank of the first signed block
+     * @param algo
+     * @param hashLength
+     *            the length of each block hash
+     * @param signatures
+     *            the hashes of all blocks, one after the other
+     */
+    public BlockSignaturePacket(int blocksize, int firstRank, DigestAlgo algo, int hashLength,
+            ByteBuf signatures) {
+        this.blocksize = blocksize;
+        this.firstRank = firstRank;
+        this.algo = algo;
+        this.hashLength = hashLength;
+        this.signatures = signatures == null ? Unpooled.EMPTY_BUFFER : signatures;
+    }
+
+    @Override
+    public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        end = Unpooled.EMPTY_BUFFER;
+    }
+
+    @Override
+    public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        byte[] balgo = algo.name.getBytes();
+        header = Unpooled.buffer(12 + balgo.length);
+        header.writeInt(blocksize);
+        header.writeInt(firstRank);
+        header.writeInt(hashLength);
+        header.writeBytes(balgo);
+    }
+
+    @Override
+    public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        middle = signatures;
+    }
+
+    @Override
+    public byte getType() {
+        return LocalPacketFactory.BLOCKSIGNATUREPACKET;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockSignaturePacket: " + blocksize + ":" + firstRank + ":" + algo.name + ":" + getCount();
+    }
+
+    /**
+     * @return the blocksize
+     */
+    public int getBlocksize() {
+        return blocksize;
+    }
+
+    /**
+     * @return the rank of the first signed block
+     */
+    public int getFirstRank() {
+        return firstRank;
+    }
+
+    /**
+     * @return the algorithm of the block hashes
+     */
+    public DigestAlgo getAlgo() {
+        return algo;
+    }
+
+    /**
+     * @return the number of block hashes
+     */
+    public int getCount() {
+        if (hashLength <= 0 || signatures == null) {
+            return 0;
+        }
+        return signatures.readableBytes() / hashLength;
+    }
+
+    /**
+     *
+     * @param rank
+     * @param block
+     *            the block of rank rank (not modified)
+     * @return True if the block is the same than the one of the previous version at this rank
+     */
+    public boolean isSameBlock(int rank, ByteBuf block) {
+        if (rank < firstRank || rank - firstRank >= getCount() || block.readableBytes() != blocksize) {
+            return false;
+        }
+        ByteBuf hash = FileUtils.getHash(block, algo);
+        boolean check = hash.equals(getSignature(rank - firstRank));
+        hash.release();
+        return check;
+    }
+
+    /**
+     *
+     * @param others
+     *            signatures of the same blocks computed with the same algorithm, from first rank
+     * @return the rank of the first block whose signature differs, or the rank following the last
+     *         signed block if all are the same
+     */
+    public int getFirstDifferentRank(ByteBuf others) {
+        int count = getCount();
+        for (int i = 0; i < count; i++) {
+            if (others == null || others.readableBytes() < (i + 1) * hashLength ||
+                    !getSignature(i).equals(others.slice(others.readerIndex() + i * hashLength, hashLength))) {
+                return firstRank + i;
+            }
+        }
+        return firstRank + count;
+    }
+
+    /**
+     *
+     * @param index
+     * @return the signature of the index-th signed block
+     */
+    private ByteBuf getSignature(int index) {
+        return signatures.slice(signatures.readerIndex() + index * hashLength, hashLength);
+    }
+
+    public void clear() {
+        super.clear();
+        if (signatures != null) {
+            if (signatures.release()) {
+                signatures = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+
+/**
+ * Content Hash packet, sent by the sender before any data to announce the size and final hash of the
+ * file, then sent back by the receiver to tell if it already has this content
+ * 
+ * header = size + tree hash leaf + present + algorithm name, middle = final hash, end = empty
+ * 
+ * @author frederic bregier
+ */
+public class ContentHashPacket extends AbstractLocalPacket {
+    private final long size;
+
+    private final int treeLeaf;
+
+    private final boolean present;
+
+    private final DigestAlgo algo;
+
+    private final String hash;
+
+    /**
+     * @param headerLength
+     * @param middleLength
+     * @param endLength
+     * @param buf
+     * @return the new ContentHashPacket from buffer
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static ContentHashPacket createFromBuffer(int headerLength,
+            int middleLength, int endLength, ByteBuf buf)
+            throws OpenR66ProtocolPacketException {
+        if (headerLength - 14 <= 0) {
+            throw new OpenR66ProtocolPacketException("Not enough data");
+        }
+        long size = buf.readLong();
+        int treeLeaf = buf.readInt();
+        boolean present = buf.readByte() != 0;
+        final byte[] balgo = new byte[headerLength - 14];
+        buf.readBytes(balgo);
+        DigestAlgo algo = PartnerConfiguration.getDigestAlgo(new String(balgo));
+        final byte[] bhash = new byte[middleLength];
+        buf.readBytes(bhash);
+        if (endLength > 0) {
+            buf.skipBytes(endLength);
+        }
+        return new ContentHashPacket(size, algo, treeLeaf, new String(bhash), present);
+    }
+
+    /**
+     * @param size
+     * @param algo
+     *            the algorithm of the final hash
+     * @param treeLeaf
+     *            size of the leaves if the final hash is a tree hash, else 0
+     * @param hash
+     *            the final hash of the file
+     * @param present
+     *            True if the receiver already has this content
+     */
+    public ContentHashPacket(long size, DigestAlgo algo, int treeLeaf, String hash, boolean present) {
+        this.size = size;
+        this.algo = algo;
+        this.treeLeaf = treeLeaf;
+        this.hash = hash;
+        this.present = present;
+    }
+
+    @Override
+    public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        end = Unpooled.EMPTY_BUFFER;
+    }
+
+    @Override
+    public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        byte[] balgo = algo.name.getBytes();
+        header = Unpooled.buffer(13 + balgo.length);
+        header.writeLong(size);
+        header.writeInt(treeLeaf);
+        header.writeByte(present ? 1 : 0);
+        header.writeBytes(balgo);
+    }
+
+    @Override
+    public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        if (hash == null) {
+            throw new OpenR66ProtocolPacketException("Not enough data");
+        }
+        middle = Unpooled.wrappedBuffer(hash.getBytes());
+    }
+
+    @Override
+    public byte getType() {
+        return LocalPacketFactory.CONTENTHASHPACKET;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentHashPacket: " + size + ":" + algo.name + ":" + treeLeaf + ":" + hash + ":" + present;
+    }
+
+    /**
+     * @return the size of the file
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the algorithm of the final hash
+     */
+    public DigestAlgo getAlgo() {
+        return algo;
+    }
+
+    /**
+     * @return the size of the leaves if the final hash is a tree hash, else 0
+     */
+    public int getTreeLeaf() {
+        return treeLeaf;
+    }
+
+    /**
+     * @return the final hash of the file, empty if the sender could not compute it
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return True if the receiver already has this content
+     */
+    public boolean isPresent() {
+        return present;
+    }
+}
@@ -17,10 +17,13 @@
  */
 package org.waarp.openr66.protocol.localhandler.packet;
 
+import java.util.concurrent.Future;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.utils.FileUtils;
 
@@ -150,6 +153,38 @@ public class DataPacket extends AbstractLocalPacket {
         return check;
     }
 
+    /**
+     * Start the computation of the Hashed key within the hashing executor, to be checked by
+     * isKeyValid(Future)
+     * 
+     * @param algo
+     * @return the future of the Hashed key, or null if no key is set
+     */
+    public Future<ByteBuf> submitKeyHash(DigestAlgo algo) {
+        if (key == null || key == Unpooled.EMPTY_BUFFER) {
+            return null;
+        }
+        return FileUtils.submitHashes(data, algo);
+    }
+
+    /**
+     * 
+     * @param keyHash
+     *            as returned by submitKeyHash
+     * @return True if the Hashed key is valid (or no key is set)
+     * @throws OpenR66ProtocolSystemException
+     *             if the Hashed key cannot be computed
+     */
+    public boolean isKeyValid(Future<ByteBuf> keyHash) throws OpenR66ProtocolSystemException {
+        if (keyHash == null) {
+            return true;
+        }
+        ByteBuf newbufkey = FileUtils.getHashes(keyHash);
+        boolean check = key.equals(newbufkey);
+        newbufkey.release();
+        return check;
+    }
+
     public void clear() {
         super.clear();
         if (data != null) {
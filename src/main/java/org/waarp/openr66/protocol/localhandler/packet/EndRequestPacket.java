@@ -36,6 +36,11 @@ public class EndRequestPacket extends AbstractLocalPacket {
 
     private static final byte ANSWERVALIDATE = 1;
 
+    /**
+     * Set by the requester when the next request of a batch follows over the same channel
+     */
+    private static final byte BATCHCONTINUE = 0x10;
+
     private final int code;
 
     private byte way;
@@ -141,7 +146,22 @@ public class EndRequestPacket extends AbstractLocalPacket {
      * @return True if this packet is to be validated
      */
     public boolean isToValidate() {
-        return way == ASKVALIDATE;
+        return (way & ~BATCHCONTINUE) == ASKVALIDATE;
+    }
+
+    /**
+     * @return True if the requester sends the next request of a batch over the same channel
+     */
+    public boolean isBatchContinue() {
+        return (way & BATCHCONTINUE) != 0;
+    }
+
+    /**
+     * Tell the requested host that the next request of a batch follows over the same channel
+     */
+    public void setBatchContinue() {
+        way = (byte) (way | BATCHCONTINUE);
+        middle = null;
     }
 
     /**
@@ -77,6 +77,10 @@ public class LocalPacketFactory {
 
     public static final byte JSONREQUESTPACKET = 25;
 
+    public static final byte BLOCKSIGNATUREPACKET = 26;
+
+    public static final byte CONTENTHASHPACKET = 27;
+
     /**
      * This method create a Packet from the ByteBuf.
      * 
@@ -154,6 +158,12 @@ public class LocalPacketFactory {
             case JSONREQUESTPACKET:
                 return JsonCommandPacket.createFromBuffer(headerLength,
                         middleLength, endLength, buf);
+            case BLOCKSIGNATUREPACKET:
+                return BlockSignaturePacket.createFromBuffer(headerLength,
+                        middleLength, endLength, buf);
+            case CONTENTHASHPACKET:
+                return ContentHashPacket.createFromBuffer(headerLength,
+                        middleLength, endLength, buf);
             default:
                 throw new OpenR66ProtocolPacketException(
                         "Unvalid Packet Type received: " + packetType);
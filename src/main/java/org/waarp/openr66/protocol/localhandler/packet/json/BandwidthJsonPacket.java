@@ -32,6 +32,7 @@ public class BandwidthJsonPacket extends JsonPacket {
 
     protected boolean setter;
     protected long writeglobal = -10, readglobal = -10, writesession = -10, readsession = -10;
+    protected String classes;
 
     /**
      * @return the setter
@@ -108,6 +109,21 @@ public class BandwidthJsonPacket extends JsonPacket {
         this.readsession = readsession;
     }
 
+    /**
+     * @return the definition of the bandwidth classes by partner and rule, null if not to be changed
+     */
+    public String getClasses() {
+        return classes;
+    }
+
+    /**
+     * @param classes
+     *            the definition of the bandwidth classes to set, empty for none
+     */
+    public void setClasses(String classes) {
+        this.classes = classes;
+    }
+
     @Override
     public void fromJson(JsonPacket other) {
         super.fromJson(other);
@@ -118,6 +134,7 @@ public class BandwidthJsonPacket extends JsonPacket {
             this.readglobal = other2.readglobal;
             this.writesession = other2.writeglobal;
             this.readsession = other2.readsession;
+            this.classes = other2.classes;
         }
     }
 
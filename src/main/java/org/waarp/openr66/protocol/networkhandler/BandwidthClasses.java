@@ -0,0 +1,283 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * Hierarchical bandwidth classes applied to the data blocks sent: a global class, one class by
+ * partner and, within each partner, one class by rule.<br>
+ * <br>
+ * Each class has a rate, guaranteed while the class sends less than it, and a ceiling it never
+ * exceeds (0 for none). A class beyond its rate borrows the unused rate of its nearest ancestor
+ * still under its own rate, up to the ceilings of the classes in between; the global class lends
+ * everything up to its ceiling, or without limit if none. Partners and rules without definition
+ * are not classes by themselves and directly use their parent.<br>
+ * <br>
+ * The definition is a list separated by ',' of "global=ceil", "partner:hostid=rate/ceil" and
+ * "rule:ruleid=rate/ceil", values in bytes per second.
+ * 
+ * @author "Frederic Bregier"
+ * 
+ */
+public class BandwidthClasses {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(BandwidthClasses.class);
+
+    private static final String GLOBAL = "global";
+    private static final String PARTNER = "partner:";
+    private static final String RULE = "rule:";
+
+    /**
+     * Rate and ceiling of a class, in bytes per second
+     */
+    private static final class Definition {
+        private final long rate;
+        private final long ceil;
+
+        private Definition(long rate, long ceil) {
+            this.rate = rate;
+            this.ceil = ceil;
+        }
+
+        @Override
+        public String toString() {
+            return rate + "/" + ceil;
+        }
+    }
+
+    /**
+     * Tokens of a class, at most one second of its rate and of its ceiling, negative when in debt
+     */
+    private static final class Bucket {
+        private final Definition definition;
+        private long rateTokens;
+        private long ceilTokens;
+        private long last;
+
+        private Bucket(Definition definition, long now) {
+            this.definition = definition;
+            this.rateTokens = definition.rate;
+            this.ceilTokens = definition.ceil;
+            this.last = now;
+        }
+
+        private void refill(long now) {
+            long elapsed = now - last;
+            if (elapsed <= 0) {
+                return;
+            }
+            last = now;
+            rateTokens = Math.min(definition.rate, rateTokens + definition.rate * elapsed / 1000);
+            ceilTokens = Math.min(definition.ceil, ceilTokens + definition.ceil * elapsed / 1000);
+        }
+
+        /**
+         * @return the delay in ms before this class is back under its rate, Long.MAX_VALUE if it
+         *         has no rate
+         */
+        private long rateDelay() {
+            if (definition.rate <= 0) {
+                return Long.MAX_VALUE;
+            }
+            return rateTokens >= 0 ? 0 : -rateTokens * 1000 / definition.rate + 1;
+        }
+
+        /**
+         * @return the delay in ms before this class is back under its ceiling
+         */
+        private long ceilDelay() {
+            if (definition.ceil <= 0 || ceilTokens >= 0) {
+                return 0;
+            }
+            return -ceilTokens * 1000 / definition.ceil + 1;
+        }
+
+        private void consume(long size) {
+            rateTokens -= size;
+            ceilTokens -= size;
+        }
+    }
+
+    private long globalCeil = 0;
+    private final HashMap<String, Definition> partners = new HashMap<String, Definition>();
+    private final HashMap<String, Definition> rules = new HashMap<String, Definition>();
+
+    private Bucket global = null;
+    private final HashMap<String, Bucket> partnerBuckets = new HashMap<String, Bucket>();
+    /**
+     * Rule classes by partner and rule, such that a rule is shaped within each partner
+     */
+    private final HashMap<String, Bucket> ruleBuckets = new HashMap<String, Bucket>();
+
+    private volatile boolean active = false;
+
+    /**
+     * 
+     * @return True if at least one class limits the bandwidth
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Replace all classes, their current tokens being reset
+     * 
+     * @param definition
+     *            the definition of the classes, null or empty for none
+     */
+    public synchronized void configure(String definition) {
+        globalCeil = 0;
+        partners.clear();
+        rules.clear();
+        partnerBuckets.clear();
+        ruleBuckets.clear();
+        if (definition != null) {
+            for (String item : definition.split(",")) {
+                item = item.trim();
+                int pos = item.lastIndexOf('=');
+                if (pos <= 0) {
+                    continue;
+                }
+                String name = item.substring(0, pos).trim();
+                String value = item.substring(pos + 1).trim();
+                try {
+                    if (name.equals(GLOBAL)) {
+                        globalCeil = Math.max(0, Long.parseLong(value));
+                        continue;
+                    }
+                    long rate, ceil = 0;
+                    int slash = value.indexOf('/');
+                    if (slash >= 0) {
+                        rate = Long.parseLong(value.substring(0, slash).trim());
+                        ceil = Long.parseLong(value.substring(slash + 1).trim());
+                    } else {
+                        rate = Long.parseLong(value);
+                    }
+                    Definition def = new Definition(Math.max(0, rate), Math.max(0, ceil));
+                    if (name.startsWith(PARTNER) && name.length() > PARTNER.length()) {
+                        partners.put(name.substring(PARTNER.length()), def);
+                    } else if (name.startsWith(RULE) && name.length() > RULE.length()) {
+                        rules.put(name.substring(RULE.length()), def);
+                    } else {
+                        logger.warn("Incorrect bandwidth class: " + item);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warn("Incorrect bandwidth class: " + item);
+                }
+            }
+        }
+        // the global class lends up to its ceiling
+        global = globalCeil > 0 ? new Bucket(new Definition(globalCeil, globalCeil),
+                System.currentTimeMillis()) : null;
+        active = global != null || !partners.isEmpty() || !rules.isEmpty();
+        logger.info("Bandwidth classes: " + getDefinition());
+    }
+
+    /**
+     * 
+     * @return the current definition of the classes
+     */
+    public synchronized String getDefinition() {
+        StringBuilder builder = new StringBuilder();
+        if (globalCeil > 0) {
+            builder.append(GLOBAL).append('=').append(globalCeil);
+        }
+        for (Entry<String, Definition> entry : partners.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(PARTNER).append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        for (Entry<String, Definition> entry : rules.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(RULE).append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Account for a block to be sent and compute when it may be sent
+     * 
+     * @param partner
+     *            the HostId of the partner receiving the block
+     * @param rule
+     *            the rule of the transfer
+     * @param size
+     *            the size of the block
+     * @return the delay in ms before the block may be sent, 0 to send it at once
+     */
+    public synchronized long reserve(String partner, String rule, long size) {
+        if (!active) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        // classes from the leaf to the global one
+        ArrayList<Bucket> path = new ArrayList<Bucket>(3);
+        Definition def = rule == null ? null : rules.get(rule);
+        if (def != null) {
+            String key = partner + ' ' + rule;
+            Bucket bucket = ruleBuckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(def, now);
+                ruleBuckets.put(key, bucket);
+            }
+            path.add(bucket);
+        }
+        def = partner == null ? null : partners.get(partner);
+        if (def != null) {
+            Bucket bucket = partnerBuckets.get(partner);
+            if (bucket == null) {
+                bucket = new Bucket(def, now);
+                partnerBuckets.put(partner, bucket);
+            }
+            path.add(bucket);
+        }
+        if (global != null) {
+            path.add(global);
+        }
+        // the block is sent as soon as one class of the path lends it, ceilings up to it allowing
+        long delay = Long.MAX_VALUE;
+        long ceilDelay = 0;
+        for (Bucket bucket : path) {
+            bucket.refill(now);
+            ceilDelay = Math.max(ceilDelay, bucket.ceilDelay());
+            long rateDelay = bucket.rateDelay();
+            if (rateDelay != Long.MAX_VALUE) {
+                delay = Math.min(delay, Math.max(ceilDelay, rateDelay));
+            }
+        }
+        if (global == null) {
+            // no global ceiling: unlimited lending once all the ceilings of the path allow
+            delay = Math.min(delay, ceilDelay);
+        }
+        for (Bucket bucket : path) {
+            bucket.consume(size);
+        }
+        return delay;
+    }
+}
@@ -20,6 +20,7 @@ package org.waarp.openr66.protocol.networkhandler;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import io.netty.channel.Channel;
 import io.netty.channel.group.ChannelGroup;
@@ -33,9 +34,14 @@ import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.localhandler.packet.KeepAlivePacket;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.R66Future;
 
 /**
  * NetworkChannelReference object to keep Network channel open while some local channels are attached to it.
@@ -89,6 +95,18 @@ public class NetworkChannelReference {
      * Last Time in ms this channel was used by a LocalChannel
      */
     private long lastTimeUsed = System.currentTimeMillis();
+    /**
+     * Future of the answer to the KeepAlive sent by checkAlive, null if none
+     */
+    private volatile R66Future keepAliveFuture = null;
+    /**
+     * Scheduler of the packets written by the local channels, null if no network channel
+     */
+    private final NetworkChannelScheduler scheduler;
+    /**
+     * Actions to run once the network channel is writable again
+     */
+    private final ConcurrentLinkedQueue<Runnable> writableListeners = new ConcurrentLinkedQueue<Runnable>();
 
     public NetworkChannelReference(Channel networkChannel, WaarpLock lock) {
         this.channel = networkChannel;
@@ -96,6 +114,7 @@ public class NetworkChannelReference {
         this.hostAddress = ((InetSocketAddress) this.networkAddress).getAddress().getHostAddress();
         this.lock = lock;
         localChannels = new DefaultChannelGroup(Configuration.configuration.getSubTaskGroup().next());
+        this.scheduler = new NetworkChannelScheduler(networkChannel);
     }
 
     public NetworkChannelReference(SocketAddress address, WaarpLock lock) {
@@ -104,6 +123,7 @@ public class NetworkChannelReference {
         this.hostAddress = ((InetSocketAddress) this.networkAddress).getAddress().getHostAddress();
         this.lock = lock;
         localChannels = new DefaultChannelGroup(Configuration.configuration.getSubTaskGroup().next());
+        this.scheduler = null;
     }
 
     public void add(LocalChannelReference localChannel)
@@ -126,6 +146,67 @@ public class NetworkChannelReference {
         }
     }
 
+    /**
+     * Check that the remote host still answers on this channel, sending a KeepAlive unless the
+     * channel was used just before
+     * 
+     * @param timeout
+     *            in ms
+     * @return True if the remote host answered in time
+     */
+    public boolean checkAlive(long timeout) {
+        if (channel == null || !channel.isActive() || isShuttingDown) {
+            return false;
+        }
+        if (checkLastTime(Configuration.WAITFORNETOP) > 0) {
+            return true;
+        }
+        R66Future future = new R66Future(true);
+        keepAliveFuture = future;
+        try {
+            NetworkPacket keepAlive = new NetworkPacket(ChannelUtils.NOCHANNEL,
+                    ChannelUtils.NOCHANNEL, new KeepAlivePacket(), null);
+            channel.writeAndFlush(keepAlive);
+        } catch (OpenR66ProtocolPacketException e) {
+            keepAliveFuture = null;
+            return false;
+        }
+        return future.awaitUninterruptibly(timeout) && future.isSuccess();
+    }
+
+    /**
+     * Called when the answer to a KeepAlive is received
+     */
+    public void keepAliveReceived() {
+        R66Future future = keepAliveFuture;
+        if (future != null) {
+            keepAliveFuture = null;
+            future.setSuccess();
+        }
+    }
+
+    /**
+     * Run this action once the network channel is writable again, at once if it already is
+     * 
+     * @param listener
+     */
+    public void addWritableListener(Runnable listener) {
+        writableListeners.add(listener);
+        if (channel == null || !channel.isActive() || channel.isWritable()) {
+            writable();
+        }
+    }
+
+    /**
+     * Called when the network channel becomes writable again, or is closed
+     */
+    public void writable() {
+        Runnable listener;
+        while ((listener = writableListeners.poll()) != null) {
+            listener.run();
+        }
+    }
+
     /**
      * To set the last time used when correct
      * 
@@ -149,6 +230,9 @@ public class NetworkChannelReference {
             localChannel.getLocalChannel().close();
         }
         localChannelReferences.remove(localChannel);
+        if (scheduler != null) {
+            scheduler.remove(localChannel);
+        }
         //Do not since it prevents shutdown: lastTimeUsed = System.currentTimeMillis();
     }
 
@@ -291,4 +375,11 @@ public class NetworkChannelReference {
         return lastTimeUsed;
     }
 
+    /**
+     * @return the scheduler of the packets written by the local channels, null if no network channel
+     */
+    public NetworkChannelScheduler getScheduler() {
+        return scheduler;
+    }
+
 }
@@ -0,0 +1,231 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+
+/**
+ * Scheduler of the packets written by the LocalChannelReferences sharing one network channel.<br>
+ * <br>
+ * While the network channel is writable and nothing waits, a packet is written at once. Else the
+ * data packets wait in one queue by LocalChannelReference and are written by deficit weighted round
+ * robin: at each turn, a queue may send up to its weight times the block size, the weight being the
+ * one of the rule of its transfer (Configuration.getRuleWeight). The other packets are written at
+ * once, except behind the data packets of the same LocalChannelReference, to keep its order.<br>
+ * <br>
+ * The queue of a LocalChannelReference and its deficit are kept while its transfer is active, even
+ * when no packet waits, since a sender keeps only a few packets written at once (see
+ * getWindow): its share is thus not lost each time its queue is empty. They are forgotten by
+ * remove at the end of the transfer.
+ * 
+ * @author "Frederic Bregier"
+ * 
+ */
+public class NetworkChannelScheduler {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(NetworkChannelScheduler.class);
+
+    /**
+     * Packet waiting to be written
+     */
+    private static final class Pending {
+        private final NetworkPacket packet;
+        private final int size;
+        private final ChannelPromise promise;
+
+        private Pending(NetworkPacket packet, int size, ChannelPromise promise) {
+            this.packet = packet;
+            this.size = size;
+            this.promise = promise;
+        }
+    }
+
+    /**
+     * Packets waiting for one LocalChannelReference, active (within the round robin) while not
+     * empty
+     */
+    private static final class Flow {
+        private final LocalChannelReference localChannelReference;
+        private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+        private final long quantum;
+        private long deficit;
+        /**
+         * True once the transfer is over, the flow being forgotten once empty
+         */
+        private boolean ended = false;
+
+        private Flow(LocalChannelReference localChannelReference, long quantum) {
+            this.localChannelReference = localChannelReference;
+            this.quantum = quantum;
+            this.deficit = quantum;
+        }
+    }
+
+    private final Channel channel;
+    private final HashMap<LocalChannelReference, Flow> flows = new HashMap<LocalChannelReference, Flow>();
+    /**
+     * Flows having packets waiting, in round robin order
+     */
+    private final ArrayDeque<Flow> active = new ArrayDeque<Flow>();
+
+    /**
+     * @param channel
+     *            the network channel
+     */
+    public NetworkChannelScheduler(Channel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @return the number of data packets a sender of this LocalChannelReference may have written
+     *         and not yet sent, its weight such that its queue may hold its share of each turn
+     */
+    public static int getWindow(LocalChannelReference localChannelReference) {
+        if (!Configuration.configuration.isNetworkScheduler()) {
+            return 1;
+        }
+        return getWeight(localChannelReference);
+    }
+
+    /**
+     * Write this packet now or once its turn comes
+     * 
+     * @param localChannelReference
+     * @param packet
+     * @param size
+     *            the size of the data of a data packet, 0 for any other packet
+     * @return the ChannelFuture of the write operation
+     */
+    public synchronized ChannelFuture write(LocalChannelReference localChannelReference,
+            NetworkPacket packet, int size) {
+        Flow flow = flows.get(localChannelReference);
+        boolean empty = flow == null || flow.queue.isEmpty();
+        if (empty && (size == 0 || active.isEmpty() && channel.isWritable())) {
+            // nothing waits in front of this packet
+            return channel.writeAndFlush(packet);
+        }
+        if (flow == null) {
+            flow = new Flow(localChannelReference, (long) getWeight(localChannelReference) *
+                    Configuration.configuration.getBLOCKSIZE());
+            flows.put(localChannelReference, flow);
+        }
+        if (empty) {
+            active.add(flow);
+        }
+        ChannelPromise promise = channel.newPromise();
+        flow.queue.add(new Pending(packet, size, promise));
+        drain();
+        return promise;
+    }
+
+    /**
+     * Forget the queue and the deficit of this LocalChannelReference, its transfer being over, once
+     * its waiting packets are written
+     * 
+     * @param localChannelReference
+     */
+    public synchronized void remove(LocalChannelReference localChannelReference) {
+        Flow flow = flows.get(localChannelReference);
+        if (flow == null) {
+            return;
+        }
+        if (flow.queue.isEmpty()) {
+            flows.remove(localChannelReference);
+        } else {
+            flow.ended = true;
+        }
+    }
+
+    /**
+     * Write the waiting packets while the network channel is writable, to be called again once it is
+     * writable
+     */
+    public synchronized void drain() {
+        while (channel.isWritable()) {
+            Flow flow = active.peek();
+            if (flow == null) {
+                return;
+            }
+            Pending next = flow.queue.peek();
+            if (next.size > flow.deficit) {
+                // turn over, this flow getting its share for its next turn
+                active.poll();
+                flow.deficit += flow.quantum;
+                active.add(flow);
+                continue;
+            }
+            flow.queue.poll();
+            flow.deficit -= next.size;
+            if (flow.queue.isEmpty()) {
+                // out of the round robin until its next packet, keeping its deficit
+                active.poll();
+                if (flow.ended) {
+                    flows.remove(flow.localChannelReference);
+                }
+            }
+            channel.writeAndFlush(next.packet, next.promise);
+        }
+    }
+
+    /**
+     * Fail all the waiting packets since the network channel is closed
+     */
+    public synchronized void clear() {
+        for (Flow flow : active) {
+            Pending pending;
+            while ((pending = flow.queue.poll()) != null) {
+                pending.packet.clear();
+                pending.promise.tryFailure(new IllegalStateException("Network channel closed"));
+            }
+        }
+        if (!active.isEmpty()) {
+            logger.debug("Waiting packets cancelled for " + active.size() + " local channels on " + channel);
+        }
+        active.clear();
+        flows.clear();
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @return the weight of the rule of the current transfer of this LocalChannelReference
+     */
+    private static int getWeight(LocalChannelReference localChannelReference) {
+        R66Session session = localChannelReference.getSession();
+        if (session == null || session.getRunner() == null) {
+            return 1;
+        }
+        return Configuration.configuration.getRuleWeight(session.getRunner().getRuleId());
+    }
+}
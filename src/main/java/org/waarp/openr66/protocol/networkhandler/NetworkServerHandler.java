@@ -115,6 +115,11 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
                 } catch (InterruptedException e1) {
                 }
             }
+            if (networkChannelReference.getScheduler() != null) {
+                networkChannelReference.getScheduler().clear();
+            }
+            // no more waiting for this channel to be writable
+            networkChannelReference.writable();
             NetworkTransaction.closedNetworkChannel(networkChannelReference);
         } else {
             if (remoteAddress == null) {
@@ -130,6 +135,17 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (networkChannelReference != null && ctx.channel().isWritable()) {
+            if (networkChannelReference.getScheduler() != null) {
+                networkChannelReference.getScheduler().drain();
+            }
+            networkChannelReference.writable();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         Channel netChannel = ctx.channel();
@@ -268,6 +284,9 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
                     ctx.channel().writeAndFlush(response);
                 } else {
                     logger.info("Get KAlive");
+                    if (networkChannelReference != null) {
+                        networkChannelReference.keepAliveReceived();
+                    }
                 }
             } catch (OpenR66ProtocolPacketException e1) {
             }
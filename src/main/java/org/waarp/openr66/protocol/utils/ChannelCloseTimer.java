@@ -25,6 +25,7 @@ import io.netty.util.Timeout;
 import io.netty.util.TimerTask;
 import org.waarp.common.crypto.ssl.WaarpSslUtility;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 
 /**
  * TimerTask to Close a Channel in the future
@@ -64,6 +65,25 @@ public class ChannelCloseTimer implements TimerTask {
                 Configuration.WAITFORNETOP * 2, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Close this channel, kept open on requested side for the next request of a batch, if no new
+     * request comes in time
+     * 
+     * @param localChannelReference
+     */
+    public static void closeIdleChannel(final LocalChannelReference localChannelReference) {
+        final R66Future request = localChannelReference.getFutureRequest();
+        Configuration.configuration.getTimerClose().newTimeout(new TimerTask() {
+            public void run(Timeout timeout) throws Exception {
+                // a new request replaces the future of the last one
+                if (localChannelReference.getFutureRequest() == request) {
+                    WaarpSslUtility.closingSslChannel(localChannelReference.getLocalChannel());
+                }
+            }
+        }, Configuration.configuration.getTIMEOUTCON() + Configuration.configuration.getChannelIdleTimeout(),
+                TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Close in the future this channel
      * 
@@ -26,6 +26,8 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.ChannelGroupFutureListener;
@@ -52,7 +54,9 @@ import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndTransferPacket;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+import org.waarp.openr66.protocol.networkhandler.BandwidthClasses;
 import org.waarp.openr66.protocol.networkhandler.GlobalTrafficHandler;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
 
@@ -212,17 +216,96 @@ public class ChannelUtils extends Thread {
         ByteBuf md5 = Unpooled.EMPTY_BUFFER;
         DbTaskRunner runner = localChannelReference.getSession().getRunner();
         if (RequestPacket.isMD5Mode(runner.getMode())) {
-            md5 = FileUtils.getHash(block.getBlock(), Configuration.configuration.getDigest());
+            md5 = FileUtils.getHash(block.getBlock(), FileUtils.getBlockDigestAlgo(localChannelReference));
         }
+        return writeBackDataBlock(localChannelReference, block, md5);
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @param block
+     * @param md5
+     *            the block hash already computed (EMPTY_BUFFER if not in MD5 mode)
+     * @return the ChannelFuture of this write operation
+     * @throws OpenR66ProtocolPacketException
+     */
+    public static ChannelFuture writeBackDataBlock(
+            LocalChannelReference localChannelReference, DataBlock block, ByteBuf md5)
+            throws OpenR66ProtocolPacketException {
+        DbTaskRunner runner = localChannelReference.getSession().getRunner();
         if (runner.getRank() % 100 == 1 || localChannelReference.getSessionState() != R66FiniteDualStates.DATAS) {
             localChannelReference.sessionNewState(R66FiniteDualStates.DATAS);
         }
         DataPacket data = new DataPacket(runner.getRank(), block.getBlock(), md5);// was block.getBlock().copy()
-        ChannelFuture future = writeAbstractLocalPacket(localChannelReference, data, false);
+        long delay = 0;
+        BandwidthClasses classes = Configuration.configuration.getBandwidthClasses();
+        if (classes.isActive()) {
+            String partner = runner.isSelfRequested() ? runner.getRequester() : runner.getRequested();
+            delay = classes.reserve(partner, runner.getRuleId(), data.getLengthPacket());
+        }
+        ChannelFuture previous = localChannelReference.getShapedWrite();
+        ChannelFuture future;
+        if (delay <= 0 && (previous == null || previous.isDone())) {
+            future = writeAbstractLocalPacket(localChannelReference, data, false);
+        } else {
+            future = writeShapedDataPacket(localChannelReference, data, delay, previous);
+        }
         runner.incrementRank();
         return future;
     }
 
+    /**
+     * Write the DataPacket once the delay required by the bandwidth classes is over and the
+     * previous delayed block is written
+     * 
+     * @param localChannelReference
+     * @param data
+     * @param delay
+     *            in ms
+     * @param previous
+     *            the previous delayed write if any
+     * @return the ChannelFuture of this write operation
+     */
+    private static ChannelFuture writeShapedDataPacket(final LocalChannelReference localChannelReference,
+            final DataPacket data, long delay, final ChannelFuture previous) {
+        Channel channel = localChannelReference.getNetworkChannel();
+        final ChannelPromise promise = channel.newPromise();
+        final Runnable write = new Runnable() {
+            public void run() {
+                try {
+                    writeAbstractLocalPacket(localChannelReference, data, false).addListener(
+                            new ChannelFutureListener() {
+                                public void operationComplete(ChannelFuture future) throws Exception {
+                                    if (future.isSuccess()) {
+                                        promise.trySuccess();
+                                    } else {
+                                        promise.tryFailure(future.cause());
+                                    }
+                                }
+                            });
+                } catch (OpenR66ProtocolPacketException e) {
+                    promise.tryFailure(e);
+                }
+            }
+        };
+        channel.eventLoop().schedule(new Runnable() {
+            public void run() {
+                if (previous != null && !previous.isDone()) {
+                    previous.addListener(new ChannelFutureListener() {
+                        public void operationComplete(ChannelFuture future) throws Exception {
+                            write.run();
+                        }
+                    });
+                } else {
+                    write.run();
+                }
+            }
+        }, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+        localChannelReference.setShapedWrite(promise);
+        return promise;
+    }
+
     /**
      * Write the EndTransfer
      * 
@@ -276,7 +359,7 @@ public class ChannelUtils extends Thread {
             throw e;
         }
         if (wait) {
-            ChannelFuture future = localChannelReference.getNetworkChannel().writeAndFlush(networkPacket);
+            ChannelFuture future = writeNetworkPacket(localChannelReference, networkPacket, packet);
             localChannelReference.getNetworkChannelObject().use();
             try {
                 future.await(Configuration.configuration.getTIMEOUTCON());
@@ -285,8 +368,28 @@ public class ChannelUtils extends Thread {
                 return future;
             }
         } else {
-            return localChannelReference.getNetworkChannel().writeAndFlush(networkPacket);
+            return writeNetworkPacket(localChannelReference, networkPacket, packet);
+        }
+    }
+
+    /**
+     * Write the NetworkPacket through the scheduler of the network channel if any, else at once
+     * 
+     * @param localChannelReference
+     * @param networkPacket
+     * @param packet
+     *            the AbstractLocalPacket within the NetworkPacket
+     * @return the ChannelFuture on write operation
+     */
+    private static ChannelFuture writeNetworkPacket(LocalChannelReference localChannelReference,
+            NetworkPacket networkPacket, AbstractLocalPacket packet) {
+        NetworkChannelReference networkChannelReference = localChannelReference.getNetworkChannelObject();
+        if (Configuration.configuration.isNetworkScheduler() && networkChannelReference != null &&
+                networkChannelReference.getScheduler() != null) {
+            int size = packet instanceof DataPacket ? ((DataPacket) packet).getLengthPacket() : 0;
+            return networkChannelReference.getScheduler().write(localChannelReference, networkPacket, size);
         }
+        return localChannelReference.getNetworkChannel().writeAndFlush(networkPacket);
     }
 
     /**
@@ -0,0 +1,153 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Index of the content of the files recently received, by rule, final hash and size, such that a
+ * file announced with the same content for the same rule is copied locally instead of being
+ * received again.<br>
+ * <br>
+ * The index is fed with the final hashes verified at the end of the transfers of the rules using it
+ * (Configuration.isContentIndexRule()) and keeps the last ones up to the size of the index
+ * (Configuration.getContentIndex()). A file moved, modified or deleted since its reception is
+ * simply ignored.
+ * 
+ * @author "Frederic Bregier"
+ * 
+ */
+public final class ContentIndex {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(ContentIndex.class);
+
+    /**
+     * Files by content, the least recently used first
+     */
+    private static final Map<String, File> index = new LinkedHashMap<String, File>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+            return size() > Configuration.configuration.getContentIndex();
+        }
+    };
+
+    private ContentIndex() {
+    }
+
+    /**
+     * 
+     * @param rule
+     * @param algo
+     * @param treeLeaf
+     *            size of the leaves if the hash is a tree hash, else 0
+     * @param size
+     * @param hash
+     * @return the key of this content
+     */
+    private static String getKey(String rule, DigestAlgo algo, int treeLeaf, long size, String hash) {
+        return rule + ":" + algo.name + ":" + treeLeaf + ":" + size + ":" + hash.toLowerCase();
+    }
+
+    /**
+     * Add a file just received, if its rule uses the content index
+     * 
+     * @param rule
+     *            the rule of the transfer
+     * @param algo
+     *            the algorithm of the hash
+     * @param treeLeaf
+     *            size of the leaves if the hash is a tree hash, else 0
+     * @param hash
+     *            the final hash of the file
+     * @param file
+     *            the file at its final position
+     */
+    public static void add(String rule, DigestAlgo algo, int treeLeaf, String hash, File file) {
+        if (Configuration.configuration.getContentIndex() <= 0 || hash == null || file == null ||
+                !Configuration.configuration.isContentIndexRule(rule)) {
+            return;
+        }
+        String key = getKey(rule, algo, treeLeaf, file.length(), hash);
+        synchronized (index) {
+            index.put(key, file);
+        }
+        logger.debug("Content indexed: " + key + " " + file);
+    }
+
+    /**
+     * 
+     * @param rule
+     *            the rule of the transfer
+     * @param algo
+     *            the algorithm of the hash
+     * @param treeLeaf
+     *            size of the leaves if the hash is a tree hash, else 0
+     * @param size
+     * @param hash
+     *            the final hash of the content
+     * @return a file received with this content by the same rule, or null if none (the content itself being still to
+     *         be verified by the caller)
+     */
+    public static File get(String rule, DigestAlgo algo, int treeLeaf, long size, String hash) {
+        if (Configuration.configuration.getContentIndex() <= 0 || hash == null || size <= 0 ||
+                !Configuration.configuration.isContentIndexRule(rule)) {
+            return null;
+        }
+        String key = getKey(rule, algo, treeLeaf, size, hash);
+        File file;
+        synchronized (index) {
+            file = index.get(key);
+        }
+        if (file == null) {
+            return null;
+        }
+        if (!file.isFile() || !file.canRead() || file.length() != size) {
+            remove(rule, algo, treeLeaf, size, hash);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Forget this content, its file being no more usable
+     * 
+     * @param rule
+     * @param algo
+     * @param treeLeaf
+     * @param size
+     * @param hash
+     */
+    public static void remove(String rule, DigestAlgo algo, int treeLeaf, long size, String hash) {
+        String key = getKey(rule, algo, treeLeaf, size, hash);
+        synchronized (index) {
+            index.remove(key);
+        }
+        logger.debug("Content no more indexed: " + key);
+    }
+}
@@ -23,9 +23,22 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -40,8 +53,13 @@ import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66Dir;
 import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
+import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerCapabilities;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.localhandler.packet.BlockSignaturePacket;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 
 /**
  * File Utils
@@ -496,6 +514,267 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Calculates the tree hash of the contents of the given file: each leaf of leafSize bytes is
+     * hashed within the hashing executor, in parallel, and the root is the hash of all leaf
+     * hashes, one after the other. An empty file has one empty leaf.
+     * 
+     * @param file
+     * @param algo
+     * @param leafSize
+     * @return the root hash of the given file in hexadecimal
+     * @throws IOException
+     */
+    public static String getTreeHash(File file, final DigestAlgo algo, final int leafSize) throws IOException {
+        FilesystemBasedDigest root;
+        List<byte[]> leaves = getLeafHashes(file, algo, leafSize, 0, file.length());
+        try {
+            root = new FilesystemBasedDigest(algo);
+            if (leaves.isEmpty()) {
+                // an empty file has one empty leaf
+                leaves.add(new FilesystemBasedDigest(algo).Final());
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        for (byte[] leaf : leaves) {
+            root.Update(leaf, 0, leaf.length);
+        }
+        return FilesystemBasedDigest.getHex(root.Final());
+    }
+
+    /**
+     * Calculates the hashes of the leaves of the given part of the file, each leaf of leafSize
+     * bytes being hashed within the hashing executor, in parallel
+     * 
+     * @param file
+     * @param algo
+     * @param leafSize
+     * @param from
+     *            the start position of the first leaf
+     * @param to
+     *            the end position of the last leaf, which may be shorter than leafSize
+     * @return the hashes of the leaves, one after the other
+     * @throws IOException
+     */
+    public static List<byte[]> getLeafHashes(File file, final DigestAlgo algo, final int leafSize,
+            long from, long to) throws IOException {
+        List<byte[]> leaves = new ArrayList<byte[]>();
+        if (from >= to) {
+            return leaves;
+        }
+        // a few leaves ahead per core, in order to bound the memory
+        int window = Runtime.getRuntime().availableProcessors() * 2;
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final FileChannel fileChannel = inputStream.getChannel();
+            long position = from;
+            do {
+                while (pending.size() < window && position < to) {
+                    pending.add(submitLeafHash(fileChannel, algo, position,
+                            (int) Math.min(leafSize, to - position)));
+                    position += leafSize;
+                }
+                try {
+                    leaves.add(pending.removeFirst().get());
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            } while (!pending.isEmpty() || position < to);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+            inputStream.close();
+        }
+        return leaves;
+    }
+
+    /**
+     * Maximum number of tree hashes shared between senders of the same file
+     */
+    private static final int MAXSHAREDHASHES = 100;
+
+    /**
+     * Tree hashes of files being sent, by file, version and algorithm
+     */
+    private static final ConcurrentHashMap<String, FutureTask<String>> sharedTreeHashes =
+            new ConcurrentHashMap<String, FutureTask<String>>();
+
+    /**
+     * Files being sent to several partners at once, by absolute path, with the number of such
+     * sendings in progress: only their tree hashes are shared
+     */
+    private static final ConcurrentHashMap<String, Integer> sharedFiles =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Share the tree hash of this file between the transfers sending it to several partners at
+     * once, until endSharedTreeHash
+     * 
+     * @param file
+     */
+    public static void startSharedTreeHash(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (sharedFiles) {
+            Integer count = sharedFiles.get(path);
+            sharedFiles.put(path, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * End of the sending of this file to several partners, its shared tree hashes being forgotten
+     * once no more such sending is in progress
+     * 
+     * @param file
+     */
+    public static void endSharedTreeHash(File file) {
+        String path = file.getAbsolutePath();
+        synchronized (sharedFiles) {
+            Integer count = sharedFiles.get(path);
+            if (count != null && count > 1) {
+                sharedFiles.put(path, count - 1);
+                return;
+            }
+            sharedFiles.remove(path);
+        }
+        Iterator<String> keys = sharedTreeHashes.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(path + ':')) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Same as getTreeHash, but the transfers of the same version of a file to several partners
+     * share one computation, such that the file is read only once for all of them. Only a file
+     * between startSharedTreeHash and endSharedTreeHash is shared, any other one being hashed
+     * again.
+     * 
+     * @param file
+     *            a file to send, not modified while sent
+     * @param algo
+     * @param leafSize
+     * @return the root hash of the given file in hexadecimal
+     * @throws IOException
+     */
+    public static String getSharedTreeHash(final File file, final DigestAlgo algo, final int leafSize)
+            throws IOException {
+        if (!sharedFiles.containsKey(file.getAbsolutePath())) {
+            return getTreeHash(file, algo, leafSize);
+        }
+        String key = file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified() + ':' +
+                algo.name + ':' + leafSize;
+        FutureTask<String> task = sharedTreeHashes.get(key);
+        if (task == null) {
+            FutureTask<String> newTask = new FutureTask<String>(new Callable<String>() {
+                public String call() throws IOException {
+                    return getTreeHash(file, algo, leafSize);
+                }
+            });
+            if (sharedTreeHashes.size() >= MAXSHAREDHASHES) {
+                sharedTreeHashes.clear();
+            }
+            task = sharedTreeHashes.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            // not kept such that a next transfer retries
+            sharedTreeHashes.remove(key, task);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 
+     * @param file
+     * @param algo
+     * @param treeLeaf
+     *            size of the leaves if the final hash is a tree hash, else 0
+     * @return the final hash of the whole file in hexadecimal, as sent at the end of a transfer
+     * @throws IOException
+     */
+    public static String getFinalHash(File file, DigestAlgo algo, int treeLeaf) throws IOException {
+        if (treeLeaf > 0) {
+            return getSharedTreeHash(file, algo, treeLeaf);
+        }
+        return FilesystemBasedDigest.getHex(FilesystemBasedDigest.getHash(file, true, algo));
+    }
+
+    /**
+     * 
+     * @param fileChannel
+     *            read with absolute positions only, so shared by all leaves
+     * @param algo
+     * @param position
+     * @param size
+     * @return the future of the hash of this leaf
+     */
+    private static Future<byte[]> submitLeafHash(final FileChannel fileChannel, final DigestAlgo algo,
+            final long position, final int size) {
+        Callable<byte[]> callable = new Callable<byte[]>() {
+            public byte[] call() throws IOException, NoSuchAlgorithmException {
+                FilesystemBasedDigest digest = new FilesystemBasedDigest(algo);
+                ByteBuffer buffer = ByteBuffer.allocate(size > 65536 ? 65536 : size);
+                long current = position;
+                long end = position + size;
+                while (current < end) {
+                    buffer.clear();
+                    if (end - current < buffer.capacity()) {
+                        buffer.limit((int) (end - current));
+                    }
+                    int read = fileChannel.read(buffer, current);
+                    if (read < 0) {
+                        throw new IOException("File shorter than expected");
+                    }
+                    digest.Update(buffer.array(), 0, read);
+                    current += read;
+                }
+                return digest.Final();
+            }
+        };
+        try {
+            return Configuration.configuration.getHashExecutorService().submit(callable);
+        } catch (RejectedExecutionException e) {
+            // executor stopped so compute it now
+            FutureTask<byte[]> task = new FutureTask<byte[]>(callable);
+            task.run();
+            return task;
+        }
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @param runner
+     * @return the size of the leaves of the tree hash used as final hash for this transfer, 0 if
+     *         the usual digest is used (no file in through mode)
+     */
+    public static int getTreeHashLeaf(LocalChannelReference localChannelReference, DbTaskRunner runner) {
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        if (partner == null || RequestPacket.isThroughMode(runner.getMode())) {
+            return 0;
+        }
+        return partner.treeHashLeaf;
+    }
+
     /**
      * 
      * @param buffer
@@ -511,6 +790,175 @@ public class FileUtils {
         return Unpooled.wrappedBuffer(newkey);
     }
 
+    /**
+     * 
+     * @param localChannelReference
+     * @return the algorithm to use for the hash of each block sent to the partner of this
+     *         LocalChannelReference: the fast block one if the partner announces it knows it, else
+     *         the usual digest
+     */
+    public static DigestAlgo getBlockDigestAlgo(LocalChannelReference localChannelReference) {
+        PartnerCapabilities partner = localChannelReference.getPartnerCapabilities();
+        if (partner == null) {
+            return Configuration.configuration.getDigest();
+        }
+        return partner.sendBlockDigestAlgo;
+    }
+
+    /**
+     * Compute in one pass over the buffer the block hash and the update of the global digests
+     * 
+     * @param buffer
+     *            the buffer is not modified (indexes included)
+     * @param algo
+     *            the algorithm for the block hash, null if no block hash is needed
+     * @param digests
+     *            the global digests to update, null ones being ignored
+     * @return the block hash, or EMPTY_BUFFER if none
+     */
+    public static ByteBuf computeHashes(ByteBuf buffer, DigestAlgo algo, FilesystemBasedDigest... digests) {
+        return computeHashes(buffer, algo, (TreeHash) null, digests);
+    }
+
+    /**
+     * Compute in one pass over the buffer the block hash and the update of the global digests,
+     * including the tree hash
+     * 
+     * @param buffer
+     *            the buffer is not modified (indexes included)
+     * @param algo
+     *            the algorithm for the block hash, null if no block hash is needed
+     * @param treeHash
+     *            the tree hash to update, null if none
+     * @param digests
+     *            the global digests to update, null ones being ignored
+     * @return the block hash, or EMPTY_BUFFER if none
+     */
+    public static ByteBuf computeHashes(ByteBuf buffer, DigestAlgo algo, TreeHash treeHash,
+            FilesystemBasedDigest... digests) {
+        FilesystemBasedDigest blockDigest = null;
+        if (algo != null) {
+            try {
+                blockDigest = new FilesystemBasedDigest(algo);
+            } catch (NoSuchAlgorithmException e) {
+                // global digests are still to be updated
+                computeHashes(buffer, null, treeHash, digests);
+                return getHash(buffer, algo);
+            }
+        }
+        int length = buffer.readableBytes();
+        if (length > 0) {
+            byte[] bytes;
+            int offset;
+            if (buffer.hasArray()) {
+                bytes = buffer.array();
+                offset = buffer.arrayOffset() + buffer.readerIndex();
+            } else {
+                bytes = new byte[length];
+                buffer.getBytes(buffer.readerIndex(), bytes);
+                offset = 0;
+            }
+            if (blockDigest != null) {
+                blockDigest.Update(bytes, offset, length);
+            }
+            for (FilesystemBasedDigest digest : digests) {
+                if (digest != null) {
+                    digest.Update(bytes, offset, length);
+                }
+            }
+            if (treeHash != null) {
+                treeHash.update(bytes, offset, length);
+            }
+        }
+        if (blockDigest == null) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        return Unpooled.wrappedBuffer(blockDigest.Final());
+    }
+
+    /**
+     * Same as computeHashes but within the hashing executor. The buffer is retained until hashed
+     * and its indexes may change meanwhile.
+     * 
+     * Digests must not be submitted again before the returned future is done, in order to keep
+     * the blocks order.
+     * 
+     * @param buffer
+     * @param algo
+     *            the algorithm for the block hash, null if no block hash is needed
+     * @param digests
+     *            the global digests to update, null ones being ignored
+     * @return the future of the block hash (EMPTY_BUFFER if none), or null if nothing to compute
+     */
+    public static Future<ByteBuf> submitHashes(ByteBuf buffer, final DigestAlgo algo,
+            final FilesystemBasedDigest... digests) {
+        return submitHashes(buffer, algo, (TreeHash) null, digests);
+    }
+
+    /**
+     * Same as computeHashes with a tree hash but within the hashing executor, as submitHashes
+     * 
+     * @param buffer
+     * @param algo
+     *            the algorithm for the block hash, null if no block hash is needed
+     * @param treeHash
+     *            the tree hash to update, null if none
+     * @param digests
+     *            the global digests to update, null ones being ignored
+     * @return the future of the block hash (EMPTY_BUFFER if none), or null if nothing to compute
+     */
+    public static Future<ByteBuf> submitHashes(ByteBuf buffer, final DigestAlgo algo, final TreeHash treeHash,
+            final FilesystemBasedDigest... digests) {
+        boolean hasDigest = treeHash != null;
+        for (FilesystemBasedDigest digest : digests) {
+            if (digest != null) {
+                hasDigest = true;
+                break;
+            }
+        }
+        if (algo == null && !hasDigest) {
+            return null;
+        }
+        final ByteBuf view = buffer.retain().duplicate();
+        Callable<ByteBuf> callable = new Callable<ByteBuf>() {
+            public ByteBuf call() {
+                try {
+                    return computeHashes(view, algo, treeHash, digests);
+                } finally {
+                    view.release();
+                }
+            }
+        };
+        try {
+            return Configuration.configuration.getHashExecutorService().submit(callable);
+        } catch (RejectedExecutionException e) {
+            // executor stopped so compute it now
+            FutureTask<ByteBuf> task = new FutureTask<ByteBuf>(callable);
+            task.run();
+            return task;
+        }
+    }
+
+    /**
+     * 
+     * @param future
+     *            as returned by submitHashes
+     * @return the block hash once computed, EMPTY_BUFFER if none
+     * @throws OpenR66ProtocolSystemException
+     */
+    public static ByteBuf getHashes(Future<ByteBuf> future) throws OpenR66ProtocolSystemException {
+        if (future == null) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new OpenR66ProtocolSystemException(e);
+        } catch (ExecutionException e) {
+            throw new OpenR66ProtocolSystemException(e.getCause());
+        }
+    }
+
     /**
      * Compute global hash (if possible)
      * 
@@ -563,6 +1011,73 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Compute the hash of each full block of a file, for a delta transfer
+     * 
+     * @param file
+     * @param blocksize
+     * @param algo
+     * @return the hashes of all full blocks one after the other, or null if the file cannot be
+     *         read or has too many blocks for BlockSignaturePacket.MAXSIGNATURESIZE
+     */
+    public static ByteBuf getBlockSignatures(File file, int blocksize, DigestAlgo algo) {
+        long count = file.length() / blocksize;
+        int hashLength = FilesystemBasedDigest.getHash(Unpooled.EMPTY_BUFFER, algo).length;
+        if (count <= 0 || count > BlockSignaturePacket.MAXSIGNATURESIZE / hashLength) {
+            return null;
+        }
+        return getBlockSignatures(file, blocksize, algo, 0, (int) count);
+    }
+
+    /**
+     * Compute the hash of each block of a file within a range of ranks
+     * 
+     * @param file
+     * @param blocksize
+     * @param algo
+     * @param firstRank
+     *            rank of the first block
+     * @param count
+     *            number of blocks
+     * @return the hashes of the blocks one after the other, or null if the file cannot be read or
+     *         is too short
+     */
+    public static ByteBuf getBlockSignatures(File file, int blocksize, DigestAlgo algo, int firstRank,
+            int count) {
+        if (count <= 0) {
+            return null;
+        }
+        ByteBuf signatures = null;
+        byte[] bytes = new byte[blocksize];
+        RandomAccessFile source = null;
+        try {
+            source = new RandomAccessFile(file, "r");
+            source.seek((long) firstRank * blocksize);
+            for (int i = 0; i < count; i++) {
+                source.readFully(bytes);
+                byte[] hash = FilesystemBasedDigest.getHash(Unpooled.wrappedBuffer(bytes), algo);
+                if (signatures == null) {
+                    signatures = Unpooled.buffer(count * hash.length);
+                }
+                signatures.writeBytes(hash);
+            }
+            return signatures;
+        } catch (IOException e) {
+            // includes a file changed in between
+            if (signatures != null) {
+                signatures.release();
+            }
+            return null;
+        } finally {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
     /**
      * Write one fileChannel to another one. Close the fileChannels
      * 
@@ -0,0 +1,116 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Json written to be embedded within an Html page, such that no value can close the script it is
+ * included in: every Json sent to the administration pages goes through this class.
+ * 
+ * @author "Frederic Bregier"
+ *
+ */
+public class JsonHtmlUtils {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(JsonHtmlUtils.class);
+
+    /**
+     * Json escapes for Html embedding
+     */
+    public static final CharacterEscapes HTML_ESCAPES = new CharacterEscapes() {
+        private static final long serialVersionUID = 8547232434167340442L;
+        private final int[] escapes = initEscapes();
+        private final SerializedString lineSeparator = new SerializedString("\\u2028");
+        private final SerializedString paragraphSeparator = new SerializedString("\\u2029");
+
+        private int[] initEscapes() {
+            int[] codes = standardAsciiEscapesForJSON();
+            codes['<'] = ESCAPE_STANDARD;
+            codes['>'] = ESCAPE_STANDARD;
+            codes['&'] = ESCAPE_STANDARD;
+            codes['\''] = ESCAPE_STANDARD;
+            return codes;
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return escapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            // valid in Json but end of line for Javascript
+            if (ch == 0x2028) {
+                return lineSeparator;
+            } else if (ch == 0x2029) {
+                return paragraphSeparator;
+            }
+            return null;
+        }
+    };
+
+    private JsonHtmlUtils() {
+    }
+
+    /**
+     * 
+     * @param writer
+     *            the writer is not closed by the generator
+     * @return a new generator on the writer with the Html escapes
+     * @throws IOException
+     */
+    public static JsonGenerator createGenerator(Writer writer) throws IOException {
+        JsonGenerator generator = JsonHandler.mapper.getFactory().createGenerator(writer);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setCharacterEscapes(HTML_ESCAPES);
+        return generator;
+    }
+
+    /**
+     * 
+     * @param node
+     * @return the Json string of the node, escaped for Html embedding
+     */
+    public static String writeAsString(JsonNode node) {
+        StringWriter writer = new StringWriter();
+        try {
+            JsonGenerator generator = createGenerator(writer);
+            generator.writeTree(node);
+            generator.close();
+        } catch (IOException e) {
+            logger.warn("Cannot write Json", e);
+            return "{}";
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * This file is part of Waarp Project.
+ *
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ *
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpStringUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Persistent state of entries by key, saved as a log of changes: each change is appended as one
+ * Json line, and the file is rewritten with the current entries only once the changes outnumber
+ * them, such that a save costs the size of the changes and not the size of the whole state.
+ *
+ * Not thread safe for load and compact, which are to be called by the owner of the entries.
+ *
+ * @author "Frederic Bregier"
+ *
+ */
+public class JsonStateStore {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(JsonStateStore.class);
+
+    /**
+     * Minimal number of changes before any compaction
+     */
+    private static final int MINCHANGES = 1000;
+
+    private static final String KEY = "k";
+    private static final String VALUE = "v";
+
+    private final File file;
+    /**
+     * Changes not yet written
+     */
+    private final StringBuilder pending = new StringBuilder();
+    private Writer writer = null;
+    /**
+     * Number of changes written since the last compaction
+     */
+    private long changes = 0;
+
+    /**
+     * @param file
+     *            the file of the state
+     */
+    public JsonStateStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Read the state, a last change partially written being ignored
+     *
+     * @return the entries by key in order of their last change
+     * @throws IOException
+     */
+    public Map<String, ObjectNode> load() throws IOException {
+        Map<String, ObjectNode> entries = new LinkedHashMap<String, ObjectNode>();
+        changes = 0;
+        if (!file.canRead()) {
+            return entries;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                WaarpStringUtils.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                ObjectNode change = JsonHandler.getFromString(line);
+                if (change == null || !change.hasNonNull(KEY)) {
+                    logger.debug("Unusable change in " + file + ": " + line);
+                    continue;
+                }
+                String key = change.get(KEY).asText();
+                JsonNode value = change.get(VALUE);
+                entries.remove(key);
+                if (value instanceof ObjectNode) {
+                    entries.put(key, (ObjectNode) value);
+                }
+                changes++;
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Record the new value of this entry, written at next flush
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void put(String key, ObjectNode value) {
+        ObjectNode change = JsonHandler.createObjectNode();
+        change.put(KEY, key);
+        change.set(VALUE, value);
+        pending.append(JsonHandler.writeAsString(change)).append('\n');
+    }
+
+    /**
+     * Record the removal of this entry, written at next flush
+     *
+     * @param key
+     */
+    public synchronized void remove(String key) {
+        ObjectNode change = JsonHandler.createObjectNode();
+        change.put(KEY, key);
+        pending.append(JsonHandler.writeAsString(change)).append('\n');
+    }
+
+    /**
+     * Append the changes recorded since the previous flush
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.length() == 0) {
+            return;
+        }
+        if (writer == null) {
+            boolean empty = file.length() == 0;
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                    WaarpStringUtils.UTF8));
+            if (!empty) {
+                // ends a last change partially written if any
+                writer.write('\n');
+            }
+        }
+        String lines = pending.toString();
+        pending.setLength(0);
+        writer.write(lines);
+        writer.flush();
+        for (int i = lines.indexOf('\n'); i >= 0; i = lines.indexOf('\n', i + 1)) {
+            changes++;
+        }
+    }
+
+    /**
+     *
+     * @param size
+     *            the current number of entries
+     * @return True if the changes written outnumber enough the entries to compact the file
+     */
+    public synchronized boolean needCompaction(int size) {
+        return changes > MINCHANGES && changes > 2L * size;
+    }
+
+    /**
+     * Rewrite the file with only these entries, changes not yet flushed being kept for the next
+     * flush since they may be more recent than the entries
+     *
+     * @param entries
+     *            the current entries
+     * @throws IOException
+     */
+    public synchronized void compact(Map<String, ? extends JsonNode> entries) throws IOException {
+        close();
+        File temp = new File(file.getAbsolutePath() + ".tmp");
+        Writer compacted = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                WaarpStringUtils.UTF8));
+        try {
+            for (Entry<String, ? extends JsonNode> entry : entries.entrySet()) {
+                ObjectNode change = JsonHandler.createObjectNode();
+                change.put(KEY, entry.getKey());
+                change.set(VALUE, entry.getValue());
+                compacted.write(JsonHandler.writeAsString(change));
+                compacted.write('\n');
+            }
+        } finally {
+            compacted.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+        changes = entries.size();
+        logger.debug("State compacted: " + file + " with " + changes + " entries");
+    }
+
+    /**
+     * Close the file, changes not yet flushed being kept for the next flush
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.debug("Error while closing " + file, e);
+            }
+            writer = null;
+        }
+    }
+}
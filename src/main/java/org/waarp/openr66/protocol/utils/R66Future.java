@@ -17,7 +17,13 @@
  */
 package org.waarp.openr66.protocol.utils;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.waarp.common.future.WaarpFuture;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.database.data.DbTaskRunner;
 
@@ -28,6 +34,10 @@ import org.waarp.openr66.database.data.DbTaskRunner;
  * 
  */
 public class R66Future extends WaarpFuture {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory.getLogger(R66Future.class);
 
     private R66Result result = null;
     /**
@@ -35,6 +45,15 @@ public class R66Future extends WaarpFuture {
      */
     private DbTaskRunner runner = null;
     private long filesize = 0;
+    /**
+     * Listeners to notify once done, null if none
+     */
+    private List<R66FutureListener> listeners = null;
+    /**
+     * Listeners of the progress, null if none
+     */
+    private volatile CopyOnWriteArrayList<R66ProgressListener> progressListeners = null;
+    private final Object lock = new Object();
 
     /**
      *
@@ -64,6 +83,129 @@ public class R66Future extends WaarpFuture {
         this.result = result;
     }
 
+    @Override
+    public boolean setSuccess() {
+        boolean done = super.setSuccess();
+        if (done) {
+            notifyListeners();
+        }
+        return done;
+    }
+
+    @Override
+    public boolean setFailure(Throwable cause) {
+        boolean done = super.setFailure(cause);
+        if (done) {
+            notifyListeners();
+        }
+        return done;
+    }
+
+    @Override
+    public boolean cancel() {
+        boolean done = super.cancel();
+        if (done) {
+            notifyListeners();
+        }
+        return done;
+    }
+
+    /**
+     * Add a listener notified once this future is done, immediately if already done
+     * 
+     * @param listener
+     */
+    public void addListener(R66FutureListener listener) {
+        synchronized (lock) {
+            if (!isDone()) {
+                if (listeners == null) {
+                    listeners = new ArrayList<R66FutureListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * Notify once the listeners added so far
+     */
+    private void notifyListeners() {
+        List<R66FutureListener> done;
+        synchronized (lock) {
+            done = listeners;
+            listeners = null;
+        }
+        if (done != null) {
+            for (R66FutureListener listener : done) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(R66FutureListener listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (RuntimeException e) {
+            logger.warn("Listener in error: " + listener, e);
+        }
+    }
+
+    /**
+     * Add a listener of the progress of the transfer of this future
+     * 
+     * @param listener
+     */
+    public void addProgressListener(R66ProgressListener listener) {
+        synchronized (lock) {
+            if (progressListeners == null) {
+                progressListeners = new CopyOnWriteArrayList<R66ProgressListener>();
+            }
+            progressListeners.add(listener);
+        }
+    }
+
+    /**
+     * Remove a listener of the progress
+     * 
+     * @param listener
+     */
+    public void removeProgressListener(R66ProgressListener listener) {
+        CopyOnWriteArrayList<R66ProgressListener> list = progressListeners;
+        if (list != null) {
+            list.remove(listener);
+        }
+    }
+
+    /**
+     * 
+     * @return True if some listeners of the progress are registered
+     */
+    public boolean hasProgressListener() {
+        CopyOnWriteArrayList<R66ProgressListener> list = progressListeners;
+        return list != null && !list.isEmpty();
+    }
+
+    /**
+     * Push the progress of the transfer to the listeners of the progress
+     * 
+     * @param runner
+     */
+    public void fireProgress(DbTaskRunner runner) {
+        CopyOnWriteArrayList<R66ProgressListener> list = progressListeners;
+        if (list == null) {
+            return;
+        }
+        for (R66ProgressListener listener : list) {
+            try {
+                listener.operationProgress(this, runner);
+            } catch (RuntimeException e) {
+                logger.warn("Progress listener in error: " + listener, e);
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "Future: " + isDone() + " " + isSuccess() + " " +
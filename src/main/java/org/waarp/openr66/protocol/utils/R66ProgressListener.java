@@ -0,0 +1,37 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import org.waarp.openr66.database.data.DbTaskRunner;
+
+/**
+ * Listener of the progress of the transfer of a R66Future
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public interface R66ProgressListener {
+    /**
+     * Called each time a block is transferred, from the transfer thread, so it shall be short and not block
+     * 
+     * @param future
+     * @param runner
+     *            the runner of the transfer, giving the current rank and the blocksize
+     */
+    public void operationProgress(R66Future future, DbTaskRunner runner);
+}
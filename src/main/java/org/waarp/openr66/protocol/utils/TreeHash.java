@@ -0,0 +1,505 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Tree hash of a file computed from its blocks, in order, while they are transferred, such that
+ * the file is not read once more at the end of the transfer.<br>
+ * <br>
+ * The result is the same as FileUtils.getTreeHash: each leaf of leafSize bytes is hashed, and the
+ * root is the hash of all leaf hashes, one after the other. The bytes added are copied and each
+ * leaf is hashed within the hashing executor, such that several leaves of one transfer are hashed
+ * in parallel, the hashes being combined in order. At most a few leaves per core are pending, the
+ * caller hashing the oldest one itself beyond, which bounds the memory and never waits for a task
+ * still queued within the hashing executor.<br>
+ * <br>
+ * Contrary to a digest, the hashes of the complete leaves can be saved as a checkpoint with the
+ * transfer, such that an interrupted transfer resumes its tree hash without reading again the
+ * part already transferred, even after a restart of the server. The checkpoint being kept within
+ * the transfer information, it is limited to the first MAXCHECKPOINTLEAVES leaves, the next ones
+ * being hashed again from the file on resume.
+ * 
+ * @author "Frederic Bregier"
+ * 
+ */
+public class TreeHash {
+    private static final char SEPARATOR = ',';
+    /**
+     * Maximum number of leaves within a checkpoint, such that it stays small within the transfer
+     * information which is saved at each update of the transfer
+     */
+    public static final int MAXCHECKPOINTLEAVES = 256;
+    /**
+     * Maximum number of bytes copied but not yet hashed
+     */
+    private static final long MAXPENDINGBYTES = 32 * 1024 * 1024;
+
+    /**
+     * Leaf being hashed, its bytes being hashed in order by one thread at a time
+     */
+    private final class Leaf implements Runnable {
+        private final FilesystemBasedDigest digest = newDigest();
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+        /**
+         * True when all the bytes of the leaf were added
+         */
+        private boolean closed = false;
+        /**
+         * True when a task is submitted but not yet started
+         */
+        private boolean scheduled = false;
+        /**
+         * True while a thread hashes the chunks
+         */
+        private boolean draining = false;
+        private byte[] hash;
+
+        public void run() {
+            synchronized (TreeHash.this) {
+                scheduled = false;
+            }
+            drain(this);
+        }
+    }
+
+    private final DigestAlgo algo;
+    private final int leafSize;
+    /**
+     * Maximum number of pending leaves
+     */
+    private final int window;
+    /**
+     * Hashes of the complete leaves, in order
+     */
+    private final List<byte[]> leaves = new ArrayList<byte[]>();
+    /**
+     * Leaves not yet hashed, in order, following the complete leaves, the last one being the
+     * current leaf if not closed
+     */
+    private final ArrayDeque<Leaf> pending = new ArrayDeque<Leaf>();
+    /**
+     * Current leaf, null if none
+     */
+    private Leaf leaf;
+    /**
+     * Number of bytes within the current leaf
+     */
+    private int leafFill = 0;
+    /**
+     * Number of closed leaves, hashed or not
+     */
+    private long nbLeaves = 0;
+    /**
+     * Number of bytes copied but not yet hashed
+     */
+    private long pendingBytes = 0;
+
+    /**
+     * 
+     * @param algo
+     * @param leafSize
+     * @throws NoSuchAlgorithmException
+     */
+    public TreeHash(DigestAlgo algo, int leafSize) throws NoSuchAlgorithmException {
+        this.algo = algo;
+        this.leafSize = leafSize;
+        // check the algorithm
+        new FilesystemBasedDigest(algo);
+        window = Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * 
+     * @param checkpoint
+     *            the checkpoint saved by a previous attempt, null if none
+     * @param algo
+     * @param leafSize
+     * @param file
+     * @param position
+     *            the number of bytes of the file already transferred
+     * @return the TreeHash of the first position bytes of the file, the complete leaves being
+     *         taken from the checkpoint if it matches, else hashed in parallel from the file
+     * @throws IOException
+     */
+    public static TreeHash resume(String checkpoint, DigestAlgo algo, int leafSize, File file, long position)
+            throws IOException {
+        TreeHash treeHash;
+        try {
+            treeHash = new TreeHash(algo, leafSize);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        if (checkpoint != null && position > 0) {
+            treeHash.restore(checkpoint, position / leafSize);
+        }
+        treeHash.resume(file, position);
+        return treeHash;
+    }
+
+    /**
+     * 
+     * @return the checkpoint of the first complete leaves (up to MAXCHECKPOINTLEAVES), to be given
+     *         to resume after an interruption
+     */
+    public String getCheckpoint() {
+        awaitClosed();
+        synchronized (this) {
+            StringBuilder builder = new StringBuilder(algo.name).append(SEPARATOR).append(leafSize);
+            int nb = Math.min(leaves.size(), MAXCHECKPOINTLEAVES);
+            for (int i = 0; i < nb; i++) {
+                builder.append(SEPARATOR).append(FilesystemBasedDigest.getHex(leaves.get(i)));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Restore the complete leaves from the checkpoint, if it was computed with the same algorithm
+     * and the same size of leaves
+     * 
+     * @param checkpoint
+     * @param maxLeaves
+     *            the number of complete leaves before the resume position
+     */
+    private synchronized void restore(String checkpoint, long maxLeaves) {
+        String[] parts = checkpoint.split(String.valueOf(SEPARATOR));
+        if (parts.length < 2 || !parts[0].equals(algo.name) || !parts[1].equals(Integer.toString(leafSize))) {
+            return;
+        }
+        List<byte[]> restored = new ArrayList<byte[]>();
+        for (int i = 2; i < parts.length && restored.size() < maxLeaves; i++) {
+            String hex = parts[i];
+            if ((hex.length() & 1) != 0) {
+                return;
+            }
+            byte[] hash = new byte[hex.length() / 2];
+            try {
+                for (int j = 0; j < hash.length; j++) {
+                    hash[j] = (byte) Integer.parseInt(hex.substring(j * 2, j * 2 + 2), 16);
+                }
+            } catch (NumberFormatException e) {
+                return;
+            }
+            restored.add(hash);
+        }
+        leaves.addAll(restored);
+        nbLeaves += restored.size();
+    }
+
+    /**
+     * Hash the part of the file from the end of the complete leaves already hashed up to position
+     * 
+     * @param file
+     * @param position
+     * @throws IOException
+     */
+    protected void resume(File file, long position) throws IOException {
+        long start;
+        synchronized (this) {
+            start = nbLeaves * leafSize;
+        }
+        long lastLeaf = position - position % leafSize;
+        if (start < lastLeaf) {
+            List<byte[]> hashes = FileUtils.getLeafHashes(file, algo, leafSize, start, lastLeaf);
+            synchronized (this) {
+                leaves.addAll(hashes);
+                nbLeaves += hashes.size();
+            }
+            start = lastLeaf;
+        }
+        if (start < position) {
+            // the beginning of the current leaf
+            RandomAccessFile source = new RandomAccessFile(file, "r");
+            try {
+                source.seek(start);
+                byte[] bytes = new byte[(int) Math.min(65536, position - start)];
+                while (start < position) {
+                    int length = (int) Math.min(bytes.length, position - start);
+                    source.readFully(bytes, 0, length);
+                    update(bytes, 0, length);
+                    start += length;
+                }
+            } finally {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return the algorithm of this tree hash
+     */
+    public DigestAlgo getAlgo() {
+        return algo;
+    }
+
+    /**
+     * 
+     * @return the size of the leaves
+     */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * 
+     * @return the number of bytes added so far
+     */
+    public synchronized long getLength() {
+        return nbLeaves * leafSize + leafFill;
+    }
+
+    /**
+     * Add the next bytes of the file, which are copied such that the caller may reuse them
+     * 
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            Leaf current;
+            int size;
+            boolean schedule;
+            synchronized (this) {
+                if (leaf == null) {
+                    leaf = new Leaf();
+                    pending.add(leaf);
+                }
+                current = leaf;
+                size = Math.min(length, leafSize - leafFill);
+                byte[] chunk = new byte[size];
+                System.arraycopy(bytes, offset, chunk, 0, size);
+                current.chunks.add(chunk);
+                pendingBytes += size;
+                leafFill += size;
+                if (leafFill == leafSize) {
+                    closeLeaf();
+                }
+                schedule = !current.draining && !current.scheduled;
+                current.scheduled |= schedule;
+            }
+            if (schedule) {
+                submit(current);
+            }
+            offset += size;
+            length -= size;
+            limitPending();
+        }
+    }
+
+    /**
+     * 
+     * @return the root hash in hexadecimal of all the bytes added, the last leaf being closed such
+     *         that no more bytes can be added
+     */
+    public String getRoot() {
+        Leaf last = null;
+        synchronized (this) {
+            if (leafFill > 0 || nbLeaves == 0) {
+                if (leaf == null) {
+                    // an empty file has one empty leaf
+                    leaf = new Leaf();
+                    pending.add(leaf);
+                }
+                last = leaf;
+                closeLeaf();
+            }
+        }
+        if (last != null) {
+            drain(last);
+        }
+        awaitClosed();
+        FilesystemBasedDigest root = newDigest();
+        synchronized (this) {
+            for (byte[] hash : leaves) {
+                root.Update(hash, 0, hash.length);
+            }
+        }
+        return FilesystemBasedDigest.getHex(root.Final());
+    }
+
+    /**
+     * Close the current leaf, within the lock
+     */
+    private void closeLeaf() {
+        leaf.closed = true;
+        leaf = null;
+        leafFill = 0;
+        nbLeaves++;
+    }
+
+    /**
+     * Hash the leaf within the hashing executor, or now if the executor is stopped
+     * 
+     * @param leaf
+     */
+    private void submit(Leaf leaf) {
+        try {
+            Configuration.configuration.getHashExecutorService().execute(leaf);
+        } catch (RejectedExecutionException e) {
+            drain(leaf);
+        }
+    }
+
+    /**
+     * Hash the chunks of the leaf already added, unless another thread is doing so, then its hash
+     * if the leaf is closed
+     * 
+     * @param leaf
+     */
+    private void drain(Leaf leaf) {
+        synchronized (this) {
+            if (leaf.draining || leaf.hash != null) {
+                return;
+            }
+            leaf.draining = true;
+        }
+        byte[] chunk = null;
+        boolean done = false;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (chunk != null) {
+                        pendingBytes -= chunk.length;
+                    }
+                    chunk = leaf.chunks.poll();
+                    if (chunk == null) {
+                        if (leaf.closed) {
+                            leaf.hash = leaf.digest.Final();
+                            collect();
+                        }
+                        // within the same lock, such that a chunk added next schedules the leaf
+                        leaf.draining = false;
+                        done = true;
+                        notifyAll();
+                        return;
+                    }
+                }
+                leaf.digest.Update(chunk, 0, chunk.length);
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    leaf.draining = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the hashed leaves at the head of the pending ones to the complete leaves, within the
+     * lock
+     */
+    private void collect() {
+        while (!pending.isEmpty() && pending.peekFirst().hash != null) {
+            leaves.add(pending.pollFirst().hash);
+        }
+    }
+
+    /**
+     * Wait until the leaf cannot progress anymore: hashed if closed, else all its chunks hashed.
+     * The caller hashes it itself if no thread does.
+     * 
+     * @param leaf
+     */
+    private void await(Leaf leaf) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                drain(leaf);
+                synchronized (this) {
+                    // the thread draining the leaf never waits, so this wait is short
+                    while (leaf.draining) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (leaf.hash != null || (!leaf.closed && leaf.chunks.isEmpty())) {
+                        return;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for the oldest pending leaves while too many leaves or bytes are pending
+     */
+    private void limitPending() {
+        while (true) {
+            Leaf oldest;
+            synchronized (this) {
+                if (pending.size() <= window && pendingBytes <= MAXPENDINGBYTES) {
+                    return;
+                }
+                oldest = pending.peekFirst();
+                if (oldest == leaf && oldest.chunks.isEmpty()) {
+                    // only the current leaf, hashed up to its last byte
+                    return;
+                }
+            }
+            await(oldest);
+        }
+    }
+
+    /**
+     * Wait for all the closed leaves to be hashed
+     */
+    private void awaitClosed() {
+        while (true) {
+            Leaf oldest;
+            synchronized (this) {
+                oldest = pending.peekFirst();
+                if (oldest == null || !oldest.closed) {
+                    return;
+                }
+            }
+            await(oldest);
+        }
+    }
+
+    private FilesystemBasedDigest newDigest() {
+        try {
+            return new FilesystemBasedDigest(algo);
+        } catch (NoSuchAlgorithmException e) {
+            // already checked by the constructor
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.waarp.openr66.context.task;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Test;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.TaskArgumentTemplate.PLACEHOLDER;
+import org.waarp.openr66.database.data.DbTaskRunner;
+
+public class TaskArgumentTemplateTest {
+
+    private static class TemplateTask extends AbstractTask {
+        TemplateTask(R66Session session) {
+            super(TaskType.LOG, 0, "", "", session);
+        }
+
+        public void run() {
+        }
+    }
+
+    private static TemplateTask newTask() {
+        R66Session session = mock(R66Session.class);
+        DbTaskRunner runner = mock(DbTaskRunner.class);
+        when(session.getRunner()).thenReturn(runner);
+        when(session.getBlockSize()).thenReturn(65536);
+        when(runner.getRuleId()).thenReturn("rule");
+        when(runner.getSpecialId()).thenReturn(12L);
+        when(runner.getRequester()).thenReturn("hosta");
+        when(runner.getRequested()).thenReturn("hostb");
+        when(runner.getRank()).thenReturn(3);
+        when(runner.getOriginalFilename()).thenReturn("/in/file.txt");
+        return new TemplateTask(session);
+    }
+
+    @Test
+    public void testCompileSegments() {
+        TaskArgumentTemplate template =
+                TaskArgumentTemplate.compile("a #RULE#-#TRANSFERID##RULE# b");
+        assertArrayEquals(new String[] { "a ", "-", "", " b" }, template.literals);
+        assertArrayEquals(new PLACEHOLDER[] { PLACEHOLDER.RULE, PLACEHOLDER.TRANSFERID,
+                PLACEHOLDER.RULE }, template.placeholders);
+        assertTrue(template.contains(PLACEHOLDER.RULE));
+        assertFalse(template.contains(PLACEHOLDER.DATE));
+    }
+
+    @Test
+    public void testCompileWithoutPlaceholder() {
+        String[] args = new String[] { "", "plain", "#", "a#b", "#UNKNOWN#", "100%#" };
+        for (String arg : args) {
+            TaskArgumentTemplate template = TaskArgumentTemplate.compile(arg);
+            assertEquals(arg, 0, template.placeholders.length);
+            assertArrayEquals(arg, new String[] { arg }, template.literals);
+        }
+    }
+
+    @Test
+    public void testCompileUnknownBeforePlaceholder() {
+        // the closing # of an unknown token may open a known one
+        TaskArgumentTemplate template = TaskArgumentTemplate.compile("#FOO#RULE#end");
+        assertArrayEquals(new String[] { "#FOO", "end" }, template.literals);
+        assertArrayEquals(new PLACEHOLDER[] { PLACEHOLDER.RULE }, template.placeholders);
+    }
+
+    @Test
+    public void testTemplateIsCached() {
+        String arg = "cached #RULE#";
+        assertSame(TaskArgumentTemplate.getTemplate(arg), TaskArgumentTemplate.getTemplate(arg));
+    }
+
+    @Test
+    public void testRunnerValues() {
+        TemplateTask task = newTask();
+        assertEquals("rule 12 hosta hostb 12_hosta_hostb 3 65536",
+                task.getReplacedValue("#RULE# #TRANSFERID# #REQUESTERHOST# #REQUESTEDHOST# "
+                        + "#FULLTRANSFERID# #RANKTRANSFER# #BLOCKSIZE#", null));
+        assertEquals("/in/file.txt file.txt",
+                task.getReplacedValue("#ORIGINALFULLPATH# #ORIGINALFILENAME#", null));
+    }
+
+    @Test
+    public void testValuesWithoutContext() {
+        TemplateTask task = newTask();
+        // no file, no address, no local channel
+        assertEquals("nofile nofile 0 unknown unknown NoError - Unknown",
+                task.getReplacedValue("#TRUEFULLPATH# #TRUEFILENAME# #FILESIZE# "
+                        + "#REMOTEHOSTADDR# #LOCALHOSTADDR# #ERRORMSG# #ERRORCODE# #ERRORSTRCODE#",
+                        null));
+        // no authentication: kept as is, as the former replace chain did
+        assertEquals("#REMOTEHOST#/#LOCALHOST#",
+                task.getReplacedValue("#REMOTEHOST#/#LOCALHOST#", null));
+    }
+
+    @Test
+    public void testRepeatedAndUnknownPlaceholders() {
+        TemplateTask task = newTask();
+        assertEquals("rulerule #UNKNOWN# # rule",
+                task.getReplacedValue("#RULE##RULE# #UNKNOWN# # #RULE#", null));
+    }
+
+    @Test
+    public void testNoWaitAndLocalExec() {
+        TemplateTask task = newTask();
+        assertTrue(task.waitForValidation);
+        assertFalse(task.useLocalExec);
+        assertEquals("cmd rule", task.getReplacedValue("#NOWAIT##LOCALEXEC#cmd #RULE#", null));
+        assertFalse(task.waitForValidation);
+        assertTrue(task.useLocalExec);
+    }
+
+    @Test
+    public void testDateAndHour() {
+        TemplateTask task = newTask();
+        String value = task.getReplacedValue("#DATE#-#HOUR#", null);
+        assertTrue(value, value.matches("\\d{8}-\\d{6}"));
+    }
+
+    @Test
+    public void testValueIsNotSubstitutedAgain() {
+        TemplateTask task = newTask();
+        when(task.session.getRunner().getOriginalFilename()).thenReturn("#RULE#");
+        assertEquals("#RULE# rule", task.getReplacedValue("#ORIGINALFULLPATH# #RULE#", null));
+    }
+
+    @Test
+    public void testFormatArguments() {
+        TemplateTask task = newTask();
+        assertEquals("rule-x-7",
+                task.getReplacedValue("#RULE#-%s-%d", new Object[] { "x", 7 }));
+        // bad format keeps the substituted value
+        assertEquals("rule-%d", task.getReplacedValue("#RULE#-%d", new Object[] { "x" }));
+    }
+}
@@ -0,0 +1,106 @@
+package org.waarp.openr66.database.data;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.json.JsonHandler;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class DbTaskRunnerContinuationTest {
+
+    @Test
+    public void testTokenRoundTrip() throws WaarpDatabaseSqlException {
+        long start = 1388534400123L;
+        String token = DbTaskRunner.getContinuationToken(start, 42L, "owner", "hosta", "host.b");
+        assertTrue(DbTaskRunner.isValidContinuationToken(token));
+        DbTaskRunner.ContinuationKey key = DbTaskRunner.parseContinuationToken(token);
+        assertEquals(start, key.startMillis);
+        assertEquals(42L, key.specialId);
+        assertEquals("owner", key.owner);
+        assertEquals("hosta", key.requester);
+        assertEquals("host.b", key.requested);
+    }
+
+    @Test
+    public void testTokenRoundTripNegativeIdAndUnicode() throws WaarpDatabaseSqlException {
+        String token = DbTaskRunner.getContinuationToken(0L, -5L, "propriétaire", "", "hôte");
+        DbTaskRunner.ContinuationKey key = DbTaskRunner.parseContinuationToken(token);
+        assertEquals(0L, key.startMillis);
+        assertEquals(-5L, key.specialId);
+        assertEquals("propriétaire", key.owner);
+        assertEquals("", key.requester);
+        assertEquals("hôte", key.requested);
+    }
+
+    @Test
+    public void testTokenFromJsonUsesEpochMillis() throws WaarpDatabaseSqlException {
+        long start = 1414285200000L;
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("STARTTRANS", start);
+        node.put("SPECIALID", 7L);
+        node.put("OWNERREQ", "owner");
+        node.put("REQUESTER", "hosta");
+        node.put("REQUESTED", "hostb");
+        String token = DbTaskRunner.getContinuationToken(node);
+        assertEquals(DbTaskRunner.getContinuationToken(start, 7L, "owner", "hosta", "hostb"), token);
+        assertEquals(start, DbTaskRunner.parseContinuationToken(token).startMillis);
+        node.put("STARTTRANS", Long.toString(start));
+        assertEquals(token, DbTaskRunner.getContinuationToken(node));
+    }
+
+    @Test
+    public void testTokenFromJsonWithLocalDateIsRefused() {
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("STARTTRANS", "2014-10-26 02:30:00.0");
+        node.put("SPECIALID", 7L);
+        node.put("OWNERREQ", "owner");
+        node.put("REQUESTER", "hosta");
+        node.put("REQUESTED", "hostb");
+        assertNull(DbTaskRunner.getContinuationToken(node));
+        node.remove("SPECIALID");
+        node.put("STARTTRANS", 0L);
+        assertNull(DbTaskRunner.getContinuationToken(node));
+    }
+
+    @Test
+    public void testEmptyTokenIsValid() {
+        assertTrue(DbTaskRunner.isValidContinuationToken(null));
+        assertTrue(DbTaskRunner.isValidContinuationToken("  "));
+    }
+
+    @Test
+    public void testMalformedTokens() {
+        String token = DbTaskRunner.getContinuationToken(1000L, 1L, "owner", "hosta", "hostb");
+        String[] invalids = new String[] {
+                "garbage",
+                token.substring(0, token.lastIndexOf('.')),
+                token + ".00",
+                "." + token.substring(token.indexOf('.')),
+                token.replaceFirst("^[^.]*", "!!"),
+                // odd length hex part
+                token.substring(0, token.length() - 1),
+                // not hex
+                token.substring(0, token.length() - 2) + "zz" };
+        for (String invalid : invalids) {
+            assertFalse(invalid, DbTaskRunner.isValidContinuationToken(invalid));
+            try {
+                DbTaskRunner.parseContinuationToken(invalid);
+                fail("Should be refused: " + invalid);
+            } catch (WaarpDatabaseSqlException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testTamperedTokenChangesPosition() throws WaarpDatabaseSqlException {
+        String token = DbTaskRunner.getContinuationToken(1000L, 1L, "owner", "hosta", "hostb");
+        String tampered = Long.toString(2000L, Character.MAX_RADIX) + token.substring(token.indexOf('.'));
+        DbTaskRunner.ContinuationKey key = DbTaskRunner.parseContinuationToken(tampered);
+        // a well formed token only gives a position, never more than the filter allows
+        assertEquals(2000L, key.startMillis);
+        assertEquals(1L, key.specialId);
+    }
+}
@@ -0,0 +1,112 @@
+package org.waarp.openr66.protocol.networkhandler;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BandwidthClassesTest {
+
+    private static void assertDelay(long expected, long delay) {
+        // a few ms may elapse between two reservations, refilling a few tokens
+        assertTrue("Delay " + delay + " instead of about " + expected,
+                delay <= expected && delay > expected * 8 / 10);
+    }
+
+    @Test
+    public void testInactiveWithoutClass() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure(null);
+        assertFalse(classes.isActive());
+        assertEquals(0, classes.reserve("hosta", "rule", Long.MAX_VALUE / 2));
+        classes.configure(" , global=0, partner:=5, rule:x=abc, other=4");
+        assertFalse(classes.isActive());
+        assertEquals("", classes.getDefinition());
+    }
+
+    @Test
+    public void testGlobalCeilingIsEnforced() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("global=10000");
+        assertTrue(classes.isActive());
+        assertEquals(0, classes.reserve("hosta", "rule", 10000));
+        // the last tokens may go in debt
+        assertEquals(0, classes.reserve("hosta", "rule", 5000));
+        assertDelay(501, classes.reserve("hosta", "rule", 1000));
+    }
+
+    @Test
+    public void testGlobalCeilingBoundsLending() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("global=10000,partner:hosta=1000/0");
+        assertEquals(0, classes.reserve("hosta", "rule", 1000));
+        assertEquals(0, classes.reserve("hosta", "rule", 20000));
+        // beyond its rate, hosta borrows from the global class, once back under its ceiling
+        assertDelay(1101, classes.reserve("hosta", "rule", 1000));
+    }
+
+    @Test
+    public void testRateIsEnforcedOnceNothingLends() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("global=10000,partner:hosta=2000/0");
+        // another partner, without class, uses the global class far beyond its ceiling
+        assertEquals(0, classes.reserve("hostb", "rule", 100000));
+        assertEquals(0, classes.reserve("hosta", "rule", 12000));
+        // the global class lends nothing before long: hosta waits for its own rate
+        assertDelay(5001, classes.reserve("hosta", "rule", 1000));
+    }
+
+    @Test
+    public void testOwnCeilingIsEnforced() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("global=10000,partner:hosta=2000/2000");
+        assertEquals(0, classes.reserve("hosta", "rule", 12000));
+        // the global class could lend, but not beyond the ceiling of hosta
+        assertDelay(5001, classes.reserve("hosta", "rule", 1000));
+    }
+
+    @Test
+    public void testRateIsGuaranteed() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("global=10000,partner:hosta=5000/0");
+        // another partner, without class, uses the global class beyond its ceiling
+        assertEquals(0, classes.reserve("hostb", "rule", 30000));
+        assertDelay(2001, classes.reserve("hostb", "rule", 1000));
+        // hosta still sends up to its rate
+        assertEquals(0, classes.reserve("hosta", "rule", 5000));
+    }
+
+    @Test
+    public void testClassWithoutCeiling() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("partner:hosta=1000");
+        assertTrue(classes.isActive());
+        // no ceiling anywhere: lent without limit
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, classes.reserve("hosta", "rule", 1000000));
+        }
+        assertEquals(0, classes.reserve("hostb", "rule", 1000000));
+    }
+
+    @Test
+    public void testRuleCeilingByPartner() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("rule:rule1=1000/1000");
+        assertEquals(0, classes.reserve("hosta", "rule1", 3000));
+        assertDelay(2001, classes.reserve("hosta", "rule1", 1000));
+        // the rule is shaped within each partner
+        assertEquals(0, classes.reserve("hostb", "rule1", 1000));
+        // other rules are not limited
+        assertEquals(0, classes.reserve("hosta", "rule2", 1000000));
+    }
+
+    @Test
+    public void testConfigureResetsTokens() {
+        BandwidthClasses classes = new BandwidthClasses();
+        classes.configure("global=10000");
+        classes.reserve("hosta", "rule", 30000);
+        assertTrue(classes.reserve("hosta", "rule", 1) > 0);
+        classes.configure(classes.getDefinition());
+        assertEquals("global=10000", classes.getDefinition());
+        assertEquals(0, classes.reserve("hosta", "rule", 1));
+    }
+}
@@ -0,0 +1,211 @@
+package org.waarp.openr66.protocol.networkhandler;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+
+public class NetworkChannelSchedulerTest {
+    private static final int BLOCKSIZE = 1000;
+
+    private int savedBlockSize;
+    private Channel channel;
+    /**
+     * Number of packets the channel accepts before being not writable
+     */
+    private int budget;
+    private final List<NetworkPacket> written = new ArrayList<NetworkPacket>();
+
+    @Before
+    public void setUp() {
+        savedBlockSize = Configuration.configuration.getBLOCKSIZE();
+        Configuration.configuration.setBLOCKSIZE(BLOCKSIZE);
+        Configuration.configuration.setRuleWeights("light=1,heavy=3");
+        channel = mock(Channel.class);
+        when(channel.isWritable()).thenAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) {
+                return budget > 0;
+            }
+        });
+        Answer<ChannelFuture> write = new Answer<ChannelFuture>() {
+            public ChannelFuture answer(InvocationOnMock invocation) {
+                written.add((NetworkPacket) invocation.getArguments()[0]);
+                budget--;
+                return mock(ChannelFuture.class);
+            }
+        };
+        doAnswer(write).when(channel).writeAndFlush(any());
+        doAnswer(write).when(channel).writeAndFlush(any(), any(ChannelPromise.class));
+        when(channel.newPromise()).thenAnswer(new Answer<ChannelPromise>() {
+            public ChannelPromise answer(InvocationOnMock invocation) {
+                return mock(ChannelPromise.class);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.configuration.setBLOCKSIZE(savedBlockSize);
+        Configuration.configuration.setRuleWeights(null);
+    }
+
+    private static LocalChannelReference newReference(String rule) {
+        LocalChannelReference localChannelReference = mock(LocalChannelReference.class);
+        R66Session session = mock(R66Session.class);
+        DbTaskRunner runner = mock(DbTaskRunner.class);
+        when(localChannelReference.getSession()).thenReturn(session);
+        when(session.getRunner()).thenReturn(runner);
+        when(runner.getRuleId()).thenReturn(rule);
+        return localChannelReference;
+    }
+
+    private static Set<NetworkPacket> queue(NetworkChannelScheduler scheduler,
+            LocalChannelReference localChannelReference, int nb) {
+        Set<NetworkPacket> packets = new HashSet<NetworkPacket>();
+        for (int i = 0; i < nb; i++) {
+            NetworkPacket packet = mock(NetworkPacket.class);
+            packets.add(packet);
+            scheduler.write(localChannelReference, packet, BLOCKSIZE);
+        }
+        return packets;
+    }
+
+    private int count(Set<NetworkPacket> packets, int from, int to) {
+        int nb = 0;
+        for (NetworkPacket packet : written.subList(from, to)) {
+            if (packets.contains(packet)) {
+                nb++;
+            }
+        }
+        return nb;
+    }
+
+    @Test
+    public void testWrittenAtOnceWhenNothingWaits() {
+        NetworkChannelScheduler scheduler = new NetworkChannelScheduler(channel);
+        budget = 10;
+        Set<NetworkPacket> packets = queue(scheduler, newReference("light"), 3);
+        assertEquals(3, written.size());
+        assertTrue(packets.containsAll(written));
+    }
+
+    @Test
+    public void testSharesFollowWeights() {
+        NetworkChannelScheduler scheduler = new NetworkChannelScheduler(channel);
+        budget = 0;
+        Set<NetworkPacket> light = queue(scheduler, newReference("light"), 100);
+        Set<NetworkPacket> heavy = queue(scheduler, newReference("heavy"), 100);
+        assertTrue(written.isEmpty());
+
+        budget = 40;
+        scheduler.drain();
+        assertEquals(40, written.size());
+        // one block of light for three blocks of heavy at each turn
+        assertEquals(10, count(light, 0, 40));
+        assertEquals(30, count(heavy, 0, 40));
+        // and in the same proportion on each part of the stream
+        assertEquals(5, count(light, 0, 20));
+        assertEquals(15, count(heavy, 0, 20));
+    }
+
+    @Test
+    public void testShareIsKeptWhenQueueEmpties() {
+        NetworkChannelScheduler scheduler = new NetworkChannelScheduler(channel);
+        LocalChannelReference heavyReference = newReference("heavy");
+        budget = 0;
+        Set<NetworkPacket> light = queue(scheduler, newReference("light"), 100);
+        Set<NetworkPacket> heavy = queue(scheduler, heavyReference, 2);
+        budget = 8;
+        scheduler.drain();
+        // heavy sent its 2 waiting packets then its queue was empty
+        assertEquals(2, count(heavy, 0, written.size()));
+        int before = written.size();
+        heavy = queue(scheduler, heavyReference, 100);
+        budget = 40;
+        scheduler.drain();
+        assertEquals(30, count(heavy, before, written.size()));
+        assertEquals(10, count(light, before, written.size()));
+    }
+
+    @Test
+    public void testRemovedFlowDoesNotStarveOthers() {
+        NetworkChannelScheduler scheduler = new NetworkChannelScheduler(channel);
+        LocalChannelReference heavyReference = newReference("heavy");
+        LocalChannelReference lightReference = newReference("light");
+        budget = 0;
+        Set<NetworkPacket> heavy = queue(scheduler, heavyReference, 6);
+        Set<NetworkPacket> light = queue(scheduler, lightReference, 20);
+        // transfer over while some packets still wait: they are still written
+        scheduler.remove(heavyReference);
+        budget = 12;
+        scheduler.drain();
+        assertEquals(6, count(heavy, 0, written.size()));
+        assertEquals(6, count(light, 0, written.size()));
+        // then light gets the whole channel
+        budget = 10;
+        scheduler.drain();
+        assertEquals(16, count(light, 0, written.size()));
+        assertEquals(6, count(heavy, 0, written.size()));
+
+        // a removed flow leaves the round robin once its waiting packets are written
+        scheduler.remove(lightReference);
+        budget = 100;
+        scheduler.drain();
+        assertEquals(20, count(light, 0, written.size()));
+        int before = written.size();
+        Set<NetworkPacket> next = queue(scheduler, newReference("light"), 5);
+        assertEquals(5, count(next, before, written.size()));
+    }
+
+    @Test
+    public void testOtherPacketsKeepTheirOrder() {
+        NetworkChannelScheduler scheduler = new NetworkChannelScheduler(channel);
+        LocalChannelReference localChannelReference = newReference("light");
+        budget = 0;
+        Set<NetworkPacket> data = queue(scheduler, localChannelReference, 3);
+        NetworkPacket end = mock(NetworkPacket.class);
+        scheduler.write(localChannelReference, end, 0);
+        // a control packet of another local channel is written at once
+        NetworkPacket other = mock(NetworkPacket.class);
+        scheduler.write(newReference("light"), other, 0);
+        assertEquals(1, written.size());
+        assertSame(other, written.get(0));
+        budget = 10;
+        scheduler.drain();
+        assertEquals(5, written.size());
+        assertEquals(3, count(data, 1, 4));
+        assertSame(end, written.get(4));
+    }
+
+    @Test
+    public void testWindowFollowsWeight() {
+        boolean saved = Configuration.configuration.isNetworkScheduler();
+        try {
+            Configuration.configuration.setNetworkScheduler(false);
+            assertEquals(1, NetworkChannelScheduler.getWindow(newReference("heavy")));
+            Configuration.configuration.setNetworkScheduler(true);
+            assertEquals(3, NetworkChannelScheduler.getWindow(newReference("heavy")));
+            assertEquals(1, NetworkChannelScheduler.getWindow(newReference("unknown")));
+        } finally {
+            Configuration.configuration.setNetworkScheduler(saved);
+        }
+    }
+}
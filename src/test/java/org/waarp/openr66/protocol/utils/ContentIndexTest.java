@@ -0,0 +1,144 @@
+package org.waarp.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+public class ContentIndexTest {
+    private static final DigestAlgo ALGO = DigestAlgo.MD5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Configuration.configuration.setContentIndex(10);
+        Configuration.configuration.setContentIndexRules("rule1, rule2");
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.configuration.setContentIndex(0);
+        Configuration.configuration.setContentIndexRules(null);
+    }
+
+    private File createFile(int size) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[size]);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testHitAndMiss() throws IOException {
+        File file = createFile(100);
+        ContentIndex.add("rule1", ALGO, 0, "ABCDEF", file);
+        try {
+            // the hash case does not matter
+            assertEquals(file, ContentIndex.get("rule1", ALGO, 0, 100, "abcdef"));
+            assertNull(ContentIndex.get("rule1", ALGO, 0, 100, "abcde0"));
+            assertNull(ContentIndex.get("rule1", ALGO, 0, 101, "abcdef"));
+            assertNull(ContentIndex.get("rule1", DigestAlgo.SHA1, 0, 100, "abcdef"));
+            assertNull(ContentIndex.get("rule1", ALGO, 1024, 100, "abcdef"));
+            assertNull(ContentIndex.get("rule1", ALGO, 0, 100, null));
+        } finally {
+            ContentIndex.remove("rule1", ALGO, 0, 100, "abcdef");
+        }
+        assertNull(ContentIndex.get("rule1", ALGO, 0, 100, "abcdef"));
+    }
+
+    @Test
+    public void testChangedFileIsForgotten() throws IOException {
+        File file = createFile(100);
+        ContentIndex.add("rule1", ALGO, 0, "changed", file);
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write(1);
+        } finally {
+            outputStream.close();
+        }
+        assertNull(ContentIndex.get("rule1", ALGO, 0, 100, "changed"));
+
+        File deleted = createFile(50);
+        ContentIndex.add("rule1", ALGO, 0, "deleted", deleted);
+        assertTrue(deleted.delete());
+        assertNull(ContentIndex.get("rule1", ALGO, 0, 50, "deleted"));
+        // forgotten even if the file comes back
+        createFile(50).renameTo(deleted);
+        assertNull(ContentIndex.get("rule1", ALGO, 0, 50, "deleted"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws IOException {
+        Configuration.configuration.setContentIndex(2);
+        File file1 = createFile(10);
+        File file2 = createFile(10);
+        File file3 = createFile(10);
+        ContentIndex.add("rule1", ALGO, 0, "lru1", file1);
+        ContentIndex.add("rule1", ALGO, 0, "lru2", file2);
+        try {
+            // lru1 becomes the most recently used
+            assertEquals(file1, ContentIndex.get("rule1", ALGO, 0, 10, "lru1"));
+            ContentIndex.add("rule1", ALGO, 0, "lru3", file3);
+            assertNull(ContentIndex.get("rule1", ALGO, 0, 10, "lru2"));
+            assertEquals(file1, ContentIndex.get("rule1", ALGO, 0, 10, "lru1"));
+            assertEquals(file3, ContentIndex.get("rule1", ALGO, 0, 10, "lru3"));
+        } finally {
+            ContentIndex.remove("rule1", ALGO, 0, 10, "lru1");
+            ContentIndex.remove("rule1", ALGO, 0, 10, "lru2");
+            ContentIndex.remove("rule1", ALGO, 0, 10, "lru3");
+        }
+    }
+
+    @Test
+    public void testRuleOptIn() throws IOException {
+        File file = createFile(20);
+        ContentIndex.add("other", ALGO, 0, "optin", file);
+        ContentIndex.add("rule1", ALGO, 0, "optin", file);
+        try {
+            // only for the rules using the index
+            assertNull(ContentIndex.get("other", ALGO, 0, 20, "optin"));
+            // and never shared between rules
+            assertNull(ContentIndex.get("rule2", ALGO, 0, 20, "optin"));
+            assertEquals(file, ContentIndex.get("rule1", ALGO, 0, 20, "optin"));
+            // a rule no more using the index does not get it
+            Configuration.configuration.setContentIndexRules("rule2");
+            assertNull(ContentIndex.get("rule1", ALGO, 0, 20, "optin"));
+            Configuration.configuration.setContentIndexRules("rule1");
+            assertNull(ContentIndex.get("other", ALGO, 0, 20, "optin"));
+        } finally {
+            ContentIndex.remove("other", ALGO, 0, 20, "optin");
+            ContentIndex.remove("rule1", ALGO, 0, 20, "optin");
+        }
+    }
+
+    @Test
+    public void testDisabledIndex() throws IOException {
+        File file = createFile(30);
+        Configuration.configuration.setContentIndex(0);
+        ContentIndex.add("rule1", ALGO, 0, "disabled", file);
+        Configuration.configuration.setContentIndex(10);
+        assertNull(ContentIndex.get("rule1", ALGO, 0, 30, "disabled"));
+        ContentIndex.add("rule1", ALGO, 0, "disabled", file);
+        Configuration.configuration.setContentIndex(0);
+        try {
+            assertNull(ContentIndex.get("rule1", ALGO, 0, 30, "disabled"));
+        } finally {
+            ContentIndex.remove("rule1", ALGO, 0, 30, "disabled");
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.waarp.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.waarp.common.json.JsonHandler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class JsonHtmlUtilsTest {
+
+    @Test
+    public void testScriptCannotBeClosed() {
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("FILENAME", "</script><script>alert('x')</script>&amp;");
+        node.put("INFO", "line\nnext\u2028end");
+        String json = JsonHtmlUtils.writeAsString(node);
+        assertFalse(json, json.contains("<"));
+        assertFalse(json, json.contains(">"));
+        assertFalse(json, json.contains("&"));
+        assertFalse(json, json.contains("'"));
+        assertFalse(json, json.contains("\n"));
+        assertFalse(json, json.contains("\u2028"));
+    }
+
+    @Test
+    public void testValuesAreKept() throws Exception {
+        ArrayNode array = JsonHandler.createArrayNode();
+        ObjectNode node = array.addObject();
+        node.put("FILENAME", "</script>&'\"\\é\u2029");
+        node.put("SPECIALID", "12");
+        JsonNode read = JsonHandler.mapper.readTree(JsonHtmlUtils.writeAsString(array));
+        assertEquals(array, read);
+    }
+}
@@ -0,0 +1,145 @@
+package org.waarp.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.waarp.common.json.JsonHandler;
+import org.waarp.common.utility.WaarpStringUtils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class JsonStateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ObjectNode value(int size) {
+        ObjectNode node = JsonHandler.createObjectNode();
+        node.put("size", size);
+        return node;
+    }
+
+    private static void append(File file, String text) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write(text.getBytes(WaarpStringUtils.UTF8));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() throws IOException {
+        JsonStateStore store = new JsonStateStore(new File(folder.getRoot(), "none.json"));
+        assertTrue(store.load().isEmpty());
+        assertFalse(store.needCompaction(0));
+    }
+
+    @Test
+    public void testSaveAndReload() throws IOException {
+        File file = folder.newFile();
+        JsonStateStore store = new JsonStateStore(file);
+        store.put("a", value(1));
+        store.put("b", value(2));
+        store.put("c", value(3));
+        store.flush();
+        store.remove("a");
+        store.put("b", value(20));
+        store.flush();
+        store.close();
+
+        Map<String, ObjectNode> entries = new JsonStateStore(file).load();
+        // in order of their last change
+        assertEquals(Arrays.asList("c", "b"), new ArrayList<String>(entries.keySet()));
+        assertEquals(3, entries.get("c").get("size").asInt());
+        assertEquals(20, entries.get("b").get("size").asInt());
+    }
+
+    @Test
+    public void testChangesNotFlushedAreNotWritten() throws IOException {
+        File file = folder.newFile();
+        JsonStateStore store = new JsonStateStore(file);
+        store.put("a", value(1));
+        store.flush();
+        store.put("b", value(2));
+        store.close();
+        assertEquals(Arrays.asList("a"), new ArrayList<String>(new JsonStateStore(file).load().keySet()));
+        // kept for the next flush
+        store.flush();
+        store.close();
+        assertEquals(Arrays.asList("a", "b"),
+                new ArrayList<String>(new JsonStateStore(file).load().keySet()));
+    }
+
+    @Test
+    public void testPartialLastChangeIsIgnored() throws IOException {
+        File file = folder.newFile();
+        JsonStateStore store = new JsonStateStore(file);
+        store.put("a", value(1));
+        store.flush();
+        store.close();
+        // interrupted while writing the next change
+        append(file, "{\"k\":\"b\",\"v\":{\"si");
+
+        store = new JsonStateStore(file);
+        Map<String, ObjectNode> entries = store.load();
+        assertEquals(Arrays.asList("a"), new ArrayList<String>(entries.keySet()));
+        // the next change is not glued to the partial one
+        store.put("c", value(3));
+        store.flush();
+        store.close();
+        entries = new JsonStateStore(file).load();
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<String>(entries.keySet()));
+    }
+
+    @Test
+    public void testCorruptLinesAreIgnored() throws IOException {
+        File file = folder.newFile();
+        append(file, "{\"k\":\"a\",\"v\":{\"size\":1}}\n"
+                + "garbage\n"
+                + "\n"
+                + "{\"v\":{\"size\":2}}\n"
+                + "{\"k\":\"b\",\"v\":\"not an object\"}\n"
+                + "{\"k\":\"c\",\"v\":{\"size\":3}}\n");
+        Map<String, ObjectNode> entries = new JsonStateStore(file).load();
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<String>(entries.keySet()));
+        assertEquals(3, entries.get("c").get("size").asInt());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File file = folder.newFile();
+        JsonStateStore store = new JsonStateStore(file);
+        for (int i = 0; i < 1500; i++) {
+            store.put("a", value(i));
+        }
+        store.put("b", value(-1));
+        store.flush();
+        assertTrue(store.needCompaction(2));
+        assertFalse(store.needCompaction(1000));
+
+        Map<String, ObjectNode> entries = new JsonStateStore(file).load();
+        // a change not yet flushed is kept through the compaction
+        store.put("c", value(3));
+        store.compact(entries);
+        assertFalse(store.needCompaction(2));
+        store.flush();
+        store.close();
+
+        JsonStateStore reloaded = new JsonStateStore(file);
+        entries = reloaded.load();
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<String>(entries.keySet()));
+        assertEquals(1499, entries.get("a").get("size").asInt());
+        assertFalse(reloaded.needCompaction(3));
+        assertFalse(new File(file.getAbsolutePath() + ".tmp").exists());
+    }
+}
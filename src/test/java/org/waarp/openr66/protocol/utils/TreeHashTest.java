@@ -0,0 +1,169 @@
+package org.waarp.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+
+public class TreeHashTest {
+    private static final DigestAlgo ALGO = DigestAlgo.SHA1;
+    private static final int LEAF = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createFile(byte[] data) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static void feed(TreeHash treeHash, byte[] data, int from, int to, int chunk) {
+        for (int pos = from; pos < to; pos += chunk) {
+            treeHash.update(data, pos, Math.min(chunk, to - pos));
+        }
+    }
+
+    private void assertSameRoot(byte[] data, int leafSize, int chunk) throws Exception {
+        File file = createFile(data);
+        TreeHash treeHash = new TreeHash(ALGO, leafSize);
+        feed(treeHash, data, 0, data.length, chunk);
+        assertEquals(data.length, treeHash.getLength());
+        assertEquals(FileUtils.getTreeHash(file, ALGO, leafSize), treeHash.getRoot());
+    }
+
+    @Test
+    public void testRootMatchesFileTreeHash() throws Exception {
+        assertSameRoot(randomBytes(10 * LEAF), LEAF, 700);
+        assertSameRoot(randomBytes(10 * LEAF), LEAF, LEAF);
+        assertSameRoot(randomBytes(3 * LEAF), LEAF, 5000);
+    }
+
+    @Test
+    public void testPartialLastLeaf() throws Exception {
+        assertSameRoot(randomBytes(10 * LEAF + 123), LEAF, 700);
+        assertSameRoot(randomBytes(123), LEAF, 700);
+        assertSameRoot(randomBytes(1), LEAF, 1);
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        assertSameRoot(new byte[0], LEAF, 700);
+    }
+
+    @Test
+    public void testManyLeavesInParallel() throws Exception {
+        // far more leaves than pending ones, such that the caller hashes some of them itself
+        assertSameRoot(randomBytes(1024 * 1024 + 17), 64, 65536);
+    }
+
+    @Test
+    public void testCallerReusesBuffer() throws Exception {
+        byte[] data = randomBytes(5 * LEAF + 10);
+        File file = createFile(data);
+        TreeHash treeHash = new TreeHash(ALGO, LEAF);
+        byte[] buffer = new byte[300];
+        for (int pos = 0; pos < data.length; pos += buffer.length) {
+            int length = Math.min(buffer.length, data.length - pos);
+            System.arraycopy(data, pos, buffer, 0, length);
+            treeHash.update(buffer, 0, length);
+            // the bytes added are copied
+            new Random(pos).nextBytes(buffer);
+        }
+        assertEquals(FileUtils.getTreeHash(file, ALGO, LEAF), treeHash.getRoot());
+    }
+
+    @Test
+    public void testCheckpointRoundTrip() throws Exception {
+        byte[] data = randomBytes(8 * LEAF + 321);
+        File file = createFile(data);
+        String expected = FileUtils.getTreeHash(file, ALGO, LEAF);
+        int position = 3 * LEAF + 500;
+        TreeHash first = new TreeHash(ALGO, LEAF);
+        feed(first, data, 0, position, 700);
+        String checkpoint = first.getCheckpoint();
+        // algorithm, leaf size and the complete leaves only
+        assertEquals(2 + 3, checkpoint.split(",").length);
+        assertTrue(checkpoint.startsWith(ALGO.name + "," + LEAF + ","));
+
+        TreeHash second = TreeHash.resume(checkpoint, ALGO, LEAF, file, position);
+        assertEquals(position, second.getLength());
+        feed(second, data, position, data.length, 700);
+        assertEquals(expected, second.getRoot());
+        assertEquals(first.getCheckpoint(), checkpoint);
+    }
+
+    @Test
+    public void testResumeBeforeCheckpointEnd() throws Exception {
+        byte[] data = randomBytes(8 * LEAF);
+        File file = createFile(data);
+        TreeHash first = new TreeHash(ALGO, LEAF);
+        feed(first, data, 0, 6 * LEAF, LEAF);
+        // the rank was moved back: only the leaves before the position are kept
+        int position = 2 * LEAF + 10;
+        TreeHash second = TreeHash.resume(first.getCheckpoint(), ALGO, LEAF, file, position);
+        assertEquals(position, second.getLength());
+        feed(second, data, position, data.length, 1000);
+        assertEquals(FileUtils.getTreeHash(file, ALGO, LEAF), second.getRoot());
+    }
+
+    @Test
+    public void testResumeWithUnusableCheckpoint() throws Exception {
+        byte[] data = randomBytes(5 * LEAF + 5);
+        File file = createFile(data);
+        String expected = FileUtils.getTreeHash(file, ALGO, LEAF);
+        TreeHash first = new TreeHash(ALGO, LEAF);
+        feed(first, data, 0, 4 * LEAF, LEAF);
+        String checkpoint = first.getCheckpoint();
+        String[] unusables = new String[] {
+                null,
+                "",
+                "garbage",
+                DigestAlgo.MD5.name + checkpoint.substring(checkpoint.indexOf(',')),
+                checkpoint.replaceFirst("," + LEAF + ",", "," + (LEAF * 2) + ","),
+                checkpoint.substring(0, checkpoint.length() - 1),
+                checkpoint.substring(0, checkpoint.length() - 2) + "zz" };
+        int position = 4 * LEAF;
+        for (String unusable : unusables) {
+            TreeHash second = TreeHash.resume(unusable, ALGO, LEAF, file, position);
+            assertEquals(unusable, position, second.getLength());
+            feed(second, data, position, data.length, LEAF);
+            assertEquals(unusable, expected, second.getRoot());
+        }
+    }
+
+    @Test
+    public void testCheckpointIsBounded() throws Exception {
+        int leafSize = 16;
+        byte[] data = randomBytes((TreeHash.MAXCHECKPOINTLEAVES + 50) * leafSize + 3);
+        File file = createFile(data);
+        TreeHash first = new TreeHash(ALGO, leafSize);
+        int position = data.length - 3;
+        feed(first, data, 0, position, 100);
+        String checkpoint = first.getCheckpoint();
+        assertEquals(2 + TreeHash.MAXCHECKPOINTLEAVES, checkpoint.split(",").length);
+
+        TreeHash second = TreeHash.resume(checkpoint, ALGO, leafSize, file, position);
+        assertEquals(position, second.getLength());
+        feed(second, data, position, data.length, 100);
+        assertEquals(FileUtils.getTreeHash(file, ALGO, leafSize), second.getRoot());
+    }
+}